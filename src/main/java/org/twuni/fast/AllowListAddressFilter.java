@@ -0,0 +1,128 @@
+package org.twuni.fast;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.twuni.fast.exception.FASTUnknownAddressException;
+import org.twuni.fast.util.BloomFilter;
+import org.twuni.fast.util.ByteArrayKey;
+
+/**
+ * An address verifier that accepts only the addresses listed in a file, one
+ * per line. Blank lines and lines beginning with {@code #} are ignored. The
+ * addresses are held in a hashed set behind a Bloom filter, so most unknown
+ * addresses are rejected without even being copied, and verifying an address
+ * takes constant time however long the list is. The list may be reloaded at
+ * any time; verification continues against the old list until the new one is
+ * complete, and then switches to it atomically.
+ */
+public class AllowListAddressFilter implements AddressVerifier {
+
+	private static class Snapshot {
+
+		final BloomFilter filter;
+		final Set<ByteArrayKey> addresses;
+		final long lastModified;
+
+		Snapshot( List<byte []> addresses, long lastModified ) {
+			filter = new BloomFilter( Math.max( 1, addresses.size() ), 0.01 );
+			this.addresses = new HashSet<ByteArrayKey>( addresses.size() * 2 );
+			for( byte [] address : addresses ) {
+				filter.add( address );
+				this.addresses.add( new ByteArrayKey( address ) );
+			}
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	private final File file;
+	private final byte [][] fixedAddresses;
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Initializes this verifier with the addresses listed in the given
+	 * {@code file}, together with the given {@code fixedAddresses}, which
+	 * remain acceptable whatever the file contains.
+	 *
+	 * @param file
+	 *            the file listing the acceptable addresses.
+	 * @param fixedAddresses
+	 *            further addresses to accept.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public AllowListAddressFilter( File file, byte []... fixedAddresses ) throws IOException {
+		this.file = file;
+		this.fixedAddresses = fixedAddresses;
+		reload();
+	}
+
+	/**
+	 * Reads the file again, replacing the current list once the new one has
+	 * been loaded in full.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read, in which case the current list
+	 *             remains in use.
+	 */
+	public void reload() throws IOException {
+		long lastModified = file.lastModified();
+		List<byte []> addresses = new ArrayList<byte []>( Arrays.asList( fixedAddresses ) );
+		BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+		try {
+			for( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+				line = line.trim();
+				if( line.length() > 0 && !line.startsWith( "#" ) ) {
+					addresses.add( line.getBytes( "UTF-8" ) );
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		snapshot = new Snapshot( addresses, lastModified );
+	}
+
+	/**
+	 * Reloads the file if it has been modified since it was last read.
+	 *
+	 * @return {@code true} if the file was reloaded. Otherwise returns
+	 *         {@code false}.
+	 * @throws IOException
+	 *             if the file cannot be read, in which case the current list
+	 *             remains in use.
+	 */
+	public boolean reloadIfModified() throws IOException {
+		if( file.lastModified() == snapshot.lastModified ) {
+			return false;
+		}
+		reload();
+		return true;
+	}
+
+	/**
+	 * Returns the number of acceptable addresses.
+	 *
+	 * @return the number of acceptable addresses.
+	 */
+	public int size() {
+		return snapshot.addresses.size();
+	}
+
+	@Override
+	public void verifyAddress( byte [] address ) {
+		Snapshot s = snapshot;
+		if( !s.filter.mightContain( address ) || !s.addresses.contains( new ByteArrayKey( address ) ) ) {
+			throw new FASTUnknownAddressException();
+		}
+	}
+
+}
@@ -1,13 +1,25 @@
 package org.twuni.fast;
 
+import java.security.SecureRandom;
+
 /**
  * Generates and returns a random session ID when session creation is requested.
+ * Since a session ID is enough to resume a session, it is drawn from a secure
+ * random number generator and is long enough that it cannot be guessed.
  */
 public class AnonymousSessionFactory implements SessionFactory {
 
+	private static final SecureRandom RANDOM = new SecureRandom();
+
 	@Override
 	public byte [] createSession( byte [] address ) {
-		return Integer.toHexString( (int) Math.floor( Math.random() * 0x7FFFFFFF ) ).getBytes();
+		byte [] random = new byte [16];
+		RANDOM.nextBytes( random );
+		StringBuilder sessionID = new StringBuilder( random.length * 2 );
+		for( byte b : random ) {
+			sessionID.append( Character.forDigit( b >> 4 & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+		}
+		return sessionID.toString().getBytes();
 	}
 
 }
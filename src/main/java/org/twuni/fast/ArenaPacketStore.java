@@ -0,0 +1,544 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.PacketSerializer;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.Metrics;
+
+/**
+ * Holds packets off the heap, within the limits of a {@link MailboxPolicy}.
+ * Each packet is serialized into a slot of a direct-memory arena, the slot
+ * being the smallest power of two, from 64 bytes, which fits it. Arenas are
+ * carved into slots of a single size and freed slots are reused, so memory
+ * does not fragment. Each address's queue is a ring of {@code long} slot
+ * handles, and a second ring holds every handle in order of arrival for
+ * eviction and expiry, so the heap holds a few objects per address rather than
+ * several per packet, and the number of packets held has little effect on
+ * garbage collection. A {@link Packet} is materialized only when it is taken.
+ * <p>
+ * Arenas of the smaller slot sizes are kept for reuse once allocated; an arena
+ * holding a single packet larger than an arena is released when that packet
+ * is taken. This store records the same metrics as {@link MemoryPacketStore},
+ * as well as counter {@code mailbox.arena.bytes}, holding the number of bytes
+ * currently allocated to arenas.
+ * </p>
+ */
+public class ArenaPacketStore implements PacketStore {
+
+	/**
+	 * The default size, in bytes, of each arena.
+	 */
+	public static final int DEFAULT_ARENA_SIZE = 1024 * 1024;
+
+	private static final int MIN_SLOT_SIZE = 64;
+	private static final int MAX_SLOT_SIZE = 1 << 30;
+	private static final int HEADER_LENGTH = 20;
+
+	private static class SizeClass {
+
+		final int slotSize;
+		final int slotsPerArena;
+		final List<ByteBuffer> arenas = new ArrayList<ByteBuffer>();
+		long [] free = new long [16];
+		int freeCount;
+
+		SizeClass( int slotSize, int arenaSize ) {
+			this.slotSize = slotSize;
+			slotsPerArena = Math.max( 1, arenaSize / slotSize );
+		}
+
+	}
+
+	private static class AddressQueue {
+
+		final byte [] address;
+		final ByteArrayKey key;
+		long [] handles = new long [4];
+		int head;
+		int size;
+		long bytes;
+
+		AddressQueue( byte [] address, ByteArrayKey key ) {
+			this.address = address;
+			this.key = key;
+		}
+
+		void add( long handle ) {
+			if( size == handles.length ) {
+				long [] grown = new long [handles.length * 2];
+				for( int i = 0; i < size; i++ ) {
+					grown[i] = handles[( head + i ) % handles.length];
+				}
+				handles = grown;
+				head = 0;
+			}
+			handles[( head + size ) % handles.length] = handle;
+			size++;
+		}
+
+		long peek() {
+			return handles[head];
+		}
+
+		void poll() {
+			head = ( head + 1 ) % handles.length;
+			size--;
+		}
+
+	}
+
+	private static int classOf( int length ) {
+		int c = 0;
+		while( MIN_SLOT_SIZE << c < length ) {
+			c++;
+		}
+		return c;
+	}
+
+	private static long handle( int sizeClass, int arena, int slot ) {
+		return (long) sizeClass << 56 | (long) arena << 32 | slot & 0xFFFFFFFFL;
+	}
+
+	private final MailboxPolicy policy;
+	private final HashedWheelTimer timer;
+	private final Metrics metrics;
+	private final int arenaSize;
+	private final SizeClass [] classes = new SizeClass [32];
+	private final Map<ByteArrayKey, AddressQueue> mailboxes = new HashMap<ByteArrayKey, AddressQueue>();
+
+	// Pairs of slot handle and sequence number, in order of arrival. Pairs
+	// whose slot has since been freed are skipped, and squeezed out once they
+	// outnumber the live ones.
+	private long [] order = new long [64];
+	private int orderHead;
+	private int orderSize;
+
+	// Also the cursor of each packet, starting from the time the store was
+	// initialized, in microseconds, so that cursors keep increasing when the
+	// store is replaced after a restart.
+	private long sequence = System.currentTimeMillis() * 1000;
+	private int packetCount;
+	private long byteCount;
+	private long arenaBytes;
+	private HashedWheelTimer.Timeout reaper;
+
+	private final Runnable reap = new Runnable() {
+
+		@Override
+		public void run() {
+			reap();
+		}
+
+	};
+
+	/**
+	 * Initializes a store with the given {@code policy} and the default arena
+	 * size.
+	 *
+	 * @param policy
+	 *            the limits within which packets are held.
+	 * @param timer
+	 *            the timer on which expired packets are discarded.
+	 * @param metrics
+	 *            the registry in which the store records its metrics.
+	 */
+	public ArenaPacketStore( MailboxPolicy policy, HashedWheelTimer timer, Metrics metrics ) {
+		this( policy, timer, metrics, DEFAULT_ARENA_SIZE );
+	}
+
+	/**
+	 * Initializes a store with the given {@code policy}.
+	 *
+	 * @param policy
+	 *            the limits within which packets are held.
+	 * @param timer
+	 *            the timer on which expired packets are discarded.
+	 * @param metrics
+	 *            the registry in which the store records its metrics.
+	 * @param arenaSize
+	 *            the size, in bytes, of each direct-memory arena.
+	 */
+	public ArenaPacketStore( MailboxPolicy policy, HashedWheelTimer timer, Metrics metrics, int arenaSize ) {
+		this.policy = policy;
+		this.timer = timer;
+		this.metrics = metrics;
+		this.arenaSize = arenaSize;
+	}
+
+	@Override
+	public void acknowledge( byte [] address, long cursor ) {
+		int delivered = 0;
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			while( mailbox != null && arena( mailbox.peek() ).getLong( offset( mailbox.peek() ) ) <= cursor ) {
+				remove( mailbox );
+				delivered++;
+				if( mailbox.size == 0 ) {
+					mailbox = null;
+				}
+			}
+		}
+		if( delivered > 0 ) {
+			metrics.counter( "mailbox.delivered" ).addAndGet( delivered );
+		}
+	}
+
+	private long allocate( int length ) {
+
+		int c = classOf( length );
+		SizeClass sizeClass = classes[c];
+		if( sizeClass == null ) {
+			sizeClass = classes[c] = new SizeClass( MIN_SLOT_SIZE << c, arenaSize );
+		}
+
+		if( sizeClass.freeCount == 0 ) {
+			int arena = sizeClass.arenas.size();
+			sizeClass.arenas.add( null );
+			if( sizeClass.free.length < sizeClass.slotsPerArena ) {
+				long [] grown = new long [Math.max( sizeClass.free.length * 2, sizeClass.slotsPerArena )];
+				System.arraycopy( sizeClass.free, 0, grown, 0, sizeClass.freeCount );
+				sizeClass.free = grown;
+			}
+			for( int slot = sizeClass.slotsPerArena - 1; slot >= 0; slot-- ) {
+				sizeClass.free[sizeClass.freeCount++] = handle( c, arena, slot );
+			}
+		}
+
+		long handle = sizeClass.free[--sizeClass.freeCount];
+		int arena = (int) ( handle >>> 32 & 0xFFFFFF );
+		if( sizeClass.arenas.get( arena ) == null ) {
+			int capacity = sizeClass.slotsPerArena * sizeClass.slotSize;
+			sizeClass.arenas.set( arena, ByteBuffer.allocateDirect( capacity ) );
+			arenaBytes += capacity;
+		}
+		return handle;
+
+	}
+
+	private ByteBuffer arena( long handle ) {
+		return classes[(int) ( handle >>> 56 )].arenas.get( (int) ( handle >>> 32 & 0xFFFFFF ) );
+	}
+
+	private int offset( long handle ) {
+		return (int) handle * classes[(int) ( handle >>> 56 )].slotSize;
+	}
+
+	private void free( long handle ) {
+		SizeClass sizeClass = classes[(int) ( handle >>> 56 )];
+		int arena = (int) ( handle >>> 32 & 0xFFFFFF );
+		arena( handle ).putLong( offset( handle ), 0 );
+		if( sizeClass.slotsPerArena == 1 ) {
+			sizeClass.arenas.set( arena, null );
+			arenaBytes -= sizeClass.slotSize;
+		}
+		if( sizeClass.freeCount == sizeClass.free.length ) {
+			long [] grown = new long [sizeClass.free.length * 2];
+			System.arraycopy( sizeClass.free, 0, grown, 0, sizeClass.freeCount );
+			sizeClass.free = grown;
+		}
+		sizeClass.free[sizeClass.freeCount++] = handle;
+	}
+
+	@Override
+	public synchronized List<byte []> getQueuedAddresses() {
+		List<byte []> addresses = new ArrayList<byte []>( mailboxes.size() );
+		for( AddressQueue mailbox : mailboxes.values() ) {
+			addresses.add( mailbox.address );
+		}
+		return addresses;
+	}
+
+	private boolean isLive( long handle, long seq ) {
+		ByteBuffer arena = arena( handle );
+		return arena != null && arena.getLong( offset( handle ) ) == seq;
+	}
+
+	/**
+	 * Returns the handle of the oldest packet held, discarding the entries of
+	 * packets which have already left the store, or {@code -1} if the store is
+	 * empty.
+	 */
+	private long oldest() {
+		while( orderSize > 0 ) {
+			long handle = order[orderHead * 2];
+			if( isLive( handle, order[orderHead * 2 + 1] ) ) {
+				return handle;
+			}
+			orderHead = ( orderHead + 1 ) % ( order.length / 2 );
+			orderSize--;
+		}
+		return -1;
+	}
+
+	@Override
+	public synchronized long peek( byte [] address, long cursor, int maxPackets, long maxBytes, List<Packet> page ) {
+		AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+		if( mailbox == null ) {
+			return cursor;
+		}
+		long now = System.currentTimeMillis();
+		long last = cursor;
+		int packets = 0;
+		long bytes = 0;
+		for( int i = 0; i < mailbox.size; i++ ) {
+			long handle = mailbox.handles[( mailbox.head + i ) % mailbox.handles.length];
+			ByteBuffer arena = arena( handle );
+			int offset = offset( handle );
+			long seq = arena.getLong( offset );
+			int length = arena.getInt( offset + 16 );
+			if( seq <= cursor || arena.getLong( offset + 8 ) <= now ) {
+				continue;
+			}
+			if( packets > 0 && ( maxPackets > 0 && packets >= maxPackets || maxBytes > 0 && bytes + length > maxBytes ) ) {
+				break;
+			}
+			page.add( read( handle ) );
+			last = seq;
+			packets++;
+			bytes += length;
+		}
+		return last;
+	}
+
+	private void record( long handle, long seq ) {
+		int capacity = order.length / 2;
+		if( orderSize == capacity || orderSize > packetCount * 2 + 1024 ) {
+			// Squeeze out the entries of packets which have left the store,
+			// growing the ring if it is still too small.
+			long [] squeezed = new long [Math.max( order.length, ( packetCount + 1 ) * 4 )];
+			int n = 0;
+			for( int i = 0; i < orderSize; i++ ) {
+				int j = ( orderHead + i ) % capacity;
+				if( isLive( order[j * 2], order[j * 2 + 1] ) ) {
+					squeezed[n * 2] = order[j * 2];
+					squeezed[n * 2 + 1] = order[j * 2 + 1];
+					n++;
+				}
+			}
+			order = squeezed;
+			orderHead = 0;
+			orderSize = n;
+			capacity = order.length / 2;
+		}
+		int i = ( orderHead + orderSize ) % capacity;
+		order[i * 2] = handle;
+		order[i * 2 + 1] = seq;
+		orderSize++;
+	}
+
+	private void reap() {
+		int expired = 0;
+		synchronized( this ) {
+			reaper = null;
+			long now = System.currentTimeMillis();
+			for( long handle = oldest(); handle != -1 && arena( handle ).getLong( offset( handle ) + 8 ) <= now; handle = oldest() ) {
+				removeOldest( handle );
+				expired++;
+			}
+			schedule();
+		}
+		metrics.counter( "mailbox.expired" ).addAndGet( expired );
+	}
+
+	private Packet read( long handle ) {
+		ByteBuffer b = arena( handle ).duplicate();
+		b.position( offset( handle ) + 16 );
+		byte [] bytes = new byte [b.getInt()];
+		b.get( bytes );
+		try {
+			return PacketSerializer.read( new ByteArrayInputStream( bytes ) );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	private void remove( AddressQueue mailbox ) {
+		long handle = mailbox.peek();
+		int length = arena( handle ).getInt( offset( handle ) + 16 );
+		mailbox.poll();
+		mailbox.bytes -= length;
+		if( mailbox.size == 0 ) {
+			mailboxes.remove( mailbox.key );
+		}
+		free( handle );
+		packetCount--;
+		byteCount -= length;
+		updateTotals();
+	}
+
+	/**
+	 * Removes the packet with the given {@code handle}, the oldest held, which
+	 * is therefore also the oldest held for its address. The address for which
+	 * the packet is held follows the packet in its slot, since it is not
+	 * always the packet's destination.
+	 */
+	private void removeOldest( long handle ) {
+		ByteBuffer b = arena( handle );
+		int offset = offset( handle ) + HEADER_LENGTH + b.getInt( offset( handle ) + 16 );
+		byte [] address = new byte [b.get( offset ) & 0xFF];
+		for( int i = 0; i < address.length; i++ ) {
+			address[i] = b.get( offset + 1 + i );
+		}
+		remove( mailboxes.get( new ByteArrayKey( address ) ) );
+	}
+
+	private void schedule() {
+		if( reaper == null && policy.getTimeToLive() > 0 ) {
+			long handle = oldest();
+			if( handle != -1 ) {
+				reaper = timer.schedule( reap, arena( handle ).getLong( offset( handle ) + 8 ) - System.currentTimeMillis(), TimeUnit.MILLISECONDS );
+			}
+		}
+	}
+
+	@Override
+	public boolean store( Packet packet ) {
+		return store( packet.getTo(), packet );
+	}
+
+	@Override
+	public boolean store( byte [] address, Packet packet ) {
+
+		// The packet is held as serialized by PacketSerializer, which is its
+		// frame without the command.
+		byte [] frame;
+		try {
+			frame = PacketSerializer.getFrame( packet );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+
+		int size = frame.length - 1;
+		ByteArrayKey key = new ByteArrayKey( address );
+		boolean reject = policy.getEviction() == MailboxPolicy.Eviction.REJECT_NEW;
+		int evicted = 0;
+
+		synchronized( this ) {
+
+			AddressQueue mailbox = mailboxes.get( key );
+			int mailboxPackets = mailbox != null ? mailbox.size : 0;
+			long mailboxBytes = mailbox != null ? mailbox.bytes : 0;
+
+			if( HEADER_LENGTH + size + 1 + address.length > MAX_SLOT_SIZE || policy.isAddressOverLimit( 1, size ) || policy.isOverLimit( 1, size ) ) {
+				reject = true;
+			} else if( reject ) {
+				reject = policy.isAddressOverLimit( mailboxPackets + 1, mailboxBytes + size ) || policy.isOverLimit( packetCount + 1, byteCount + size );
+			} else {
+				while( mailbox != null && policy.isAddressOverLimit( mailbox.size + 1, mailbox.bytes + size ) ) {
+					remove( mailbox );
+					evicted++;
+					if( mailbox.size == 0 ) {
+						mailbox = null;
+					}
+				}
+				for( long handle = oldest(); handle != -1 && policy.isOverLimit( packetCount + 1, byteCount + size ); handle = oldest() ) {
+					removeOldest( handle );
+					evicted++;
+					if( mailbox != null && mailbox.size == 0 ) {
+						mailbox = null;
+					}
+				}
+			}
+
+			if( !reject ) {
+
+				if( mailbox == null ) {
+					mailbox = new AddressQueue( address, key );
+					mailboxes.put( key, mailbox );
+				}
+
+				long seq = ++sequence;
+				long expiresAt = policy.getTimeToLive() > 0 ? System.currentTimeMillis() + policy.getTimeToLive() : Long.MAX_VALUE;
+				long handle = allocate( HEADER_LENGTH + size + 1 + address.length );
+				ByteBuffer b = arena( handle ).duplicate();
+				b.position( offset( handle ) );
+				b.putLong( seq );
+				b.putLong( expiresAt );
+				b.putInt( size );
+				b.put( frame, 1, size );
+				b.put( (byte) address.length );
+				b.put( address );
+
+				mailbox.add( handle );
+				mailbox.bytes += size;
+				record( handle, seq );
+
+				packetCount++;
+				byteCount += size;
+				updateTotals();
+				schedule();
+
+			}
+
+		}
+
+		if( evicted > 0 ) {
+			metrics.counter( "mailbox.evicted" ).addAndGet( evicted );
+		}
+		metrics.counter( reject ? "mailbox.rejected" : "mailbox.stored" ).incrementAndGet();
+		return !reject;
+
+	}
+
+	@Override
+	public Packet take( byte [] address ) {
+
+		Packet packet = null;
+		int expired = 0;
+
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			long now = System.currentTimeMillis();
+			while( mailbox != null && packet == null ) {
+				long handle = mailbox.peek();
+				if( arena( handle ).getLong( offset( handle ) + 8 ) <= now ) {
+					expired++;
+				} else {
+					packet = read( handle );
+				}
+				remove( mailbox );
+				if( mailbox.size == 0 ) {
+					mailbox = null;
+				}
+			}
+		}
+
+		if( expired > 0 ) {
+			metrics.counter( "mailbox.expired" ).addAndGet( expired );
+		}
+		if( packet != null ) {
+			metrics.counter( "mailbox.delivered" ).incrementAndGet();
+		}
+		return packet;
+
+	}
+
+	@Override
+	public long transfer( byte [] address, long cursor, int maxPackets, long maxBytes, WriteChannel channel ) {
+		List<Packet> page = new ArrayList<Packet>();
+		long last = peek( address, cursor, maxPackets, maxBytes, page );
+		if( !page.isEmpty() ) {
+			channel.send( page.toArray( new Packet [page.size()] ) );
+		}
+		return last;
+	}
+
+	private void updateTotals() {
+		metrics.counter( "mailbox.packets" ).set( packetCount );
+		metrics.counter( "mailbox.bytes" ).set( byteCount );
+		metrics.counter( "mailbox.arena.bytes" ).set( arenaBytes );
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.twuni.fast;
+
+import org.twuni.fast.exception.FASTInvalidCredentialException;
+
+/**
+ * Authenticates a credential without blocking the caller, mapping it to a
+ * local address once the verification completes. This suits authenticators
+ * which consult a slow store, since the connection's reader thread need not
+ * wait on it.
+ *
+ * @see ExecutorAuthenticator
+ * @see AuthenticationGate
+ */
+public interface AsyncAuthenticator {
+
+	/**
+	 * Receives the outcome of an asynchronous authentication.
+	 */
+	public interface Callback {
+
+		/**
+		 * Called when the credential has been accepted.
+		 *
+		 * @param address
+		 *            the address for which the credential is authenticated.
+		 */
+		public void onAuthenticated( byte [] address );
+
+		/**
+		 * Called when the credential could not be authenticated.
+		 *
+		 * @param exception
+		 *            the reason the credential was not authenticated, such as
+		 *            a {@link FASTInvalidCredentialException}.
+		 */
+		public void onFailure( RuntimeException exception );
+
+	}
+
+	/**
+	 * Begins authenticating the given {@code credential}, notifying the given
+	 * {@code callback} exactly once when it completes. The callback may be
+	 * called from any thread, including the calling one.
+	 *
+	 * @param realm
+	 *            the realm for which the given credential should be valid.
+	 * @param credential
+	 *            the credential for which authentication is being requested.
+	 * @param callback
+	 *            the callback to notify of the outcome.
+	 */
+	public void authenticate( byte [] realm, byte [] credential, Callback callback );
+
+}
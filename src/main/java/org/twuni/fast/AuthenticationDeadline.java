@@ -0,0 +1,92 @@
+package org.twuni.fast;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.util.HashedWheelTimer;
+
+/**
+ * Closes the connection of a remote endpoint which has not authenticated
+ * within a fixed time after connecting, so that a client which connects and
+ * then dawdles cannot hold a connection indefinitely. This handler must follow
+ * the authenticating handler in the chain, so that it observes a credential
+ * only once the credential has been accepted. A resumed session counts as
+ * authenticated.
+ */
+public class AuthenticationDeadline extends EventHandlerBase {
+
+	private final WriteChannel channel;
+	private final Closeable connection;
+	private final HashedWheelTimer timer;
+	private final long timeout;
+	private HashedWheelTimer.Timeout pending;
+
+	/**
+	 * Initializes this handler to close the given {@code connection} unless
+	 * the remote endpoint authenticates within {@code timeout} milliseconds of
+	 * connecting.
+	 *
+	 * @param channel
+	 *            the channel whose remote address is set once the remote
+	 *            endpoint has authenticated.
+	 * @param connection
+	 *            the connection to close, such as the socket's input stream.
+	 * @param timer
+	 *            the timer on which the deadline is scheduled.
+	 * @param timeout
+	 *            how long, in milliseconds, the remote endpoint may take to
+	 *            authenticate, or zero for no limit.
+	 */
+	public AuthenticationDeadline( WriteChannel channel, Closeable connection, HashedWheelTimer timer, long timeout ) {
+		this.channel = channel;
+		this.connection = connection;
+		this.timer = timer;
+		this.timeout = timeout;
+	}
+
+	private synchronized void cancel() {
+		if( pending != null ) {
+			pending.cancel();
+			pending = null;
+		}
+	}
+
+	@Override
+	public synchronized void onConnected() {
+		if( timeout <= 0 || pending != null ) {
+			return;
+		}
+		pending = timer.schedule( new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					connection.close();
+				} catch( IOException ignore ) {
+					// Ignore.
+				}
+			}
+
+		}, timeout, TimeUnit.MILLISECONDS );
+	}
+
+	@Override
+	public void onCredentialReceived( byte [] credential ) {
+		cancel();
+	}
+
+	@Override
+	public void onDisconnected() {
+		cancel();
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		if( channel.getRemoteAddress() != null ) {
+			cancel();
+		}
+	}
+
+}
@@ -0,0 +1,501 @@
+package org.twuni.fast;
+
+import java.util.LinkedList;
+
+import org.twuni.fast.exception.FASTInvalidCredentialException;
+import org.twuni.fast.exception.FASTReadException;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * Sits in front of a session's event handler and moves authentication off the
+ * connection's reader thread. When a credential arrives, it is handed to an
+ * {@link AsyncAuthenticator} and every later event from the session is held,
+ * in order, until the verification completes. The credential is then passed on
+ * to the wrapped handler, followed by the held events. The wrapped handler's
+ * {@link ServerAuthenticator} should use this gate as its {@link Authenticator}
+ * so that it receives the outcome of the verification which just completed,
+ * and the rest of the chain sees the credential only once it has been
+ * accepted, exactly as with a blocking authenticator.
+ * <p>
+ * At most {@value #MAX_HELD_EVENTS} events, carrying at most
+ * {@value #MAX_HELD_BYTES} bytes of packets, are held while a credential is
+ * being verified. A remote endpoint which sends more than that before it has
+ * been authenticated is disconnected. Once the verification completes, the
+ * held events are passed on by the thread which completed it, and the reader
+ * thread waits for room rather than holding more than that.
+ * </p>
+ */
+public class AuthenticationGate implements EventHandler, Authenticator {
+
+	/**
+	 * The largest number of events held while a credential is verified.
+	 */
+	public static final int MAX_HELD_EVENTS = 256;
+
+	/**
+	 * The largest number of bytes of packet payloads held while a credential
+	 * is verified.
+	 */
+	public static final long MAX_HELD_BYTES = 1 << 20;
+
+	private static class Held {
+
+		final Runnable event;
+		final long size;
+
+		Held( Runnable event, long size ) {
+			this.event = event;
+			this.size = size;
+		}
+
+	}
+
+	private final WriteChannel channel;
+	private final AsyncAuthenticator authenticator;
+	private final LinkedList<Held> held = new LinkedList<Held>();
+	private EventHandler eventHandler = new EventHandlerBase();
+	private long heldBytes;
+	private boolean paused;
+	private boolean dispatching;
+	private byte [] verifiedCredential;
+	private byte [] verifiedAddress;
+	private RuntimeException failure;
+
+	/**
+	 * Initializes this gate to verify each credential received along the given
+	 * {@code channel} with the given {@code authenticator}.
+	 *
+	 * @param channel
+	 *            the channel whose local address is the realm in which
+	 *            credentials are verified.
+	 * @param authenticator
+	 *            the authenticator responsible for verifying credentials.
+	 */
+	public AuthenticationGate( WriteChannel channel, AsyncAuthenticator authenticator ) {
+		this.channel = channel;
+		this.authenticator = authenticator;
+	}
+
+	@Override
+	public synchronized byte [] authenticate( byte [] realm, byte [] credential ) {
+		try {
+			if( failure != null ) {
+				throw failure;
+			}
+			if( verifiedCredential == null || verifiedCredential != credential ) {
+				throw new FASTInvalidCredentialException();
+			}
+			return verifiedAddress;
+		} finally {
+			verifiedCredential = null;
+			verifiedAddress = null;
+			failure = null;
+		}
+	}
+
+	private void dispatch( Runnable event ) {
+		dispatch( event, 0, true );
+	}
+
+	/**
+	 * Passes the given {@code event} on, after any events already held, or
+	 * holds it if a credential is being verified or another thread is passing
+	 * events on. A {@code bounded} event which would exceed the limits on held
+	 * events disconnects the remote endpoint while a credential is being
+	 * verified, and otherwise waits for room.
+	 *
+	 * @param size
+	 *            the number of bytes of packets the event carries.
+	 * @param bounded
+	 *            whether the event counts toward the limits on held events,
+	 *            which only events that end the session do not.
+	 */
+	private void dispatch( Runnable event, long size, boolean bounded ) {
+		synchronized( this ) {
+			if( bounded ) {
+				boolean interrupted = false;
+				while( ( paused || dispatching ) && ( held.size() >= MAX_HELD_EVENTS || heldBytes + size > MAX_HELD_BYTES ) ) {
+					if( paused ) {
+						throw new FASTReadException( "Too many commands sent while authenticating." );
+					}
+					try {
+						wait();
+					} catch( InterruptedException exception ) {
+						interrupted = true;
+					}
+				}
+				if( interrupted ) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			held.add( new Held( event, size ) );
+			heldBytes += size;
+			if( paused || dispatching ) {
+				return;
+			}
+			dispatching = true;
+		}
+		drain();
+	}
+
+	/**
+	 * Passes held events on until none are left or a credential is being
+	 * verified. Only the thread which set {@code dispatching} may call this
+	 * method, and it is always cleared again, even if an event fails.
+	 */
+	private void drain() {
+		try {
+			while( true ) {
+				Held next;
+				synchronized( this ) {
+					next = paused ? null : held.poll();
+					if( next == null ) {
+						dispatching = false;
+						return;
+					}
+					heldBytes -= next.size;
+					notifyAll();
+				}
+				next.event.run();
+			}
+		} finally {
+			synchronized( this ) {
+				dispatching = false;
+				notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public void onAcknowledgmentReceived( final int n ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onAcknowledgmentReceived( n );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onAcknowledgmentRequested() {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onAcknowledgmentRequested();
+			}
+
+		} );
+	}
+
+	@Override
+	public void onAttachRequested( final byte [] address ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onAttachRequested( address );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onConnected() {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onConnected();
+			}
+
+		} );
+	}
+
+	@Override
+	public void onCredentialReceived( final byte [] credential ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized( AuthenticationGate.this ) {
+					paused = true;
+				}
+				authenticator.authenticate( channel.getLocalAddress(), credential, new AsyncAuthenticator.Callback() {
+
+					@Override
+					public void onAuthenticated( byte [] address ) {
+						synchronized( AuthenticationGate.this ) {
+							verifiedCredential = credential;
+							verifiedAddress = address;
+						}
+						resume( credential );
+					}
+
+					@Override
+					public void onFailure( RuntimeException exception ) {
+						synchronized( AuthenticationGate.this ) {
+							failure = exception;
+						}
+						resume( credential );
+					}
+
+				} );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onCreditReceived( final int n ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onCreditReceived( n );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onCursorReceived( final long cursor ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onCursorReceived( cursor );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onDisconnected() {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onDisconnected();
+			}
+
+		}, 0, false );
+	}
+
+	@Override
+	public void onException( final Throwable exception ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onException( exception );
+			}
+
+		}, 0, false );
+	}
+
+	@Override
+	public void onFetchFromRequested( final long cursor, final int maxPackets, final int maxBytes ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onFetchFromRequested( cursor, maxPackets, maxBytes );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onFetchRequested() {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onFetchRequested();
+			}
+
+		} );
+	}
+
+	@Override
+	public void onIdentityReceived( final byte [] identity ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onIdentityReceived( identity );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onPacketReceived( final Packet packet ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onPacketReceived( packet );
+			}
+
+		}, packet.getPayload().getLimit(), true );
+	}
+
+	@Override
+	public void onPacketSent( final Packet packet ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onPacketSent( packet );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onPacketTransferred( final int length ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onPacketTransferred( length );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onPingReceived( final long payload ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onPingReceived( payload );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onPongReceived( final long payload ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onPongReceived( payload );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onResumeRequested( final byte [] sessionID, final int n ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onResumeRequested( sessionID, n );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onSessionCreated( final byte [] sessionID ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onSessionCreated( sessionID );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onSessionResumed( final byte [] sessionID, final int n ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onSessionResumed( sessionID, n );
+			}
+
+		} );
+	}
+
+	/**
+	 * Delivers the credential whose verification just completed to the
+	 * wrapped handler, followed by any events held while it was pending. This
+	 * runs on the thread which completed the verification, so a failure of the
+	 * wrapped handler is reported to it as an exception, as the reader thread
+	 * would, rather than thrown at the authenticator.
+	 */
+	private void resume( final byte [] credential ) {
+		Runnable event = new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onCredentialReceived( credential );
+			}
+
+		};
+		synchronized( this ) {
+			paused = false;
+			held.addFirst( new Held( event, 0 ) );
+			notifyAll();
+			if( dispatching ) {
+				return;
+			}
+			dispatching = true;
+		}
+		try {
+			drain();
+		} catch( RuntimeException exception ) {
+			eventHandler.onException( exception );
+		}
+	}
+
+	/**
+	 * Sets the event handler to which events are passed once they are no
+	 * longer held.
+	 *
+	 * @param eventHandler
+	 *            the event handler to which events are passed.
+	 * @return this object, for chaining commands.
+	 */
+	public AuthenticationGate setEventHandler( EventHandler eventHandler ) {
+		this.eventHandler = eventHandler;
+		return this;
+	}
+
+	@Override
+	public void onSubscribeRequested( final byte [] pattern ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onSubscribeRequested( pattern );
+			}
+
+		} );
+	}
+
+	@Override
+	public void onUnsubscribeRequested( final byte [] pattern ) {
+		dispatch( new Runnable() {
+
+			@Override
+			public void run() {
+				eventHandler.onUnsubscribeRequested( pattern );
+			}
+
+		} );
+	}
+
+}
@@ -1,12 +1,20 @@
 package org.twuni.fast;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.exception.FASTWriteException;
+import org.twuni.fast.io.ConcurrentWriteChannel;
 import org.twuni.fast.io.ReadChannel;
 import org.twuni.fast.io.WriteChannel;
 import org.twuni.fast.model.Packet;
@@ -16,7 +24,13 @@ import org.twuni.fast.util.IOUtils;
  * A high-level implementation of a FAST client node capable of connecting to a
  * remote server node.
  */
-public class Client {
+public class Client implements Stateful {
+
+	private static final int SERIAL_VERSION = 2;
+
+	private static byte [] orEmpty( byte [] value ) {
+		return value != null ? value : new byte [0];
+	}
 
 	/**
 	 * Builds a new {@link Client} instance.
@@ -24,11 +38,16 @@ public class Client {
 	public static class Builder {
 
 		private String host;
+		private String realm;
 		private byte [] credential;
 		private int port;
 		private boolean secure;
 		private PacketListener packetListener;
 		private ConnectionListener connectionListener;
+		private byte [] state;
+		private File journal;
+		private int fetchMaxPackets;
+		private int fetchMaxBytes;
 
 		/**
 		 * Initializes a new builder in its default state.
@@ -49,7 +68,7 @@ public class Client {
 		 *             if a network error occurs while initializing the client.
 		 */
 		public Client build() throws UnknownHostException, IOException {
-			return new Client( secure, host, port, credential, connectionListener, packetListener );
+			return new Client( this );
 		}
 
 		/**
@@ -119,6 +138,28 @@ public class Client {
 			}
 		}
 
+		/**
+		 * Configures the client to fetch pending packets a page at a time,
+		 * each page holding at most the given number of packets and bytes,
+		 * instead of all at once. The cursor of the last page received is
+		 * saved with the client's state, so a resumed client fetches from
+		 * where the previous one left off.
+		 *
+		 * @param maxPackets
+		 *            the largest number of packets in each page, or zero for no
+		 *            limit.
+		 * @param maxBytes
+		 *            the largest number of bytes of packets in each page, or
+		 *            zero for no limit.
+		 * @return this object, for chaining commands.
+		 * @see CursorFetcher
+		 */
+		public Builder fetchLimits( int maxPackets, int maxBytes ) {
+			fetchMaxPackets = maxPackets;
+			fetchMaxBytes = maxBytes;
+			return this;
+		}
+
 		/**
 		 * Configures the client to connect to the given {@code host}.
 		 *
@@ -131,6 +172,23 @@ public class Client {
 			return this;
 		}
 
+		/**
+		 * Keeps the delivery state of the client's sessions in the given
+		 * {@code journal} file, so that packets which have not been
+		 * acknowledged survive a crash. If the file already holds the journal
+		 * of a previous client, that client's session is resumed and its
+		 * unacknowledged packets are sent again.
+		 *
+		 * @param journal
+		 *            the journal file, which is created if it does not exist.
+		 * @return this object, for chaining commands.
+		 * @see ReliabilityJournal
+		 */
+		public Builder journal( File journal ) {
+			this.journal = journal;
+			return this;
+		}
+
 		/**
 		 * Notify the given {@code packetListener} whenever this client sends
 		 * and receives packets.
@@ -156,6 +214,49 @@ public class Client {
 			return this;
 		}
 
+		/**
+		 * Configures the client to attach to the given {@code realm} on the
+		 * remote node. If no realm is configured, the client attaches to the
+		 * configured host name.
+		 *
+		 * @param realm
+		 *            the realm to which the client should attach.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder realm( String realm ) {
+			this.realm = realm;
+			return this;
+		}
+
+		/**
+		 * Configures the client to resume the session of the given
+		 * {@code previous} client, which has typically lost its connection,
+		 * instead of attaching and authenticating again. Packets which either
+		 * side sent but the other did not receive are sent again. If the
+		 * remote node no longer remembers the session, the client attaches
+		 * and authenticates as usual, so a credential should still be
+		 * configured.
+		 *
+		 * @param previous
+		 *            the client whose session should be resumed, or
+		 *            {@code null} to start a new session.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder resume( Client previous ) {
+			if( previous == null ) {
+				state = null;
+				return this;
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				previous.saveState( out );
+			} catch( IOException exception ) {
+				throw new FASTException( exception );
+			}
+			state = out.toByteArray();
+			return this;
+		}
+
 		/**
 		 * Resets this builder to its uninitialized default state.
 		 *
@@ -163,11 +264,16 @@ public class Client {
 		 */
 		public Builder reset() {
 			host = null;
+			realm = null;
 			port = 4857;
 			credential = null;
 			secure = true;
 			packetListener = null;
 			connectionListener = null;
+			state = null;
+			journal = null;
+			fetchMaxPackets = -1;
+			fetchMaxBytes = -1;
 			return this;
 		}
 
@@ -190,6 +296,9 @@ public class Client {
 
 	private final WriteChannel w;
 	private final ReadChannel r;
+	private final SendCredit sendCredit = new SendCredit();
+	private final Reliability reliability;
+	private final CursorFetcher fetcher;
 
 	/**
 	 * Initializes a client to connect to the given {@code host} and
@@ -220,13 +329,49 @@ public class Client {
 	 *             if a network error occurs.
 	 */
 	protected Client( boolean secure, String host, int port, byte [] credential, ConnectionListener connectionListener, PacketListener packetListener ) throws UnknownHostException, IOException {
-		Socket socket = secure ? SSLSocketFactory.getDefault().createSocket( host, port ) : SocketFactory.getDefault().createSocket( host, port );
-		w = new WriteChannel( socket.getOutputStream() );
-		EventHandler e = new ClientEventHandler( w, credential, connectionListener, packetListener );
+		this( new Builder().secure( secure ).host( host ).port( port ).credential( credential ).connectionListener( connectionListener ).packetListener( packetListener ) );
+	}
+
+	/**
+	 * Initializes a client from the given {@code builder}'s configuration.
+	 *
+	 * @param builder
+	 *            the builder whose configuration this client should use.
+	 * @throws UnknownHostException
+	 *             if the configured host cannot be mapped to an Internet
+	 *             address.
+	 * @throws IOException
+	 *             if a network error occurs.
+	 */
+	protected Client( Builder builder ) throws UnknownHostException, IOException {
+		Socket socket = builder.secure ? SSLSocketFactory.getDefault().createSocket( builder.host, builder.port ) : SocketFactory.getDefault().createSocket( builder.host, builder.port );
+		w = new ConcurrentWriteChannel( socket.getOutputStream() );
+		reliability = new Reliability( w );
+		fetcher = builder.fetchMaxPackets >= 0 ? new CursorFetcher( w, builder.fetchMaxPackets, Math.max( 0, builder.fetchMaxBytes ) ) : null;
+		ReliabilityJournal j = builder.journal != null ? new ReliabilityJournal( builder.journal, w ) : null;
+		if( builder.state != null ) {
+			restoreState( new ByteArrayInputStream( builder.state ) );
+			if( j != null ) {
+				copyState( reliability, j );
+			}
+		} else if( j != null ) {
+			copyState( j, reliability );
+		}
+		EventHandler e = new ClientEventHandler( w, builder.credential, builder.connectionListener, builder.packetListener, sendCredit, reliability, j != null ? j : new EventHandlerBase(), fetcher );
 		r = new ReadChannel( socket.getInputStream(), e );
 		w.setEventHandler( e );
 		r.loopInBackground();
-		w.connect().attach( host ).authenticate( credential ).fetch();
+		w.connect();
+		if( w.getSessionID() != null && w.getLocalAddress() != null ) {
+			w.resume( w.getSessionID(), reliability.getReceivedPacketCount() );
+		} else {
+			w.attach( builder.realm != null ? builder.realm : builder.host ).authenticate( builder.credential );
+			if( fetcher != null ) {
+				fetcher.fetch();
+			} else {
+				w.fetch();
+			}
+		}
 	}
 
 	/**
@@ -237,6 +382,12 @@ public class Client {
 		r.disconnect();
 	}
 
+	private static void copyState( Stateful source, Stateful target ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		source.saveState( out );
+		target.restoreState( new ByteArrayInputStream( out.toByteArray() ) );
+	}
+
 	/**
 	 * Returns the local address assigned by the remote node after
 	 * authentication.
@@ -259,6 +410,34 @@ public class Client {
 		return w.getSessionID();
 	}
 
+	/**
+	 * Restores the session ID, addresses, fetch cursor and delivery state of
+	 * a previous session, so that it may be resumed.
+	 */
+	@Override
+	public void restoreState( InputStream input ) throws IOException {
+		int version = IOUtils.readInt( input );
+		switch( version ) {
+			case 1:
+			case 2:
+				byte [] sessionID = IOUtils.readSmallBuffer( input );
+				byte [] identity = IOUtils.readSmallBuffer( input );
+				byte [] realm = IOUtils.readSmallBuffer( input );
+				if( sessionID.length > 0 && identity.length > 0 ) {
+					w.setSessionID( sessionID );
+					w.setLocalAddress( identity );
+					w.setRemoteAddress( realm );
+				}
+				long cursor = version > 1 ? IOUtils.readLong( input ) : 0;
+				if( fetcher != null ) {
+					fetcher.setCursor( cursor );
+				}
+				reliability.restoreState( input );
+				break;
+			default:
+		}
+	}
+
 	/**
 	 * Sends an acknowledgment request to the remote node.
 	 */
@@ -267,13 +446,88 @@ public class Client {
 	}
 
 	/**
-	 * Sends the given {@code packets} to the remote node.
+	 * Saves the session ID, addresses, fetch cursor and delivery state of this
+	 * client's session, so that it may later be resumed.
+	 *
+	 * @see Builder#resume(Client)
+	 */
+	@Override
+	public void saveState( OutputStream output ) throws IOException {
+		IOUtils.writeInt( output, SERIAL_VERSION );
+		IOUtils.writeSmallBuffer( output, orEmpty( w.getSessionID() ) );
+		IOUtils.writeSmallBuffer( output, orEmpty( w.getLocalAddress() ) );
+		IOUtils.writeSmallBuffer( output, orEmpty( w.getRemoteAddress() ) );
+		IOUtils.writeLong( output, fetcher != null ? fetcher.getCursor() : 0 );
+		reliability.saveState( output );
+	}
+
+	/**
+	 * Sends the given {@code packets} to the remote node, waiting first for
+	 * the remote node to grant enough send credits if it uses flow control.
 	 *
 	 * @param packets
 	 *            the packets to be sent.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs, or if the calling thread
+	 *             is interrupted while waiting for send credits.
+	 * @see SendCredit
 	 */
 	public void send( Packet... packets ) {
+		try {
+			sendCredit.acquire( packets.length );
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+			throw new FASTWriteException( exception );
+		}
 		w.send( packets );
 	}
 
+	/**
+	 * Asks the remote node to deliver to this client a copy of each packet
+	 * sent to an address matching the given {@code pattern}, in which a
+	 * {@code *} matches any one dot-separated part of the local part, such as
+	 * {@code alerts.*@example.com}. Subscriptions last only as long as the
+	 * connection, so they must be made again after reconnecting.
+	 *
+	 * @param pattern
+	 *            the pattern of addresses to subscribe to.
+	 * @see SubscriptionTrie
+	 */
+	public void subscribe( byte [] pattern ) {
+		w.subscribe( pattern );
+	}
+
+	/**
+	 * Asks the remote node to deliver to this client a copy of each packet
+	 * sent to an address matching the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern of addresses to subscribe to.
+	 * @see #subscribe(byte[])
+	 */
+	public void subscribe( String pattern ) {
+		subscribe( pattern.getBytes() );
+	}
+
+	/**
+	 * Cancels a subscription previously made with the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern given when subscribing.
+	 */
+	public void unsubscribe( byte [] pattern ) {
+		w.unsubscribe( pattern );
+	}
+
+	/**
+	 * Cancels a subscription previously made with the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern given when subscribing.
+	 * @see #unsubscribe(byte[])
+	 */
+	public void unsubscribe( String pattern ) {
+		unsubscribe( pattern.getBytes() );
+	}
+
 }
@@ -8,6 +8,8 @@ import org.twuni.fast.io.WriteChannel;
 public class ClientEventHandler extends EventHandlers {
 
 	private WriteChannel channel;
+	private final byte [] credential;
+	private final CursorFetcher fetcher;
 
 	/**
 	 * Initializes this event handler to use the given {@code credential} for
@@ -26,8 +28,54 @@ public class ClientEventHandler extends EventHandlers {
 	 *            the listener to be notified of incoming and outgoing packets.
 	 */
 	public ClientEventHandler( WriteChannel channel, byte [] credential, ConnectionListener connectionListener, PacketListener packetListener ) {
-		super( new DetachOnException( channel ), new Reliability( channel ), new PacketListenerWrapper( packetListener ), new ConnectionListenerWrapper( connectionListener, channel ) );
+		this( channel, credential, connectionListener, packetListener, new SendCredit(), new Reliability( channel ), new EventHandlerBase(), null );
+	}
+
+	/**
+	 * Initializes this event handler to use the given {@code credential} for
+	 * authentication, notifying the given {@code packetListener} of
+	 * incoming/outgoing packets, recording send credits granted by the remote
+	 * endpoint in the given {@code sendCredit}, tracking delivery with the
+	 * given {@code reliability} handler, recording delivery state with the
+	 * given {@code journal} handler, and fetching pending packets a page at a
+	 * time with the given {@code fetcher}.
+	 *
+	 * @param channel
+	 *            the channel to which commands will be written.
+	 * @param credential
+	 *            the credential to provide to the remote endpoint when
+	 *            authentication is necessary, including when a previous
+	 *            session cannot be resumed.
+	 * @param connectionListener
+	 *            the listener to be notified whenever the client has connected
+	 *            or disconnected.
+	 * @param packetListener
+	 *            the listener to be notified of incoming and outgoing packets.
+	 * @param sendCredit
+	 *            the tracker of send credits granted by the remote endpoint.
+	 * @param reliability
+	 *            the handler which tracks packet delivery during the session.
+	 * @param journal
+	 *            the handler which persists the delivery state, such as a
+	 *            {@link ReliabilityJournal}. It sees each event before the
+	 *            given {@code reliability} handler.
+	 * @param fetcher
+	 *            the handler which fetches pending packets a page at a time, or
+	 *            {@code null} to fetch them all at once.
+	 */
+	public ClientEventHandler( WriteChannel channel, byte [] credential, ConnectionListener connectionListener, PacketListener packetListener, SendCredit sendCredit, Reliability reliability, EventHandler journal, CursorFetcher fetcher ) {
+		super( new DetachOnException( channel ), journal, reliability, new PongOnPing( channel ), sendCredit, new PacketListenerWrapper( packetListener ), new ConnectionListenerWrapper( connectionListener, channel ), fetcher != null ? fetcher : new EventHandlerBase() );
 		this.channel = channel;
+		this.credential = credential;
+		this.fetcher = fetcher;
+	}
+
+	private void fetch() {
+		if( fetcher != null ) {
+			fetcher.fetch();
+		} else {
+			channel.fetch();
+		}
 	}
 
 	@Override
@@ -42,4 +90,13 @@ public class ClientEventHandler extends EventHandlers {
 		channel.setSessionID( sessionID );
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		super.onSessionResumed( sessionID, n );
+		if( sessionID.length == 0 ) {
+			channel.attach( channel.getRemoteAddress() ).authenticate( credential );
+		}
+		fetch();
+	}
+
 }
@@ -49,6 +49,16 @@ public class ClojureEventLogger extends EventLogger {
 		log( "(authenticate %s)", toString( credential ) );
 	}
 
+	@Override
+	public void onCreditReceived( int n ) {
+		log( "(credit %d)", Integer.valueOf( n ) );
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		log( "(cursor %d)", Long.valueOf( cursor ) );
+	}
+
 	@Override
 	public void onDisconnected() {
 		log( "(disconnect)" );
@@ -63,6 +73,11 @@ public class ClojureEventLogger extends EventLogger {
 		}
 	}
 
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		log( "(fetch :from %d :packets %d :bytes %d)", Long.valueOf( cursor ), Integer.valueOf( maxPackets ), Integer.valueOf( maxBytes ) );
+	}
+
 	@Override
 	public void onFetchRequested() {
 		log( "(fetch)" );
@@ -83,9 +98,44 @@ public class ClojureEventLogger extends EventLogger {
 		log( "(tx :timestamp %d :from %s :to %s :payload %d)", Long.valueOf( packet.getTimestamp() ), toString( packet.getFrom() ), toString( packet.getTo() ), Integer.valueOf( packet.getPayload().getLimit() ) );
 	}
 
+	@Override
+	public void onPacketTransferred( int length ) {
+		log( "(tx :length %d)", Integer.valueOf( length ) );
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		log( "(ping %d)", Long.valueOf( payload ) );
+	}
+
+	@Override
+	public void onPongReceived( long payload ) {
+		log( "(pong %d)", Long.valueOf( payload ) );
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		log( "(resume :id %s :received %d)", toString( sessionID ), Integer.valueOf( n ) );
+	}
+
 	@Override
 	public void onSessionCreated( byte [] sessionID ) {
 		log( "(session :id %s)", toString( sessionID ) );
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		log( "(resumed :id %s :received %d)", toString( sessionID ), Integer.valueOf( n ) );
+	}
+
+	@Override
+	public void onSubscribeRequested( byte [] pattern ) {
+		log( "(subscribe %s)", toString( pattern ) );
+	}
+
+	@Override
+	public void onUnsubscribeRequested( byte [] pattern ) {
+		log( "(unsubscribe %s)", toString( pattern ) );
+	}
+
 }
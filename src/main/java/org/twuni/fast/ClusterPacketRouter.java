@@ -0,0 +1,170 @@
+package org.twuni.fast;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashRing;
+
+/**
+ * Shares the addresses of a single realm between a cluster of nodes. Each
+ * address is owned by exactly one node, chosen by consistent hashing, and
+ * packets for an address are queued only in its owner's mailbox. A packet
+ * received by any other node is delivered directly if its recipient happens to
+ * be connected to that node, and is otherwise forwarded to the owner over a
+ * pool of peer links.
+ *
+ * <p>
+ * Clients should connect to the node which owns their address (see
+ * {@link #getOwner(byte[])}), so that packets queued while they were offline
+ * are available when they FETCH. Every node in the cluster must be configured
+ * with the same node names and the same number of virtual nodes.
+ * </p>
+ */
+public class ClusterPacketRouter implements PacketRouter {
+
+	private static final int DEFAULT_VIRTUAL_NODE_COUNT = 160;
+
+	private final String localNode;
+	private final InternalPacketTransport transport;
+	private final WriteChannelProvider writeChannelProvider;
+	private final HashRing<String> ring;
+	private final Map<String, PeerLinkPool> peers = new ConcurrentHashMap<String, PeerLinkPool>();
+
+	/**
+	 * Convenience constructor for
+	 * {@link #ClusterPacketRouter(String, InternalPacketTransport, WriteChannelProvider, int)}
+	 * using a default number of virtual nodes.
+	 *
+	 * @param localNode
+	 *            the name of this node within the cluster.
+	 * @param transport
+	 *            the transport responsible for local delivery and for the
+	 *            mailboxes owned by this node.
+	 * @param writeChannelProvider
+	 *            the provider of write channels for clients connected to this
+	 *            node.
+	 */
+	public ClusterPacketRouter( String localNode, InternalPacketTransport transport, WriteChannelProvider writeChannelProvider ) {
+		this( localNode, transport, writeChannelProvider, DEFAULT_VIRTUAL_NODE_COUNT );
+	}
+
+	/**
+	 * Initializes a router for a cluster that initially contains only this
+	 * node.
+	 *
+	 * @param localNode
+	 *            the name of this node within the cluster.
+	 * @param transport
+	 *            the transport responsible for local delivery and for the
+	 *            mailboxes owned by this node.
+	 * @param writeChannelProvider
+	 *            the provider of write channels for clients connected to this
+	 *            node.
+	 * @param virtualNodeCount
+	 *            the number of points at which each node is placed on the hash
+	 *            ring.
+	 */
+	public ClusterPacketRouter( String localNode, InternalPacketTransport transport, WriteChannelProvider writeChannelProvider, int virtualNodeCount ) {
+		this.localNode = localNode;
+		this.transport = transport;
+		this.writeChannelProvider = writeChannelProvider;
+		ring = new HashRing<String>( virtualNodeCount );
+		ring.add( localNode, localNode );
+	}
+
+	/**
+	 * Adds a node to the cluster, reachable along the given pool of links, and
+	 * hands over any packets queued locally for addresses it now owns.
+	 *
+	 * @param node
+	 *            the name of the node being added.
+	 * @param pool
+	 *            the links along which packets owned by the node are
+	 *            forwarded.
+	 */
+	public void addNode( String node, PeerLinkPool pool ) {
+		PeerLinkPool previous = peers.put( node, pool );
+		if( previous != null && previous != pool ) {
+			previous.close();
+		}
+		ring.add( node, node );
+		rebalance();
+	}
+
+	/**
+	 * Returns the name of the node which owns the given {@code address}.
+	 *
+	 * @param address
+	 *            the address whose owner should be located.
+	 * @return the name of the node which owns the given {@code address}.
+	 */
+	public String getOwner( byte [] address ) {
+		return ring.locate( address );
+	}
+
+	/**
+	 * Returns whether the given {@code address} is owned by this node.
+	 *
+	 * @param address
+	 *            the address to test.
+	 * @return {@code true} if the given {@code address} is owned by this node.
+	 *         Otherwise returns {@code false}.
+	 */
+	public boolean isLocal( byte [] address ) {
+		return localNode.equals( getOwner( address ) );
+	}
+
+	/**
+	 * Forwards every packet queued locally for an address owned by another
+	 * node to that node, such as after nodes have joined or left the cluster.
+	 * Every address with queued packets is examined, not only those whose
+	 * owner changed, so this takes time proportional to the number of such
+	 * addresses. Packets for an owner to which this node has no link stay
+	 * where they are.
+	 */
+	public void rebalance() {
+		for( byte [] address : transport.getQueuedAddresses() ) {
+			String owner = getOwner( address );
+			PeerLinkPool pool = peers.get( owner );
+			if( pool == null ) {
+				continue;
+			}
+			Mailbox mailbox = transport.createMailbox( address );
+			for( Packet packet = mailbox.providePacket(); packet != null; packet = mailbox.providePacket() ) {
+				pool.send( packet );
+			}
+		}
+	}
+
+	/**
+	 * Removes a node from the cluster. Addresses it owned are reassigned to
+	 * the remaining nodes; packets already queued on it remain there.
+	 *
+	 * @param node
+	 *            the name of the node being removed.
+	 */
+	public void removeNode( String node ) {
+		ring.remove( node );
+		PeerLinkPool pool = peers.remove( node );
+		if( pool != null ) {
+			pool.close();
+		}
+	}
+
+	@Override
+	public void routePacket( Packet packet ) {
+		byte [] address = packet.getTo();
+		if( !writeChannelProvider.provideWriteChannels( address ).isEmpty() ) {
+			transport.routePacket( packet );
+			return;
+		}
+		PeerLinkPool pool = peers.get( getOwner( address ) );
+		if( pool != null ) {
+			pool.send( packet );
+			return;
+		}
+		transport.routePacket( packet );
+	}
+
+}
@@ -38,4 +38,11 @@ public class ConnectionListenerWrapper extends EventHandlerBase {
 		}
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		if( wrapped != null && sessionID.length > 0 ) {
+			wrapped.onConnected( channel );
+		}
+	}
+
 }
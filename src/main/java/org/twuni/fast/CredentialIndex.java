@@ -0,0 +1,286 @@
+package org.twuni.fast;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.twuni.fast.exception.FASTException;
+
+/**
+ * A read-only, memory-mapped file of password hashes keyed by realm and
+ * identity. The file begins with an open-addressed hash table of record
+ * offsets, so opening it only maps the file and reads its header, and a lookup
+ * touches a few slots and one record, regardless of how many accounts it
+ * holds. The operating system pages in only the parts which are actually used.
+ * <p>
+ * Index files are produced by a {@link Writer}, which writes to a uniquely
+ * named temporary file beside the target and renames it into place when done,
+ * so readers never observe a partially written index, and several writers
+ * never write to the same file.
+ * </p>
+ *
+ * @see IndexedPasswordAuthenticator
+ */
+public class CredentialIndex {
+
+	/**
+	 * Writes a new index file. Records may be added in any order; if the same
+	 * realm and identity are added more than once, the last one wins.
+	 */
+	public static class Writer {
+
+		private final File target;
+		private final File temporary;
+		private final RandomAccessFile file;
+		private final int [] offsets;
+		private final long [] hashes;
+		private final int capacity;
+		private int count;
+		private long end;
+
+		/**
+		 * Initializes a writer for an index of at most {@code capacity}
+		 * records, to be placed at {@code target} when committed.
+		 *
+		 * @param target
+		 *            the file the index replaces when committed.
+		 * @param capacity
+		 *            the maximum number of records the index will hold.
+		 * @throws IOException
+		 *             if the temporary file cannot be created.
+		 */
+		public Writer( File target, int capacity ) throws IOException {
+			this.target = target;
+			this.capacity = capacity;
+			int slots = Integer.highestOneBit( Math.max( 2, capacity ) * 2 - 1 ) << 1;
+			offsets = new int [slots];
+			hashes = new long [slots];
+			temporary = File.createTempFile( "." + target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile() );
+			file = new RandomAccessFile( temporary, "rw" );
+			end = HEADER_LENGTH + 4L * slots;
+		}
+
+		/**
+		 * Adds the password hash of the given {@code identity} to the index.
+		 *
+		 * @param realm
+		 *            the realm to which the given {@code identity} belongs.
+		 * @param identity
+		 *            the identity whose password hash is being added.
+		 * @param hash
+		 *            the password hash of the given {@code identity}.
+		 * @return this object, for chaining commands.
+		 * @throws IOException
+		 *             if the record cannot be written.
+		 */
+		public Writer add( byte [] realm, byte [] identity, PasswordHash hash ) throws IOException {
+
+			byte [] key = toKey( realm, identity );
+			long h = hash( key );
+			int mask = offsets.length - 1;
+			int slot = (int) h & mask;
+
+			while( offsets[slot] != 0 ) {
+				if( hashes[slot] == h && equals( key, offsets[slot] ) ) {
+					break;
+				}
+				slot = slot + 1 & mask;
+			}
+
+			if( offsets[slot] == 0 ) {
+				if( count >= capacity ) {
+					throw new FASTException( String.format( "Index capacity of %d records exceeded.", Integer.valueOf( capacity ) ) );
+				}
+				count++;
+			}
+
+			long offset = end;
+			if( offset > Integer.MAX_VALUE ) {
+				throw new FASTException( "Index file too large." );
+			}
+
+			byte [] salt = hash.getSalt();
+			byte [] digest = hash.getHash();
+			file.seek( offset );
+			file.writeInt( key.length );
+			file.write( key );
+			file.writeInt( hash.getIterations() );
+			file.writeByte( salt.length );
+			file.write( salt );
+			file.writeByte( digest.length );
+			file.write( digest );
+			end = file.getFilePointer();
+
+			offsets[slot] = (int) offset;
+			hashes[slot] = h;
+			return this;
+
+		}
+
+		/**
+		 * Discards the index being written, leaving any existing index in
+		 * place.
+		 */
+		public void abort() {
+			try {
+				file.close();
+			} catch( IOException ignore ) {
+				// Ignore.
+			}
+			temporary.delete();
+		}
+
+		/**
+		 * Finishes writing the index, forces it to disk, and atomically
+		 * replaces the target file with it.
+		 *
+		 * @throws IOException
+		 *             if the index cannot be written or renamed into place.
+		 */
+		public void commit() throws IOException {
+			try {
+				ByteBuffer table = ByteBuffer.allocate( HEADER_LENGTH + 4 * offsets.length );
+				table.putLong( MAGIC );
+				table.putInt( offsets.length );
+				table.putInt( count );
+				for( int offset : offsets ) {
+					table.putInt( offset );
+				}
+				file.seek( 0 );
+				file.write( table.array() );
+				file.getFD().sync();
+			} finally {
+				file.close();
+			}
+			if( !temporary.renameTo( target ) ) {
+				throw new IOException( String.format( "Unable to rename %s to %s.", temporary, target ) );
+			}
+		}
+
+		private boolean equals( byte [] key, int offset ) throws IOException {
+			file.seek( offset );
+			if( file.readInt() != key.length ) {
+				return false;
+			}
+			byte [] other = new byte [key.length];
+			file.readFully( other );
+			return Arrays.equals( key, other );
+		}
+
+	}
+
+	private static final long MAGIC = 0x4641535443524431L;
+	private static final int HEADER_LENGTH = 16;
+
+	private static long hash( byte [] key ) {
+		long h = 0xCBF29CE484222325L;
+		for( byte b : key ) {
+			h ^= b & 0xFF;
+			h *= 0x100000001B3L;
+		}
+		return h ^ h >>> 32;
+	}
+
+	/**
+	 * Maps the index file at the given location.
+	 *
+	 * @param file
+	 *            the index file to map.
+	 * @return the mapped index.
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not an index file.
+	 */
+	public static CredentialIndex open( File file ) throws IOException {
+		RandomAccessFile f = new RandomAccessFile( file, "r" );
+		try {
+			if( f.length() > Integer.MAX_VALUE ) {
+				throw new IOException( String.format( "%s is too large to map.", file ) );
+			}
+			MappedByteBuffer buffer = f.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, f.length() );
+			if( buffer.capacity() < HEADER_LENGTH || buffer.getLong( 0 ) != MAGIC ) {
+				throw new IOException( String.format( "%s is not a credential index.", file ) );
+			}
+			return new CredentialIndex( buffer );
+		} finally {
+			f.close();
+		}
+	}
+
+	private static byte [] toKey( byte [] realm, byte [] identity ) {
+		byte [] key = new byte [realm.length + 1 + identity.length];
+		System.arraycopy( realm, 0, key, 0, realm.length );
+		System.arraycopy( identity, 0, key, realm.length + 1, identity.length );
+		return key;
+	}
+
+	private final ByteBuffer buffer;
+	private final int slots;
+	private final int count;
+
+	private CredentialIndex( ByteBuffer buffer ) {
+		this.buffer = buffer;
+		slots = buffer.getInt( 8 );
+		count = buffer.getInt( 12 );
+	}
+
+	/**
+	 * Returns the password hash stored for the given {@code identity}.
+	 *
+	 * @param realm
+	 *            the realm in which to look.
+	 * @param identity
+	 *            the identity whose password hash should be returned.
+	 * @return the password hash stored for the given {@code identity}, or
+	 *         {@code null} if it has none.
+	 */
+	public PasswordHash find( byte [] realm, byte [] identity ) {
+
+		byte [] key = toKey( realm, identity );
+		int mask = slots - 1;
+		int slot = (int) hash( key ) & mask;
+		ByteBuffer b = buffer.duplicate();
+
+		for( int probes = 0; probes < slots; probes++ ) {
+			int offset = b.getInt( HEADER_LENGTH + 4 * slot );
+			if( offset == 0 ) {
+				return null;
+			}
+			if( b.getInt( offset ) == key.length && matches( b, offset + 4, key ) ) {
+				b.position( offset + 4 + key.length );
+				int iterations = b.getInt();
+				byte [] salt = new byte [b.get() & 0xFF];
+				b.get( salt );
+				byte [] hash = new byte [b.get() & 0xFF];
+				b.get( hash );
+				return new PasswordHash( salt, iterations, hash );
+			}
+			slot = slot + 1 & mask;
+		}
+
+		return null;
+
+	}
+
+	private static boolean matches( ByteBuffer b, int offset, byte [] key ) {
+		for( int i = 0; i < key.length; i++ ) {
+			if( b.get( offset + i ) != key[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of records in this index.
+	 *
+	 * @return the number of records in this index.
+	 */
+	public int size() {
+		return count;
+	}
+
+}
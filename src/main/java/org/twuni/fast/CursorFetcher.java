@@ -0,0 +1,79 @@
+package org.twuni.fast;
+
+import org.twuni.fast.io.WriteChannel;
+
+/**
+ * Fetches pending packets from the remote node a page at a time, within the
+ * given limits, instead of all at once. Each page ends with the cursor of its
+ * last packet, from which the next page is fetched as soon as it is received,
+ * until a page comes back empty. Fetching from a cursor also acknowledges the
+ * packets up to it, so the remote node discards a page only once the next one
+ * is requested, and a page lost with its connection is fetched again. A
+ * packet may therefore be received twice if the session is resumed while a
+ * page is in flight, once sent again by the resumed session and once in the
+ * page fetched again.
+ *
+ * @see FlushPacketsOnFetch#onFetchFromRequested(long, int, int)
+ */
+public class CursorFetcher extends EventHandlerBase {
+
+	private final WriteChannel channel;
+	private final int maxPackets;
+	private final int maxBytes;
+	private volatile long cursor;
+
+	/**
+	 * Initializes this handler to fetch pages along the given {@code channel}.
+	 *
+	 * @param channel
+	 *            the channel along which to fetch pages.
+	 * @param maxPackets
+	 *            the largest number of packets in each page, or zero for no
+	 *            limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets in each page, or zero
+	 *            for no limit.
+	 */
+	public CursorFetcher( WriteChannel channel, int maxPackets, int maxBytes ) {
+		this.channel = channel;
+		this.maxPackets = maxPackets;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Requests the page of packets after the current cursor.
+	 */
+	public void fetch() {
+		channel.fetch( cursor, maxPackets, maxBytes );
+	}
+
+	/**
+	 * Returns the cursor of the last packet received, from which the next
+	 * page will be fetched.
+	 *
+	 * @return the cursor of the last packet received.
+	 */
+	public long getCursor() {
+		return cursor;
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		if( cursor != this.cursor ) {
+			this.cursor = cursor;
+			fetch();
+		}
+	}
+
+	/**
+	 * Sets the cursor from which the next page will be fetched, such as one
+	 * saved from a previous session.
+	 *
+	 * @param cursor
+	 *            the cursor of the last packet received.
+	 */
+	public void setCursor( long cursor ) {
+		this.cursor = cursor;
+	}
+
+}
@@ -46,6 +46,25 @@ public interface EventHandler extends PacketListener {
 	 */
 	public void onCredentialReceived( byte [] credential );
 
+	/**
+	 * This method is called whenever a remote endpoint has granted permission
+	 * to send {@code n} additional packets during this session.
+	 *
+	 * @param n
+	 *            the number of additional packets which may be sent.
+	 */
+	public void onCreditReceived( int n );
+
+	/**
+	 * This method is called whenever the remote endpoint has finished sending a
+	 * page of fetched packets.
+	 *
+	 * @param cursor
+	 *            the position in the local endpoint's mailbox of the last
+	 *            packet in the page, to be acknowledged by the next fetch.
+	 */
+	public void onCursorReceived( long cursor );
+
 	/**
 	 * This method is called just after a session has disconnected.
 	 */
@@ -59,6 +78,23 @@ public interface EventHandler extends PacketListener {
 	 */
 	public void onException( Throwable exception );
 
+	/**
+	 * This method is called whenever a remote endpoint has requested the next
+	 * page of packets addressed to it, acknowledging those it has already
+	 * received.
+	 *
+	 * @param cursor
+	 *            the position in the mailbox of the last packet the remote
+	 *            endpoint has received, up to which packets may be discarded.
+	 * @param maxPackets
+	 *            the largest number of packets to be sent in the page, or zero
+	 *            for no limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be sent in the
+	 *            page, or zero for no limit.
+	 */
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes );
+
 	/**
 	 * This method is called whenever a remote endpoint has requested immediate
 	 * delivery of any packets addressed to it.
@@ -75,6 +111,48 @@ public interface EventHandler extends PacketListener {
 	 */
 	public void onIdentityReceived( byte [] identity );
 
+	/**
+	 * Called when a packet held serialized in a file has been sent without being
+	 * decoded, so that no {@link org.twuni.fast.model.Packet} is available for
+	 * {@link #onPacketSent(org.twuni.fast.model.Packet)}.
+	 *
+	 * @param length
+	 *            the length, in bytes, of the serialized packet.
+	 * @see org.twuni.fast.io.WriteChannel#transfer(java.nio.channels.FileChannel, long, int)
+	 */
+	public void onPacketTransferred( int length );
+
+	/**
+	 * This method is called whenever the remote endpoint checks that this
+	 * session is still alive. The {@code payload} should be echoed back in a
+	 * PONG.
+	 *
+	 * @param payload
+	 *            the opaque value to be echoed back to the remote endpoint.
+	 */
+	public void onPingReceived( long payload );
+
+	/**
+	 * This method is called whenever the remote endpoint answers a PING sent
+	 * during this session.
+	 *
+	 * @param payload
+	 *            the value sent with the PING being answered.
+	 */
+	public void onPongReceived( long payload );
+
+	/**
+	 * This method is called whenever the remote endpoint asks to resume a
+	 * previous session instead of attaching and authenticating again.
+	 *
+	 * @param sessionID
+	 *            the identifier of the session to be resumed.
+	 * @param n
+	 *            the number of packets the remote endpoint has received
+	 *            during that session.
+	 */
+	public void onResumeRequested( byte [] sessionID, int n );
+
 	/**
 	 * This method is called whenever a session has been created.
 	 *
@@ -84,4 +162,36 @@ public interface EventHandler extends PacketListener {
 	 */
 	public void onSessionCreated( byte [] sessionID );
 
+	/**
+	 * This method is called whenever the remote endpoint has answered a
+	 * request to resume a previous session.
+	 *
+	 * @param sessionID
+	 *            the identifier of the resumed session, or an empty array if
+	 *            the session could not be resumed.
+	 * @param n
+	 *            the number of packets the remote endpoint has received
+	 *            during that session.
+	 */
+	public void onSessionResumed( byte [] sessionID, int n );
+
+	/**
+	 * This method is called whenever the remote endpoint has asked to receive
+	 * every packet sent to an address matching the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern of addresses, in which each {@code *} stands for
+	 *            any one dot-separated part of an address.
+	 */
+	public void onSubscribeRequested( byte [] pattern );
+
+	/**
+	 * This method is called whenever the remote endpoint has asked to stop
+	 * receiving packets sent to addresses matching the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern given when the remote endpoint subscribed.
+	 */
+	public void onUnsubscribeRequested( byte [] pattern );
+
 }
@@ -34,6 +34,16 @@ public class EventHandlerBase implements EventHandler {
 		// By default, do nothing.
 	}
 
+	@Override
+	public void onCreditReceived( int n ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		// By default, do nothing.
+	}
+
 	@Override
 	public void onDisconnected() {
 		// By default, do nothing.
@@ -44,6 +54,11 @@ public class EventHandlerBase implements EventHandler {
 		// By default, do nothing.
 	}
 
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		// By default, do nothing.
+	}
+
 	@Override
 	public void onFetchRequested() {
 		// By default, do nothing.
@@ -64,9 +79,44 @@ public class EventHandlerBase implements EventHandler {
 		// By default, do nothing.
 	}
 
+	@Override
+	public void onPacketTransferred( int length ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onPongReceived( long payload ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		// By default, do nothing.
+	}
+
 	@Override
 	public void onSessionCreated( byte [] sessionID ) {
 		// By default, do nothing.
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onSubscribeRequested( byte [] pattern ) {
+		// By default, do nothing.
+	}
+
+	@Override
+	public void onUnsubscribeRequested( byte [] pattern ) {
+		// By default, do nothing.
+	}
+
 }
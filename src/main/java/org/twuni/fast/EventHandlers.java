@@ -70,6 +70,28 @@ public class EventHandlers extends EventHandlerBase {
 		}
 	}
 
+	@Override
+	public void onCreditReceived( int n ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onCreditReceived( n );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onCursorReceived( cursor );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
 	@Override
 	public void onDisconnected() {
 		try {
@@ -88,6 +110,17 @@ public class EventHandlers extends EventHandlerBase {
 		}
 	}
 
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onFetchFromRequested( cursor, maxPackets, maxBytes );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
 	@Override
 	public void onFetchRequested() {
 		try {
@@ -132,6 +165,50 @@ public class EventHandlers extends EventHandlerBase {
 		}
 	}
 
+	@Override
+	public void onPacketTransferred( int length ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onPacketTransferred( length );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onPingReceived( payload );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onPongReceived( long payload ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onPongReceived( payload );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onResumeRequested( sessionID, n );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
 	@Override
 	public void onSessionCreated( byte [] sessionID ) {
 		try {
@@ -143,4 +220,37 @@ public class EventHandlers extends EventHandlerBase {
 		}
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onSessionResumed( sessionID, n );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onSubscribeRequested( byte [] pattern ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onSubscribeRequested( pattern );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
+	@Override
+	public void onUnsubscribeRequested( byte [] pattern ) {
+		try {
+			for( EventHandler eventHandler : eventHandlers ) {
+				eventHandler.onUnsubscribeRequested( pattern );
+			}
+		} catch( FASTException exception ) {
+			onException( exception );
+		}
+	}
+
 }
@@ -52,6 +52,16 @@ public class EventLogger extends EventHandlerBase {
 		log( "#onCredentialReceived(%s)", Arrays.toString( credential ) );
 	}
 
+	@Override
+	public void onCreditReceived( int n ) {
+		log( "#onCreditReceived(%d)", Integer.valueOf( n ) );
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		log( "#onCursorReceived(%d)", Long.valueOf( cursor ) );
+	}
+
 	@Override
 	public void onDisconnected() {
 		log( "#onDisconnected" );
@@ -62,6 +72,11 @@ public class EventLogger extends EventHandlerBase {
 		log( "#onException(%s)", exception.getClass().getName() );
 	}
 
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		log( "#onFetchFromRequested(%d, %d, %d)", Long.valueOf( cursor ), Integer.valueOf( maxPackets ), Integer.valueOf( maxBytes ) );
+	}
+
 	@Override
 	public void onFetchRequested() {
 		log( "#onFetchRequested" );
@@ -82,9 +97,44 @@ public class EventLogger extends EventHandlerBase {
 		log( "#onPacketSent(%s)", packet );
 	}
 
+	@Override
+	public void onPacketTransferred( int length ) {
+		log( "#onPacketTransferred(%d)", Integer.valueOf( length ) );
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		log( "#onPingReceived(%d)", Long.valueOf( payload ) );
+	}
+
+	@Override
+	public void onPongReceived( long payload ) {
+		log( "#onPongReceived(%d)", Long.valueOf( payload ) );
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		log( "#onResumeRequested(%s, %d)", Arrays.toString( sessionID ), Integer.valueOf( n ) );
+	}
+
 	@Override
 	public void onSessionCreated( byte [] sessionID ) {
 		log( "#onSessionCreated(%s)", Arrays.toString( sessionID ) );
 	}
 
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		log( "#onSessionResumed(%s, %d)", Arrays.toString( sessionID ), Integer.valueOf( n ) );
+	}
+
+	@Override
+	public void onSubscribeRequested( byte [] pattern ) {
+		log( "#onSubscribeRequested(%s)", Arrays.toString( pattern ) );
+	}
+
+	@Override
+	public void onUnsubscribeRequested( byte [] pattern ) {
+		log( "#onUnsubscribeRequested(%s)", Arrays.toString( pattern ) );
+	}
+
 }
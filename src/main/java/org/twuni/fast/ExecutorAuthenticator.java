@@ -0,0 +1,114 @@
+package org.twuni.fast;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.util.Metrics;
+
+/**
+ * Runs a blocking {@link Authenticator} on a small, bounded pool of threads.
+ * At most {@code concurrency} credentials are verified at once, and at most
+ * {@code queueCapacity} more wait their turn; beyond that, authentication
+ * fails immediately rather than letting a slow store accumulate an unbounded
+ * backlog. The following metrics are recorded:
+ *
+ * <ul>
+ * <li>{@code "authentication.queued"}: microseconds each request waited for a
+ * thread.</li>
+ * <li>{@code "authentication.time"}: microseconds each verification took.</li>
+ * <li>{@code "authentication.failed"}: the number of rejected credentials.</li>
+ * <li>{@code "authentication.overloaded"}: the number of requests refused
+ * because the queue was full.</li>
+ * </ul>
+ */
+public class ExecutorAuthenticator implements AsyncAuthenticator {
+
+	private static final AtomicInteger POOLS = new AtomicInteger();
+
+	private final Authenticator authenticator;
+	private final ThreadPoolExecutor executor;
+	private final Metrics metrics;
+
+	/**
+	 * Initializes this authenticator to verify credentials with the given
+	 * {@code authenticator} on at most {@code concurrency} threads.
+	 *
+	 * @param authenticator
+	 *            the blocking authenticator which verifies each credential.
+	 * @param concurrency
+	 *            the maximum number of credentials verified at once.
+	 * @param queueCapacity
+	 *            the maximum number of credentials waiting to be verified.
+	 * @param metrics
+	 *            the registry in which this authenticator records its
+	 *            metrics.
+	 */
+	public ExecutorAuthenticator( Authenticator authenticator, int concurrency, int queueCapacity, Metrics metrics ) {
+		this.authenticator = authenticator;
+		this.metrics = metrics;
+		final String name = String.format( "%s(%d)", ExecutorAuthenticator.class.getName(), Integer.valueOf( POOLS.incrementAndGet() ) );
+		executor = new ThreadPoolExecutor( concurrency, concurrency, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( Math.max( 1, queueCapacity ) ), new ThreadFactory() {
+
+			private final AtomicInteger threads = new AtomicInteger();
+
+			@Override
+			public Thread newThread( Runnable runnable ) {
+				Thread thread = new Thread( runnable, String.format( "%s-%d", name, Integer.valueOf( threads.incrementAndGet() ) ) );
+				thread.setDaemon( true );
+				return thread;
+			}
+
+		} );
+		executor.allowCoreThreadTimeOut( true );
+	}
+
+	@Override
+	public void authenticate( final byte [] realm, final byte [] credential, final Callback callback ) {
+
+		final long queuedAt = System.nanoTime();
+
+		try {
+			executor.execute( new Runnable() {
+
+				@Override
+				public void run() {
+					long startedAt = System.nanoTime();
+					metrics.histogram( "authentication.queued" ).record( TimeUnit.NANOSECONDS.toMicros( startedAt - queuedAt ) );
+					byte [] address = null;
+					RuntimeException failure = null;
+					try {
+						address = authenticator.authenticate( realm, credential );
+					} catch( RuntimeException exception ) {
+						failure = exception;
+					}
+					metrics.histogram( "authentication.time" ).record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - startedAt ) );
+					if( failure != null ) {
+						metrics.counter( "authentication.failed" ).incrementAndGet();
+						callback.onFailure( failure );
+					} else {
+						callback.onAuthenticated( address );
+					}
+				}
+
+			} );
+		} catch( RejectedExecutionException exception ) {
+			metrics.counter( "authentication.overloaded" ).incrementAndGet();
+			callback.onFailure( new FASTException( "Too many pending authentications." ) );
+		}
+
+	}
+
+	/**
+	 * Stops accepting new credentials. Those already queued are still
+	 * verified.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
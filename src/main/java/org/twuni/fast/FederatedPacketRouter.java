@@ -0,0 +1,121 @@
+package org.twuni.fast;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.twuni.fast.exception.FASTUnknownAddressException;
+import org.twuni.fast.model.Packet;
+
+/**
+ * Routes packets addressed to a local realm through a wrapped local router,
+ * and relays packets addressed to any other realm to the peer node serving
+ * that realm over a pool of persistent links.
+ *
+ * <p>
+ * An address is expected to take the form {@code identity@realm}. A realm is
+ * considered local if it is accepted by the configured {@link AddressVerifier}
+ * -- typically the same verifier the server uses to accept ATTACH commands.
+ * Packets for a non-local realm with no configured peer are handed to the
+ * local router, so that they are queued exactly as they would have been
+ * without federation.
+ * </p>
+ *
+ * <pre>
+ * WriteChannelProvider channels = new SimpleWriteChannelProvider();
+ * InternalPacketTransport transport = new InternalPacketTransport( channels );
+ * AddressVerifier realms = new WhiteListAddressFilter( "example.com".getBytes() );
+ * FederatedPacketRouter router = new FederatedPacketRouter( transport, realms );
+ * Client.Builder peer = new Client.Builder().host( "fast.example.org" ).realm( "example.org" ).credential( "example.com", secret );
+ * router.addPeer( "example.org", new PeerLinkPool( peer, transport, 4 ) );
+ * new Server.Builder().addressVerifier( realms ).writeChannelProvider( channels ).mailboxFactory( transport ).packetRouter( router ).build();
+ * </pre>
+ */
+public class FederatedPacketRouter implements PacketRouter {
+
+	private static String toRealm( byte [] address ) {
+		if( address == null ) {
+			return null;
+		}
+		for( int i = address.length - 1; i >= 0; i-- ) {
+			if( address[i] == '@' ) {
+				return new String( address, i + 1, address.length - i - 1 );
+			}
+		}
+		return null;
+	}
+
+	private final PacketRouter localRouter;
+	private final AddressVerifier localRealms;
+	private final Map<String, PeerLinkPool> peers = new ConcurrentHashMap<String, PeerLinkPool>();
+
+	/**
+	 * Initializes this router to deliver packets for realms accepted by the
+	 * given {@code localRealms} verifier through the given
+	 * {@code localRouter}.
+	 *
+	 * @param localRouter
+	 *            the router responsible for delivering packets to local
+	 *            addresses.
+	 * @param localRealms
+	 *            the verifier which accepts only the realms served by this
+	 *            node.
+	 */
+	public FederatedPacketRouter( PacketRouter localRouter, AddressVerifier localRealms ) {
+		this.localRouter = localRouter;
+		this.localRealms = localRealms;
+	}
+
+	/**
+	 * Relays packets addressed to the given {@code realm} along the given pool
+	 * of peer links, replacing any pool previously configured for that realm.
+	 *
+	 * @param realm
+	 *            the remote realm served by the peer.
+	 * @param pool
+	 *            the links along which to relay packets for the given
+	 *            {@code realm}.
+	 */
+	public void addPeer( String realm, PeerLinkPool pool ) {
+		PeerLinkPool previous = peers.put( realm, pool );
+		if( previous != null && previous != pool ) {
+			previous.close();
+		}
+	}
+
+	private boolean isLocal( String realm ) {
+		try {
+			localRealms.verifyAddress( realm.getBytes() );
+			return true;
+		} catch( FASTUnknownAddressException exception ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops relaying packets addressed to the given {@code realm}, closing its
+	 * pool of peer links.
+	 *
+	 * @param realm
+	 *            the remote realm whose peer should be removed.
+	 */
+	public void removePeer( String realm ) {
+		PeerLinkPool pool = peers.remove( realm );
+		if( pool != null ) {
+			pool.close();
+		}
+	}
+
+	@Override
+	public void routePacket( Packet packet ) {
+		String realm = toRealm( packet.getTo() );
+		if( realm != null && !isLocal( realm ) ) {
+			PeerLinkPool pool = peers.get( realm );
+			if( pool != null ) {
+				pool.send( packet );
+				return;
+			}
+		}
+		localRouter.routePacket( packet );
+	}
+
+}
@@ -0,0 +1,172 @@
+package org.twuni.fast;
+
+import org.twuni.fast.exception.FASTWriteException;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * Limits the number of packets a remote endpoint may have in flight through
+ * this node. Once the remote endpoint has been identified, it is granted a
+ * window of send credits. Each packet it sends consumes one credit, which is
+ * returned -- and re-granted to the remote endpoint in batches -- only once
+ * the packet has left this node: once it has been written to the connection
+ * of every recipient whose queue accepted it, or held in a mailbox. A remote
+ * endpoint which sends more packets than it has been granted is paused: the
+ * thread reading its packets simply waits, and so stops reading from its
+ * socket, until earlier packets have left. A slow recipient therefore slows
+ * down only the endpoints sending to it, and the memory held on behalf of any
+ * one sender stays bounded.
+ *
+ * <p>
+ * This handler wraps the {@link PacketRouter} used to deliver the remote
+ * endpoint's packets, and must also receive the session's events so that it
+ * knows when to grant the initial window. Only a {@link TrackingPacketRouter}
+ * can report when a packet has been written; the credit of a packet routed by
+ * any other router is returned as soon as routing returns. A window of zero
+ * disables flow control: no credits are granted and packets are routed
+ * immediately.
+ * </p>
+ */
+public class FlowControl extends EventHandlerBase implements PacketRouter {
+
+	private final WriteChannel channel;
+	private final PacketRouter packetRouter;
+	private final int window;
+	private int outstanding;
+	private int returned;
+	private boolean granted;
+	private boolean disconnected;
+
+	private final Runnable release = new Runnable() {
+
+		@Override
+		public void run() {
+			release();
+		}
+
+	};
+
+	/**
+	 * Initializes this handler to grant the remote endpoint on the given
+	 * {@code channel} a window of {@code window} packets, and to route its
+	 * packets through the given {@code packetRouter}.
+	 *
+	 * @param channel
+	 *            the channel along which credits are granted.
+	 * @param packetRouter
+	 *            the router which delivers packets sent by the remote
+	 *            endpoint.
+	 * @param window
+	 *            the maximum number of packets the remote endpoint may have in
+	 *            flight, or zero to disable flow control.
+	 */
+	public FlowControl( WriteChannel channel, PacketRouter packetRouter, int window ) {
+		this.channel = channel;
+		this.packetRouter = packetRouter;
+		this.window = window;
+	}
+
+	private synchronized void acquire() throws InterruptedException {
+		while( outstanding >= window ) {
+			wait();
+		}
+		outstanding++;
+	}
+
+	/**
+	 * Returns the number of packets received from the remote endpoint which
+	 * have not yet left this node.
+	 *
+	 * @return the number of packets received from the remote endpoint which
+	 *         have not yet left this node.
+	 */
+	public synchronized int getOutstanding() {
+		return outstanding;
+	}
+
+	private void grant() {
+		synchronized( this ) {
+			if( granted || window <= 0 ) {
+				return;
+			}
+			granted = true;
+		}
+		channel.credit( window );
+	}
+
+	@Override
+	public void onCredentialReceived( byte [] credential ) {
+		grant();
+	}
+
+	@Override
+	public synchronized void onDisconnected() {
+		disconnected = true;
+		outstanding = 0;
+		notifyAll();
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		if( channel.getRemoteAddress() != null ) {
+			grant();
+		}
+	}
+
+	/**
+	 * Returns a credit consumed by a packet which has left this node, and
+	 * re-grants returned credits to the remote endpoint once a quarter of the
+	 * window has accumulated. This is typically called by the writer of the
+	 * recipient's connection, so a failure to write the grant is left for the
+	 * remote endpoint's own reader to notice.
+	 */
+	public void release() {
+		int n = 0;
+		synchronized( this ) {
+			outstanding = Math.max( 0, outstanding - 1 );
+			notifyAll();
+			returned++;
+			if( granted && !disconnected && returned >= Math.max( 1, window / 4 ) ) {
+				n = returned;
+				returned = 0;
+			}
+		}
+		if( n > 0 ) {
+			try {
+				channel.credit( n );
+			} catch( FASTWriteException exception ) {
+				// The remote endpoint is being disconnected.
+			}
+		}
+	}
+
+	/**
+	 * Consumes one credit -- waiting for one to be returned if the remote
+	 * endpoint has exceeded its window -- then routes the given
+	 * {@code packet}, returning the credit once the packet has left this
+	 * node.
+	 */
+	@Override
+	public void routePacket( Packet packet ) {
+		if( window <= 0 ) {
+			packetRouter.routePacket( packet );
+			return;
+		}
+		try {
+			acquire();
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if( packetRouter instanceof TrackingPacketRouter ) {
+			( (TrackingPacketRouter) packetRouter ).routePacket( packet, release );
+			return;
+		}
+		try {
+			packetRouter.routePacket( packet );
+		} finally {
+			release();
+		}
+	}
+
+}
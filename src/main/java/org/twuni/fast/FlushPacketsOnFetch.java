@@ -5,7 +5,8 @@ import org.twuni.fast.model.Packet;
 
 /**
  * When a FETCH command is received, attempts to flush all queued packets from a
- * wrapped packet provider.
+ * wrapped packet provider. When a FETCH_FROM command is received, sends a page
+ * of packets instead.
  */
 public class FlushPacketsOnFetch extends EventHandlerBase {
 
@@ -26,6 +27,59 @@ public class FlushPacketsOnFetch extends EventHandlerBase {
 		this.mailboxFactory = mailboxFactory;
 	}
 
+	/**
+	 * Sends the packets after the given {@code cursor}, up to the given
+	 * limits, followed by a request for acknowledgment and the cursor of the
+	 * last packet sent. Packets are discarded only once a later fetch
+	 * acknowledges them by requesting the packets after their cursor, so a
+	 * page lost with its connection is sent again, and a packet may be
+	 * received more than once if a session is resumed while a page is in
+	 * flight. Packets which the mailbox holds in files may be transferred to
+	 * the channel without being decoded. A mailbox which cannot provide pages
+	 * gives up its packets as they are sent, and its cursor only counts them.
+	 * <p>
+	 * Only a cursor which this session has sent may acknowledge packets, so a
+	 * forged, stale or future cursor never discards a packet which was not
+	 * delivered on this session. A cursor beyond the last one sent is ignored,
+	 * and the page starts after the last one sent. In the first fetch of a
+	 * session, nothing is acknowledged, and the page starts after the given
+	 * cursor, which the remote endpoint kept from a previous session.
+	 * </p>
+	 */
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		Mailbox mailbox = mailboxFactory.createMailbox( channel.getRemoteAddress() );
+		long next = cursor;
+		if( mailbox instanceof PagedMailbox ) {
+			PagedMailbox pages = (PagedMailbox) mailbox;
+			Long sent = channel.getSentCursor();
+			if( sent != null ) {
+				if( cursor <= sent.longValue() ) {
+					pages.acknowledge( cursor );
+				}
+				// Every packet up to the last cursor sent is already on its
+				// way, so the page continues from there.
+				next = sent.longValue();
+			}
+			next = pages.transferPage( next, maxPackets, maxBytes, channel );
+		} else {
+			long bytes = 0;
+			while( ( maxPackets <= 0 || next - cursor < maxPackets ) && ( maxBytes <= 0 || bytes < maxBytes ) ) {
+				Packet packet = mailbox.providePacket();
+				if( packet == null ) {
+					break;
+				}
+				channel.send( packet );
+				bytes += packet.getPayload().getLimit();
+				next++;
+			}
+		}
+		// The cursor follows the acknowledgment request, so the page is
+		// acknowledged before the next one is fetched and sent.
+		channel.requestAcknowledgment();
+		channel.cursor( next );
+	}
+
 	@Override
 	public void onFetchRequested() {
 		Mailbox mailbox = mailboxFactory.createMailbox( channel.getRemoteAddress() );
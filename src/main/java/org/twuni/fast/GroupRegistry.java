@@ -0,0 +1,134 @@
+package org.twuni.fast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.twuni.fast.util.ByteArrayKey;
+
+/**
+ * Holds the members of group addresses, which are managed by the server
+ * rather than by the nodes attached to it. A packet sent to a group address is
+ * delivered to every member of the group, other than its sender, by
+ * {@link InternalPacketTransport}, still addressed to the group so that each
+ * member can tell through which group it arrived. Groups are expanded by the
+ * node which delivers packets for the group address, so their members should
+ * be attached to that node. Groups are looked up for every packet routed, and
+ * change rarely, so the registry is copied on each change and looked up
+ * without locking.
+ */
+public class GroupRegistry implements FAST {
+
+	private static int indexOf( List<byte []> members, byte [] member ) {
+		for( int i = 0; i < members.size(); i++ ) {
+			if( Arrays.equals( members.get( i ), member ) ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private volatile Map<ByteArrayKey, List<byte []>> groups = Collections.emptyMap();
+
+	/**
+	 * Adds the given {@code member} to the given {@code group}, creating the
+	 * group if it has no members yet.
+	 *
+	 * @param group
+	 *            the address of the group.
+	 * @param member
+	 *            the address to which packets sent to the group should be
+	 *            delivered.
+	 * @return this object, for chaining commands.
+	 */
+	public synchronized GroupRegistry add( byte [] group, byte [] member ) {
+		ByteArrayKey key = new ByteArrayKey( group );
+		List<byte []> members = groups.get( key );
+		if( members != null && indexOf( members, member ) >= 0 ) {
+			return this;
+		}
+		List<byte []> changed = new ArrayList<byte []>( members != null ? members : Collections.<byte []> emptyList() );
+		changed.add( member.clone() );
+		update( key, changed );
+		return this;
+	}
+
+	/**
+	 * Adds the given {@code member} to the given {@code group}, creating the
+	 * group if it has no members yet.
+	 *
+	 * @param group
+	 *            the address of the group.
+	 * @param member
+	 *            the address to which packets sent to the group should be
+	 *            delivered.
+	 * @return this object, for chaining commands.
+	 * @see #add(byte[], byte[])
+	 */
+	public GroupRegistry add( String group, String member ) {
+		return add( group.getBytes(), member.getBytes() );
+	}
+
+	/**
+	 * Returns the members of the given {@code group}.
+	 *
+	 * @param group
+	 *            the address which may be a group.
+	 * @return an unmodifiable snapshot of the members of the given
+	 *         {@code group}, or {@code null} if the address is not a group.
+	 */
+	public List<byte []> getMembers( byte [] group ) {
+		return groups.isEmpty() ? null : groups.get( new ByteArrayKey( group ) );
+	}
+
+	/**
+	 * Removes the given {@code member} from the given {@code group}. A group
+	 * left without members is no longer a group, so packets sent to it are
+	 * held for its address like any other.
+	 *
+	 * @param group
+	 *            the address of the group.
+	 * @param member
+	 *            the address to be removed from the group.
+	 * @return this object, for chaining commands.
+	 */
+	public synchronized GroupRegistry remove( byte [] group, byte [] member ) {
+		ByteArrayKey key = new ByteArrayKey( group );
+		List<byte []> members = groups.get( key );
+		int index = members != null ? indexOf( members, member ) : -1;
+		if( index >= 0 ) {
+			List<byte []> changed = new ArrayList<byte []>( members );
+			changed.remove( index );
+			update( key, changed.isEmpty() ? null : changed );
+		}
+		return this;
+	}
+
+	/**
+	 * Removes the given {@code member} from the given {@code group}.
+	 *
+	 * @param group
+	 *            the address of the group.
+	 * @param member
+	 *            the address to be removed from the group.
+	 * @return this object, for chaining commands.
+	 * @see #remove(byte[], byte[])
+	 */
+	public GroupRegistry remove( String group, String member ) {
+		return remove( group.getBytes(), member.getBytes() );
+	}
+
+	private void update( ByteArrayKey key, List<byte []> members ) {
+		Map<ByteArrayKey, List<byte []>> changed = new HashMap<ByteArrayKey, List<byte []>>( groups );
+		if( members != null ) {
+			changed.put( key, Collections.unmodifiableList( members ) );
+		} else {
+			changed.remove( key );
+		}
+		groups = changed;
+	}
+
+}
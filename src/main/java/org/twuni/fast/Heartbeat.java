@@ -0,0 +1,227 @@
+package org.twuni.fast;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.Metrics;
+
+/**
+ * Detects dead and idle sessions. Whenever nothing has been received from the
+ * remote endpoint for a full interval, a PING is sent; if nothing at all --
+ * not even the PONG -- arrives before the idle timeout, the connection is
+ * closed, which disconnects the session and releases everything held on its
+ * behalf. Each PONG also records the round-trip time in the
+ * {@code "heartbeat.rtt"} histogram.
+ *
+ * <p>
+ * Checks run on a shared {@link HashedWheelTimer}, so a node needs no thread
+ * per session to watch its sessions. PINGs are written on a separate executor
+ * rather than on the timer's thread, since a write to a remote endpoint which
+ * has stopped reading may block until its write timeout, which is itself run
+ * by the timer. At most one PING per session is written at a time, and a PING
+ * which the channel cannot accept without waiting is skipped.
+ * </p>
+ */
+public class Heartbeat extends EventHandlerBase {
+
+	private final WriteChannel channel;
+	private final Closeable connection;
+	private final HashedWheelTimer timer;
+	private final Executor executor;
+	private final long interval;
+	private final long idleTimeout;
+	private final Metrics metrics;
+	private final Runnable check = new Runnable() {
+
+		@Override
+		public void run() {
+			check();
+		}
+
+	};
+	private final AtomicBoolean pinging = new AtomicBoolean();
+	private final Runnable ping = new Runnable() {
+
+		@Override
+		public void run() {
+			try {
+				channel.ping( System.nanoTime() );
+			} catch( FASTException ignore ) {
+				// The idle timeout will close the session.
+			} finally {
+				pinging.set( false );
+			}
+		}
+
+	};
+
+	private volatile long lastActivity = System.nanoTime();
+	private volatile boolean stopped;
+	private HashedWheelTimer.Timeout timeout;
+
+	/**
+	 * Initializes this handler to watch the session on the given
+	 * {@code channel}.
+	 *
+	 * @param channel
+	 *            the channel along which PINGs are sent.
+	 * @param connection
+	 *            the connection to close once the session has been idle for
+	 *            too long, such as the socket's input stream.
+	 * @param timer
+	 *            the timer on which checks are scheduled.
+	 * @param executor
+	 *            the executor on which PINGs are written.
+	 * @param interval
+	 *            how long, in milliseconds, the session may be quiet before a
+	 *            PING is sent, or zero to disable this handler.
+	 * @param idleTimeout
+	 *            how long, in milliseconds, the session may be quiet before it
+	 *            is closed.
+	 * @param metrics
+	 *            the registry in which round-trip times and closed sessions
+	 *            are recorded.
+	 */
+	public Heartbeat( WriteChannel channel, Closeable connection, HashedWheelTimer timer, Executor executor, long interval, long idleTimeout, Metrics metrics ) {
+		this.channel = channel;
+		this.connection = connection;
+		this.timer = timer;
+		this.executor = executor;
+		this.interval = TimeUnit.MILLISECONDS.toNanos( interval );
+		this.idleTimeout = TimeUnit.MILLISECONDS.toNanos( Math.max( interval, idleTimeout ) );
+		this.metrics = metrics;
+	}
+
+	private void check() {
+		if( stopped ) {
+			return;
+		}
+		long idle = System.nanoTime() - lastActivity;
+		if( idle >= idleTimeout ) {
+			metrics.counter( "heartbeat.reaped" ).incrementAndGet();
+			stop();
+			try {
+				connection.close();
+			} catch( IOException ignore ) {
+				// Ignore.
+			}
+			return;
+		}
+		if( idle >= interval && pinging.compareAndSet( false, true ) ) {
+			try {
+				executor.execute( ping );
+			} catch( RejectedExecutionException exception ) {
+				pinging.set( false );
+			}
+		}
+		schedule( Math.min( interval, idleTimeout - idle ) );
+	}
+
+	@Override
+	public void onAcknowledgmentReceived( int n ) {
+		touch();
+	}
+
+	@Override
+	public void onAcknowledgmentRequested() {
+		touch();
+	}
+
+	@Override
+	public void onAttachRequested( byte [] address ) {
+		touch();
+	}
+
+	@Override
+	public void onConnected() {
+		touch();
+		schedule( interval );
+	}
+
+	@Override
+	public void onCredentialReceived( byte [] credential ) {
+		touch();
+	}
+
+	@Override
+	public void onCreditReceived( int n ) {
+		touch();
+	}
+
+	@Override
+	public void onCursorReceived( long cursor ) {
+		touch();
+	}
+
+	@Override
+	public void onDisconnected() {
+		stop();
+	}
+
+	@Override
+	public void onFetchFromRequested( long cursor, int maxPackets, int maxBytes ) {
+		touch();
+	}
+
+	@Override
+	public void onFetchRequested() {
+		touch();
+	}
+
+	@Override
+	public void onIdentityReceived( byte [] identity ) {
+		touch();
+	}
+
+	@Override
+	public void onPacketReceived( Packet packet ) {
+		touch();
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		touch();
+	}
+
+	@Override
+	public void onPongReceived( long payload ) {
+		touch();
+		long rtt = System.nanoTime() - payload;
+		if( rtt >= 0 ) {
+			metrics.histogram( "heartbeat.rtt" ).record( TimeUnit.NANOSECONDS.toMicros( rtt ) );
+		}
+	}
+
+	@Override
+	public void onSessionCreated( byte [] sessionID ) {
+		touch();
+	}
+
+	private synchronized void schedule( long delay ) {
+		if( stopped || interval <= 0 ) {
+			return;
+		}
+		timeout = timer.schedule( check, delay, TimeUnit.NANOSECONDS );
+	}
+
+	private synchronized void stop() {
+		stopped = true;
+		if( timeout != null ) {
+			timeout.cancel();
+			timeout = null;
+		}
+	}
+
+	private void touch() {
+		lastActivity = System.nanoTime();
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.twuni.fast;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.LruCache;
+
+/**
+ * A {@link PasswordAuthenticatorBase} whose password hashes are read from a
+ * memory-mapped {@link CredentialIndex} rather than held in memory, so that it
+ * starts in constant time however many accounts the index holds. The most
+ * recently used hashes are kept on the heap in a bounded hot set. Passwords
+ * cannot be changed individually; instead, a new index is written in the
+ * background with a {@link CredentialIndex.Writer} and then picked up with
+ * {@link #reload()}, which swaps it in atomically.
+ */
+public class IndexedPasswordAuthenticator extends PasswordAuthenticatorBase {
+
+	/**
+	 * The default number of password hashes kept on the heap.
+	 */
+	public static final int DEFAULT_HOT_SET_CAPACITY = 65536;
+
+	private static class Generation {
+
+		final CredentialIndex index;
+		final LruCache<ByteArrayKey, PasswordHash> hot;
+
+		Generation( CredentialIndex index, int hotSetCapacity ) {
+			this.index = index;
+			hot = new LruCache<ByteArrayKey, PasswordHash>( hotSetCapacity );
+		}
+
+	}
+
+	private final File file;
+	private final int hotSetCapacity;
+	private volatile Generation generation;
+
+	/**
+	 * Initializes this authenticator to read password hashes from the index
+	 * at the given location, with the default hot set and verified-credential
+	 * cache.
+	 *
+	 * @param file
+	 *            the location of the index.
+	 * @throws IOException
+	 *             if the index cannot be opened.
+	 */
+	public IndexedPasswordAuthenticator( File file ) throws IOException {
+		this( file, DEFAULT_HOT_SET_CAPACITY, DEFAULT_CACHE_CAPACITY, DEFAULT_CACHE_TIME_TO_LIVE );
+	}
+
+	/**
+	 * Initializes this authenticator to read password hashes from the index
+	 * at the given location.
+	 *
+	 * @param file
+	 *            the location of the index.
+	 * @param hotSetCapacity
+	 *            the maximum number of password hashes kept on the heap.
+	 * @param cacheCapacity
+	 *            the maximum number of verified credentials to remember.
+	 * @param cacheTimeToLive
+	 *            how long, in milliseconds, a verified credential is
+	 *            remembered.
+	 * @throws IOException
+	 *             if the index cannot be opened.
+	 */
+	public IndexedPasswordAuthenticator( File file, int hotSetCapacity, int cacheCapacity, long cacheTimeToLive ) throws IOException {
+		super( cacheCapacity, cacheTimeToLive );
+		this.file = file;
+		this.hotSetCapacity = hotSetCapacity;
+		generation = new Generation( CredentialIndex.open( file ), hotSetCapacity );
+	}
+
+	@Override
+	protected PasswordHash getPasswordHash( byte [] realm, byte [] identity ) {
+		Generation g = generation;
+		byte [] k = new byte [realm.length + 1 + identity.length];
+		System.arraycopy( realm, 0, k, 0, realm.length );
+		System.arraycopy( identity, 0, k, realm.length + 1, identity.length );
+		ByteArrayKey key = new ByteArrayKey( k );
+		PasswordHash hash = g.hot.get( key );
+		if( hash == null ) {
+			hash = g.index.find( realm, identity );
+			if( hash != null ) {
+				g.hot.put( key, hash );
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Re-opens the index, picking up any index which has been renamed into its
+	 * place since this authenticator last opened it. Lookups in progress
+	 * finish against the old index.
+	 *
+	 * @throws IOException
+	 *             if the index cannot be opened, in which case the old index
+	 *             remains in use.
+	 */
+	public void reload() throws IOException {
+		generation = new Generation( CredentialIndex.open( file ), hotSetCapacity );
+	}
+
+}
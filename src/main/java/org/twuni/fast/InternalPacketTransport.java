@@ -1,49 +1,259 @@
 package org.twuni.fast;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.twuni.fast.exception.FASTWriteException;
 import org.twuni.fast.io.WriteChannel;
 import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.ByteArrayKey;
 
 /**
- * Provides and delivers packets to local addresses.
+ * Provides and delivers packets to local addresses. Packets for addresses with
+ * no attached channel, or whose channels are all backlogged, are held in a
+ * {@link PacketStore} until they are fetched.
+ * <p>
+ * A packet sent to a group address of a {@link GroupRegistry} is delivered to
+ * each member of the group other than its sender. The packet is encoded only
+ * once, the first time it is offered to a channel, and the same frame is
+ * offered to the channels of every member, or the same packet is held for
+ * every member without an attached channel, so delivering to a large group
+ * costs one encoding and a write per member.
+ * </p>
+ * <p>
+ * A packet is also delivered to each address subscribed to a pattern of a
+ * {@link SubscriptionTrie} which matches its destination, still addressed to
+ * its destination. An address receives each packet once, however many of its
+ * groups and patterns lead to it. A packet is still held for its destination,
+ * or for the members of its group, as if it had no subscribers, but copies
+ * are delivered only to subscribers with an attached channel, since a
+ * subscription lasts only as long as its connection.
+ * </p>
+ * <p>
+ * A packet routed with a completion is tracked until it has been written to
+ * every channel which accepted it, so that {@link FlowControl} keeps the
+ * sender's credit while the packet waits in a slow recipient's queue. A packet
+ * held in the store is complete as soon as it is held.
+ * </p>
  */
-public class InternalPacketTransport implements MailboxFactory, PacketRouter {
+public class InternalPacketTransport implements MailboxFactory, TrackingPacketRouter {
+
+	/**
+	 * Counts the channels which have accepted a packet but not yet written
+	 * it, and runs the packet's completion once routing has finished and the
+	 * last of them has written it.
+	 */
+	private static class Delivery {
+
+		private final Runnable completion;
+		private final AtomicInteger pending = new AtomicInteger( 1 );
+
+		Delivery( Runnable completion ) {
+			this.completion = completion;
+		}
+
+		void complete() {
+			if( pending.decrementAndGet() == 0 ) {
+				completion.run();
+			}
+		}
+
+		/**
+		 * Returns a task to be run once a channel has written the packet,
+		 * which counts only the first time it is run.
+		 */
+		Runnable expect() {
+			pending.incrementAndGet();
+			final AtomicBoolean done = new AtomicBoolean();
+			return new Runnable() {
+
+				@Override
+				public void run() {
+					if( done.compareAndSet( false, true ) ) {
+						complete();
+					}
+				}
+
+			};
+		}
 
-	private static String toLocator( byte [] address ) {
-		return Integer.toHexString( Arrays.hashCode( address ) );
 	}
 
-	private final Map<String, List<Packet>> registry = new HashMap<String, List<Packet>>();
 	private final WriteChannelProvider writeChannelProvider;
+	private final PacketStore store;
+	private final GroupRegistry groups;
+	private final SubscriptionTrie subscriptions;
 
+	/**
+	 * Initializes this transport to deliver packets to the channels provided
+	 * by the given {@code writeChannelProvider}, holding packets on the heap
+	 * within the limits of the default {@link MailboxPolicy}.
+	 *
+	 * @param writeChannelProvider
+	 *            the provider of the channels attached to each address.
+	 */
 	public InternalPacketTransport( WriteChannelProvider writeChannelProvider ) {
+		this( writeChannelProvider, new MemoryPacketStore() );
+	}
+
+	/**
+	 * Initializes this transport to deliver packets to the channels provided
+	 * by the given {@code writeChannelProvider}, holding undeliverable packets
+	 * in the given {@code store}.
+	 *
+	 * @param writeChannelProvider
+	 *            the provider of the channels attached to each address.
+	 * @param store
+	 *            the store in which packets are held until they are fetched.
+	 */
+	public InternalPacketTransport( WriteChannelProvider writeChannelProvider, PacketStore store ) {
+		this( writeChannelProvider, store, null );
+	}
+
+	/**
+	 * Initializes this transport to deliver packets to the channels provided
+	 * by the given {@code writeChannelProvider}, holding undeliverable packets
+	 * in the given {@code store}, and delivering packets sent to a group to
+	 * each of its members.
+	 *
+	 * @param writeChannelProvider
+	 *            the provider of the channels attached to each address.
+	 * @param store
+	 *            the store in which packets are held until they are fetched.
+	 * @param groups
+	 *            the registry of group addresses, or {@code null} if there are
+	 *            none.
+	 */
+	public InternalPacketTransport( WriteChannelProvider writeChannelProvider, PacketStore store, GroupRegistry groups ) {
+		this( writeChannelProvider, store, groups, null );
+	}
+
+	/**
+	 * Initializes this transport to deliver packets to the channels provided
+	 * by the given {@code writeChannelProvider}, holding undeliverable packets
+	 * in the given {@code store}, delivering packets sent to a group to each
+	 * of its members, and delivering a copy of each packet to the subscribers
+	 * of its destination.
+	 *
+	 * @param writeChannelProvider
+	 *            the provider of the channels attached to each address.
+	 * @param store
+	 *            the store in which packets are held until they are fetched.
+	 * @param groups
+	 *            the registry of group addresses, or {@code null} if there are
+	 *            none.
+	 * @param subscriptions
+	 *            the subscriptions to patterns of addresses, or {@code null}
+	 *            if there are none.
+	 */
+	public InternalPacketTransport( WriteChannelProvider writeChannelProvider, PacketStore store, GroupRegistry groups, SubscriptionTrie subscriptions ) {
 		this.writeChannelProvider = writeChannelProvider;
+		this.store = store;
+		this.groups = groups;
+		this.subscriptions = subscriptions;
 	}
 
 	@Override
-	public Mailbox createMailbox( byte [] address ) {
-		return new SimpleMailbox( getPacketList( address ) );
+	public Mailbox createMailbox( final byte [] address ) {
+		return new PagedMailbox() {
+
+			@Override
+			public void acknowledge( long cursor ) {
+				store.acknowledge( address, cursor );
+			}
+
+			@Override
+			public Packet providePacket() {
+				return store.take( address );
+			}
+
+			@Override
+			public long providePage( long cursor, int maxPackets, long maxBytes, List<Packet> page ) {
+				return store.peek( address, cursor, maxPackets, maxBytes, page );
+			}
+
+			@Override
+			public long transferPage( long cursor, int maxPackets, long maxBytes, WriteChannel channel ) {
+				return store.transfer( address, cursor, maxPackets, maxBytes, channel );
+			}
+
+		};
 	}
 
-	private List<Packet> getPacketList( byte [] address ) {
-		String locator = toLocator( address );
-		List<Packet> packetList = registry.get( locator );
-		if( packetList == null ) {
-			packetList = new ArrayList<Packet>();
-			registry.put( locator, packetList );
+	/**
+	 * Delivers the given {@code packet} to the channels attached to the given
+	 * {@code address}, or else holds it for the address if {@code hold} is
+	 * set. The given {@code delivery}, if any, waits for each channel which
+	 * accepts the packet to write it.
+	 */
+	private void deliver( byte [] address, Packet packet, boolean hold, Delivery delivery ) {
+
+		Set<WriteChannel> channels = writeChannelProvider.provideWriteChannels( address );
+
+		if( channels.isEmpty() ) {
+			if( hold ) {
+				store.store( address, packet );
+			}
+			return;
 		}
-		return packetList;
+
+		boolean accepted = false;
+
+		for( WriteChannel channel : channels ) {
+			Runnable written = delivery != null ? delivery.expect() : null;
+			try {
+				if( written == null ) {
+					accepted |= channel.offer( packet );
+				} else if( channel.offer( packet, written ) ) {
+					accepted = true;
+				} else {
+					written.run();
+				}
+			} catch( FASTWriteException exception ) {
+				if( written != null ) {
+					written.run();
+				}
+				writeChannelProvider.detach( address, channel );
+			}
+		}
+
+		if( !accepted ) {
+			// Every recipient is backlogged, so hold the packet until one catches up.
+			store.store( address, packet );
+		}
+
+	}
+
+	/**
+	 * Returns the addresses for which at least one packet is currently queued.
+	 *
+	 * @return the addresses for which at least one packet is currently queued.
+	 */
+	public List<byte []> getQueuedAddresses() {
+		return store.getQueuedAddresses();
 	}
 
 	@Override
 	public void routePacket( Packet packet ) {
+		route( packet, null );
+	}
+
+	@Override
+	public void routePacket( Packet packet, Runnable completion ) {
+		Delivery delivery = new Delivery( completion );
+		try {
+			route( packet, delivery );
+		} finally {
+			delivery.complete();
+		}
+	}
+
+	private void route( Packet packet, Delivery delivery ) {
 
 		byte [] address = packet.getTo();
 
@@ -52,18 +262,31 @@ public class InternalPacketTransport implements MailboxFactory, PacketRouter {
 			return;
 		}
 
-		Set<WriteChannel> channels = writeChannelProvider.provideWriteChannels( address );
+		List<byte []> members = groups != null ? groups.getMembers( address ) : null;
+		List<byte []> subscribers = subscriptions != null ? subscriptions.match( address ) : Collections.<byte []> emptyList();
 
-		if( channels.isEmpty() ) {
-			getPacketList( address ).add( packet );
+		if( members == null && subscribers.isEmpty() ) {
+			deliver( address, packet, true, delivery );
 			return;
 		}
 
-		for( WriteChannel channel : channels ) {
-			try {
-				channel.send( packet );
-			} catch( FASTWriteException exception ) {
-				writeChannelProvider.detach( address, channel );
+		Set<ByteArrayKey> recipients = new HashSet<ByteArrayKey>();
+		recipients.add( new ByteArrayKey( packet.getFrom() ) );
+
+		if( members == null ) {
+			recipients.add( new ByteArrayKey( address ) );
+			deliver( address, packet, true, delivery );
+		} else {
+			for( byte [] member : members ) {
+				if( recipients.add( new ByteArrayKey( member ) ) ) {
+					deliver( member, packet, true, delivery );
+				}
+			}
+		}
+
+		for( byte [] subscriber : subscribers ) {
+			if( recipients.add( new ByteArrayKey( subscriber ) ) ) {
+				deliver( subscriber, packet, false, delivery );
 			}
 		}
 
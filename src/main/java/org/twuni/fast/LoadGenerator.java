@@ -0,0 +1,304 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.Histogram;
+import org.twuni.fast.util.IOUtils;
+
+/**
+ * Drives synthetic traffic through a loopback {@link Server} from a number of
+ * {@link Client}s and reports throughput and end-to-end latency percentiles.
+ */
+public class LoadGenerator {
+
+	/**
+	 * Determines which clients receive the packets sent by each client.
+	 */
+	public static enum Pattern {
+
+		/**
+		 * Each client sends to the {@code fanout} clients that follow it.
+		 */
+		RING,
+
+		/**
+		 * Every client sends to the first client.
+		 */
+		FUNNEL,
+
+		/**
+		 * Every client sends to every other client.
+		 */
+		BROADCAST;
+
+		int [] recipients( int sender, int clientCount, int fanout ) {
+			switch( this ) {
+				case FUNNEL:
+					return new int [] { 0 };
+				case BROADCAST:
+					int [] all = new int [clientCount - 1];
+					for( int i = 0, j = 0; i < clientCount; i++ ) {
+						if( i != sender ) {
+							all[j++] = i;
+						}
+					}
+					return all;
+				case RING:
+				default:
+					int [] next = new int [Math.min( fanout, clientCount - 1 )];
+					for( int i = 0; i < next.length; i++ ) {
+						next[i] = ( sender + i + 1 ) % clientCount;
+					}
+					return next;
+			}
+		}
+
+	}
+
+	private class LatencyRecorder implements PacketListener {
+
+		@Override
+		public void onPacketReceived( Packet packet ) {
+			long now = System.nanoTime();
+			received.incrementAndGet();
+			InputStream payload = packet.getPayload().getInputStream();
+			try {
+				payload.mark( TIMESTAMP_LENGTH );
+				long sentAt = IOUtils.readLong( payload );
+				payload.reset();
+				latency.record( TimeUnit.NANOSECONDS.toMicros( now - sentAt ) );
+			} catch( IOException ignore ) {
+				// A payload too short to carry a timestamp is not measured.
+			}
+		}
+
+		@Override
+		public void onPacketSent( Packet packet ) {
+			sent.incrementAndGet();
+		}
+
+	}
+
+	private static class Ready implements ConnectionListener {
+
+		private final CountDownLatch latch;
+
+		public Ready( CountDownLatch latch ) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void onConnected( WriteChannel writeChannel ) {
+			latch.countDown();
+		}
+
+		@Override
+		public void onDisconnected( WriteChannel writeChannel ) {
+			// Ignore.
+		}
+
+	}
+
+	private class Sender implements Runnable {
+
+		private final Client client;
+		private final byte [][] recipients;
+		private final long deadline;
+
+		public Sender( Client client, byte [][] recipients, long deadline ) {
+			this.client = client;
+			this.recipients = recipients;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			long interval = rate > 0 ? TimeUnit.SECONDS.toNanos( 1 ) / rate : 0;
+			long next = System.nanoTime();
+			while( !Thread.interrupted() && System.nanoTime() < deadline ) {
+				for( byte [] recipient : recipients ) {
+					byte [] payload = new byte [payloadSize];
+					System.arraycopy( IOUtils.toByteArray( System.nanoTime() ), 0, payload, 0, TIMESTAMP_LENGTH );
+					client.send( new Packet( client.getIdentity(), recipient, payload ) );
+				}
+				if( interval > 0 ) {
+					next += interval;
+					long delay = next - System.nanoTime();
+					if( delay > 0 ) {
+						try {
+							TimeUnit.NANOSECONDS.sleep( delay );
+						} catch( InterruptedException exception ) {
+							return;
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+	private static final int TIMESTAMP_LENGTH = 8;
+
+	private static final long MAXIMUM_LATENCY = TimeUnit.MINUTES.toMicros( 1 );
+
+	public static void main( String [] args ) throws Exception {
+
+		LoadGenerator g = new LoadGenerator();
+
+		for( int i = 0; i < args.length; i++ ) {
+
+			if( "-?".equals( args[i] ) ) {
+				printUsage();
+				return;
+			}
+
+			if( "-p".equals( args[i] ) ) {
+				g.port = Integer.parseInt( args[++i] );
+				continue;
+			}
+
+			if( "-c".equals( args[i] ) ) {
+				g.clientCount = Integer.parseInt( args[++i] );
+				continue;
+			}
+
+			if( "-r".equals( args[i] ) ) {
+				g.rate = Integer.parseInt( args[++i] );
+				continue;
+			}
+
+			if( "-s".equals( args[i] ) ) {
+				g.payloadSize = Math.max( TIMESTAMP_LENGTH, Integer.parseInt( args[++i] ) );
+				continue;
+			}
+
+			if( "-d".equals( args[i] ) ) {
+				g.duration = Integer.parseInt( args[++i] );
+				continue;
+			}
+
+			if( "-f".equals( args[i] ) ) {
+				g.fanout = Integer.parseInt( args[++i] );
+				continue;
+			}
+
+			if( "-m".equals( args[i] ) ) {
+				g.pattern = Pattern.valueOf( args[++i].toUpperCase() );
+				continue;
+			}
+
+		}
+
+		g.run();
+		System.exit( 0 );
+
+	}
+
+	private static void printUsage() {
+		System.out.println( "Usage: fast-load OPTIONS" );
+		System.out.println( "OPTIONS:" );
+		System.out.println( "    -?           Print this help message." );
+		System.out.println( "    -p <port>    Default: 4857" );
+		System.out.println( "    -c <clients> Number of synthetic clients. Default: 16" );
+		System.out.println( "    -r <rate>    Packets per second sent by each client, or 0 for unlimited. Default: 1000" );
+		System.out.println( "    -s <bytes>   Payload size, at least 8. Default: 64" );
+		System.out.println( "    -d <seconds> Duration of the measurement. Default: 10" );
+		System.out.println( "    -f <fanout>  Recipients per packet for the ring pattern. Default: 1" );
+		System.out.println( "    -m <pattern> One of ring, funnel, broadcast. Default: ring" );
+	}
+
+	private int port = 4857;
+	private int clientCount = 16;
+	private int rate = 1000;
+	private int payloadSize = 64;
+	private int duration = 10;
+	private int fanout = 1;
+	private Pattern pattern = Pattern.RING;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final Histogram latency = new Histogram( MAXIMUM_LATENCY, 3 );
+
+	private Client connect( int index, CountDownLatch ready ) throws IOException {
+		Client.Builder b = new Client.Builder().secure( false ).host( "localhost" ).port( port );
+		b.credential( String.format( "load%d", Integer.valueOf( index ) ), "load" );
+		b.packetListener( new LatencyRecorder() ).connectionListener( new Ready( ready ) );
+		for( int attempt = 0;; attempt++ ) {
+			try {
+				return b.build();
+			} catch( ConnectException exception ) {
+				if( attempt >= 50 ) {
+					throw exception;
+				}
+				relax( 100 );
+			}
+		}
+	}
+
+	private static void relax( long ms ) {
+		try {
+			Thread.sleep( ms );
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Starts a server, connects the configured number of clients, drives
+	 * traffic between them for the configured duration, and prints a report.
+	 *
+	 * @throws IOException
+	 *             if a client is unable to connect to the server.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted.
+	 */
+	public void run() throws IOException, InterruptedException {
+
+		Server server = new Server.Builder().secure( false ).port( port ).build();
+		server.startListening();
+
+		CountDownLatch ready = new CountDownLatch( clientCount );
+		Client [] clients = new Client [clientCount];
+		for( int i = 0; i < clientCount; i++ ) {
+			clients[i] = connect( i, ready );
+		}
+		ready.await();
+
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.SECONDS.toNanos( duration );
+		Thread [] senders = new Thread [clientCount];
+		for( int i = 0; i < clientCount; i++ ) {
+			int [] indices = pattern.recipients( i, clientCount, fanout );
+			byte [][] recipients = new byte [indices.length] [];
+			for( int j = 0; j < indices.length; j++ ) {
+				recipients[j] = clients[indices[j]].getIdentity();
+			}
+			senders[i] = new Thread( new Sender( clients[i], recipients, deadline ), String.format( "%s(%d)", Sender.class.getName(), Integer.valueOf( i ) ) );
+			senders[i].start();
+		}
+		for( Thread sender : senders ) {
+			sender.join();
+		}
+
+		relax( 500 );
+		double elapsed = ( System.nanoTime() - start ) / 1e9;
+
+		for( Client client : clients ) {
+			client.close();
+		}
+		server.stopListening();
+
+		System.out.println( String.format( "(fast/load :clients %d :pattern :%s :fanout %d :rate %d :payload %d :duration %d)", Integer.valueOf( clientCount ), pattern.name().toLowerCase(), Integer.valueOf( fanout ), Integer.valueOf( rate ), Integer.valueOf( payloadSize ), Integer.valueOf( duration ) ) );
+		System.out.println( String.format( "(throughput :sent %d :received %d :packets-per-second %.1f :bytes-per-second %.1f)", Long.valueOf( sent.get() ), Long.valueOf( received.get() ), Double.valueOf( received.get() / elapsed ), Double.valueOf( received.get() * payloadSize / elapsed ) ) );
+		System.out.println( String.format( "(latency :unit :us :min %d :mean %.1f :p50 %d :p99 %d :p99.9 %d :max %d)", Long.valueOf( latency.getMinimum() ), Double.valueOf( latency.getMean() ), Long.valueOf( latency.getValueAtPercentile( 50 ) ), Long.valueOf( latency.getValueAtPercentile( 99 ) ), Long.valueOf( latency.getValueAtPercentile( 99.9 ) ), Long.valueOf( latency.getMaximum() ) ) );
+
+	}
+
+}
@@ -0,0 +1,302 @@
+package org.twuni.fast;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many packets a {@link PacketStore} holds for addresses which are
+ * not currently attached, how long it holds them, and what happens to a packet
+ * which would exceed those limits. Limits apply both to each address and to
+ * the store as a whole, and are counted both in packets and in bytes. A limit
+ * of zero means no limit.
+ */
+public class MailboxPolicy {
+
+	/**
+	 * What a store does with a packet that would exceed one of its limits.
+	 */
+	public static enum Eviction {
+
+		/**
+		 * Discard the oldest packets held, for the same address when that
+		 * address is over its limit, or for any address when the store as a
+		 * whole is, until the new packet fits.
+		 */
+		OLDEST_FIRST,
+
+		/**
+		 * Discard the new packet, keeping those already held.
+		 */
+		REJECT_NEW
+
+	}
+
+	/**
+	 * Builds a new {@link MailboxPolicy} instance.
+	 */
+	public static class Builder {
+
+		private int maxPackets;
+		private long maxBytes;
+		private int maxPacketsPerAddress;
+		private long maxBytesPerAddress;
+		private long timeToLive;
+		private Eviction eviction;
+
+		/**
+		 * Initializes a new builder in its default state.
+		 */
+		public Builder() {
+			reset();
+		}
+
+		/**
+		 * Creates a new {@link MailboxPolicy} instance initialized from this
+		 * builder's configuration.
+		 *
+		 * @return the newly constructed policy.
+		 */
+		public MailboxPolicy build() {
+			return new MailboxPolicy( maxPackets, maxBytes, maxPacketsPerAddress, maxBytesPerAddress, timeToLive, eviction );
+		}
+
+		/**
+		 * Configures what the store does with a packet that would exceed one
+		 * of its limits.
+		 *
+		 * @param eviction
+		 *            what to discard when a limit would be exceeded.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder eviction( Eviction eviction ) {
+			this.eviction = eviction;
+			return this;
+		}
+
+		/**
+		 * Limits the total size of the packets held for all addresses.
+		 *
+		 * @param maxBytes
+		 *            the maximum number of bytes held, or zero for no limit.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder maxBytes( long maxBytes ) {
+			this.maxBytes = maxBytes;
+			return this;
+		}
+
+		/**
+		 * Limits the total size of the packets held for each address.
+		 *
+		 * @param maxBytesPerAddress
+		 *            the maximum number of bytes held for each address, or
+		 *            zero for no limit.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder maxBytesPerAddress( long maxBytesPerAddress ) {
+			this.maxBytesPerAddress = maxBytesPerAddress;
+			return this;
+		}
+
+		/**
+		 * Limits the number of packets held for all addresses.
+		 *
+		 * @param maxPackets
+		 *            the maximum number of packets held, or zero for no limit.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder maxPackets( int maxPackets ) {
+			this.maxPackets = maxPackets;
+			return this;
+		}
+
+		/**
+		 * Limits the number of packets held for each address.
+		 *
+		 * @param maxPacketsPerAddress
+		 *            the maximum number of packets held for each address, or
+		 *            zero for no limit.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder maxPacketsPerAddress( int maxPacketsPerAddress ) {
+			this.maxPacketsPerAddress = maxPacketsPerAddress;
+			return this;
+		}
+
+		/**
+		 * Resets this builder to its default state.
+		 *
+		 * @return this object, for chaining commands.
+		 */
+		public Builder reset() {
+			maxPackets = DEFAULT_MAX_PACKETS;
+			maxBytes = DEFAULT_MAX_BYTES;
+			maxPacketsPerAddress = DEFAULT_MAX_PACKETS_PER_ADDRESS;
+			maxBytesPerAddress = DEFAULT_MAX_BYTES_PER_ADDRESS;
+			timeToLive = DEFAULT_TIME_TO_LIVE;
+			eviction = Eviction.REJECT_NEW;
+			return this;
+		}
+
+		/**
+		 * Configures how long each packet is held before it expires.
+		 *
+		 * @param timeToLive
+		 *            how long, in milliseconds, a packet is held after it
+		 *            arrives, or zero to hold packets until they are fetched
+		 *            or evicted.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder timeToLive( long timeToLive ) {
+			this.timeToLive = timeToLive;
+			return this;
+		}
+
+	}
+
+	/**
+	 * The default maximum number of packets held for all addresses.
+	 */
+	public static final int DEFAULT_MAX_PACKETS = 1000000;
+
+	/**
+	 * The default maximum number of bytes held for all addresses.
+	 */
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * The default maximum number of packets held for each address.
+	 */
+	public static final int DEFAULT_MAX_PACKETS_PER_ADDRESS = 10000;
+
+	/**
+	 * The default maximum number of bytes held for each address.
+	 */
+	public static final long DEFAULT_MAX_BYTES_PER_ADDRESS = 16L * 1024 * 1024;
+
+	/**
+	 * The default time, in milliseconds, for which a packet is held.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.DAYS.toMillis( 7 );
+
+	private final int maxPackets;
+	private final long maxBytes;
+	private final int maxPacketsPerAddress;
+	private final long maxBytesPerAddress;
+	private final long timeToLive;
+	private final Eviction eviction;
+
+	/**
+	 * Initializes a policy with the given limits.
+	 *
+	 * @param maxPackets
+	 *            the maximum number of packets held, or zero for no limit.
+	 * @param maxBytes
+	 *            the maximum number of bytes held, or zero for no limit.
+	 * @param maxPacketsPerAddress
+	 *            the maximum number of packets held for each address, or zero
+	 *            for no limit.
+	 * @param maxBytesPerAddress
+	 *            the maximum number of bytes held for each address, or zero for
+	 *            no limit.
+	 * @param timeToLive
+	 *            how long, in milliseconds, a packet is held after it arrives,
+	 *            or zero for no limit.
+	 * @param eviction
+	 *            what to discard when a limit would be exceeded.
+	 */
+	protected MailboxPolicy( int maxPackets, long maxBytes, int maxPacketsPerAddress, long maxBytesPerAddress, long timeToLive, Eviction eviction ) {
+		this.maxPackets = maxPackets;
+		this.maxBytes = maxBytes;
+		this.maxPacketsPerAddress = maxPacketsPerAddress;
+		this.maxBytesPerAddress = maxBytesPerAddress;
+		this.timeToLive = timeToLive;
+		this.eviction = eviction != null ? eviction : Eviction.REJECT_NEW;
+	}
+
+	/**
+	 * Returns what the store does with a packet that would exceed one of its
+	 * limits.
+	 *
+	 * @return what to discard when a limit would be exceeded.
+	 */
+	public Eviction getEviction() {
+		return eviction;
+	}
+
+	/**
+	 * Returns the maximum number of bytes held for all addresses.
+	 *
+	 * @return the maximum number of bytes held, or zero for no limit.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Returns the maximum number of bytes held for each address.
+	 *
+	 * @return the maximum number of bytes held for each address, or zero for
+	 *         no limit.
+	 */
+	public long getMaxBytesPerAddress() {
+		return maxBytesPerAddress;
+	}
+
+	/**
+	 * Returns the maximum number of packets held for all addresses.
+	 *
+	 * @return the maximum number of packets held, or zero for no limit.
+	 */
+	public int getMaxPackets() {
+		return maxPackets;
+	}
+
+	/**
+	 * Returns the maximum number of packets held for each address.
+	 *
+	 * @return the maximum number of packets held for each address, or zero for
+	 *         no limit.
+	 */
+	public int getMaxPacketsPerAddress() {
+		return maxPacketsPerAddress;
+	}
+
+	/**
+	 * Returns how long each packet is held before it expires.
+	 *
+	 * @return how long, in milliseconds, a packet is held after it arrives, or
+	 *         zero for no limit.
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Tests whether an address holding the given number of packets and bytes
+	 * would be over this policy's per-address limits.
+	 *
+	 * @param packets
+	 *            the number of packets held for the address.
+	 * @param bytes
+	 *            the number of bytes held for the address.
+	 * @return {@code true} if either per-address limit would be exceeded.
+	 */
+	public boolean isAddressOverLimit( int packets, long bytes ) {
+		return maxPacketsPerAddress > 0 && packets > maxPacketsPerAddress || maxBytesPerAddress > 0 && bytes > maxBytesPerAddress;
+	}
+
+	/**
+	 * Tests whether a store holding the given number of packets and bytes
+	 * would be over this policy's overall limits.
+	 *
+	 * @param packets
+	 *            the number of packets held for all addresses.
+	 * @param bytes
+	 *            the number of bytes held for all addresses.
+	 * @return {@code true} if either overall limit would be exceeded.
+	 */
+	public boolean isOverLimit( int packets, long bytes ) {
+		return maxPackets > 0 && packets > maxPackets || maxBytes > 0 && bytes > maxBytes;
+	}
+
+}
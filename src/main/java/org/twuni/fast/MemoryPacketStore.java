@@ -0,0 +1,364 @@
+package org.twuni.fast;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.Metrics;
+
+/**
+ * Holds packets on the heap within the limits of a {@link MailboxPolicy}.
+ * Besides each address's own queue, every held packet is linked into a single
+ * list in order of arrival, so the oldest packet overall can be found in
+ * constant time both to evict it and to expire it. Since every packet is held
+ * for the same time, packets expire in order of arrival, and a single task on
+ * a {@link HashedWheelTimer}, scheduled for when the oldest packet expires,
+ * discards expired packets even for addresses which never fetch them. The
+ * task discards a bounded number of packets at a time, and is scheduled again
+ * for the next tick while expired packets remain, so neither the store nor
+ * the timer shared with other deadlines is held up by a large expiry.
+ * <p>
+ * The cursor of each packet is a sequence number which starts from the time
+ * the store was initialized, in microseconds, so that cursors keep increasing
+ * when the store is replaced after a restart.
+ * </p>
+ * <p>
+ * The following metrics are recorded: counters {@code mailbox.stored},
+ * {@code mailbox.delivered}, {@code mailbox.rejected}, {@code mailbox.evicted}
+ * and {@code mailbox.expired}, each counting packets, and counters
+ * {@code mailbox.packets} and {@code mailbox.bytes}, holding the current
+ * totals.
+ * </p>
+ */
+public class MemoryPacketStore implements PacketStore {
+
+	private static final int REAP_BATCH_SIZE = 1024;
+
+	private static class Entry {
+
+		final Packet packet;
+		final AddressQueue mailbox;
+		final int size;
+		final long expiresAt;
+		final long sequence;
+		Entry older;
+		Entry newer;
+
+		Entry( Packet packet, AddressQueue mailbox, int size, long expiresAt, long sequence ) {
+			this.packet = packet;
+			this.mailbox = mailbox;
+			this.size = size;
+			this.expiresAt = expiresAt;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private static class AddressQueue {
+
+		final byte [] address;
+		final ByteArrayKey key;
+		final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+		long bytes;
+
+		AddressQueue( byte [] address, ByteArrayKey key ) {
+			this.address = address;
+			this.key = key;
+		}
+
+	}
+
+	/**
+	 * Returns the size of the given {@code packet} as written by
+	 * {@link org.twuni.fast.io.PacketSerializer}, which is what the limits of a
+	 * {@link MailboxPolicy} count.
+	 */
+	private static int sizeOf( Packet packet ) {
+		return 14 + packet.getFrom().length + packet.getTo().length + packet.getPayload().getLimit();
+	}
+
+	private final MailboxPolicy policy;
+	private final HashedWheelTimer timer;
+	private final Metrics metrics;
+	private final Map<ByteArrayKey, AddressQueue> mailboxes = new HashMap<ByteArrayKey, AddressQueue>();
+	private Entry oldest;
+	private Entry newest;
+	private int packetCount;
+	private long byteCount;
+	private long sequence = System.currentTimeMillis() * 1000;
+	private HashedWheelTimer.Timeout reaper;
+
+	private final Runnable reap = new Runnable() {
+
+		@Override
+		public void run() {
+			reap();
+		}
+
+	};
+
+	/**
+	 * Initializes a store with the default {@link MailboxPolicy}, expiring
+	 * packets on its own timer.
+	 */
+	public MemoryPacketStore() {
+		this( new MailboxPolicy.Builder().build(), new HashedWheelTimer(), new Metrics() );
+	}
+
+	/**
+	 * Initializes a store with the given {@code policy}.
+	 *
+	 * @param policy
+	 *            the limits within which packets are held.
+	 * @param timer
+	 *            the timer on which expired packets are discarded.
+	 * @param metrics
+	 *            the registry in which the store records its metrics.
+	 */
+	public MemoryPacketStore( MailboxPolicy policy, HashedWheelTimer timer, Metrics metrics ) {
+		this.policy = policy;
+		this.timer = timer;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void acknowledge( byte [] address, long cursor ) {
+		int delivered = 0;
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			while( mailbox != null && mailbox.entries.getFirst().sequence <= cursor ) {
+				boolean last = mailbox.entries.size() == 1;
+				remove( mailbox.entries.getFirst() );
+				delivered++;
+				if( last ) {
+					mailbox = null;
+				}
+			}
+		}
+		if( delivered > 0 ) {
+			metrics.counter( "mailbox.delivered" ).addAndGet( delivered );
+		}
+	}
+
+	private void count( String name ) {
+		metrics.counter( name ).incrementAndGet();
+	}
+
+	@Override
+	public synchronized List<byte []> getQueuedAddresses() {
+		List<byte []> addresses = new ArrayList<byte []>( mailboxes.size() );
+		for( AddressQueue mailbox : mailboxes.values() ) {
+			addresses.add( mailbox.address );
+		}
+		return addresses;
+	}
+
+	@Override
+	public synchronized long peek( byte [] address, long cursor, int maxPackets, long maxBytes, List<Packet> page ) {
+		AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+		if( mailbox == null ) {
+			return cursor;
+		}
+		long now = System.currentTimeMillis();
+		long last = cursor;
+		int packets = 0;
+		long bytes = 0;
+		for( Entry entry : mailbox.entries ) {
+			if( entry.sequence <= cursor || entry.expiresAt <= now ) {
+				continue;
+			}
+			if( packets > 0 && ( maxPackets > 0 && packets >= maxPackets || maxBytes > 0 && bytes + entry.size > maxBytes ) ) {
+				break;
+			}
+			page.add( entry.packet );
+			last = entry.sequence;
+			packets++;
+			bytes += entry.size;
+		}
+		return last;
+	}
+
+	private void reap() {
+		int expired = 0;
+		synchronized( this ) {
+			reaper = null;
+			long now = System.currentTimeMillis();
+			while( oldest != null && oldest.expiresAt <= now && expired < REAP_BATCH_SIZE ) {
+				remove( oldest );
+				expired++;
+			}
+			schedule();
+		}
+		metrics.counter( "mailbox.expired" ).addAndGet( expired );
+	}
+
+	/**
+	 * Removes the given {@code entry}, which is always the oldest of its
+	 * mailbox, since packets only ever leave a mailbox from its head.
+	 */
+	private void remove( Entry entry ) {
+
+		AddressQueue mailbox = entry.mailbox;
+		mailbox.entries.removeFirst();
+		mailbox.bytes -= entry.size;
+		if( mailbox.entries.isEmpty() ) {
+			mailboxes.remove( mailbox.key );
+		}
+
+		if( entry.older != null ) {
+			entry.older.newer = entry.newer;
+		} else {
+			oldest = entry.newer;
+		}
+		if( entry.newer != null ) {
+			entry.newer.older = entry.older;
+		} else {
+			newest = entry.older;
+		}
+
+		packetCount--;
+		byteCount -= entry.size;
+		updateTotals();
+
+	}
+
+	private void schedule() {
+		if( reaper == null && oldest != null && policy.getTimeToLive() > 0 ) {
+			reaper = timer.schedule( reap, oldest.expiresAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS );
+		}
+	}
+
+	@Override
+	public boolean store( Packet packet ) {
+		return store( packet.getTo(), packet );
+	}
+
+	@Override
+	public boolean store( byte [] address, Packet packet ) {
+
+		int size = sizeOf( packet );
+		ByteArrayKey key = new ByteArrayKey( address );
+		boolean reject = policy.getEviction() == MailboxPolicy.Eviction.REJECT_NEW;
+		int evicted = 0;
+
+		synchronized( this ) {
+
+			AddressQueue mailbox = mailboxes.get( key );
+			int mailboxPackets = mailbox != null ? mailbox.entries.size() : 0;
+			long mailboxBytes = mailbox != null ? mailbox.bytes : 0;
+
+			if( policy.isAddressOverLimit( 1, size ) || policy.isOverLimit( 1, size ) ) {
+				reject = true;
+			} else if( reject ) {
+				reject = policy.isAddressOverLimit( mailboxPackets + 1, mailboxBytes + size ) || policy.isOverLimit( packetCount + 1, byteCount + size );
+			} else {
+				while( mailbox != null && policy.isAddressOverLimit( mailbox.entries.size() + 1, mailbox.bytes + size ) ) {
+					remove( mailbox.entries.getFirst() );
+					evicted++;
+					if( mailbox.entries.isEmpty() ) {
+						mailbox = null;
+					}
+				}
+				while( oldest != null && policy.isOverLimit( packetCount + 1, byteCount + size ) ) {
+					if( oldest.mailbox == mailbox && mailbox.entries.size() == 1 ) {
+						mailbox = null;
+					}
+					remove( oldest );
+					evicted++;
+				}
+			}
+
+			if( !reject ) {
+
+				if( mailbox == null ) {
+					mailbox = new AddressQueue( address, key );
+					mailboxes.put( key, mailbox );
+				}
+
+				long expiresAt = policy.getTimeToLive() > 0 ? System.currentTimeMillis() + policy.getTimeToLive() : Long.MAX_VALUE;
+				Entry entry = new Entry( packet, mailbox, size, expiresAt, ++sequence );
+				mailbox.entries.addLast( entry );
+				mailbox.bytes += size;
+
+				entry.older = newest;
+				if( newest != null ) {
+					newest.newer = entry;
+				} else {
+					oldest = entry;
+				}
+				newest = entry;
+
+				packetCount++;
+				byteCount += size;
+				updateTotals();
+				schedule();
+
+			}
+
+		}
+
+		if( evicted > 0 ) {
+			metrics.counter( "mailbox.evicted" ).addAndGet( evicted );
+		}
+		count( reject ? "mailbox.rejected" : "mailbox.stored" );
+		return !reject;
+
+	}
+
+	@Override
+	public Packet take( byte [] address ) {
+
+		Packet packet = null;
+		int expired = 0;
+
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			long now = System.currentTimeMillis();
+			while( mailbox != null && packet == null ) {
+				Entry entry = mailbox.entries.getFirst();
+				boolean last = mailbox.entries.size() == 1;
+				remove( entry );
+				if( entry.expiresAt <= now ) {
+					expired++;
+				} else {
+					packet = entry.packet;
+				}
+				if( last ) {
+					mailbox = null;
+				}
+			}
+		}
+
+		if( expired > 0 ) {
+			metrics.counter( "mailbox.expired" ).addAndGet( expired );
+		}
+		if( packet != null ) {
+			count( "mailbox.delivered" );
+		}
+		return packet;
+
+	}
+
+	@Override
+	public long transfer( byte [] address, long cursor, int maxPackets, long maxBytes, WriteChannel channel ) {
+		List<Packet> page = new ArrayList<Packet>();
+		long last = peek( address, cursor, maxPackets, maxBytes, page );
+		if( !page.isEmpty() ) {
+			channel.send( page.toArray( new Packet [page.size()] ) );
+		}
+		return last;
+	}
+
+	private void updateTotals() {
+		metrics.counter( "mailbox.packets" ).set( packetCount );
+		metrics.counter( "mailbox.bytes" ).set( byteCount );
+	}
+
+}
@@ -0,0 +1,121 @@
+package org.twuni.fast;
+
+import java.util.List;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * Holds packets for addresses which are not currently attached, in the order
+ * in which they arrived, until they are fetched.
+ *
+ * @see InternalPacketTransport
+ */
+public interface PacketStore extends FAST {
+
+	/**
+	 * Discards the packets held for the given {@code address} up to and
+	 * including the one with the given {@code cursor}, which the address has
+	 * received.
+	 *
+	 * @param address
+	 *            the address whose packets should be discarded.
+	 * @param cursor
+	 *            the cursor of the last packet received by the address.
+	 * @see #peek(byte[], long, int, long, List)
+	 */
+	public void acknowledge( byte [] address, long cursor );
+
+	/**
+	 * Returns the addresses for which at least one packet is currently held.
+	 *
+	 * @return the addresses for which at least one packet is currently held.
+	 */
+	public List<byte []> getQueuedAddresses();
+
+	/**
+	 * Adds to the given {@code page} the oldest packets held for the given
+	 * {@code address} after the given {@code cursor}, without removing them,
+	 * so that they may be sent again if they are not acknowledged. Each packet
+	 * held is given a cursor greater than that of every packet held before it,
+	 * and cursors keep increasing when a store is replaced by a new one, so
+	 * that a cursor kept by an address never covers packets held later.
+	 *
+	 * @param address
+	 *            the address whose packets should be returned.
+	 * @param cursor
+	 *            the cursor after which packets should be returned.
+	 * @param maxPackets
+	 *            the largest number of packets to be added, or zero for no
+	 *            limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be added, or zero
+	 *            for no limit. The oldest packet is added regardless.
+	 * @param page
+	 *            the list to which packets are added.
+	 * @return the cursor of the last packet added to the {@code page}, or the
+	 *         given {@code cursor} if none was added.
+	 */
+	public long peek( byte [] address, long cursor, int maxPackets, long maxBytes, List<Packet> page );
+
+	/**
+	 * Sends along the given {@code channel} the packets which
+	 * {@link #peek(byte[], long, int, long, List)} would add to a page, without
+	 * removing them. A store which holds packets serialized in files may
+	 * transfer them from the files without decoding them.
+	 *
+	 * @param address
+	 *            the address whose packets should be sent.
+	 * @param cursor
+	 *            the cursor after which packets should be sent.
+	 * @param maxPackets
+	 *            the largest number of packets to be sent, or zero for no
+	 *            limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be sent, or zero for
+	 *            no limit. The oldest packet is sent regardless.
+	 * @param channel
+	 *            the channel along which packets are sent.
+	 * @return the cursor of the last packet sent, or the given {@code cursor}
+	 *         if none was sent.
+	 * @see WriteChannel#transfer(java.nio.channels.FileChannel, long, int)
+	 */
+	public long transfer( byte [] address, long cursor, int maxPackets, long maxBytes, WriteChannel channel );
+
+	/**
+	 * Holds the given {@code packet} for its destination address.
+	 *
+	 * @param packet
+	 *            the packet to be held.
+	 * @return {@code true} if the packet is now held, or {@code false} if it
+	 *         was rejected.
+	 */
+	public boolean store( Packet packet );
+
+	/**
+	 * Holds the given {@code packet} for the given {@code address}, which may
+	 * differ from its destination address, such as when a packet sent to a
+	 * group is held for each of the group's members.
+	 *
+	 * @param address
+	 *            the address for which the packet should be held.
+	 * @param packet
+	 *            the packet to be held.
+	 * @return {@code true} if the packet is now held, or {@code false} if it
+	 *         was rejected.
+	 * @see GroupRegistry
+	 */
+	public boolean store( byte [] address, Packet packet );
+
+	/**
+	 * Removes and returns the oldest packet held for the given
+	 * {@code address}.
+	 *
+	 * @param address
+	 *            the address whose packet should be returned.
+	 * @return the oldest packet held for the given {@code address}, or
+	 *         {@code null} if there is none.
+	 */
+	public Packet take( byte [] address );
+
+}
@@ -0,0 +1,66 @@
+package org.twuni.fast;
+
+import java.util.List;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * A mailbox which can provide its packets a page at a time, keeping each page
+ * until it is acknowledged, so that a page lost with its connection can be
+ * fetched again from the same cursor.
+ *
+ * @see FlushPacketsOnFetch#onFetchFromRequested(long, int, int)
+ */
+public interface PagedMailbox extends Mailbox {
+
+	/**
+	 * Discards the packets up to and including the one with the given
+	 * {@code cursor}.
+	 *
+	 * @param cursor
+	 *            the cursor of the last packet received from this mailbox.
+	 */
+	public void acknowledge( long cursor );
+
+	/**
+	 * Adds to the given {@code page} the oldest packets after the given
+	 * {@code cursor}, without removing them.
+	 *
+	 * @param cursor
+	 *            the cursor after which packets should be provided.
+	 * @param maxPackets
+	 *            the largest number of packets to be added, or zero for no
+	 *            limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be added, or zero
+	 *            for no limit. The oldest packet is added regardless.
+	 * @param page
+	 *            the list to which packets are added.
+	 * @return the cursor of the last packet added to the {@code page}, or the
+	 *         given {@code cursor} if none was added.
+	 */
+	public long providePage( long cursor, int maxPackets, long maxBytes, List<Packet> page );
+
+	/**
+	 * Sends along the given {@code channel} the packets which
+	 * {@link #providePage(long, int, long, List)} would provide, which may be
+	 * transferred without being decoded.
+	 *
+	 * @param cursor
+	 *            the cursor after which packets should be sent.
+	 * @param maxPackets
+	 *            the largest number of packets to be sent, or zero for no
+	 *            limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be sent, or zero for
+	 *            no limit. The oldest packet is sent regardless.
+	 * @param channel
+	 *            the channel along which packets are sent.
+	 * @return the cursor of the last packet sent, or the given {@code cursor}
+	 *         if none was sent.
+	 * @see PacketStore#transfer(byte[], long, int, long, WriteChannel)
+	 */
+	public long transferPage( long cursor, int maxPackets, long maxBytes, WriteChannel channel );
+
+}
@@ -0,0 +1,90 @@
+package org.twuni.fast;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.twuni.fast.util.ByteArrayKey;
+
+/**
+ * A {@link PasswordAuthenticatorBase} whose salted password hashes are held in
+ * memory and indexed by identity, so that finding an identity's hash takes
+ * constant time. Passwords may be set and removed at any time. Changing or
+ * removing a password invalidates any memory of a credential verified with
+ * the old one.
+ */
+public class PasswordAuthenticator extends PasswordAuthenticatorBase {
+
+	/**
+	 * The default number of PBKDF2 iterations for newly set passwords.
+	 */
+	public static final int DEFAULT_ITERATIONS = 10000;
+
+	private static ByteArrayKey toKey( byte [] realm, byte [] identity ) {
+		byte [] key = new byte [realm.length + 1 + identity.length];
+		System.arraycopy( realm, 0, key, 0, realm.length );
+		System.arraycopy( identity, 0, key, realm.length + 1, identity.length );
+		return new ByteArrayKey( key );
+	}
+
+	private final ConcurrentMap<ByteArrayKey, PasswordHash> passwords = new ConcurrentHashMap<ByteArrayKey, PasswordHash>();
+	private final int iterations;
+
+	/**
+	 * Initializes an authenticator with no passwords, using the default
+	 * iteration count and verified-credential cache.
+	 */
+	public PasswordAuthenticator() {
+		this( DEFAULT_ITERATIONS, DEFAULT_CACHE_CAPACITY, DEFAULT_CACHE_TIME_TO_LIVE );
+	}
+
+	/**
+	 * Initializes an authenticator with no passwords.
+	 *
+	 * @param iterations
+	 *            the number of PBKDF2 iterations for newly set passwords.
+	 * @param cacheCapacity
+	 *            the maximum number of verified credentials to remember.
+	 * @param cacheTimeToLive
+	 *            how long, in milliseconds, a verified credential is
+	 *            remembered.
+	 */
+	public PasswordAuthenticator( int iterations, int cacheCapacity, long cacheTimeToLive ) {
+		super( cacheCapacity, cacheTimeToLive );
+		this.iterations = iterations;
+	}
+
+	@Override
+	protected PasswordHash getPasswordHash( byte [] realm, byte [] identity ) {
+		return passwords.get( toKey( realm, identity ) );
+	}
+
+	/**
+	 * Removes the password of the given {@code identity}, so that it can no
+	 * longer authenticate.
+	 *
+	 * @param realm
+	 *            the realm to which the given {@code identity} belongs.
+	 * @param identity
+	 *            the identity whose password should be removed.
+	 */
+	public void removePassword( byte [] realm, byte [] identity ) {
+		passwords.remove( toKey( realm, identity ) );
+	}
+
+	/**
+	 * Sets the password of the given {@code identity}, replacing any previous
+	 * one. Only a salted hash of the password is kept.
+	 *
+	 * @param realm
+	 *            the realm to which the given {@code identity} belongs.
+	 * @param identity
+	 *            the identity, of the form {@code name@realm}, whose password
+	 *            should be set.
+	 * @param password
+	 *            the new password.
+	 */
+	public void setPassword( byte [] realm, byte [] identity, byte [] password ) {
+		passwords.put( toKey( realm, identity ), PasswordHash.create( password, iterations ) );
+	}
+
+}
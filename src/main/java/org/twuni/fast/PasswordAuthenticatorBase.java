@@ -0,0 +1,139 @@
+package org.twuni.fast;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.exception.FASTInvalidCredentialException;
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.IOUtils;
+import org.twuni.fast.util.LruCache;
+
+/**
+ * Authenticates credentials of the form {@code name\npassword} against salted
+ * password hashes looked up by identity, where the identity is
+ * {@code name@realm}. Subclasses decide where the hashes come from. Checking a
+ * password against its hash is deliberately expensive, so the digests of
+ * recently verified credentials are remembered for a limited time. A client
+ * which reconnects with a credential that was verified moments ago is
+ * therefore accepted without repeating the key derivation, provided the
+ * identity's hash has not changed since.
+ */
+public abstract class PasswordAuthenticatorBase implements Authenticator {
+
+	private static class Verified {
+
+		final byte [] identity;
+		final PasswordHash hash;
+
+		Verified( byte [] identity, PasswordHash hash ) {
+			this.identity = identity;
+			this.hash = hash;
+		}
+
+	}
+
+	/**
+	 * The default number of verified credentials to remember.
+	 */
+	public static final int DEFAULT_CACHE_CAPACITY = 10000;
+
+	/**
+	 * The default time, in milliseconds, for which a verified credential is
+	 * remembered.
+	 */
+	public static final long DEFAULT_CACHE_TIME_TO_LIVE = 300000;
+
+	private static ByteArrayKey toDigest( byte [] realm, byte [] credential ) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+			digest.update( realm );
+			digest.update( (byte) 0 );
+			return new ByteArrayKey( digest.digest( credential ) );
+		} catch( NoSuchAlgorithmException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	private final LruCache<ByteArrayKey, Verified> verified;
+
+	/**
+	 * Initializes this authenticator with an empty verified-credential cache.
+	 *
+	 * @param cacheCapacity
+	 *            the maximum number of verified credentials to remember.
+	 * @param cacheTimeToLive
+	 *            how long, in milliseconds, a verified credential is
+	 *            remembered.
+	 */
+	protected PasswordAuthenticatorBase( int cacheCapacity, long cacheTimeToLive ) {
+		verified = new LruCache<ByteArrayKey, Verified>( cacheCapacity, cacheTimeToLive );
+	}
+
+	@Override
+	public byte [] authenticate( byte [] realm, byte [] credential ) {
+
+		ByteArrayKey digest = toDigest( realm, credential );
+		Verified v = verified.get( digest );
+
+		if( v != null ) {
+			PasswordHash current = getPasswordHash( realm, v.identity );
+			if( current != null && current.equals( v.hash ) ) {
+				return v.identity.clone();
+			}
+			verified.remove( digest );
+		}
+
+		int n = indexOf( credential, (byte) '\n' );
+		if( n < 0 ) {
+			throw new FASTInvalidCredentialException();
+		}
+
+		byte [] identity = new byte [n + 1 + realm.length];
+		System.arraycopy( credential, 0, identity, 0, n );
+		identity[n] = '@';
+		System.arraycopy( realm, 0, identity, n + 1, realm.length );
+
+		PasswordHash hash = getPasswordHash( realm, identity );
+		if( hash == null ) {
+			throw new FASTInvalidCredentialException();
+		}
+
+		byte [] password = new byte [credential.length - n - 1];
+		System.arraycopy( credential, n + 1, password, 0, password.length );
+
+		try {
+			if( !hash.matches( password ) ) {
+				throw new FASTInvalidCredentialException();
+			}
+		} finally {
+			IOUtils.burn( password );
+		}
+
+		verified.put( digest, new Verified( identity, hash ) );
+		return identity.clone();
+
+	}
+
+	/**
+	 * Returns the password hash stored for the given {@code identity}.
+	 *
+	 * @param realm
+	 *            the realm in which to look.
+	 * @param identity
+	 *            the identity whose password hash should be returned.
+	 * @return the password hash stored for the given {@code identity}, or
+	 *         {@code null} if it has none.
+	 */
+	protected abstract PasswordHash getPasswordHash( byte [] realm, byte [] identity );
+
+	private static int indexOf( byte [] array, byte value ) {
+		for( int i = 0; i < array.length; i++ ) {
+			if( array[i] == value ) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,140 @@
+package org.twuni.fast;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.util.IOUtils;
+
+/**
+ * A salted, deliberately slow hash of a password, derived with PBKDF2. Only
+ * the hash is ever stored, so a leaked credential store does not reveal the
+ * passwords themselves, and each guess against it costs as much as a
+ * legitimate login.
+ */
+public final class PasswordHash {
+
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+	private static final int SALT_LENGTH = 16;
+	private static final int HASH_LENGTH = 20;
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Hashes the given {@code password} with a new random salt.
+	 *
+	 * @param password
+	 *            the password to be hashed.
+	 * @param iterations
+	 *            the number of PBKDF2 iterations, which determines how
+	 *            expensive the hash is to compute.
+	 * @return the hash of the given {@code password}.
+	 */
+	public static PasswordHash create( byte [] password, int iterations ) {
+		byte [] salt = new byte [SALT_LENGTH];
+		RANDOM.nextBytes( salt );
+		return new PasswordHash( salt, iterations, derive( password, salt, iterations ) );
+	}
+
+	private static byte [] derive( byte [] password, byte [] salt, int iterations ) {
+		char [] chars = new char [password.length];
+		for( int i = 0; i < password.length; i++ ) {
+			chars[i] = (char) ( password[i] & 0xFF );
+		}
+		PBEKeySpec spec = new PBEKeySpec( chars, salt, iterations, HASH_LENGTH * 8 );
+		try {
+			return SecretKeyFactory.getInstance( ALGORITHM ).generateSecret( spec ).getEncoded();
+		} catch( GeneralSecurityException exception ) {
+			throw new FASTException( exception );
+		} finally {
+			spec.clearPassword();
+			IOUtils.burn( chars );
+		}
+	}
+
+	private final byte [] salt;
+	private final int iterations;
+	private final byte [] hash;
+
+	/**
+	 * Initializes a previously computed hash, such as one read from storage.
+	 *
+	 * @param salt
+	 *            the random salt with which the hash was computed.
+	 * @param iterations
+	 *            the number of PBKDF2 iterations with which the hash was
+	 *            computed.
+	 * @param hash
+	 *            the derived hash.
+	 */
+	public PasswordHash( byte [] salt, int iterations, byte [] hash ) {
+		this.salt = salt.clone();
+		this.iterations = iterations;
+		this.hash = hash.clone();
+	}
+
+	@Override
+	public boolean equals( Object object ) {
+		if( this == object ) {
+			return true;
+		}
+		if( !( object instanceof PasswordHash ) ) {
+			return false;
+		}
+		PasswordHash other = (PasswordHash) object;
+		return iterations == other.iterations && Arrays.equals( salt, other.salt ) && Arrays.equals( hash, other.hash );
+	}
+
+	/**
+	 * Returns the derived hash.
+	 *
+	 * @return the derived hash.
+	 */
+	public byte [] getHash() {
+		return hash.clone();
+	}
+
+	/**
+	 * Returns the number of PBKDF2 iterations with which the hash was
+	 * computed.
+	 *
+	 * @return the number of PBKDF2 iterations with which the hash was
+	 *         computed.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Returns the random salt with which the hash was computed.
+	 *
+	 * @return the random salt with which the hash was computed.
+	 */
+	public byte [] getSalt() {
+		return salt.clone();
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode( hash );
+	}
+
+	/**
+	 * Tests whether the given {@code password} is the one from which this hash
+	 * was computed. The comparison takes the same time wherever the hashes
+	 * differ.
+	 *
+	 * @param password
+	 *            the password to test.
+	 * @return {@code true} if the given {@code password} matches this hash.
+	 *         Otherwise returns {@code false}.
+	 */
+	public boolean matches( byte [] password ) {
+		return MessageDigest.isEqual( hash, derive( password, salt, iterations ) );
+	}
+
+}
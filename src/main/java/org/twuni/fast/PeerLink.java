@@ -0,0 +1,235 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * A persistent, authenticated link to a peer node. Packets offered to the link
+ * are queued and written by a dedicated thread, which drains as many queued
+ * packets as are available into a single batch so that many packets share a
+ * single flush and acknowledgment request.
+ * <p>
+ * If the link is broken, it is re-established by resuming the session of the
+ * broken connection, so that the packets it wrote but which the peer did not
+ * acknowledge are sent again along the new connection, and the batch that
+ * failed is retried. A packet is therefore never lost to a broken link,
+ * though the peer may receive it more than once.
+ * </p>
+ */
+public class PeerLink {
+
+	/**
+	 * Listens to a single connection to the peer, so that events from a broken
+	 * connection cannot be mistaken for those of its replacement.
+	 */
+	private class Connection implements ConnectionListener, PacketListener {
+
+		volatile boolean lost;
+
+		@Override
+		public void onConnected( WriteChannel writeChannel ) {
+			// Packets may be written as soon as the client is constructed.
+		}
+
+		@Override
+		public void onDisconnected( WriteChannel writeChannel ) {
+			lost = true;
+		}
+
+		@Override
+		public void onPacketReceived( Packet packet ) {
+			inboundRouter.routePacket( packet );
+		}
+
+		@Override
+		public void onPacketSent( Packet packet ) {
+			// Ignore.
+		}
+
+	}
+
+	private class Looper implements Runnable {
+
+		@Override
+		public void run() {
+			List<Packet> batch = new ArrayList<Packet>( maximumBatchSize );
+			try {
+				while( !Thread.interrupted() ) {
+					if( batch.isEmpty() ) {
+						Packet packet = queue.poll( RECONNECT_DELAY, TimeUnit.MILLISECONDS );
+						if( packet != null ) {
+							batch.add( packet );
+							queue.drainTo( batch, maximumBatchSize - 1 );
+						} else if( !isBroken() ) {
+							continue;
+						}
+					}
+					try {
+						Client client = connect();
+						if( !batch.isEmpty() ) {
+							client.send( batch.toArray( new Packet [batch.size()] ) );
+							client.requestAcknowledgment();
+							batch.clear();
+						}
+					} catch( FASTException exception ) {
+						reconnectLater();
+					} catch( IOException exception ) {
+						reconnectLater();
+					}
+				}
+			} catch( InterruptedException exception ) {
+				// Terminate the loop.
+			}
+			disconnect();
+		}
+
+	}
+
+	private static final long RECONNECT_DELAY = 1000;
+
+	private final Client.Builder builder;
+	private final PacketRouter inboundRouter;
+	private final int maximumBatchSize;
+	private final BlockingQueue<Packet> queue = new LinkedBlockingQueue<Packet>();
+	private final Thread looperThread;
+	private Client client;
+	private Connection connection;
+	private Client previous;
+
+	/**
+	 * Initializes a new link which connects to a peer using the configuration
+	 * of the given {@code builder}. The link does not write anything until it
+	 * is started, and does not connect until the first packet is queued.
+	 *
+	 * @param builder
+	 *            the builder configured to connect and authenticate to the
+	 *            peer node. Its packet listener, connection listener and
+	 *            resumed client are replaced by this link.
+	 * @param inboundRouter
+	 *            the router to which packets sent by the peer along this link
+	 *            will be delivered.
+	 * @param maximumBatchSize
+	 *            the maximum number of packets written in a single batch.
+	 * @see #start()
+	 */
+	public PeerLink( Client.Builder builder, PacketRouter inboundRouter, int maximumBatchSize ) {
+		this.builder = builder;
+		this.inboundRouter = inboundRouter;
+		this.maximumBatchSize = maximumBatchSize;
+		looperThread = new Thread( new Looper(), String.format( "%s(%x)", Looper.class.getName(), Integer.valueOf( System.identityHashCode( this ) ) ) );
+		looperThread.setDaemon( true );
+	}
+
+	/**
+	 * Stops the writer thread and closes the connection to the peer, if any.
+	 * Packets still queued on this link are discarded.
+	 */
+	public void close() {
+		looperThread.interrupt();
+	}
+
+	private synchronized Client connect() throws IOException {
+		if( client != null && connection.lost ) {
+			retire();
+		}
+		if( client == null ) {
+			Connection c = new Connection();
+			synchronized( builder ) {
+				try {
+					client = builder.packetListener( c ).connectionListener( c ).resume( previous ).build();
+				} finally {
+					builder.resume( null );
+				}
+			}
+			connection = c;
+			previous = null;
+		}
+		return client;
+	}
+
+	private synchronized void disconnect() {
+		if( client != null ) {
+			Client c = client;
+			client = null;
+			c.close();
+		}
+	}
+
+	/**
+	 * Returns the number of packets queued on this link but not yet written.
+	 *
+	 * @return the number of packets queued on this link but not yet written.
+	 */
+	public int getBacklog() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns whether this link is currently connected to its peer.
+	 *
+	 * @return {@code true} if this link is currently connected to its peer.
+	 *         Otherwise returns {@code false}.
+	 */
+	public synchronized boolean isConnected() {
+		return client != null && !connection.lost;
+	}
+
+	private synchronized boolean isBroken() {
+		return previous != null || client != null && connection.lost;
+	}
+
+	private void reconnectLater() throws InterruptedException {
+		synchronized( this ) {
+			if( client != null ) {
+				retire();
+			}
+		}
+		Thread.sleep( RECONNECT_DELAY );
+	}
+
+	/**
+	 * Closes the current connection, keeping its client so that the next
+	 * connection resumes its session.
+	 */
+	private void retire() {
+		previous = client;
+		client = null;
+		try {
+			previous.close();
+		} catch( FASTException exception ) {
+			// The connection is already broken.
+		}
+	}
+
+	/**
+	 * Queues the given {@code packet} for delivery to the peer. This method
+	 * never blocks: while the link is down, packets accumulate in its queue
+	 * until it is re-established.
+	 *
+	 * @param packet
+	 *            the packet to be sent to the peer.
+	 * @see #getBacklog()
+	 */
+	public void send( Packet packet ) {
+		queue.offer( packet );
+	}
+
+	/**
+	 * Starts this link's writer thread.
+	 *
+	 * @return this object, for chaining commands.
+	 */
+	public PeerLink start() {
+		looperThread.start();
+		return this;
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.twuni.fast;
+
+import java.util.Arrays;
+
+import org.twuni.fast.model.Packet;
+
+/**
+ * A fixed-size pool of {@link PeerLink}s to the same peer node. Packets for
+ * the same destination address are always written along the same link, so
+ * that they arrive in the order in which they were sent, while packets for
+ * different destinations are spread across all of the links in the pool.
+ */
+public class PeerLinkPool {
+
+	private static final int DEFAULT_MAXIMUM_BATCH_SIZE = 256;
+
+	private final PeerLink [] links;
+
+	/**
+	 * Convenience constructor for
+	 * {@link #PeerLinkPool(Client.Builder, PacketRouter, int, int)} using a
+	 * default batch size.
+	 *
+	 * @param builder
+	 *            the builder configured to connect and authenticate to the
+	 *            peer node.
+	 * @param inboundRouter
+	 *            the router to which packets sent by the peer along any link
+	 *            in this pool will be delivered.
+	 * @param size
+	 *            the number of links in this pool.
+	 */
+	public PeerLinkPool( Client.Builder builder, PacketRouter inboundRouter, int size ) {
+		this( builder, inboundRouter, size, DEFAULT_MAXIMUM_BATCH_SIZE );
+	}
+
+	/**
+	 * Initializes a new pool of {@code size} links, each connecting to a peer
+	 * using the configuration of the given {@code builder}, and starts them.
+	 *
+	 * @param builder
+	 *            the builder configured to connect and authenticate to the
+	 *            peer node.
+	 * @param inboundRouter
+	 *            the router to which packets sent by the peer along any link
+	 *            in this pool will be delivered.
+	 * @param size
+	 *            the number of links in this pool.
+	 * @param maximumBatchSize
+	 *            the maximum number of packets written by each link in a
+	 *            single batch.
+	 * @see PeerLink#PeerLink(Client.Builder, PacketRouter, int)
+	 */
+	public PeerLinkPool( Client.Builder builder, PacketRouter inboundRouter, int size, int maximumBatchSize ) {
+		links = new PeerLink [size];
+		for( int i = 0; i < size; i++ ) {
+			links[i] = new PeerLink( builder, inboundRouter, maximumBatchSize ).start();
+		}
+	}
+
+	/**
+	 * Closes every link in this pool.
+	 */
+	public void close() {
+		for( PeerLink link : links ) {
+			link.close();
+		}
+	}
+
+	/**
+	 * Returns the total number of packets queued on the links in this pool but
+	 * not yet written.
+	 *
+	 * @return the total number of packets queued on the links in this pool but
+	 *         not yet written.
+	 */
+	public int getBacklog() {
+		int backlog = 0;
+		for( PeerLink link : links ) {
+			backlog += link.getBacklog();
+		}
+		return backlog;
+	}
+
+	/**
+	 * Queues the given {@code packet} on the link responsible for its
+	 * destination address.
+	 *
+	 * @param packet
+	 *            the packet to be sent to the peer.
+	 * @see PeerLink#send(Packet)
+	 */
+	public void send( Packet packet ) {
+		int hash = Arrays.hashCode( packet.getTo() );
+		links[( hash & 0x7FFFFFFF ) % links.length].send( packet );
+	}
+
+}
@@ -0,0 +1,29 @@
+package org.twuni.fast;
+
+import org.twuni.fast.io.WriteChannel;
+
+/**
+ * When a PING command is received, answers it with a PONG carrying the same
+ * value.
+ */
+public class PongOnPing extends EventHandlerBase {
+
+	private final WriteChannel channel;
+
+	/**
+	 * Initializes this handler to answer PING commands along the given
+	 * {@code channel}.
+	 *
+	 * @param channel
+	 *            the channel along which to answer PING commands.
+	 */
+	public PongOnPing( WriteChannel channel ) {
+		this.channel = channel;
+	}
+
+	@Override
+	public void onPingReceived( long payload ) {
+		channel.pong( payload );
+	}
+
+}
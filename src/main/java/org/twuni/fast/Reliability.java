@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.twuni.fast.io.PacketSerializer;
@@ -48,12 +49,18 @@ public class Reliability extends EventHandlerBase implements Stateful {
 		this.channel = channel;
 	}
 
-	private synchronized void flush() {
-		int unacknowledgedPacketsCount = unacknowledgedPackets.size();
-		Packet [] unacknowledgedPacketsArray = new Packet [unacknowledgedPacketsCount];
-		unacknowledgedPackets.toArray( unacknowledgedPacketsArray );
-		unacknowledgedPackets.clear();
-		sentPacketCount -= unacknowledgedPacketsCount;
+	private void flush() {
+		Packet [] unacknowledgedPacketsArray;
+		synchronized( this ) {
+			int unacknowledgedPacketsCount = unacknowledgedPackets.size();
+			unacknowledgedPackets.removeAll( Collections.singleton( null ) );
+			unacknowledgedPacketsArray = new Packet [unacknowledgedPackets.size()];
+			unacknowledgedPackets.toArray( unacknowledgedPacketsArray );
+			unacknowledgedPackets.clear();
+			sentPacketCount -= unacknowledgedPacketsCount;
+		}
+		// Resend without holding the lock, since a queued channel may report
+		// the packets sent from its own writer thread.
 		try {
 			channel.send( unacknowledgedPacketsArray );
 			channel.requestAcknowledgment();
@@ -62,11 +69,30 @@ public class Reliability extends EventHandlerBase implements Stateful {
 		}
 	}
 
+	/**
+	 * Returns the number of packets received during this session.
+	 *
+	 * @return the number of packets received during this session.
+	 */
+	public synchronized int getReceivedPacketCount() {
+		return receivedPacketCount;
+	}
+
 	@Override
 	public void onAcknowledgmentReceived( int n ) {
-		if( n == sentPacketCount ) {
-			unacknowledgedPackets.clear();
-			return;
+		synchronized( this ) {
+			if( n == sentPacketCount ) {
+				unacknowledgedPackets.clear();
+				return;
+			}
+			// Packets are acknowledged in the order they were sent, and the
+			// channel reports them sent in the order it writes them, so the
+			// remote endpoint has received the oldest of the unacknowledged
+			// packets. Only those after them need to be sent again.
+			int acknowledged = n - ( sentPacketCount - unacknowledgedPackets.size() );
+			if( acknowledged > 0 && acknowledged < unacknowledgedPackets.size() ) {
+				unacknowledgedPackets.subList( 0, acknowledged ).clear();
+			}
 		}
 		flush();
 	}
@@ -81,12 +107,12 @@ public class Reliability extends EventHandlerBase implements Stateful {
 	}
 
 	@Override
-	public void onPacketReceived( Packet packet ) {
+	public synchronized void onPacketReceived( Packet packet ) {
 		receivedPacketCount++;
 	}
 
 	@Override
-	public void onPacketSent( Packet packet ) {
+	public synchronized void onPacketSent( Packet packet ) {
 		try {
 			unacknowledgedPackets.add( packet );
 			sentPacketCount++;
@@ -95,15 +121,37 @@ public class Reliability extends EventHandlerBase implements Stateful {
 		}
 	}
 
+	/**
+	 * Counts a packet transferred from a file as sent, without holding it to
+	 * be sent again, since only packets which stay in their store until the
+	 * remote endpoint fetches past them are transferred.
+	 */
+	@Override
+	public synchronized void onPacketTransferred( int length ) {
+		unacknowledgedPackets.add( null );
+		sentPacketCount++;
+	}
+
 	@Override
 	public void onSessionCreated( byte [] sessionID ) {
-		reset();
+		// Packets left over from a previous session which could not be
+		// resumed are sent again in the new one.
+		boolean resend;
+		synchronized( this ) {
+			receivedPacketCount = 0;
+			sentPacketCount = unacknowledgedPackets.size();
+			resend = sentPacketCount > 0;
+		}
+		if( resend ) {
+			flush();
+		}
 	}
 
-	private synchronized void reset() {
-		receivedPacketCount = 0;
-		sentPacketCount = 0;
-		unacknowledgedPackets.clear();
+	@Override
+	public void onSessionResumed( byte [] sessionID, int n ) {
+		if( sessionID.length > 0 ) {
+			onAcknowledgmentReceived( n );
+		}
 	}
 
 	@Override
@@ -128,8 +176,14 @@ public class Reliability extends EventHandlerBase implements Stateful {
 		IOUtils.writeInt( output, SERIAL_VERSION );
 		IOUtils.writeInt( output, receivedPacketCount );
 		IOUtils.writeInt( output, sentPacketCount );
-		IOUtils.writeInt( output, unacknowledgedPackets.size() );
-		for( Packet packet : unacknowledgedPackets ) {
+		// Transferred packets are left out. The packets which remain are then
+		// taken to have been sent later than they were, so an acknowledgment
+		// after the state is restored may cause them to be sent again, but
+		// never covers one which was not received.
+		List<Packet> packets = new ArrayList<Packet>( unacknowledgedPackets );
+		packets.removeAll( Collections.singleton( null ) );
+		IOUtils.writeInt( output, packets.size() );
+		for( Packet packet : packets ) {
 			PacketSerializer.write( packet, output );
 		}
 	}
@@ -0,0 +1,468 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.PacketSerializer;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+/**
+ * Keeps a client's delivery state in a memory-mapped file, so that packets
+ * which were sent but not yet acknowledged survive a crash of the client
+ * process. Rather than writing a full snapshot whenever the state changes,
+ * each sent, received and acknowledged packet appends a small record to the
+ * journal. When the journal fills up, or a new session begins, its current
+ * state is written to a fresh file as a single checkpoint record, which is
+ * then renamed into place.
+ * <p>
+ * This handler must precede the session's {@link Reliability} handler, so that
+ * it sees each acknowledgment before the packets it causes to be sent again.
+ * Packets are resent at least once, so after a crash the remote node may
+ * receive some of them twice.
+ * </p>
+ *
+ * @see Client.Builder#journal(File)
+ */
+public class ReliabilityJournal extends EventHandlerBase implements Stateful {
+
+	/**
+	 * The default initial size, in bytes, of a journal file.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+	private static final int SERIAL_VERSION = 1;
+	private static final long MAGIC = 0x464153544A524E32L;
+	private static final int HEADER_LENGTH = 8;
+
+	private static final byte CHECKPOINT = 1;
+	private static final byte IDENTITY = 2;
+	private static final byte SENT = 3;
+	private static final byte RESENT = 4;
+	private static final byte RECEIVED = 5;
+	private static final byte ACKNOWLEDGED = 6;
+
+	/**
+	 * A journaled packet, numbered in the order in which it was first sent.
+	 */
+	private static class Entry {
+
+		final long sequence;
+		final Packet packet;
+
+		Entry( long sequence, Packet packet ) {
+			this.sequence = sequence;
+			this.packet = packet;
+		}
+
+	}
+
+	/**
+	 * Returns whether the given {@code packet} is the one journaled in the
+	 * given {@code entry}. The packet is usually the very same object, but
+	 * differs when the entry was recovered from the journal, in which case the
+	 * encoded frames are compared.
+	 */
+	private static boolean isSent( Entry entry, Packet packet ) {
+		if( entry.packet == packet ) {
+			return true;
+		}
+		try {
+			return Arrays.equals( PacketSerializer.getFrame( entry.packet ), PacketSerializer.getFrame( packet ) );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	private final File file;
+	private final WriteChannel channel;
+	private int capacity;
+	private MappedByteBuffer buffer;
+
+	private byte [] sessionID;
+	private byte [] identity;
+	private byte [] realm;
+	private int receivedPacketCount;
+	private int acknowledgedPacketCount;
+	private long nextSequence;
+	private final LinkedList<Entry> unacknowledgedPackets = new LinkedList<Entry>();
+	private final LinkedList<Entry> resendingPackets = new LinkedList<Entry>();
+
+	/**
+	 * Initializes a journal in the given {@code file}, with the default
+	 * initial capacity.
+	 *
+	 * @param file
+	 *            the journal file, which is created if it does not exist.
+	 * @param channel
+	 *            the channel of the client whose delivery state is journaled.
+	 * @throws IOException
+	 *             if the journal cannot be opened or is not a journal file.
+	 * @see #ReliabilityJournal(File, WriteChannel, int)
+	 */
+	public ReliabilityJournal( File file, WriteChannel channel ) throws IOException {
+		this( file, channel, DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * Initializes a journal in the given {@code file}. If the file already
+	 * holds a journal, its records are replayed, and if they describe an
+	 * authenticated session, that session's identifier and addresses are set
+	 * on the given {@code channel} so that it may be resumed. The recovered
+	 * delivery state can then be passed to the session's {@link Reliability}
+	 * handler with {@link #saveState(OutputStream)}.
+	 *
+	 * @param file
+	 *            the journal file, which is created if it does not exist.
+	 * @param channel
+	 *            the channel of the client whose delivery state is journaled.
+	 * @param capacity
+	 *            the initial size, in bytes, of the journal file. The file
+	 *            grows if a checkpoint does not fit.
+	 * @throws IOException
+	 *             if the journal cannot be opened or is not a journal file.
+	 */
+	public ReliabilityJournal( File file, WriteChannel channel, int capacity ) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.capacity = capacity;
+		if( file.exists() && file.length() > 0 ) {
+			map( file.length() );
+			if( buffer.capacity() < HEADER_LENGTH || buffer.getLong( 0 ) != MAGIC ) {
+				throw new IOException( String.format( "%s is not a reliability journal.", file ) );
+			}
+			replay();
+			// Whatever was awaiting retransmission when the journal was last
+			// written is handed to Reliability as unacknowledged, after the
+			// packets which did go out again.
+			unacknowledgedPackets.addAll( resendingPackets );
+			resendingPackets.clear();
+			if( sessionID != null && identity != null ) {
+				channel.setSessionID( sessionID );
+				channel.setLocalAddress( identity );
+				channel.setRemoteAddress( realm );
+			}
+		} else {
+			checkpoint();
+		}
+	}
+
+	private void acknowledge( int n ) {
+		if( n == acknowledgedPacketCount + unacknowledgedPackets.size() ) {
+			acknowledgedPacketCount = n;
+			unacknowledgedPackets.clear();
+			return;
+		}
+		// Mirror Reliability: drop the acknowledged prefix, then expect the
+		// rest to be sent again.
+		int acknowledged = n - acknowledgedPacketCount;
+		if( acknowledged > 0 && acknowledged < unacknowledgedPackets.size() ) {
+			unacknowledgedPackets.subList( 0, acknowledged ).clear();
+			acknowledgedPacketCount = n;
+		}
+		resendingPackets.addAll( unacknowledgedPackets );
+		unacknowledgedPackets.clear();
+	}
+
+	private void append( byte type, byte [] body ) {
+		int position = buffer.position();
+		if( position + 5 + body.length + 4 > buffer.capacity() ) {
+			checkpoint();
+			return;
+		}
+		buffer.put( position + 4, type );
+		for( int i = 0; i < body.length; i++ ) {
+			buffer.put( position + 5 + i, body[i] );
+		}
+		// Write the length last, so that a record torn by a crash reads as the
+		// end of the journal.
+		buffer.putInt( position, 1 + body.length );
+		buffer.position( position + 5 + body.length );
+	}
+
+	private void checkpoint() {
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			IOUtils.writeSmallBuffer( body, orEmpty( sessionID ) );
+			IOUtils.writeSmallBuffer( body, orEmpty( identity ) );
+			IOUtils.writeSmallBuffer( body, orEmpty( realm ) );
+			IOUtils.writeInt( body, receivedPacketCount );
+			IOUtils.writeInt( body, acknowledgedPacketCount );
+			IOUtils.writeLong( body, nextSequence );
+			writeEntries( body, unacknowledgedPackets );
+			writeEntries( body, resendingPackets );
+
+			int length = HEADER_LENGTH + 5 + body.size() + 4;
+			while( capacity < length * 2 ) {
+				capacity *= 2;
+			}
+
+			File temporary = new File( file.getPath() + ".tmp" );
+			RandomAccessFile f = new RandomAccessFile( temporary, "rw" );
+			try {
+				f.setLength( 0 );
+				f.writeLong( MAGIC );
+				f.writeInt( 1 + body.size() );
+				f.writeByte( CHECKPOINT );
+				f.write( body.toByteArray() );
+				f.setLength( capacity );
+				f.getFD().sync();
+			} finally {
+				f.close();
+			}
+			if( !temporary.renameTo( file ) ) {
+				throw new IOException( String.format( "Unable to rename %s to %s.", temporary, file ) );
+			}
+
+			map( capacity );
+			buffer.position( length - 4 );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	/**
+	 * Forces any records still held by the operating system out to the
+	 * storage device.
+	 */
+	public synchronized void force() {
+		buffer.force();
+	}
+
+	private void map( long length ) throws IOException {
+		if( length > Integer.MAX_VALUE ) {
+			throw new IOException( String.format( "%s is too large to map.", file ) );
+		}
+		RandomAccessFile f = new RandomAccessFile( file, "rw" );
+		try {
+			buffer = f.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, length );
+			capacity = (int) length;
+		} finally {
+			f.close();
+		}
+	}
+
+	@Override
+	public synchronized void onAcknowledgmentReceived( int n ) {
+		acknowledge( n );
+		append( ACKNOWLEDGED, IOUtils.toByteArray( n ) );
+	}
+
+	@Override
+	public void onDisconnected() {
+		force();
+	}
+
+	@Override
+	public synchronized void onIdentityReceived( byte [] identity ) {
+		this.identity = identity;
+		realm = channel.getRemoteAddress();
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			IOUtils.writeSmallBuffer( body, identity );
+			IOUtils.writeSmallBuffer( body, orEmpty( realm ) );
+			append( IDENTITY, body.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	@Override
+	public synchronized void onPacketReceived( Packet packet ) {
+		receivedPacketCount++;
+		append( RECEIVED, new byte [0] );
+	}
+
+	/**
+	 * Journals the given {@code packet} as sent. Reliability sends packets
+	 * again in the order in which they were first sent, so a packet being
+	 * sent again can only be the oldest of those awaiting retransmission, and
+	 * is journaled by that entry's sequence number alone.
+	 */
+	@Override
+	public synchronized void onPacketSent( Packet packet ) {
+		Entry next = resendingPackets.peek();
+		if( next != null && isSent( next, packet ) ) {
+			unacknowledgedPackets.add( resendingPackets.remove() );
+			append( RESENT, IOUtils.toByteArray( next.sequence ) );
+			return;
+		}
+		unacknowledgedPackets.add( new Entry( nextSequence++, packet ) );
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			PacketSerializer.write( packet, body );
+			append( SENT, body.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	@Override
+	public synchronized void onSessionCreated( byte [] sessionID ) {
+		// Reliability sends any packets left over from the previous session
+		// again in the new one.
+		this.sessionID = sessionID;
+		identity = null;
+		realm = null;
+		receivedPacketCount = 0;
+		acknowledgedPacketCount = 0;
+		resendingPackets.addAll( unacknowledgedPackets );
+		unacknowledgedPackets.clear();
+		checkpoint();
+	}
+
+	@Override
+	public synchronized void onSessionResumed( byte [] sessionID, int n ) {
+		if( sessionID.length > 0 ) {
+			onAcknowledgmentReceived( n );
+		}
+	}
+
+	private static byte [] orEmpty( byte [] value ) {
+		return value != null ? value : new byte [0];
+	}
+
+	private static byte [] orNull( byte [] value ) {
+		return value.length > 0 ? value : null;
+	}
+
+	private void replay() throws IOException {
+		int position = HEADER_LENGTH;
+		while( position + 5 <= buffer.capacity() ) {
+			int length = buffer.getInt( position );
+			if( length <= 0 || position + 4 + length > buffer.capacity() ) {
+				break;
+			}
+			byte [] record = new byte [length - 1];
+			byte type = buffer.get( position + 4 );
+			for( int i = 0; i < record.length; i++ ) {
+				record[i] = buffer.get( position + 5 + i );
+			}
+			InputStream body = new ByteArrayInputStream( record );
+			switch( type ) {
+				case CHECKPOINT:
+					sessionID = orNull( IOUtils.readSmallBuffer( body ) );
+					identity = orNull( IOUtils.readSmallBuffer( body ) );
+					realm = orNull( IOUtils.readSmallBuffer( body ) );
+					receivedPacketCount = IOUtils.readInt( body );
+					acknowledgedPacketCount = IOUtils.readInt( body );
+					nextSequence = IOUtils.readLong( body );
+					unacknowledgedPackets.clear();
+					readEntries( body, unacknowledgedPackets );
+					resendingPackets.clear();
+					readEntries( body, resendingPackets );
+					break;
+				case IDENTITY:
+					identity = IOUtils.readSmallBuffer( body );
+					realm = orNull( IOUtils.readSmallBuffer( body ) );
+					break;
+				case SENT:
+					unacknowledgedPackets.add( new Entry( nextSequence++, PacketSerializer.read( body ) ) );
+					break;
+				case RESENT:
+					unacknowledgedPackets.add( removeResending( IOUtils.readLong( body ) ) );
+					break;
+				case RECEIVED:
+					receivedPacketCount++;
+					break;
+				case ACKNOWLEDGED:
+					acknowledge( IOUtils.readInt( body ) );
+					break;
+				default:
+					throw new IOException( String.format( "Unknown record type %d in %s.", Integer.valueOf( type ), file ) );
+			}
+			position += 4 + length;
+		}
+		buffer.position( position );
+	}
+
+	private static void readEntries( InputStream input, List<Entry> entries ) throws IOException {
+		int count = IOUtils.readInt( input );
+		for( int i = 0; i < count; i++ ) {
+			long sequence = IOUtils.readLong( input );
+			entries.add( new Entry( sequence, PacketSerializer.read( input ) ) );
+		}
+	}
+
+	private Entry removeResending( long sequence ) throws IOException {
+		for( Iterator<Entry> it = resendingPackets.iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if( entry.sequence == sequence ) {
+				it.remove();
+				return entry;
+			}
+		}
+		throw new IOException( String.format( "Packet %d in %s was resent but not awaiting retransmission.", Long.valueOf( sequence ), file ) );
+	}
+
+	/**
+	 * Replaces the journaled delivery state with the given state, as written by
+	 * {@link Reliability#saveState(OutputStream)}, and the session identifier
+	 * and addresses currently set on the channel. The journal is compacted to
+	 * a single checkpoint.
+	 */
+	@Override
+	public synchronized void restoreState( InputStream input ) throws IOException {
+		int version = IOUtils.readInt( input );
+		switch( version ) {
+			case 1:
+				receivedPacketCount = IOUtils.readInt( input );
+				int sentPacketCount = IOUtils.readInt( input );
+				int unacknowledgedPacketsCount = IOUtils.readInt( input );
+				unacknowledgedPackets.clear();
+				for( int i = 0; i < unacknowledgedPacketsCount; i++ ) {
+					unacknowledgedPackets.add( new Entry( nextSequence++, PacketSerializer.read( input ) ) );
+				}
+				resendingPackets.clear();
+				acknowledgedPacketCount = sentPacketCount - unacknowledgedPackets.size();
+				sessionID = channel.getSessionID();
+				identity = channel.getLocalAddress();
+				realm = channel.getRemoteAddress();
+				checkpoint();
+				break;
+			default:
+		}
+	}
+
+	/**
+	 * Saves the journaled delivery state in the form read by
+	 * {@link Reliability#restoreState(InputStream)}. Packets which were
+	 * awaiting retransmission follow the other unacknowledged packets, in the
+	 * order in which the remote node would receive them.
+	 */
+	@Override
+	public synchronized void saveState( OutputStream output ) throws IOException {
+		IOUtils.writeInt( output, SERIAL_VERSION );
+		IOUtils.writeInt( output, receivedPacketCount );
+		IOUtils.writeInt( output, acknowledgedPacketCount + resendingPackets.size() + unacknowledgedPackets.size() );
+		IOUtils.writeInt( output, resendingPackets.size() + unacknowledgedPackets.size() );
+		for( Entry entry : unacknowledgedPackets ) {
+			PacketSerializer.write( entry.packet, output );
+		}
+		for( Entry entry : resendingPackets ) {
+			PacketSerializer.write( entry.packet, output );
+		}
+	}
+
+	private static void writeEntries( OutputStream output, List<Entry> entries ) throws IOException {
+		IOUtils.writeInt( output, entries.size() );
+		for( Entry entry : entries ) {
+			IOUtils.writeLong( output, entry.sequence );
+			PacketSerializer.write( entry.packet, output );
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.LruCache;
+
+/**
+ * Remembers the state of recently disconnected sessions so that a client node
+ * which reconnects may resume its session without attaching and
+ * authenticating again. The store is bounded, and each session may be resumed
+ * only for a limited time after it was disconnected, and only once.
+ *
+ * @see SessionResumption
+ */
+public class ResumptionStore {
+
+	private static class Resumption {
+
+		final byte [] localAddress;
+		final byte [] remoteAddress;
+		final byte [] state;
+
+		Resumption( byte [] localAddress, byte [] remoteAddress, byte [] state ) {
+			this.localAddress = localAddress;
+			this.remoteAddress = remoteAddress;
+			this.state = state;
+		}
+
+	}
+
+	/**
+	 * The default number of sessions remembered.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The default time, in milliseconds, for which a session is remembered.
+	 */
+	public static final long DEFAULT_TIME_TO_LIVE = 300000;
+
+	private final LruCache<ByteArrayKey, Resumption> sessions;
+	private final ConcurrentMap<ByteArrayKey, Object> owners = new ConcurrentHashMap<ByteArrayKey, Object>();
+
+	/**
+	 * Initializes a store with the default capacity and time to live.
+	 */
+	public ResumptionStore() {
+		this( DEFAULT_CAPACITY, DEFAULT_TIME_TO_LIVE );
+	}
+
+	/**
+	 * Initializes a store which remembers at most {@code capacity} sessions,
+	 * each for at most {@code timeToLive} milliseconds.
+	 *
+	 * @param capacity
+	 *            the maximum number of sessions remembered.
+	 * @param timeToLive
+	 *            how long, in milliseconds, a disconnected session may be
+	 *            resumed.
+	 */
+	public ResumptionStore( int capacity, long timeToLive ) {
+		sessions = new LruCache<ByteArrayKey, Resumption>( capacity, timeToLive );
+	}
+
+	/**
+	 * Records that the session with the given {@code sessionID} is currently
+	 * in use by the given {@code owner}. Only the current owner of a session
+	 * may save it, so that a connection which is replaced by a resumed one
+	 * cannot overwrite the newer state when it is finally disconnected.
+	 *
+	 * @param sessionID
+	 *            the identifier of the session.
+	 * @param owner
+	 *            the object, typically a per-connection handler, which now
+	 *            owns the session.
+	 */
+	public void claim( byte [] sessionID, Object owner ) {
+		owners.put( new ByteArrayKey( sessionID ), owner );
+	}
+
+	/**
+	 * Restores the session with the given {@code sessionID}, if it is known,
+	 * onto the given {@code channel} and {@code state}, and removes it from
+	 * this store.
+	 *
+	 * @param sessionID
+	 *            the identifier of the session to restore.
+	 * @param channel
+	 *            the channel whose addresses and session ID are restored.
+	 * @param state
+	 *            the object whose state is restored.
+	 * @param owner
+	 *            the object which owns the session once it is restored.
+	 * @return {@code true} if the session was restored. Otherwise returns
+	 *         {@code false}.
+	 * @throws IOException
+	 *             if the saved state cannot be restored.
+	 */
+	public boolean restore( byte [] sessionID, WriteChannel channel, Stateful state, Object owner ) throws IOException {
+		ByteArrayKey key = new ByteArrayKey( sessionID );
+		Resumption resumption;
+		synchronized( sessions ) {
+			resumption = sessions.get( key );
+			if( resumption == null ) {
+				return false;
+			}
+			sessions.remove( key );
+			owners.put( key, owner );
+		}
+		channel.setLocalAddress( resumption.localAddress );
+		channel.setRemoteAddress( resumption.remoteAddress );
+		channel.setSessionID( sessionID );
+		state.restoreState( new ByteArrayInputStream( resumption.state ) );
+		return true;
+	}
+
+	/**
+	 * Saves the session of the given {@code channel}, so that it may later be
+	 * resumed, provided the session is still owned by the given {@code owner}.
+	 *
+	 * @param channel
+	 *            the channel whose addresses and session ID are saved.
+	 * @param state
+	 *            the object whose state is saved.
+	 * @param owner
+	 *            the object which claimed the session.
+	 * @throws IOException
+	 *             if the state cannot be saved.
+	 */
+	public void save( WriteChannel channel, Stateful state, Object owner ) throws IOException {
+		byte [] sessionID = channel.getSessionID();
+		if( sessionID == null ) {
+			return;
+		}
+		// Give up ownership even if the session is not worth saving, so that
+		// the entry does not outlive the connection.
+		ByteArrayKey key = new ByteArrayKey( sessionID );
+		if( !owners.remove( key, owner ) || channel.getRemoteAddress() == null ) {
+			return;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		state.saveState( out );
+		synchronized( sessions ) {
+			sessions.put( key, new Resumption( channel.getLocalAddress(), channel.getRemoteAddress(), out.toByteArray() ) );
+		}
+	}
+
+}
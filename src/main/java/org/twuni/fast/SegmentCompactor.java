@@ -0,0 +1,140 @@
+package org.twuni.fast;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compacts the segments of a {@link TieredPacketStore} on a background thread.
+ * Packets which have been taken or have expired leave dead space in their
+ * segment until every packet in it is gone, so a segment holding a few
+ * packets of an idle address can keep many megabytes on disk indefinitely.
+ * This compactor repeatedly rewrites the sealed segment with the smallest
+ * share of live bytes, as long as that share is at most a given ratio, and
+ * limits the rate at which it reads and writes segment files so as not to
+ * starve the store's own disk access. When no segment needs compacting, it
+ * checks again after a given interval.
+ */
+public class SegmentCompactor implements FAST {
+
+	/**
+	 * The default share of live bytes at or below which a segment is
+	 * compacted.
+	 */
+	public static final double DEFAULT_MAX_LIVE_RATIO = 0.5;
+
+	/**
+	 * The default number of bytes per second which may be read from and
+	 * written to segment files while compacting.
+	 */
+	public static final long DEFAULT_BYTES_PER_SECOND = 16 * 1024 * 1024;
+
+	/**
+	 * The default time, in milliseconds, to wait before checking again for a
+	 * segment to compact.
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			while( !stopped ) {
+				boolean compacted;
+				try {
+					compacted = store.compact( maxLiveRatio, bytesPerSecond );
+				} catch( RuntimeException exception ) {
+					// A failed compaction leaves the segment as it was, and is
+					// counted by the store. Any unexpected error must not end
+					// this thread, or no segment would be compacted again.
+					compacted = false;
+				}
+				if( !compacted ) {
+					synchronized( this ) {
+						if( !stopped ) {
+							try {
+								wait( interval );
+							} catch( InterruptedException exception ) {
+								break;
+							}
+						}
+					}
+				}
+			}
+		}
+
+	}
+
+	private final TieredPacketStore store;
+	private final double maxLiveRatio;
+	private final long bytesPerSecond;
+	private final long interval;
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final Worker worker = new Worker();
+	private volatile boolean stopped;
+	private Thread thread;
+
+	/**
+	 * Initializes a compactor for the given {@code store} with the default
+	 * ratio, rate and interval.
+	 *
+	 * @param store
+	 *            the store whose segments are to be compacted.
+	 */
+	public SegmentCompactor( TieredPacketStore store ) {
+		this( store, DEFAULT_MAX_LIVE_RATIO, DEFAULT_BYTES_PER_SECOND, DEFAULT_INTERVAL );
+	}
+
+	/**
+	 * Initializes a compactor for the given {@code store}.
+	 *
+	 * @param store
+	 *            the store whose segments are to be compacted.
+	 * @param maxLiveRatio
+	 *            the share of live bytes, between zero and one, at or below
+	 *            which a segment is compacted.
+	 * @param bytesPerSecond
+	 *            the number of bytes per second which may be read from and
+	 *            written to segment files while compacting.
+	 * @param interval
+	 *            the time, in milliseconds, to wait before checking again for
+	 *            a segment to compact.
+	 */
+	public SegmentCompactor( TieredPacketStore store, double maxLiveRatio, long bytesPerSecond, long interval ) {
+		this.store = store;
+		this.maxLiveRatio = maxLiveRatio;
+		this.bytesPerSecond = bytesPerSecond;
+		this.interval = interval;
+	}
+
+	/**
+	 * Starts compacting segments on a new thread, unless this compactor has
+	 * already been started.
+	 */
+	public void start() {
+		if( started.compareAndSet( false, true ) ) {
+			thread = new Thread( worker, String.format( "%s(%s)", SegmentCompactor.class.getName(), Integer.toHexString( hashCode() ) ) );
+			thread.setDaemon( true );
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the compactor's thread, waiting for a segment being compacted to
+	 * be finished. The thread is not interrupted, since interrupting a thread
+	 * while it reads a segment would close the segment's file for the store
+	 * as well.
+	 */
+	public void stop() {
+		stopped = true;
+		synchronized( worker ) {
+			worker.notifyAll();
+		}
+		if( started.get() && thread != null && thread != Thread.currentThread() ) {
+			try {
+				thread.join();
+			} catch( InterruptedException exception ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.twuni.fast;
+
+/**
+ * Tracks the send credits granted by the remote endpoint. Until the remote
+ * endpoint grants its first credit, sending is unrestricted, so that this
+ * handler is harmless when talking to a node which does not use flow control.
+ * Afterward, each packet sent consumes one credit and a sender with no credit
+ * remaining waits until more is granted.
+ *
+ * @see FlowControl
+ */
+public class SendCredit extends EventHandlerBase {
+
+	private boolean enabled;
+	private long available;
+
+	/**
+	 * Consumes {@code n} credits, waiting until enough have been granted by
+	 * the remote endpoint.
+	 *
+	 * @param n
+	 *            the number of packets about to be sent.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting.
+	 */
+	public synchronized void acquire( int n ) throws InterruptedException {
+		for( int i = 0; i < n; i++ ) {
+			while( enabled && available <= 0 ) {
+				wait();
+			}
+			available--;
+		}
+	}
+
+	/**
+	 * Returns the number of packets which may currently be sent without
+	 * waiting, or {@link Long#MAX_VALUE} if the remote endpoint has not
+	 * enabled flow control.
+	 *
+	 * @return the number of packets which may currently be sent without
+	 *         waiting.
+	 */
+	public synchronized long getAvailable() {
+		return enabled ? available : Long.MAX_VALUE;
+	}
+
+	@Override
+	public synchronized void onCreditReceived( int n ) {
+		if( !enabled ) {
+			enabled = true;
+			available = 0;
+		}
+		available += n;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void onDisconnected() {
+		enabled = false;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void onSessionCreated( byte [] sessionID ) {
+		enabled = false;
+		available = 0;
+		notifyAll();
+	}
+
+}
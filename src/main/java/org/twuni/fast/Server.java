@@ -1,15 +1,27 @@
 package org.twuni.fast;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLServerSocketFactory;
 
+import org.twuni.fast.io.ConcurrentWriteChannel;
+import org.twuni.fast.io.QueuedWriteChannel;
 import org.twuni.fast.io.ReadChannel;
 import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.Metrics;
 
 /**
  * A high-level implementation of a FAST server node capable of accepting
@@ -28,8 +40,24 @@ public class Server {
 		private AddressVerifier addressVerifier;
 		private SessionFactory sessionFactory;
 		private Authenticator authenticator;
+		private AsyncAuthenticator asyncAuthenticator;
+		private int authenticationConcurrency;
 		private MailboxFactory mailboxFactory;
 		private PacketRouter packetRouter;
+		private MailboxPolicy mailboxPolicy;
+		private PacketStore packetStore;
+		private GroupRegistry groups;
+		private AddressVerifier subscriptionVerifier;
+		private WriteChannelProvider writeChannelProvider;
+		private int flowControlWindow;
+		private int outboundQueueCapacity;
+		private long heartbeatInterval;
+		private long idleTimeout;
+		private long handshakeTimeout;
+		private long authenticationTimeout;
+		private long frameTimeout;
+		private Metrics metrics;
+		private ResumptionStore resumptionStore;
 		private PrintStream logger;
 
 		/**
@@ -55,6 +83,40 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the server to use the given {@code asyncAuthenticator} for
+		 * authenticating client nodes, in place of any blocking
+		 * {@link Authenticator}. While a credential is being verified, later
+		 * commands from the same client node are held in order.
+		 *
+		 * @param asyncAuthenticator
+		 *            the authenticator to use for authenticating client nodes.
+		 * @return this object, for chaining commands.
+		 * @see AuthenticationGate
+		 */
+		public Builder asyncAuthenticator( AsyncAuthenticator asyncAuthenticator ) {
+			this.asyncAuthenticator = asyncAuthenticator;
+			return this;
+		}
+
+		/**
+		 * Configures the server to verify credentials with its blocking
+		 * {@link Authenticator} on a separate pool of at most
+		 * {@code authenticationConcurrency} threads, rather than on each client
+		 * node's reader thread. This has no effect if an
+		 * {@link AsyncAuthenticator} has been configured.
+		 *
+		 * @param authenticationConcurrency
+		 *            the maximum number of credentials verified at once, or
+		 *            zero to verify each credential on the reader thread.
+		 * @return this object, for chaining commands.
+		 * @see ExecutorAuthenticator
+		 */
+		public Builder authenticationConcurrency( int authenticationConcurrency ) {
+			this.authenticationConcurrency = authenticationConcurrency;
+			return this;
+		}
+
 		/**
 		 * Configures the server to use the given {@code authenticator} for
 		 * authenticating client nodes.
@@ -68,8 +130,120 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the server to disconnect each client node which has not
+		 * authenticated within {@code authenticationTimeout} milliseconds of
+		 * sending its greeting.
+		 *
+		 * @param authenticationTimeout
+		 *            how long, in milliseconds, a client node may take to
+		 *            authenticate, or zero for no limit.
+		 * @return this object, for chaining commands.
+		 * @see AuthenticationDeadline
+		 */
+		public Builder authenticationTimeout( long authenticationTimeout ) {
+			this.authenticationTimeout = authenticationTimeout;
+			return this;
+		}
+
 		public Server build() {
-			return new Server( secure, port, packetListener, addressVerifier, sessionFactory, authenticator, mailboxFactory, packetRouter, logger );
+			return new Server( secure, port, packetListener, addressVerifier, sessionFactory, authenticator, asyncAuthenticator, authenticationConcurrency, mailboxFactory, packetRouter, mailboxPolicy, packetStore, groups, subscriptionVerifier, writeChannelProvider, flowControlWindow, outboundQueueCapacity, heartbeatInterval, idleTimeout, handshakeTimeout, authenticationTimeout, frameTimeout, metrics, resumptionStore, logger );
+		}
+
+		/**
+		 * Configures the server to allow each client node at most
+		 * {@code flowControlWindow} packets in flight, pausing any client node
+		 * which exceeds it until its earlier packets have been routed.
+		 *
+		 * @param flowControlWindow
+		 *            the maximum number of packets each client node may have
+		 *            in flight, or zero to disable flow control.
+		 * @return this object, for chaining commands.
+		 * @see FlowControl
+		 */
+		public Builder flowControlWindow( int flowControlWindow ) {
+			this.flowControlWindow = flowControlWindow;
+			return this;
+		}
+
+		/**
+		 * Configures the server to disconnect each client node which takes
+		 * longer than {@code frameTimeout} milliseconds to finish sending a
+		 * command it has started, or to accept a command being written to it.
+		 * This protects the server from client nodes which trickle bytes or
+		 * stop reading.
+		 *
+		 * @param frameTimeout
+		 *            how long, in milliseconds, a single command may take to
+		 *            be read or written, or zero for no limit.
+		 * @return this object, for chaining commands.
+		 * @see ReadChannel#setDeadlines(HashedWheelTimer, long, long)
+		 * @see WriteChannel#setWriteTimeout(HashedWheelTimer, long)
+		 */
+		public Builder frameTimeout( long frameTimeout ) {
+			this.frameTimeout = frameTimeout;
+			return this;
+		}
+
+		/**
+		 * Configures the server to deliver each packet sent to a group address
+		 * of the given {@code groups} to every member of the group. This has
+		 * no effect if a custom {@link MailboxFactory} and
+		 * {@link PacketRouter} have been configured.
+		 *
+		 * @param groups
+		 *            the registry of group addresses, which may still be
+		 *            changed while the server is running.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder groups( GroupRegistry groups ) {
+			this.groups = groups;
+			return this;
+		}
+
+		/**
+		 * Configures the server to disconnect each client node which has not
+		 * sent its greeting within {@code handshakeTimeout} milliseconds of
+		 * connecting.
+		 *
+		 * @param handshakeTimeout
+		 *            how long, in milliseconds, a client node may take to send
+		 *            its greeting, or zero for no limit.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder handshakeTimeout( long handshakeTimeout ) {
+			this.handshakeTimeout = handshakeTimeout;
+			return this;
+		}
+
+		/**
+		 * Configures the server to PING each client node which has been quiet
+		 * for {@code heartbeatInterval} milliseconds.
+		 *
+		 * @param heartbeatInterval
+		 *            how long, in milliseconds, a client node may be quiet
+		 *            before it is sent a PING, or zero to disable heartbeats.
+		 * @return this object, for chaining commands.
+		 * @see Heartbeat
+		 */
+		public Builder heartbeatInterval( long heartbeatInterval ) {
+			this.heartbeatInterval = heartbeatInterval;
+			return this;
+		}
+
+		/**
+		 * Configures the server to disconnect each client node from which
+		 * nothing has been received for {@code idleTimeout} milliseconds.
+		 *
+		 * @param idleTimeout
+		 *            how long, in milliseconds, a client node may be quiet
+		 *            before it is disconnected.
+		 * @return this object, for chaining commands.
+		 * @see Heartbeat
+		 */
+		public Builder idleTimeout( long idleTimeout ) {
+			this.idleTimeout = idleTimeout;
+			return this;
 		}
 
 		/**
@@ -99,6 +273,22 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the limits within which the server holds packets for
+		 * addresses which are not attached. This has no effect if a custom
+		 * {@link MailboxFactory} and {@link PacketRouter} have been
+		 * configured.
+		 *
+		 * @param mailboxPolicy
+		 *            the limits within which packets are held.
+		 * @return this object, for chaining commands.
+		 * @see MemoryPacketStore
+		 */
+		public Builder mailboxPolicy( MailboxPolicy mailboxPolicy ) {
+			this.mailboxPolicy = mailboxPolicy;
+			return this;
+		}
+
 		/**
 		 * Configures the server to notify the given {@code packetListener}
 		 * whenever packets are sent and received.
@@ -113,6 +303,38 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the server to record its metrics in the given
+		 * {@code metrics} registry.
+		 *
+		 * @param metrics
+		 *            the registry in which the server records its metrics.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder metrics( Metrics metrics ) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Configures the server to queue at most
+		 * {@code outboundQueueCapacity} outgoing commands for each client
+		 * node, each queue being drained by its own writer thread. Packets
+		 * routed to a client node whose queue is full are held in its mailbox
+		 * until the queue drains.
+		 *
+		 * @param outboundQueueCapacity
+		 *            the maximum number of outgoing commands queued for each
+		 *            client node, or zero to write to each client node
+		 *            directly from the thread routing the packet.
+		 * @return this object, for chaining commands.
+		 * @see QueuedWriteChannel
+		 */
+		public Builder outboundQueueCapacity( int outboundQueueCapacity ) {
+			this.outboundQueueCapacity = outboundQueueCapacity;
+			return this;
+		}
+
 		/**
 		 * Configures the server to use the given {@code packetRouter} when
 		 * attempting to deliver packets to an address.
@@ -126,6 +348,26 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the server to hold packets for addresses which are not
+		 * attached in the given {@code packetStore}, in place of a
+		 * {@link MemoryPacketStore} with the configured
+		 * {@link MailboxPolicy}. This has no effect if a custom
+		 * {@link MailboxFactory} and {@link PacketRouter} have been
+		 * configured.
+		 *
+		 * @param packetStore
+		 *            the store in which packets are held until they are
+		 *            fetched.
+		 * @return this object, for chaining commands.
+		 * @see ArenaPacketStore
+		 * @see TieredPacketStore
+		 */
+		public Builder packetStore( PacketStore packetStore ) {
+			this.packetStore = packetStore;
+			return this;
+		}
+
 		/**
 		 * Configures the server to listen on the given TCP {@code port}.
 		 *
@@ -150,9 +392,41 @@ public class Server {
 			addressVerifier = null;
 			sessionFactory = null;
 			authenticator = null;
+			asyncAuthenticator = null;
+			authenticationConcurrency = 0;
 			logger = null;
 			mailboxFactory = null;
 			packetRouter = null;
+			mailboxPolicy = null;
+			packetStore = null;
+			groups = null;
+			subscriptionVerifier = null;
+			writeChannelProvider = null;
+			flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+			outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+			heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+			idleTimeout = DEFAULT_IDLE_TIMEOUT;
+			handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+			authenticationTimeout = DEFAULT_AUTHENTICATION_TIMEOUT;
+			frameTimeout = DEFAULT_FRAME_TIMEOUT;
+			metrics = null;
+			resumptionStore = null;
+			return this;
+		}
+
+
+		/**
+		 * Configures the server to remember the sessions of disconnected
+		 * client nodes in the given {@code resumptionStore}, from which a
+		 * client node may resume its session without authenticating again.
+		 *
+		 * @param resumptionStore
+		 *            the store in which disconnected sessions are remembered.
+		 * @return this object, for chaining commands.
+		 * @see SessionResumption
+		 */
+		public Builder resumptionStore( ResumptionStore resumptionStore ) {
+			this.resumptionStore = resumptionStore;
 			return this;
 		}
 
@@ -184,6 +458,45 @@ public class Server {
 			return this;
 		}
 
+		/**
+		 * Configures the server to let each authenticated client node
+		 * subscribe to the patterns of addresses which the given
+		 * {@code subscriptionVerifier} accepts, such as
+		 * {@code alerts.*@example.com}, and to deliver a copy of each packet
+		 * sent to a matching address to its subscribers. Since a subscriber
+		 * receives packets addressed to others, the verifier should accept
+		 * only patterns of topic addresses. This has no effect if a custom
+		 * {@link MailboxFactory} and {@link PacketRouter} have been
+		 * configured.
+		 *
+		 * @param subscriptionVerifier
+		 *            the verifier for determining whether a pattern may be
+		 *            subscribed to.
+		 * @return this object, for chaining commands.
+		 * @see SubscriptionTrie
+		 */
+		public Builder subscriptions( AddressVerifier subscriptionVerifier ) {
+			this.subscriptionVerifier = subscriptionVerifier;
+			return this;
+		}
+
+		/**
+		 * Configures the server to register the write channel of each
+		 * authenticated client node with the given
+		 * {@code writeChannelProvider}. A custom {@link PacketRouter} should
+		 * be constructed with the same provider so that it can reach connected
+		 * client nodes.
+		 *
+		 * @param writeChannelProvider
+		 *            the provider responsible for mapping addresses to write
+		 *            channels.
+		 * @return this object, for chaining commands.
+		 */
+		public Builder writeChannelProvider( WriteChannelProvider writeChannelProvider ) {
+			this.writeChannelProvider = writeChannelProvider;
+			return this;
+		}
+
 	}
 
 	static class Looper implements Runnable {
@@ -194,42 +507,109 @@ public class Server {
 		private final AddressVerifier addressVerifier;
 		private final SessionFactory sessionFactory;
 		private final Authenticator authenticator;
+		private final AsyncAuthenticator asyncAuthenticator;
 		private final MailboxFactory mailboxFactory;
 		private final PacketRouter packetRouter;
+		private final SubscriptionTrie subscriptions;
+		private final AddressVerifier subscriptionVerifier;
 		private final WriteChannelProvider writeChannelProvider;
+		private final int flowControlWindow;
+		private final int outboundQueueCapacity;
+		private final HashedWheelTimer timer;
+		private final Executor pinger;
+		private final long heartbeatInterval;
+		private final long idleTimeout;
+		private final long handshakeTimeout;
+		private final long authenticationTimeout;
+		private final long frameTimeout;
+		private final Metrics metrics;
+		private final ResumptionStore resumptionStore;
 		private final PrintStream logger;
+		private ServerSocket server;
+		private boolean closed;
 
-		public Looper( boolean secure, int port, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, MailboxFactory mailboxFactory, PacketRouter packetRouter, WriteChannelProvider writeChannelProvider, PrintStream logger ) {
+		public Looper( boolean secure, int port, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, AsyncAuthenticator asyncAuthenticator, MailboxFactory mailboxFactory, PacketRouter packetRouter, SubscriptionTrie subscriptions, AddressVerifier subscriptionVerifier, WriteChannelProvider writeChannelProvider, int flowControlWindow, int outboundQueueCapacity, HashedWheelTimer timer, Executor pinger, long heartbeatInterval, long idleTimeout, long handshakeTimeout, long authenticationTimeout, long frameTimeout, Metrics metrics, ResumptionStore resumptionStore, PrintStream logger ) {
 			this.secure = secure;
 			this.port = port;
 			this.packetListener = packetListener;
 			this.addressVerifier = addressVerifier;
 			this.sessionFactory = sessionFactory;
 			this.authenticator = authenticator;
+			this.asyncAuthenticator = asyncAuthenticator;
 			this.mailboxFactory = mailboxFactory;
 			this.packetRouter = packetRouter;
+			this.subscriptions = subscriptions;
+			this.subscriptionVerifier = subscriptionVerifier;
 			this.writeChannelProvider = writeChannelProvider;
+			this.flowControlWindow = flowControlWindow;
+			this.outboundQueueCapacity = outboundQueueCapacity;
+			this.timer = timer;
+			this.pinger = pinger;
+			this.heartbeatInterval = heartbeatInterval;
+			this.idleTimeout = idleTimeout;
+			this.handshakeTimeout = handshakeTimeout;
+			this.authenticationTimeout = authenticationTimeout;
+			this.frameTimeout = frameTimeout;
+			this.metrics = metrics;
+			this.resumptionStore = resumptionStore;
 			this.logger = logger;
 		}
 
+		/**
+		 * Closes the server socket, so that the port is released and a thread
+		 * waiting in {@link ServerSocket#accept()} stops waiting.
+		 */
+		public synchronized void close() {
+			closed = true;
+			if( server != null ) {
+				try {
+					server.close();
+				} catch( IOException ignore ) {
+					// Ignore.
+				}
+			}
+		}
+
+		private synchronized ServerSocket open() throws IOException {
+			if( closed ) {
+				return null;
+			}
+			server = secure ? SSLServerSocketFactory.getDefault().createServerSocket( port ) : ServerSocketFactory.getDefault().createServerSocket( port );
+			return server;
+		}
+
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
 		@Override
 		public void run() {
 			try {
-				ServerSocket server = secure ? SSLServerSocketFactory.getDefault().createServerSocket( port ) : ServerSocketFactory.getDefault().createServerSocket( port );
+				ServerSocket server = open();
+				if( server == null ) {
+					return;
+				}
 				try {
 					while( !Thread.interrupted() ) {
 						Socket socket = server.accept();
-						WriteChannel w = new WriteChannel( socket.getOutputStream() );
-						EventHandler e = new ServerEventHandler( w, packetListener, addressVerifier, sessionFactory, authenticator, mailboxFactory, packetRouter, writeChannelProvider, logger );
+						WriteChannel w = outboundQueueCapacity > 0 ? new QueuedWriteChannel( socket.getOutputStream(), outboundQueueCapacity, mailboxFactory ) : new ConcurrentWriteChannel( socket.getOutputStream() );
+						w.setWriteTimeout( timer, frameTimeout );
+						InputStream in = socket.getInputStream();
+						Heartbeat h = new Heartbeat( w, in, timer, pinger, heartbeatInterval, idleTimeout, metrics );
+						AuthenticationDeadline a = new AuthenticationDeadline( w, in, timer, authenticationTimeout );
+						AuthenticationGate g = asyncAuthenticator != null ? new AuthenticationGate( w, asyncAuthenticator ) : null;
+						EventHandler e = new ServerEventHandler( w, packetListener, addressVerifier, sessionFactory, g != null ? g : authenticator, mailboxFactory, packetRouter, subscriptions, subscriptionVerifier, writeChannelProvider, flowControlWindow, h, a, resumptionStore, logger );
 						w.setEventHandler( e );
-						ReadChannel r = new ReadChannel( socket.getInputStream(), e );
-						r.accept().loopInBackground();
+						ReadChannel r = new ReadChannel( in, g != null ? g.setEventHandler( e ) : e );
+						r.setDeadlines( timer, handshakeTimeout, frameTimeout ).acceptInBackground();
 					}
 				} finally {
 					server.close();
 				}
 			} catch( IOException exception ) {
-				new ClojureEventLogger( logger ).onException( exception );
+				if( !isClosed() ) {
+					new ClojureEventLogger( logger ).onException( exception );
+				}
 			}
 		}
 
@@ -243,7 +623,9 @@ public class Server {
 
 		int port = 4857;
 		boolean secure = false;
-		byte [] realm = null;
+		List<byte []> realms = new ArrayList<byte []>();
+		File allowList = null;
+		int shards = 0;
 
 		for( int i = 0; i < args.length; i++ ) {
 
@@ -270,20 +652,75 @@ public class Server {
 
 			if( "-r".equals( args[i] ) ) {
 				i++;
-				realm = args[i].getBytes();
+				realms.add( args[i].getBytes() );
+				continue;
+			}
+
+			if( "-R".equals( args[i] ) ) {
+				i++;
+				allowList = new File( args[i] );
+				continue;
+			}
+
+			if( "-n".equals( args[i] ) ) {
+				i++;
+				shards = Integer.parseInt( args[i] );
 				continue;
 			}
 
 		}
 
-		if( realm != null ) {
-			b.addressVerifier( new WhiteListAddressFilter( realm ) );
+		if( allowList != null ) {
+			final AllowListAddressFilter filter;
+			try {
+				filter = new AllowListAddressFilter( allowList, realms.toArray( new byte [realms.size()] [] ) );
+			} catch( IOException exception ) {
+				System.err.println( String.format( "Unable to read %s: %s", allowList, exception.getMessage() ) );
+				return;
+			}
+			Thread reloader = new Thread( new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						while( !Thread.interrupted() ) {
+							Thread.sleep( ALLOW_LIST_RELOAD_INTERVAL );
+							try {
+								filter.reloadIfModified();
+							} catch( IOException exception ) {
+								System.err.println( String.format( "Unable to reload allow list: %s", exception.getMessage() ) );
+							}
+						}
+					} catch( InterruptedException exception ) {
+						// Stop reloading.
+					}
+				}
+
+			}, AllowListAddressFilter.class.getName() );
+			reloader.setDaemon( true );
+			reloader.start();
+			b.addressVerifier( filter );
+		} else if( !realms.isEmpty() ) {
+			b.addressVerifier( new WhiteListAddressFilter( realms.toArray( new byte [realms.size()] [] ) ) );
+		}
+
+		if( shards > 0 ) {
+			ShardedPacketTransport transport = new ShardedPacketTransport( shards );
+			b.writeChannelProvider( transport ).mailboxFactory( transport ).packetRouter( transport );
 		}
 
 		Server s = b.port( port ).secure( secure ).build();
 
-		if( realm != null ) {
-			System.out.println( String.format( "(fast/1.0 :realm \"%s\" :port %d :secure %b)", new String( realm ), Integer.valueOf( port ), Boolean.valueOf( secure ) ) );
+		if( allowList != null ) {
+			System.out.println( String.format( "(fast/1.0 :allow-list \"%s\" :port %d :secure %b)", allowList, Integer.valueOf( port ), Boolean.valueOf( secure ) ) );
+		} else if( realms.size() == 1 ) {
+			System.out.println( String.format( "(fast/1.0 :realm \"%s\" :port %d :secure %b)", new String( realms.get( 0 ) ), Integer.valueOf( port ), Boolean.valueOf( secure ) ) );
+		} else if( !realms.isEmpty() ) {
+			StringBuilder names = new StringBuilder();
+			for( byte [] realm : realms ) {
+				names.append( names.length() > 0 ? " " : "" ).append( '"' ).append( new String( realm ) ).append( '"' );
+			}
+			System.out.println( String.format( "(fast/1.0 :realms [%s] :port %d :secure %b)", names, Integer.valueOf( port ), Boolean.valueOf( secure ) ) );
 		} else {
 			System.out.println( String.format( "(fast/1.0 :port %d :secure %b)", Integer.valueOf( port ), Boolean.valueOf( secure ) ) );
 		}
@@ -307,21 +744,60 @@ public class Server {
 		System.out.println( "    -p <port>  Default: 4857" );
 		System.out.println( "    -k         Listen on an insecure socket (default)." );
 		System.out.println( "    -s         Listen on a TLS socket." );
-		System.out.println( "    -r <realm> Listen on the given realm. Default: (any)" );
+		System.out.println( "    -r <realm> Listen on the given realm. May be repeated. Default: (any)" );
+		System.out.println( "    -R <file>  Listen on the realms listed in the given file, one per line." );
+		System.out.println( "               The file is reloaded whenever it changes." );
+		System.out.println( "    -n <count> Route packets on the given number of single-threaded shards." );
 	}
 
+	private static final int DEFAULT_FLOW_CONTROL_WINDOW = 1024;
+	private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+	private static final long DEFAULT_HEARTBEAT_INTERVAL = 30000;
+	private static final long DEFAULT_IDLE_TIMEOUT = 90000;
+	private static final long DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+	private static final long DEFAULT_AUTHENTICATION_TIMEOUT = 30000;
+	private static final long DEFAULT_FRAME_TIMEOUT = 30000;
+	private static final int DEFAULT_AUTHENTICATION_QUEUE_CAPACITY = 1024;
+	private static final long ALLOW_LIST_RELOAD_INTERVAL = 10000;
+
 	private final boolean secure;
 	private final int port;
 	private final PacketListener packetListener;
 	private final AddressVerifier addressVerifier;
 	private final SessionFactory sessionFactory;
 	private final Authenticator authenticator;
+	private final AsyncAuthenticator asyncAuthenticator;
 	private final MailboxFactory mailboxFactory;
 	private final PacketRouter packetRouter;
+	private final SubscriptionTrie subscriptions;
+	private final AddressVerifier subscriptionVerifier;
 	private final PrintStream logger;
 	private final WriteChannelProvider writeChannelProvider;
+	private final int flowControlWindow;
+	private final int outboundQueueCapacity;
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final Executor pinger = Executors.newCachedThreadPool( new ThreadFactory() {
+
+		private final AtomicInteger threads = new AtomicInteger();
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, String.format( "%s-%d", Heartbeat.class.getName(), Integer.valueOf( threads.incrementAndGet() ) ) );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	} );
+	private final long heartbeatInterval;
+	private final long idleTimeout;
+	private final long handshakeTimeout;
+	private final long authenticationTimeout;
+	private final long frameTimeout;
+	private final Metrics metrics;
+	private final ResumptionStore resumptionStore;
 
 	private Thread listenerThread;
+	private Looper looper;
 
 	/**
 	 * Initializes a new server node with the given configuration parameters.
@@ -343,34 +819,121 @@ public class Server {
 	 *            node.
 	 * @param authenticator
 	 *            the authenticator to use for authenticating client nodes.
+	 * @param asyncAuthenticator
+	 *            the authenticator to use for authenticating client nodes off
+	 *            their reader threads, or {@code null} to use the blocking
+	 *            {@code authenticator}.
+	 * @param authenticationConcurrency
+	 *            the maximum number of credentials the blocking
+	 *            {@code authenticator} verifies at once on a separate pool of
+	 *            threads, or zero to verify each credential on the reader
+	 *            thread.
 	 * @param mailboxFactory
 	 *            the factory to use to obtain a {@link Mailbox} to
 	 *            consult when fetching new packets to deliver to a client
 	 *            node.
 	 * @param packetRouter
 	 *            the router to use for delivering packets.
+	 * @param mailboxPolicy
+	 *            the limits within which packets are held for addresses which
+	 *            are not attached, if the server uses its own
+	 *            {@code mailboxFactory} and {@code packetRouter}.
+	 * @param packetStore
+	 *            the store in which packets are held for addresses which are
+	 *            not attached, if the server uses its own
+	 *            {@code mailboxFactory} and {@code packetRouter}, or
+	 *            {@code null} to hold them on the heap within the limits of
+	 *            the {@code mailboxPolicy}.
+	 * @param groups
+	 *            the registry of group addresses whose packets are delivered
+	 *            to each member, if the server uses its own
+	 *            {@code mailboxFactory} and {@code packetRouter}, or
+	 *            {@code null} if there are none.
+	 * @param subscriptionVerifier
+	 *            the verifier for determining whether a client node may
+	 *            subscribe to a pattern of addresses, if the server uses its
+	 *            own {@code mailboxFactory} and {@code packetRouter}, or
+	 *            {@code null} to refuse all subscriptions.
+	 * @param writeChannelProvider
+	 *            the provider responsible for mapping addresses to write
+	 *            channels.
+	 * @param flowControlWindow
+	 *            the maximum number of packets each client node may have in
+	 *            flight, or zero to disable flow control.
+	 * @param outboundQueueCapacity
+	 *            the maximum number of outgoing commands queued for each
+	 *            client node, or zero to write to each client node directly.
+	 * @param heartbeatInterval
+	 *            how long, in milliseconds, a client node may be quiet before
+	 *            it is sent a PING, or zero to disable heartbeats.
+	 * @param idleTimeout
+	 *            how long, in milliseconds, a client node may be quiet before
+	 *            it is disconnected.
+	 * @param handshakeTimeout
+	 *            how long, in milliseconds, a client node may take to send its
+	 *            greeting, or zero for no limit.
+	 * @param authenticationTimeout
+	 *            how long, in milliseconds, a client node may take to
+	 *            authenticate, or zero for no limit.
+	 * @param frameTimeout
+	 *            how long, in milliseconds, a single command may take to be
+	 *            read or written, or zero for no limit.
+	 * @param metrics
+	 *            the registry in which the server records its metrics.
+	 * @param resumptionStore
+	 *            the store in which the sessions of disconnected client nodes
+	 *            are remembered so that they may be resumed.
 	 * @param logger
 	 *            the logger to which the server should record its logs.
 	 */
-	protected Server( boolean secure, int port, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, MailboxFactory mailboxFactory, PacketRouter packetRouter, PrintStream logger ) {
+	protected Server( boolean secure, int port, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, AsyncAuthenticator asyncAuthenticator, int authenticationConcurrency, MailboxFactory mailboxFactory, PacketRouter packetRouter, MailboxPolicy mailboxPolicy, PacketStore packetStore, GroupRegistry groups, AddressVerifier subscriptionVerifier, WriteChannelProvider writeChannelProvider, int flowControlWindow, int outboundQueueCapacity, long heartbeatInterval, long idleTimeout, long handshakeTimeout, long authenticationTimeout, long frameTimeout, Metrics metrics, ResumptionStore resumptionStore, PrintStream logger ) {
 		this.secure = secure;
 		this.port = port;
 		this.packetListener = packetListener != null ? packetListener : new EventHandlerBase();
 		this.addressVerifier = addressVerifier != null ? addressVerifier : new AnyAddressFilter();
 		this.sessionFactory = sessionFactory != null ? sessionFactory : new AnonymousSessionFactory();
 		this.authenticator = authenticator != null ? authenticator : new AutomaticAuthenticator();
-		writeChannelProvider = new SimpleWriteChannelProvider();
+		this.writeChannelProvider = writeChannelProvider != null ? writeChannelProvider : new SimpleWriteChannelProvider();
+		this.metrics = metrics != null ? metrics : new Metrics();
 		if( mailboxFactory == null || packetRouter == null ) {
-			InternalPacketTransport transport = new InternalPacketTransport( writeChannelProvider );
+			PacketStore store = packetStore != null ? packetStore : new MemoryPacketStore( mailboxPolicy != null ? mailboxPolicy : new MailboxPolicy.Builder().build(), timer, this.metrics );
+			this.subscriptions = subscriptionVerifier != null ? new SubscriptionTrie() : null;
+			InternalPacketTransport transport = new InternalPacketTransport( this.writeChannelProvider, store, groups, subscriptions );
 			this.mailboxFactory = transport;
 			this.packetRouter = transport;
 		} else {
 			this.mailboxFactory = mailboxFactory;
 			this.packetRouter = packetRouter;
+			this.subscriptions = null;
 		}
+		this.subscriptionVerifier = subscriptions != null ? subscriptionVerifier : null;
+		this.flowControlWindow = flowControlWindow;
+		this.outboundQueueCapacity = outboundQueueCapacity;
+		this.heartbeatInterval = heartbeatInterval;
+		this.idleTimeout = idleTimeout;
+		this.handshakeTimeout = handshakeTimeout;
+		this.authenticationTimeout = authenticationTimeout;
+		this.frameTimeout = frameTimeout;
+		if( asyncAuthenticator != null ) {
+			this.asyncAuthenticator = asyncAuthenticator;
+		} else if( authenticationConcurrency > 0 ) {
+			this.asyncAuthenticator = new ExecutorAuthenticator( this.authenticator, authenticationConcurrency, DEFAULT_AUTHENTICATION_QUEUE_CAPACITY, this.metrics );
+		} else {
+			this.asyncAuthenticator = null;
+		}
+		this.resumptionStore = resumptionStore != null ? resumptionStore : new ResumptionStore();
 		this.logger = logger;
 	}
 
+	/**
+	 * Returns the registry in which this server records its metrics.
+	 *
+	 * @return the registry in which this server records its metrics.
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Returns whether this server is currently accepting incoming connections.
 	 *
@@ -392,21 +955,32 @@ public class Server {
 		if( isListening() ) {
 			return;
 		}
-		Looper looper = new Looper( secure, port, packetListener, addressVerifier, sessionFactory, authenticator, mailboxFactory, packetRouter, writeChannelProvider, logger );
+		looper = new Looper( secure, port, packetListener, addressVerifier, sessionFactory, authenticator, asyncAuthenticator, mailboxFactory, packetRouter, subscriptions, subscriptionVerifier, writeChannelProvider, flowControlWindow, outboundQueueCapacity, timer, pinger, heartbeatInterval, idleTimeout, handshakeTimeout, authenticationTimeout, frameTimeout, metrics, resumptionStore, logger );
 		listenerThread = new Thread( looper, String.format( "%s(%s)", Looper.class.getName(), Integer.toHexString( hashCode() ) ) );
 		listenerThread.start();
 	}
 
 	/**
 	 * Notifies this server to stop accepting incoming connections, and to
-	 * disconnect any currently connected clients.
+	 * disconnect any currently connected clients. The listening socket is
+	 * closed, so its port is released as soon as this method returns.
 	 */
 	public void stopListening() {
 		if( !isListening() ) {
 			return;
 		}
-		listenerThread.interrupt();
+		Thread thread = listenerThread;
+		looper.close();
+		thread.interrupt();
 		listenerThread = null;
+		looper = null;
+		// The socket is only released once the thread accepting connections
+		// on it has stopped.
+		try {
+			thread.join();
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 }
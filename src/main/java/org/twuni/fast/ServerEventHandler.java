@@ -39,14 +39,38 @@ public class ServerEventHandler extends EventHandlers {
 	 *            received.
 	 * @param packetRouter
 	 *            the router to use when trying to deliver packets.
+	 * @param subscriptions
+	 *            the trie in which the remote endpoint's subscriptions are
+	 *            held, or {@code null} to ignore SUBSCRIBE commands.
+	 * @param subscriptionVerifier
+	 *            the verifier for determining whether the remote endpoint may
+	 *            subscribe to a pattern of addresses.
 	 * @param writeChannelProvider
 	 *            the provider responsible for mapping addresses to write
 	 *            channels.
+	 * @param flowControlWindow
+	 *            the maximum number of packets the remote endpoint may have in
+	 *            flight, or zero to disable flow control.
+	 * @param heartbeat
+	 *            the handler which detects when the remote endpoint has died
+	 *            or gone idle.
+	 * @param authenticationDeadline
+	 *            the handler which disconnects the remote endpoint if it does
+	 *            not authenticate in time.
+	 * @param resumptionStore
+	 *            the store in which the session is saved when disconnected, and
+	 *            from which a previous session is restored when the remote
+	 *            endpoint asks to resume it.
 	 * @param logger
 	 *            the stream to which logging should occur.
+	 * @see FlowControl
 	 */
-	public ServerEventHandler( WriteChannel channel, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, MailboxFactory mailboxFactory, PacketRouter packetRouter, WriteChannelProvider writeChannelProvider, PrintStream logger ) {
-		super( new ClojureEventLogger( logger ), new DetachOnException( channel ), new Reliability( channel ), new PacketListenerWrapper( packetListener ), new AttachableAddressFilter( addressVerifier ), new ServerSessionCreator( channel, sessionFactory ), new ServerAuthenticator( channel, authenticator ), new PacketDeliveryHandler( packetRouter ), new FlushPacketsOnFetch( channel, mailboxFactory ), new WriteChannelManager( writeChannelProvider, channel ) );
+	public ServerEventHandler( WriteChannel channel, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, MailboxFactory mailboxFactory, PacketRouter packetRouter, SubscriptionTrie subscriptions, AddressVerifier subscriptionVerifier, WriteChannelProvider writeChannelProvider, int flowControlWindow, Heartbeat heartbeat, AuthenticationDeadline authenticationDeadline, ResumptionStore resumptionStore, PrintStream logger ) {
+		this( channel, packetListener, addressVerifier, sessionFactory, authenticator, mailboxFactory, new FlowControl( channel, packetRouter, flowControlWindow ), subscriptions != null ? new SubscriptionManager( subscriptions, subscriptionVerifier, channel ) : new EventHandlerBase(), writeChannelProvider, heartbeat, authenticationDeadline, new Reliability( channel ), resumptionStore, logger );
+	}
+
+	private ServerEventHandler( WriteChannel channel, PacketListener packetListener, AddressVerifier addressVerifier, SessionFactory sessionFactory, Authenticator authenticator, MailboxFactory mailboxFactory, FlowControl flowControl, EventHandler subscriptionManager, WriteChannelProvider writeChannelProvider, Heartbeat heartbeat, AuthenticationDeadline authenticationDeadline, Reliability reliability, ResumptionStore resumptionStore, PrintStream logger ) {
+		super( new ClojureEventLogger( logger ), new DetachOnException( channel ), heartbeat, new PongOnPing( channel ), reliability, new PacketListenerWrapper( packetListener ), new AttachableAddressFilter( addressVerifier ), new ServerSessionCreator( channel, sessionFactory ), new ServerAuthenticator( channel, authenticator ), new SessionResumption( channel, reliability, resumptionStore ), authenticationDeadline, flowControl, new PacketDeliveryHandler( flowControl ), new FlushPacketsOnFetch( channel, mailboxFactory ), subscriptionManager, new WriteChannelManager( writeChannelProvider, channel ) );
 	}
 
 }
@@ -0,0 +1,81 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.WriteChannel;
+
+/**
+ * Saves the state of an authenticated session when its connection is lost, and
+ * restores it when a client node asks to resume it. A resumed session keeps
+ * the addresses and the {@link Reliability} counters it had before, so the
+ * client node need not authenticate again, and each side sends again only the
+ * packets which the other has not yet received. If the session cannot be
+ * resumed, the client node is told so and is expected to attach and
+ * authenticate as usual on the same connection.
+ * <p>
+ * Handlers which follow this one in the chain see a RESUME only after it has
+ * been processed, and can tell whether it succeeded by whether the channel's
+ * remote address has been set.
+ * </p>
+ */
+public class SessionResumption extends EventHandlerBase {
+
+	private static final byte [] NONE = new byte [0];
+
+	private final WriteChannel channel;
+	private final Reliability reliability;
+	private final ResumptionStore store;
+
+	/**
+	 * Initializes this handler to save and restore the session of the given
+	 * {@code channel}, together with the given {@code reliability} state, in
+	 * the given {@code store}.
+	 *
+	 * @param channel
+	 *            the channel whose session is saved and restored.
+	 * @param reliability
+	 *            the handler whose state is saved and restored.
+	 * @param store
+	 *            the store in which sessions are remembered.
+	 */
+	public SessionResumption( WriteChannel channel, Reliability reliability, ResumptionStore store ) {
+		this.channel = channel;
+		this.reliability = reliability;
+		this.store = store;
+	}
+
+	@Override
+	public void onCredentialReceived( byte [] credential ) {
+		byte [] sessionID = channel.getSessionID();
+		if( sessionID != null ) {
+			store.claim( sessionID, this );
+		}
+	}
+
+	@Override
+	public void onDisconnected() {
+		try {
+			store.save( channel, reliability, this );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		boolean resumed;
+		try {
+			resumed = channel.getRemoteAddress() == null && store.restore( sessionID, channel, reliability, this );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+		if( !resumed ) {
+			channel.resumed( NONE, 0 );
+			return;
+		}
+		channel.resumed( sessionID, reliability.getReceivedPacketCount() );
+		reliability.onAcknowledgmentReceived( n );
+	}
+
+}
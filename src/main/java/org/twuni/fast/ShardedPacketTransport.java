@@ -0,0 +1,325 @@
+package org.twuni.fast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.exception.FASTWriteException;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+/**
+ * Routes packets on a fixed number of single-threaded shards. Each address is
+ * assigned to a shard by its hash, and that shard's thread exclusively owns the
+ * address's mailbox and attached write channels. Other threads never touch
+ * this state directly: they hand work to the owning shard through a lock-free
+ * queue. Routing therefore needs no locks, and shards for different addresses
+ * proceed in parallel.
+ *
+ * <p>
+ * This object serves as the {@link MailboxFactory}, {@link PacketRouter} and
+ * {@link WriteChannelProvider} for a {@link Server}:
+ * </p>
+ *
+ * <pre>
+ * ShardedPacketTransport t = new ShardedPacketTransport( Runtime.getRuntime().availableProcessors() );
+ * new Server.Builder().writeChannelProvider( t ).mailboxFactory( t ).packetRouter( t ).build();
+ * </pre>
+ */
+public class ShardedPacketTransport implements MailboxFactory, PacketRouter, WriteChannelProvider {
+
+	private static abstract class Call<T> implements Runnable {
+
+		private final CountDownLatch done = new CountDownLatch( 1 );
+		private T result;
+		private RuntimeException failure;
+
+		protected abstract T call();
+
+		T await() {
+			boolean interrupted = false;
+			while( true ) {
+				try {
+					done.await();
+					break;
+				} catch( InterruptedException exception ) {
+					interrupted = true;
+				}
+			}
+			if( interrupted ) {
+				Thread.currentThread().interrupt();
+			}
+			if( failure != null ) {
+				throw failure;
+			}
+			return result;
+		}
+
+		@Override
+		public void run() {
+			try {
+				result = call();
+			} catch( RuntimeException exception ) {
+				failure = exception;
+			} catch( Error error ) {
+				failure = new FASTException( error );
+				throw error;
+			} finally {
+				done.countDown();
+			}
+		}
+
+	}
+
+	private static class Shard implements Runnable {
+
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicBoolean parked = new AtomicBoolean();
+		private final Map<String, List<Packet>> mailboxes = new HashMap<String, List<Packet>>();
+		private final Map<String, Set<WriteChannel>> channels = new HashMap<String, Set<WriteChannel>>();
+		private final Thread thread;
+		private volatile long failures;
+
+		public Shard( int index ) {
+			thread = new Thread( this, String.format( "%s(%d)", Shard.class.getName(), Integer.valueOf( index ) ) );
+			thread.setDaemon( true );
+		}
+
+		void attach( byte [] address, WriteChannel channel ) {
+			String locator = toLocator( address );
+			Set<WriteChannel> set = channels.get( locator );
+			if( set == null ) {
+				set = new HashSet<WriteChannel>();
+				channels.put( locator, set );
+			}
+			set.add( channel );
+		}
+
+		void detach( byte [] address, WriteChannel channel ) {
+			String locator = toLocator( address );
+			Set<WriteChannel> set = channels.get( locator );
+			if( set != null ) {
+				set.remove( channel );
+				if( set.isEmpty() ) {
+					channels.remove( locator );
+				}
+			}
+		}
+
+		void execute( Runnable task ) {
+			if( Thread.currentThread() == thread ) {
+				task.run();
+				return;
+			}
+			tasks.offer( task );
+			if( parked.get() ) {
+				LockSupport.unpark( thread );
+			}
+		}
+
+		void route( Packet packet ) {
+			byte [] address = packet.getTo();
+			String locator = toLocator( address );
+			Set<WriteChannel> set = channels.get( locator );
+			boolean accepted = false;
+			if( set != null ) {
+				for( WriteChannel channel : new ArrayList<WriteChannel>( set ) ) {
+					try {
+						accepted |= channel.offer( packet );
+					} catch( FASTWriteException exception ) {
+						detach( address, channel );
+					}
+				}
+			}
+			if( !accepted ) {
+				List<Packet> mailbox = mailboxes.get( locator );
+				if( mailbox == null ) {
+					mailbox = new ArrayList<Packet>();
+					mailboxes.put( locator, mailbox );
+				}
+				mailbox.add( packet );
+			}
+		}
+
+		@Override
+		public void run() {
+			while( !Thread.interrupted() ) {
+				Runnable task = tasks.poll();
+				if( task == null ) {
+					parked.set( true );
+					if( tasks.isEmpty() ) {
+						LockSupport.park( this );
+					}
+					parked.set( false );
+					continue;
+				}
+				try {
+					task.run();
+				} catch( RuntimeException exception ) {
+					// A failed task must not stop the shard, or every address
+					// it owns would stop being routed.
+					failures++;
+				}
+			}
+		}
+
+	}
+
+	private static String toLocator( byte [] address ) {
+		return Integer.toHexString( Arrays.hashCode( address ) );
+	}
+
+	private final Shard [] shards;
+
+	/**
+	 * Initializes this transport with one shard per available processor.
+	 */
+	public ShardedPacketTransport() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Initializes this transport with the given number of shards, and starts
+	 * a thread for each.
+	 *
+	 * @param shardCount
+	 *            the number of single-threaded shards between which addresses
+	 *            are partitioned.
+	 */
+	public ShardedPacketTransport( int shardCount ) {
+		shards = new Shard [Math.max( 1, shardCount )];
+		for( int i = 0; i < shards.length; i++ ) {
+			shards[i] = new Shard( i );
+			shards[i].thread.start();
+		}
+	}
+
+	@Override
+	public void attach( final byte [] address, final WriteChannel channel ) {
+		final Shard shard = shardFor( address );
+		shard.execute( new Runnable() {
+
+			@Override
+			public void run() {
+				shard.attach( address, channel );
+			}
+
+		} );
+	}
+
+	/**
+	 * Stops every shard's thread. Packets still queued in mailboxes are
+	 * discarded.
+	 */
+	public void close() {
+		for( Shard shard : shards ) {
+			shard.thread.interrupt();
+		}
+	}
+
+	@Override
+	public Mailbox createMailbox( final byte [] address ) {
+		final Shard shard = shardFor( address );
+		Call<List<Packet>> call = new Call<List<Packet>>() {
+
+			@Override
+			protected List<Packet> call() {
+				List<Packet> packets = shard.mailboxes.remove( toLocator( address ) );
+				return packets != null ? packets : new ArrayList<Packet>();
+			}
+
+		};
+		shard.execute( call );
+		return new SimpleMailbox( call.await() );
+	}
+
+	@Override
+	public void detach( final byte [] address, final WriteChannel channel ) {
+		final Shard shard = shardFor( address );
+		shard.execute( new Runnable() {
+
+			@Override
+			public void run() {
+				shard.detach( address, channel );
+			}
+
+		} );
+	}
+
+	/**
+	 * Returns the number of tasks, such as routing a packet, which have failed
+	 * on any shard. A failed task is skipped, and its shard carries on.
+	 *
+	 * @return the number of tasks which have failed.
+	 */
+	public long getFailedTaskCount() {
+		long failures = 0;
+		for( Shard shard : shards ) {
+			failures += shard.failures;
+		}
+		return failures;
+	}
+
+	/**
+	 * Returns the number of shards between which addresses are partitioned.
+	 *
+	 * @return the number of shards between which addresses are partitioned.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns a snapshot of the write channels attached to the given
+	 * {@code address}. The snapshot is obtained from the owning shard, so this
+	 * method waits for that shard to finish the work queued before it.
+	 */
+	@Override
+	public Set<WriteChannel> provideWriteChannels( final byte [] address ) {
+		final Shard shard = shardFor( address );
+		Call<Set<WriteChannel>> call = new Call<Set<WriteChannel>>() {
+
+			@Override
+			protected Set<WriteChannel> call() {
+				Set<WriteChannel> set = shard.channels.get( toLocator( address ) );
+				return set != null ? new HashSet<WriteChannel>( set ) : Collections.<WriteChannel> emptySet();
+			}
+
+		};
+		shard.execute( call );
+		return call.await();
+	}
+
+	@Override
+	public void routePacket( final Packet packet ) {
+		if( Arrays.equals( packet.getFrom(), packet.getTo() ) ) {
+			// Treat an echo packet as if it has already been sent.
+			return;
+		}
+		final Shard shard = shardFor( packet.getTo() );
+		shard.execute( new Runnable() {
+
+			@Override
+			public void run() {
+				shard.route( packet );
+			}
+
+		} );
+	}
+
+	private Shard shardFor( byte [] address ) {
+		return shards[( Arrays.hashCode( address ) & 0x7FFFFFFF ) % shards.length];
+	}
+
+}
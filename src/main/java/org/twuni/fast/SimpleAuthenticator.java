@@ -1,21 +1,42 @@
 package org.twuni.fast;
 
-import java.util.Arrays;
-import java.util.HashMap;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.twuni.fast.exception.FASTException;
 import org.twuni.fast.exception.FASTInvalidCredentialException;
+import org.twuni.fast.util.ByteArrayKey;
 
 /**
  * This authenticator consults an internal mapping of credentials to identities.
+ * Credentials are held only as SHA-256 digests, and each realm also indexes
+ * the identities it knows, so that both authenticating a credential and
+ * checking whether an identity has one take constant time regardless of the
+ * size of the realm.
+ *
+ * @see PasswordAuthenticator
  */
 public class SimpleAuthenticator implements Authenticator {
 
-	private static String toLocator( byte [] array ) {
-		return Integer.toHexString( Arrays.hashCode( array ) );
+	private static class Realm {
+
+		final ConcurrentMap<ByteArrayKey, byte []> credentials = new ConcurrentHashMap<ByteArrayKey, byte []>();
+		final Map<ByteArrayKey, Integer> identities = new ConcurrentHashMap<ByteArrayKey, Integer>();
+
+	}
+
+	private static ByteArrayKey toDigest( byte [] credential ) {
+		try {
+			return new ByteArrayKey( MessageDigest.getInstance( "SHA-256" ).digest( credential ) );
+		} catch( NoSuchAlgorithmException exception ) {
+			throw new FASTException( exception );
+		}
 	}
 
-	private final Map<String, Map<String, byte []>> realms = new HashMap<String, Map<String, byte []>>();
+	private final ConcurrentMap<ByteArrayKey, Realm> realms = new ConcurrentHashMap<ByteArrayKey, Realm>();
 
 	/**
 	 * Accept the given {@code credential} for the given {@code identity}.
@@ -28,7 +49,16 @@ public class SimpleAuthenticator implements Authenticator {
 	 *            the credential to accept for the given {@code identity}.
 	 */
 	public void acceptCredential( byte [] realm, byte [] identity, byte [] credential ) {
-		getCredentials( realm ).put( toLocator( credential ), identity );
+		Realm r = getRealm( realm );
+		synchronized( r ) {
+			byte [] previous = r.credentials.put( toDigest( credential ), identity );
+			if( previous != null ) {
+				forget( r, previous );
+			}
+			ByteArrayKey key = new ByteArrayKey( identity );
+			Integer count = r.identities.get( key );
+			r.identities.put( key, Integer.valueOf( count != null ? count.intValue() + 1 : 1 ) );
+		}
 	}
 
 	@Override
@@ -40,18 +70,31 @@ public class SimpleAuthenticator implements Authenticator {
 		return identity;
 	}
 
-	private Map<String, byte []> getCredentials( byte [] realm ) {
-		String realmLocator = toLocator( realm );
-		Map<String, byte []> credentials = realms.get( realmLocator );
-		if( credentials == null ) {
-			credentials = new HashMap<String, byte []>();
-			realms.put( realmLocator, credentials );
+	private static void forget( Realm r, byte [] identity ) {
+		ByteArrayKey key = new ByteArrayKey( identity );
+		Integer count = r.identities.get( key );
+		if( count == null || count.intValue() <= 1 ) {
+			r.identities.remove( key );
+		} else {
+			r.identities.put( key, Integer.valueOf( count.intValue() - 1 ) );
 		}
-		return credentials;
 	}
 
 	private byte [] getIdentity( byte [] realm, byte [] credential ) {
-		return getCredentials( realm ).get( toLocator( credential ) );
+		return getRealm( realm ).credentials.get( toDigest( credential ) );
+	}
+
+	private Realm getRealm( byte [] realm ) {
+		ByteArrayKey key = new ByteArrayKey( realm );
+		Realm r = realms.get( key );
+		if( r == null ) {
+			Realm created = new Realm();
+			r = realms.putIfAbsent( key, created );
+			if( r == null ) {
+				r = created;
+			}
+		}
+		return r;
 	}
 
 	/**
@@ -65,12 +108,7 @@ public class SimpleAuthenticator implements Authenticator {
 	 *         credential. Otherwise returns {@code false}.
 	 */
 	protected boolean hasAcceptableCredential( byte [] realm, byte [] identity ) {
-		for( byte [] value : getCredentials( realm ).values() ) {
-			if( Arrays.equals( identity, value ) ) {
-				return true;
-			}
-		}
-		return false;
+		return getRealm( realm ).identities.containsKey( new ByteArrayKey( identity ) );
 	}
 
 	/**
@@ -82,7 +120,13 @@ public class SimpleAuthenticator implements Authenticator {
 	 *            the credential to be rejected.
 	 */
 	public void rejectCredential( byte [] realm, byte [] credential ) {
-		getCredentials( realm ).remove( toLocator( credential ) );
+		Realm r = getRealm( realm );
+		synchronized( r ) {
+			byte [] identity = r.credentials.remove( toDigest( credential ) );
+			if( identity != null ) {
+				forget( r, identity );
+			}
+		}
 	}
 
 }
@@ -23,7 +23,9 @@ public class SimpleMailbox implements Mailbox {
 
 	@Override
 	public Packet providePacket() {
-		return list.isEmpty() ? null : list.remove( 0 );
+		synchronized( list ) {
+			return list.isEmpty() ? null : list.remove( 0 );
+		}
 	}
 
 }
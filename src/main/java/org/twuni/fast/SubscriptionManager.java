@@ -0,0 +1,83 @@
+package org.twuni.fast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.twuni.fast.io.WriteChannel;
+
+/**
+ * Subscribes the remote address of a {@link WriteChannel} to the patterns it
+ * asks for in a {@link SubscriptionTrie}, and cancels its subscriptions once
+ * the channel is disconnected. Subscriptions are accepted only once the remote
+ * endpoint has authenticated, and only for patterns which the given
+ * {@link AddressVerifier} accepts, since a subscriber receives a copy of every
+ * packet sent to an address matching its pattern.
+ */
+public class SubscriptionManager extends EventHandlerBase {
+
+	private final SubscriptionTrie subscriptions;
+	private final AddressVerifier patternVerifier;
+	private final WriteChannel channel;
+	private final List<byte []> patterns = new ArrayList<byte []>();
+	private boolean attached;
+
+	/**
+	 * Initializes this manager to subscribe the remote address of the given
+	 * {@code channel} in the given {@code subscriptions}.
+	 *
+	 * @param subscriptions
+	 *            the trie in which subscriptions are held.
+	 * @param patternVerifier
+	 *            the verifier for determining whether a pattern may be
+	 *            subscribed to.
+	 * @param channel
+	 *            the channel whose remote address subscribes.
+	 */
+	public SubscriptionManager( SubscriptionTrie subscriptions, AddressVerifier patternVerifier, WriteChannel channel ) {
+		this.subscriptions = subscriptions;
+		this.patternVerifier = patternVerifier;
+		this.channel = channel;
+	}
+
+	@Override
+	public synchronized void onCredentialReceived( byte [] credential ) {
+		attached = true;
+	}
+
+	@Override
+	public synchronized void onDisconnected() {
+		for( byte [] pattern : patterns ) {
+			subscriptions.unsubscribe( pattern, channel.getRemoteAddress() );
+		}
+		patterns.clear();
+		attached = false;
+	}
+
+	@Override
+	public synchronized void onResumeRequested( byte [] sessionID, int n ) {
+		attached = channel.getRemoteAddress() != null;
+	}
+
+	@Override
+	public synchronized void onSubscribeRequested( byte [] pattern ) {
+		if( !attached ) {
+			// Only an authenticated address may subscribe.
+			return;
+		}
+		patternVerifier.verifyAddress( pattern );
+		subscriptions.subscribe( pattern, channel.getRemoteAddress() );
+		patterns.add( pattern );
+	}
+
+	@Override
+	public synchronized void onUnsubscribeRequested( byte [] pattern ) {
+		for( int i = 0; i < patterns.size(); i++ ) {
+			if( Arrays.equals( patterns.get( i ), pattern ) ) {
+				subscriptions.unsubscribe( patterns.remove( i ), channel.getRemoteAddress() );
+				return;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+package org.twuni.fast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.twuni.fast.util.ByteArrayKey;
+
+/**
+ * Holds the patterns of addresses to which addresses have subscribed, and
+ * finds the subscribers to each address as packets are routed. An address is
+ * split into the dot-separated parts of its local part, followed by its realm,
+ * so {@code alerts.fire@example.com} has the parts {@code alerts},
+ * {@code fire} and {@code @example.com}. A pattern is split the same way, and
+ * a part consisting of {@code *} matches any one part of a local part, but
+ * never a realm, so {@code alerts.*@example.com} matches
+ * {@code alerts.fire@example.com} but neither {@code alerts@example.com} nor
+ * {@code alerts.fire.east@example.com}.
+ * <p>
+ * Patterns are held in a trie keyed by part, so finding the subscribers to an
+ * address follows only the literal and the wildcard child of each node along
+ * the address's parts, and its cost does not grow with the number of
+ * subscriptions to unrelated addresses. When no node has both children, the
+ * cost is proportional to the address's length. In the worst case, where
+ * both children exist at every level, the number of paths followed doubles
+ * with each part of the local part, bounded only by the size of the trie.
+ * The trie is never modified in place: each change copies only the nodes
+ * along the path of its pattern and then replaces the root, so packets are
+ * routed against a consistent snapshot without locking while subscriptions
+ * change.
+ * </p>
+ *
+ * @see SubscriptionManager
+ */
+public class SubscriptionTrie implements FAST {
+
+	private static final ByteArrayKey WILDCARD = new ByteArrayKey( new byte [] { '*' } );
+
+	private static class Subscriber {
+
+		final byte [] address;
+		final int count;
+
+		Subscriber( byte [] address, int count ) {
+			this.address = address;
+			this.count = count;
+		}
+
+	}
+
+	private static class Node {
+
+		final Map<ByteArrayKey, Node> children;
+		final Map<ByteArrayKey, Subscriber> subscribers;
+
+		Node( Map<ByteArrayKey, Node> children, Map<ByteArrayKey, Subscriber> subscribers ) {
+			this.children = children;
+			this.subscribers = subscribers;
+		}
+
+		boolean isEmpty() {
+			return children.isEmpty() && subscribers.isEmpty();
+		}
+
+	}
+
+	private static final Node EMPTY = new Node( Collections.<ByteArrayKey, Node> emptyMap(), Collections.<ByteArrayKey, Subscriber> emptyMap() );
+
+	/**
+	 * Adds the subscribers of the given {@code node} and of its descendants
+	 * matching the given {@code parts} from the given {@code depth} to
+	 * {@code matched}. Only the first {@code locals} parts may be matched by
+	 * a wildcard.
+	 */
+	private static void collect( Node node, List<ByteArrayKey> parts, int depth, int locals, Map<ByteArrayKey, byte []> matched ) {
+		if( depth == parts.size() ) {
+			for( Map.Entry<ByteArrayKey, Subscriber> subscriber : node.subscribers.entrySet() ) {
+				matched.put( subscriber.getKey(), subscriber.getValue().address );
+			}
+			return;
+		}
+		Node child = node.children.get( parts.get( depth ) );
+		if( child != null ) {
+			collect( child, parts, depth + 1, locals, matched );
+		}
+		Node wildcard = depth < locals ? node.children.get( WILDCARD ) : null;
+		if( wildcard != null && wildcard != child ) {
+			collect( wildcard, parts, depth + 1, locals, matched );
+		}
+	}
+
+	/**
+	 * Returns the index of the {@code @} which begins the realm of the given
+	 * {@code address}, or {@code -1} if it has no realm.
+	 */
+	private static int indexOfRealm( byte [] address ) {
+		int at = address.length - 1;
+		while( at >= 0 && address[at] != '@' ) {
+			at--;
+		}
+		return at;
+	}
+
+	/**
+	 * Splits the given {@code address} into the dot-separated parts of its
+	 * local part, followed by its realm, including the {@code @}, if it has
+	 * one.
+	 */
+	private static List<ByteArrayKey> split( byte [] address ) {
+		int at = indexOfRealm( address );
+		int end = at >= 0 ? at : address.length;
+		List<ByteArrayKey> parts = new ArrayList<ByteArrayKey>();
+		for( int start = 0, i = 0; i <= end; i++ ) {
+			if( i == end || address[i] == '.' ) {
+				parts.add( new ByteArrayKey( Arrays.copyOfRange( address, start, i ) ) );
+				start = i + 1;
+			}
+		}
+		if( at >= 0 ) {
+			parts.add( new ByteArrayKey( Arrays.copyOfRange( address, at, address.length ) ) );
+		}
+		return parts;
+	}
+
+	/**
+	 * Returns a copy of the given {@code node} with the subscription of the
+	 * given {@code subscriber} to the pattern with the given {@code parts},
+	 * from the given {@code depth}, counted up or down by {@code delta}, or
+	 * the same {@code node} if nothing changed.
+	 */
+	private static Node update( Node node, List<ByteArrayKey> parts, int depth, ByteArrayKey key, byte [] subscriber, int delta ) {
+
+		if( depth == parts.size() ) {
+			Subscriber existing = node.subscribers.get( key );
+			int count = ( existing != null ? existing.count : 0 ) + delta;
+			if( count < 0 ) {
+				return node;
+			}
+			Map<ByteArrayKey, Subscriber> subscribers = new HashMap<ByteArrayKey, Subscriber>( node.subscribers );
+			if( count == 0 ) {
+				subscribers.remove( key );
+			} else {
+				subscribers.put( key, new Subscriber( existing != null ? existing.address : subscriber.clone(), count ) );
+			}
+			return new Node( node.children, subscribers );
+		}
+
+		ByteArrayKey part = parts.get( depth );
+		Node child = node.children.get( part );
+		if( child == null && delta < 0 ) {
+			return node;
+		}
+		Node updated = update( child != null ? child : EMPTY, parts, depth + 1, key, subscriber, delta );
+		if( updated == child ) {
+			return node;
+		}
+		Map<ByteArrayKey, Node> children = new HashMap<ByteArrayKey, Node>( node.children );
+		if( updated.isEmpty() ) {
+			children.remove( part );
+		} else {
+			children.put( part, updated );
+		}
+		return new Node( children, node.subscribers );
+
+	}
+
+	private volatile Node root = EMPTY;
+
+	/**
+	 * Returns the addresses subscribed to a pattern matching the given
+	 * {@code address}, each once, however many of its patterns match.
+	 *
+	 * @param address
+	 *            the destination address of a packet.
+	 * @return the subscribed addresses, which must not be modified, or an
+	 *         empty list if there are none.
+	 */
+	public List<byte []> match( byte [] address ) {
+		Node root = this.root;
+		if( root.isEmpty() ) {
+			return Collections.emptyList();
+		}
+		List<ByteArrayKey> parts = split( address );
+		int locals = indexOfRealm( address ) >= 0 ? parts.size() - 1 : parts.size();
+		Map<ByteArrayKey, byte []> matched = new LinkedHashMap<ByteArrayKey, byte []>();
+		collect( root, parts, 0, locals, matched );
+		return matched.isEmpty() ? Collections.<byte []> emptyList() : new ArrayList<byte []>( matched.values() );
+	}
+
+	/**
+	 * Subscribes the given {@code subscriber} to every address matching the
+	 * given {@code pattern}. An address may subscribe to the same pattern more
+	 * than once, such as from several connections, and remains subscribed
+	 * until it has unsubscribed as many times.
+	 *
+	 * @param pattern
+	 *            the pattern of addresses to subscribe to.
+	 * @param subscriber
+	 *            the address to which matching packets should be delivered.
+	 */
+	public synchronized void subscribe( byte [] pattern, byte [] subscriber ) {
+		root = update( root, split( pattern ), 0, new ByteArrayKey( subscriber ), subscriber, 1 );
+	}
+
+	/**
+	 * Cancels one subscription of the given {@code subscriber} to the given
+	 * {@code pattern}, if it has one.
+	 *
+	 * @param pattern
+	 *            the pattern given when subscribing.
+	 * @param subscriber
+	 *            the subscribed address.
+	 */
+	public synchronized void unsubscribe( byte [] pattern, byte [] subscriber ) {
+		root = update( root, split( pattern ), 0, new ByteArrayKey( subscriber ), subscriber, -1 );
+	}
+
+}
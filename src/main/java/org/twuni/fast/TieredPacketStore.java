@@ -0,0 +1,1519 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.PacketSerializer;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.ByteArrayKey;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.IOUtils;
+import org.twuni.fast.util.Metrics;
+
+/**
+ * Holds the newest packets for each address on the heap, and spills older
+ * packets to append-only segment files once the memory tier grows too large,
+ * all within the limits of a {@link MailboxPolicy}. An address's memory tier
+ * spills its oldest packets once it holds more than a given number of them,
+ * and the whole memory tier of the least recently used address spills once
+ * every memory tier together holds more than a given number of bytes, so small
+ * and busy mailboxes stay on the heap while large and idle ones move to disk.
+ * Since only the oldest packets of an address ever spill, every packet of an
+ * address on disk is older than every packet of that address on the heap, and
+ * packets are taken first from disk, then from the heap, in order of arrival.
+ * <p>
+ * Each segment holds up to a given number of bytes, and is deleted once every
+ * packet in it has been taken. Until then, a {@link SegmentCompactor} may
+ * rewrite it without the packets which have already been taken. Packets on
+ * disk are expired, and evicted when the policy's limits require it, a whole
+ * segment at a time, oldest first, before any packet held on the heap. Until
+ * then, an expired packet on disk is discarded when it is reached by
+ * {@link #take(byte[])}.
+ * </p>
+ * <p>
+ * Packets on disk outlive the store. Once no more packets are appended to a
+ * segment, an index listing the address and offset of each of its records is
+ * written alongside it, and every packet taken from disk appends the position
+ * of its record to a log of cursors, one per address. A store created in the
+ * same directory reads each segment's index and skips each address's records up
+ * to its cursor, so each address's packets can be taken as soon as the store is
+ * created, without reading the segments themselves. Only a segment without a
+ * valid index, such as the one being appended to when a process crashed, is
+ * scanned, and its index written. Packets held on the heap are written to disk
+ * by {@link #close()}, but are lost if the process crashes, unless the memory
+ * tier is disabled by holding no packets on the heap for any address. Files are
+ * not forced to disk until the store is closed.
+ * </p>
+ * <p>
+ * Each record also holds the packet's sequence number, which is its cursor for
+ * {@link #peek(byte[], long, int, long, List)}, and is followed by the address
+ * for which the packet is held, which is not always its destination. Sequence
+ * numbers start from the time the store was initialized, in microseconds, or
+ * else after the largest found on disk, so that they keep increasing across
+ * restarts. Records are written in the form in which packets are sent, so
+ * {@link #transfer(byte[], long, int, long, WriteChannel)} sends the packets of
+ * a page held on disk straight from their segment files, without decoding them.
+ * </p>
+ * <p>
+ * This store records the same metrics as {@link MemoryPacketStore}, as well as
+ * counter {@code mailbox.spilled}, counting packets written to disk,
+ * counters {@code mailbox.compacted} and {@code mailbox.reclaimed}, counting
+ * segments compacted and the bytes thereby freed, counter
+ * {@code mailbox.compaction.failed}, counting compactions given up after an
+ * error, and counters {@code mailbox.disk.packets} and
+ * {@code mailbox.disk.bytes}, holding the number of packets and bytes
+ * currently held on disk.
+ * </p>
+ * <p>
+ * Every operation holds the store's monitor, including the spill which
+ * {@link #store(byte[], Packet)} may trigger. A spill writes the packets it
+ * moves to the active segment before it releases the monitor, so while it
+ * lasts, packets for every address wait, not just those for the addresses
+ * being spilled. Each spill is bounded by the memory tier's thresholds, and
+ * files are not forced to disk until the store is closed, so a spill usually
+ * costs a few writes to the page cache, but a slow disk delays the whole
+ * store. A store which must not wait on disk I/O while routing should use a
+ * large enough memory tier that spills are rare.
+ * </p>
+ */
+public class TieredPacketStore implements PacketStore {
+
+	/**
+	 * The default number of packets held on the heap for each address.
+	 */
+	public static final int DEFAULT_MEMORY_PACKETS_PER_ADDRESS = 256;
+
+	/**
+	 * The default number of bytes held on the heap for all addresses.
+	 */
+	public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * The default size, in bytes, beyond which no more packets are appended to
+	 * a segment.
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String COMPACT_SUFFIX = ".compact";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final String CURSORS = "cursors.log";
+	private static final long INDEX_MAGIC = 0x4641535449445833L;
+	private static final int HEADER_LENGTH = 20;
+	private static final int MIN_PACKET_LENGTH = 14;
+	private static final long MIN_CURSOR_LOG_LENGTH = 1024 * 1024;
+
+	private static class Entry {
+
+		final Packet packet;
+		final AddressQueue mailbox;
+		final int size;
+		final long expiresAt;
+		final long sequence;
+		Entry older;
+		Entry newer;
+
+		Entry( Packet packet, AddressQueue mailbox, int size, long expiresAt, long sequence ) {
+			this.packet = packet;
+			this.mailbox = mailbox;
+			this.size = size;
+			this.expiresAt = expiresAt;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private static class AddressQueue {
+
+		final byte [] address;
+		final ByteArrayKey key;
+		final ArrayDeque<Entry> memory = new ArrayDeque<Entry>();
+
+		// The position of each of this address's records on disk, in order of
+		// arrival, as a segment ID in the upper half and an offset in the lower.
+		long [] positions = new long [4];
+		int [] sizes = new int [4];
+		long [] sequences = new long [4];
+		int head;
+		int diskSize;
+
+		int packets;
+		long bytes;
+
+		AddressQueue( byte [] address, ByteArrayKey key ) {
+			this.address = address;
+			this.key = key;
+		}
+
+		void add( long position, int size, long sequence ) {
+			if( diskSize == positions.length ) {
+				long [] grownPositions = new long [positions.length * 2];
+				int [] grownSizes = new int [sizes.length * 2];
+				long [] grownSequences = new long [sequences.length * 2];
+				for( int i = 0; i < diskSize; i++ ) {
+					grownPositions[i] = positions[( head + i ) % positions.length];
+					grownSizes[i] = sizes[( head + i ) % sizes.length];
+					grownSequences[i] = sequences[( head + i ) % sequences.length];
+				}
+				positions = grownPositions;
+				sizes = grownSizes;
+				sequences = grownSequences;
+				head = 0;
+			}
+			int i = ( head + diskSize ) % positions.length;
+			positions[i] = position;
+			sizes[i] = size;
+			sequences[i] = sequence;
+			diskSize++;
+		}
+
+		/**
+		 * Returns the index in {@link #positions} of the given
+		 * {@code position}, or {@code -1} if it is not held. Positions are
+		 * added in ascending order, and compaction moves a record only within
+		 * its own segment, so they can be searched by bisection.
+		 */
+		int find( long position ) {
+			int low = 0;
+			int high = diskSize - 1;
+			while( low <= high ) {
+				int middle = ( low + high ) >>> 1;
+				int i = ( head + middle ) % positions.length;
+				if( positions[i] < position ) {
+					low = middle + 1;
+				} else if( positions[i] > position ) {
+					high = middle - 1;
+				} else {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		void poll() {
+			head = ( head + 1 ) % positions.length;
+			diskSize--;
+		}
+
+	}
+
+	private static class Relocation {
+
+		final ByteArrayKey key;
+		final int from;
+		final int to;
+
+		Relocation( ByteArrayKey key, int from, int to ) {
+			this.key = key;
+			this.from = from;
+			this.to = to;
+		}
+
+	}
+
+	private static class Region {
+
+		final Segment segment;
+		final long position;
+		final int size;
+
+		Region( Segment segment, long position, int size ) {
+			this.segment = segment;
+			this.position = position;
+			this.size = size;
+		}
+
+	}
+
+	private static class Record {
+
+		final byte [] to;
+		final int offset;
+		final int size;
+		final long sequence;
+
+		Record( byte [] to, int offset, int size, long sequence ) {
+			this.to = to;
+			this.offset = offset;
+			this.size = size;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private static class Segment {
+
+		final long id;
+		final File file;
+		final File index;
+		final FileChannel channel;
+		int length;
+		int livePackets;
+		long liveBytes;
+		long expiresAt;
+
+		// The number of transfers reading from this segment's file, which is
+		// kept open until they finish even if the segment is closed meanwhile.
+		int pins;
+		boolean closing;
+
+		// The entries of this segment's index, for as long as packets are
+		// still being appended to it.
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		int entryCount;
+
+		Segment( long id, File directory ) throws IOException {
+			this.id = id;
+			file = file( directory, id, SEGMENT_SUFFIX );
+			index = file( directory, id, INDEX_SUFFIX );
+			channel = new RandomAccessFile( file, "rw" ).getChannel();
+		}
+
+		void close() {
+			if( pins > 0 ) {
+				closing = true;
+				return;
+			}
+			try {
+				channel.close();
+			} catch( IOException exception ) {
+				// Nothing more will be read from or written to the file.
+			}
+		}
+
+		void delete() {
+			close();
+			file.delete();
+			index.delete();
+		}
+
+		void unpin() {
+			if( --pins == 0 && closing ) {
+				close();
+			}
+		}
+
+	}
+
+	private static void addEntry( OutputStream entries, byte [] to, int offset, int size, long sequence ) throws IOException {
+		IOUtils.writeSmallBuffer( entries, to );
+		IOUtils.writeInt( entries, offset );
+		IOUtils.writeInt( entries, size );
+		IOUtils.writeLong( entries, sequence );
+	}
+
+	private static File file( File directory, long id, String suffix ) {
+		return new File( directory, String.format( "%016x%s", Long.valueOf( id ), suffix ) );
+	}
+
+	/**
+	 * Reads the index of the given {@code segment}, returning its records in
+	 * order, or {@code null} if the index is missing, incomplete, or was
+	 * written for a different version of the segment, so that the segment
+	 * must be scanned instead.
+	 */
+	private static List<Record> readIndex( Segment segment ) {
+		File file = segment.index;
+		if( !file.isFile() ) {
+			return null;
+		}
+		try {
+			InputStream in = new FileInputStream( file );
+			try {
+				InputStream input = new ByteArrayInputStream( IOUtils.readFully( in, new byte [(int) file.length()] ) );
+				if( IOUtils.readLong( input ) != INDEX_MAGIC || IOUtils.readInt( input ) != segment.length ) {
+					return null;
+				}
+				long expiresAt = IOUtils.readLong( input );
+				int count = IOUtils.readInt( input );
+				List<Record> records = new ArrayList<Record>( count );
+				for( int i = 0; i < count; i++ ) {
+					if( input.available() == 0 ) {
+						return null;
+					}
+					records.add( new Record( IOUtils.readSmallBuffer( input ), IOUtils.readInt( input ), IOUtils.readInt( input ), IOUtils.readLong( input ) ) );
+				}
+				segment.expiresAt = expiresAt;
+				return records;
+			} finally {
+				in.close();
+			}
+		} catch( IOException exception ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the address for which a record is held, which follows the record's
+	 * packet, at the given {@code position}, as a small buffer.
+	 *
+	 * @return the address, or {@code null} if it does not end before the
+	 *         given {@code limit}.
+	 */
+	private static byte [] readAddress( FileChannel channel, long position, long limit ) throws IOException {
+		if( position >= limit ) {
+			return null;
+		}
+		ByteBuffer length = ByteBuffer.allocate( 1 );
+		readFully( channel, length, position );
+		ByteBuffer address = ByteBuffer.allocate( length.get( 0 ) & 0xFF );
+		if( position + 1 + address.capacity() > limit ) {
+			return null;
+		}
+		readFully( channel, address, position + 1 );
+		return address.array();
+	}
+
+	private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+		while( buffer.hasRemaining() ) {
+			if( channel.read( buffer, position + buffer.position() ) < 0 ) {
+				throw new IOException( "Unexpected end of segment" );
+			}
+		}
+	}
+
+	/**
+	 * Sleeps for as long as it takes the given number of {@code transferred}
+	 * bytes since {@code started} to come within {@code bytesPerSecond}.
+	 */
+	private static void throttle( long started, long transferred, long bytesPerSecond ) {
+		long ahead = transferred * 1000000000L / bytesPerSecond - ( System.nanoTime() - started );
+		if( ahead > 0 ) {
+			try {
+				TimeUnit.NANOSECONDS.sleep( ahead );
+			} catch( InterruptedException exception ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writes an index of the given {@code segment}, whose records are given by
+	 * {@code entries}, to the given {@code file}.
+	 */
+	private static void writeIndex( File file, int length, long expiresAt, ByteArrayOutputStream entries, int count ) throws IOException {
+		OutputStream out = new FileOutputStream( file );
+		try {
+			ByteArrayOutputStream header = new ByteArrayOutputStream( 24 );
+			IOUtils.writeLong( header, INDEX_MAGIC );
+			IOUtils.writeInt( header, length );
+			IOUtils.writeLong( header, expiresAt );
+			IOUtils.writeInt( header, count );
+			header.writeTo( out );
+			entries.writeTo( out );
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the size of the given {@code packet} as written by
+	 * {@link PacketSerializer}, which is what the limits of a
+	 * {@link MailboxPolicy} count.
+	 */
+	private static int sizeOf( Packet packet ) {
+		return 14 + packet.getFrom().length + packet.getTo().length + packet.getPayload().getLimit();
+	}
+
+	/**
+	 * Returns the length of a record holding a packet of the given
+	 * {@code size} for the given {@code address}.
+	 */
+	private static int recordLength( int size, byte [] address ) {
+		return HEADER_LENGTH + size + 1 + address.length;
+	}
+
+	/**
+	 * Returns whether a page already holding the given number of
+	 * {@code packets} and {@code bytes} is too full for a packet of the given
+	 * {@code size}. A page always has room for its first packet.
+	 */
+	private static boolean isFull( int packets, long bytes, int size, int maxPackets, long maxBytes ) {
+		return packets > 0 && ( maxPackets > 0 && packets >= maxPackets || maxBytes > 0 && bytes + size > maxBytes );
+	}
+
+	private final File directory;
+	private final MailboxPolicy policy;
+	private final HashedWheelTimer timer;
+	private final Metrics metrics;
+	private final int memoryPacketsPerAddress;
+	private final long memoryBytes;
+	private final int segmentSize;
+	private final Map<ByteArrayKey, AddressQueue> mailboxes = new HashMap<ByteArrayKey, AddressQueue>();
+
+	// The addresses with packets on the heap, least recently used first.
+	private final LinkedHashMap<ByteArrayKey, AddressQueue> resident = new LinkedHashMap<ByteArrayKey, AddressQueue>( 16, 0.75f, true );
+
+	private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+	private Segment active;
+	private Segment compacting;
+	private boolean closed;
+	private long nextSegmentID;
+	private long sequence = System.currentTimeMillis() * 1000;
+
+	// The position of the newest record taken from disk for each address, as
+	// recorded in the cursor log.
+	private final Map<ByteArrayKey, Long> cursors = new HashMap<ByteArrayKey, Long>();
+	private OutputStream cursorLog;
+	private long cursorLogLength;
+
+	private Entry oldest;
+	private Entry newest;
+	private int packetCount;
+	private long byteCount;
+	private long residentBytes;
+	private int diskPacketCount;
+	private long diskByteCount;
+	private HashedWheelTimer.Timeout reaper;
+
+	private final Runnable reap = new Runnable() {
+
+		@Override
+		public void run() {
+			reap();
+		}
+
+	};
+
+	/**
+	 * Initializes a store which spills packets to segment files in the given
+	 * {@code directory}, with the default thresholds and segment size.
+	 *
+	 * @param directory
+	 *            the directory in which segment files are created.
+	 * @param policy
+	 *            the limits within which packets are held.
+	 * @param timer
+	 *            the timer on which expired packets are discarded.
+	 * @param metrics
+	 *            the registry in which the store records its metrics.
+	 * @throws IOException
+	 *             if the directory cannot be created or read.
+	 */
+	public TieredPacketStore( File directory, MailboxPolicy policy, HashedWheelTimer timer, Metrics metrics ) throws IOException {
+		this( directory, policy, timer, metrics, DEFAULT_MEMORY_PACKETS_PER_ADDRESS, DEFAULT_MEMORY_BYTES, DEFAULT_SEGMENT_SIZE );
+	}
+
+	/**
+	 * Initializes a store which spills packets to segment files in the given
+	 * {@code directory}.
+	 *
+	 * @param directory
+	 *            the directory in which segment files are created.
+	 * @param policy
+	 *            the limits within which packets are held.
+	 * @param timer
+	 *            the timer on which expired packets are discarded.
+	 * @param metrics
+	 *            the registry in which the store records its metrics.
+	 * @param memoryPacketsPerAddress
+	 *            the number of packets held on the heap for each address,
+	 *            beyond which its oldest packets spill to disk.
+	 * @param memoryBytes
+	 *            the number of bytes held on the heap for all addresses,
+	 *            beyond which the packets of the least recently used address
+	 *            spill to disk.
+	 * @param segmentSize
+	 *            the size, in bytes, beyond which no more packets are appended
+	 *            to a segment.
+	 * @throws IOException
+	 *             if the directory cannot be created or read.
+	 */
+	public TieredPacketStore( File directory, MailboxPolicy policy, HashedWheelTimer timer, Metrics metrics, int memoryPacketsPerAddress, long memoryBytes, int segmentSize ) throws IOException {
+
+		this.directory = directory;
+		this.policy = policy;
+		this.timer = timer;
+		this.metrics = metrics;
+		this.memoryPacketsPerAddress = memoryPacketsPerAddress;
+		this.memoryBytes = memoryBytes;
+		this.segmentSize = segmentSize;
+
+		if( !directory.isDirectory() && !directory.mkdirs() ) {
+			throw new IOException( String.format( "Unable to create directory %s", directory ) );
+		}
+
+		List<Long> ids = new ArrayList<Long>();
+		for( File file : directory.listFiles() ) {
+			String name = file.getName();
+			if( name.endsWith( COMPACT_SUFFIX ) || name.endsWith( TEMPORARY_SUFFIX ) ) {
+				file.delete();
+			} else if( name.endsWith( SEGMENT_SUFFIX ) ) {
+				try {
+					ids.add( Long.valueOf( Long.parseLong( name.substring( 0, name.length() - SEGMENT_SUFFIX.length() ), 16 ) ) );
+				} catch( NumberFormatException exception ) {
+					// This file was not written by this store.
+				}
+			}
+		}
+		Collections.sort( ids );
+
+		readCursors();
+		for( Long id : ids ) {
+			recover( new Segment( id.longValue(), directory ) );
+			nextSegmentID = id.longValue() + 1;
+		}
+		writeCursors();
+
+		updateTotals();
+		schedule();
+
+	}
+
+	@Override
+	public void acknowledge( byte [] address, long cursor ) {
+		int delivered = 0;
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			while( mailbox != null ) {
+				if( mailbox.diskSize > 0 ) {
+					if( mailbox.sequences[mailbox.head] > cursor ) {
+						break;
+					}
+					if( removeFromDisk( mailbox ) ) {
+						delivered++;
+					}
+				} else if( mailbox.memory.getFirst().sequence <= cursor ) {
+					remove( mailbox.memory.getFirst() );
+					delivered++;
+				} else {
+					break;
+				}
+				if( mailbox.packets == 0 ) {
+					mailbox = null;
+				}
+			}
+		}
+		if( delivered > 0 ) {
+			metrics.counter( "mailbox.delivered" ).addAndGet( delivered );
+		}
+	}
+
+	/**
+	 * Writes every packet held on the heap to disk, along with the index of
+	 * the segment to which they are appended, and closes every file, so that
+	 * a store later created in the same directory holds the same packets.
+	 * This store may not be used once it has been closed.
+	 */
+	public synchronized void close() {
+		closed = true;
+		try {
+			while( !resident.isEmpty() ) {
+				AddressQueue mailbox = resident.values().iterator().next();
+				while( !mailbox.memory.isEmpty() ) {
+					spill( mailbox );
+				}
+			}
+			if( active != null ) {
+				seal( active );
+			}
+			for( Segment segment : segments.values() ) {
+				segment.channel.force( false );
+				if( segment != compacting ) {
+					segment.close();
+				}
+			}
+			cursorLog.close();
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		} finally {
+			segments.clear();
+			active = null;
+			updateTotals();
+		}
+	}
+
+	/**
+	 * Rewrites the sealed segment with the smallest share of live bytes, if
+	 * that share is at most {@code maxLiveRatio}, copying only the records
+	 * which have not yet been taken into a new file, no faster than
+	 * {@code bytesPerSecond}. Packets are stored and taken as usual while the
+	 * records are copied, from the old file. Once they are, the lock is held
+	 * only to point each address's records at their new offsets and to
+	 * rename the new file into place.
+	 *
+	 * @return {@code true} if a segment was found to compact, or {@code false}
+	 *         if every sealed segment is dense enough.
+	 * @see SegmentCompactor
+	 */
+	boolean compact( double maxLiveRatio, long bytesPerSecond ) {
+
+		Segment source = null;
+
+		synchronized( this ) {
+			double sparsest = maxLiveRatio;
+			for( Segment segment : segments.values() ) {
+				double ratio = (double) ( segment.liveBytes + (long) HEADER_LENGTH * segment.livePackets ) / Math.max( 1, segment.length );
+				if( segment != active && ratio <= sparsest && ( source == null || ratio < sparsest ) ) {
+					source = segment;
+					sparsest = ratio;
+				}
+			}
+			if( source == null ) {
+				return false;
+			}
+			compacting = source;
+		}
+
+		File file = file( directory, source.id, SEGMENT_SUFFIX + COMPACT_SUFFIX );
+		File index = file( directory, source.id, INDEX_SUFFIX + COMPACT_SUFFIX );
+		List<Relocation> relocations = new ArrayList<Relocation>();
+		ByteArrayOutputStream entries = new ByteArrayOutputStream();
+		int length = 0;
+
+		try {
+
+			FileChannel out = new RandomAccessFile( file, "rw" ).getChannel();
+			try {
+				long started = System.nanoTime();
+				long transferred = 0;
+				ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+				for( int offset = 0; offset < source.length; ) {
+
+					header.clear();
+					readFully( source.channel, header, offset );
+					int size = header.getInt( 0 );
+					byte [] to = readAddress( source.channel, offset + HEADER_LENGTH + size, source.length );
+					if( to == null ) {
+						throw new IOException( "Unexpected end of segment" );
+					}
+					ByteBuffer record = ByteBuffer.allocate( recordLength( size, to ) );
+					readFully( source.channel, record, offset );
+					transferred += record.capacity();
+
+					ByteArrayKey key = new ByteArrayKey( to );
+
+					boolean live;
+					synchronized( this ) {
+						AddressQueue mailbox = mailboxes.get( key );
+						live = mailbox != null && mailbox.find( source.id << 32 | offset ) >= 0;
+					}
+
+					if( live ) {
+						record.rewind();
+						while( record.hasRemaining() ) {
+							out.write( record, length + record.position() );
+						}
+						relocations.add( new Relocation( key, offset, length ) );
+						addEntry( entries, to, length, size, record.getLong( 12 ) );
+						length += record.capacity();
+						transferred += record.capacity();
+					}
+
+					offset += record.capacity();
+					throttle( started, transferred, bytesPerSecond );
+
+				}
+			} finally {
+				out.close();
+			}
+			writeIndex( index, length, source.expiresAt, entries, relocations.size() );
+
+			synchronized( this ) {
+
+				compacting = null;
+
+				if( closed ) {
+					// The segment is left as it was for the next store.
+					source.close();
+					file.delete();
+					index.delete();
+					return false;
+				}
+
+				if( segments.get( Long.valueOf( source.id ) ) != source ) {
+					// Every record was taken or dropped in the meantime.
+					source.delete();
+					file.delete();
+					index.delete();
+					return true;
+				}
+
+				// The cursor of an address which has taken some of this
+				// segment's records would compare wrongly with their new
+				// offsets, so it is moved to the newest record which was copied
+				// but has been taken since, or else to just before the segment.
+				// It is moved before the new file is renamed into place, so a
+				// crash in between may deliver a packet twice, but never loses
+				// one.
+				Map<ByteArrayKey, Long> moved = new HashMap<ByteArrayKey, Long>();
+				for( Relocation relocation : relocations ) {
+					Long cursor = cursors.get( relocation.key );
+					if( cursor != null && cursor.longValue() >>> 32 == source.id ) {
+						AddressQueue mailbox = mailboxes.get( relocation.key );
+						if( mailbox == null || mailbox.find( source.id << 32 | relocation.from ) < 0 ) {
+							moved.put( relocation.key, Long.valueOf( source.id << 32 | relocation.to ) );
+						} else if( !moved.containsKey( relocation.key ) ) {
+							moved.put( relocation.key, Long.valueOf( ( source.id << 32 ) - 1 ) );
+						}
+					}
+				}
+				for( Map.Entry<ByteArrayKey, Long> cursor : moved.entrySet() ) {
+					writeCursor( cursor.getKey(), cursor.getValue().longValue() );
+				}
+
+				source.delete();
+				if( !file.renameTo( source.file ) || !index.renameTo( source.index ) ) {
+					drop( source );
+					throw new IOException( String.format( "Unable to rename %s to %s", file, source.file ) );
+				}
+
+				Segment segment = new Segment( source.id, directory );
+				segment.length = length;
+				segment.livePackets = source.livePackets;
+				segment.liveBytes = source.liveBytes;
+				segment.expiresAt = source.expiresAt;
+				segment.entries = null;
+				segments.put( Long.valueOf( segment.id ), segment );
+
+				for( Relocation relocation : relocations ) {
+					AddressQueue mailbox = mailboxes.get( relocation.key );
+					int i = mailbox != null ? mailbox.find( source.id << 32 | relocation.from ) : -1;
+					if( i >= 0 ) {
+						mailbox.positions[i] = source.id << 32 | relocation.to;
+					}
+				}
+
+			}
+
+		} catch( IOException exception ) {
+			abandon( source, file, index );
+			throw new FASTException( exception );
+		} catch( RuntimeException exception ) {
+			abandon( source, file, index );
+			throw exception;
+		}
+
+		count( "mailbox.compacted" );
+		metrics.counter( "mailbox.reclaimed" ).addAndGet( source.length - length );
+		return true;
+
+	}
+
+	/**
+	 * Gives up compacting the given {@code source} segment after a failure,
+	 * leaving the segment as it was and deleting the partly written
+	 * {@code file} and {@code index}.
+	 */
+	private void abandon( Segment source, File file, File index ) {
+		synchronized( this ) {
+			if( compacting == source ) {
+				compacting = null;
+				if( closed ) {
+					source.close();
+				} else if( segments.get( Long.valueOf( source.id ) ) != source ) {
+					source.delete();
+				}
+			}
+		}
+		file.delete();
+		index.delete();
+		count( "mailbox.compaction.failed" );
+	}
+
+	private void count( String name ) {
+		metrics.counter( name ).incrementAndGet();
+	}
+
+	/**
+	 * Removes the given {@code segment} and every packet still held in it.
+	 * Each address's own record of these packets is settled as it is reached
+	 * by {@link #take(byte[])}.
+	 *
+	 * @return the number of packets which were held in the segment.
+	 */
+	private int drop( Segment segment ) {
+		int dropped = segment.livePackets;
+		segments.remove( Long.valueOf( segment.id ) );
+		if( segment == active ) {
+			active = null;
+		}
+		if( segment != compacting ) {
+			segment.delete();
+		}
+		packetCount -= segment.livePackets;
+		byteCount -= segment.liveBytes;
+		diskPacketCount -= segment.livePackets;
+		diskByteCount -= segment.liveBytes;
+		updateTotals();
+		return dropped;
+	}
+
+	@Override
+	public synchronized List<byte []> getQueuedAddresses() {
+		List<byte []> addresses = new ArrayList<byte []>( mailboxes.size() );
+		for( AddressQueue mailbox : new ArrayList<AddressQueue>( mailboxes.values() ) ) {
+			if( settle( mailbox ) ) {
+				addresses.add( mailbox.address );
+			}
+		}
+		return addresses;
+	}
+
+	@Override
+	public synchronized long peek( byte [] address, long cursor, int maxPackets, long maxBytes, List<Packet> page ) {
+		List<Region> regions = new ArrayList<Region>();
+		List<Packet> packets = new ArrayList<Packet>();
+		long last = select( address, cursor, maxPackets, maxBytes, regions, packets );
+		for( Region region : regions ) {
+			page.add( read( region.position, region.size ) );
+		}
+		page.addAll( packets );
+		return last;
+	}
+
+	private Packet read( long position, int size ) {
+		Segment segment = segments.get( Long.valueOf( position >>> 32 ) );
+		ByteBuffer buffer = ByteBuffer.allocate( size );
+		try {
+			readFully( segment.channel, buffer, ( position & 0xFFFFFFFFL ) + HEADER_LENGTH );
+			return PacketSerializer.read( new ByteArrayInputStream( buffer.array() ) );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	/**
+	 * Loads the position of the newest record taken from disk for each
+	 * address from the cursor log, ignoring a record left incomplete by a
+	 * crash.
+	 */
+	private void readCursors() throws IOException {
+		File file = new File( directory, CURSORS );
+		if( !file.isFile() ) {
+			return;
+		}
+		InputStream in = new FileInputStream( file );
+		try {
+			InputStream input = new ByteArrayInputStream( IOUtils.readFully( in, new byte [(int) file.length()] ) );
+			while( input.available() > 0 ) {
+				byte [] address = IOUtils.readSmallBuffer( input );
+				cursors.put( new ByteArrayKey( address ), Long.valueOf( IOUtils.readLong( input ) ) );
+			}
+		} catch( EOFException exception ) {
+			// The last record was not completely written.
+		} finally {
+			in.close();
+		}
+	}
+
+	private long readExpiresAt( long position ) {
+		Segment segment = segments.get( Long.valueOf( position >>> 32 ) );
+		ByteBuffer buffer = ByteBuffer.allocate( 8 );
+		try {
+			readFully( segment.channel, buffer, ( position & 0xFFFFFFFFL ) + 4 );
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+		return buffer.getLong( 0 );
+	}
+
+	private void reap() {
+		int expired = 0;
+		synchronized( this ) {
+			reaper = null;
+			long now = System.currentTimeMillis();
+			while( oldest != null && oldest.expiresAt <= now ) {
+				remove( oldest );
+				expired++;
+			}
+			for( Segment segment : new ArrayList<Segment>( segments.values() ) ) {
+				if( segment.livePackets > 0 && segment.expiresAt <= now ) {
+					expired += drop( segment );
+				}
+			}
+			schedule();
+		}
+		metrics.counter( "mailbox.expired" ).addAndGet( expired );
+	}
+
+	/**
+	 * Restores the packets held in the given {@code segment} which have not
+	 * yet been taken, reading their positions from the segment's index. A
+	 * segment without a valid index, which is the one which was still being
+	 * appended to if the store was not closed, is scanned instead, up to its
+	 * last complete record, and its index is written.
+	 */
+	private void recover( Segment segment ) throws IOException {
+
+		segment.length = (int) segment.channel.size();
+		segment.entries = null;
+		List<Record> records = readIndex( segment );
+
+		if( records == null ) {
+			records = new ArrayList<Record>();
+			ByteArrayOutputStream entries = new ByteArrayOutputStream();
+			ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+			int offset = 0;
+			while( offset + HEADER_LENGTH <= segment.length ) {
+				header.clear();
+				readFully( segment.channel, header, offset );
+				int size = header.getInt( 0 );
+				if( size < MIN_PACKET_LENGTH || size > segment.length - offset - HEADER_LENGTH ) {
+					break;
+				}
+				byte [] to = readAddress( segment.channel, offset + HEADER_LENGTH + size, segment.length );
+				if( to == null ) {
+					break;
+				}
+				records.add( new Record( to, offset, size, header.getLong( 12 ) ) );
+				addEntry( entries, to, offset, size, header.getLong( 12 ) );
+				segment.expiresAt = Math.max( segment.expiresAt, header.getLong( 4 ) );
+				offset += recordLength( size, to );
+			}
+			segment.channel.truncate( offset );
+			segment.length = offset;
+			File temporary = file( directory, segment.id, INDEX_SUFFIX + TEMPORARY_SUFFIX );
+			writeIndex( temporary, segment.length, segment.expiresAt, entries, records.size() );
+			if( !temporary.renameTo( segment.index ) ) {
+				throw new IOException( String.format( "Unable to rename %s to %s", temporary, segment.index ) );
+			}
+		}
+
+		for( Record record : records ) {
+			sequence = Math.max( sequence, record.sequence );
+			long position = segment.id << 32 | record.offset;
+			ByteArrayKey key = new ByteArrayKey( record.to );
+			Long cursor = cursors.get( key );
+			if( cursor != null && position <= cursor.longValue() ) {
+				continue;
+			}
+			AddressQueue mailbox = mailboxes.get( key );
+			if( mailbox == null ) {
+				mailbox = new AddressQueue( record.to, key );
+				mailboxes.put( key, mailbox );
+			}
+			mailbox.add( position, record.size, record.sequence );
+			mailbox.packets++;
+			mailbox.bytes += record.size;
+			segment.livePackets++;
+			segment.liveBytes += record.size;
+		}
+
+		if( segment.livePackets == 0 ) {
+			segment.delete();
+			return;
+		}
+
+		segments.put( Long.valueOf( segment.id ), segment );
+		packetCount += segment.livePackets;
+		byteCount += segment.liveBytes;
+		diskPacketCount += segment.livePackets;
+		diskByteCount += segment.liveBytes;
+
+	}
+
+	/**
+	 * Finds the packets for a page of the given {@code address} after the
+	 * given {@code cursor}, adding the regions of those held on disk to
+	 * {@code regions}, and those held on the heap, which are all newer, to
+	 * {@code packets}.
+	 *
+	 * @return the cursor of the last packet found, or the given
+	 *         {@code cursor} if none was found.
+	 */
+	private long select( byte [] address, long cursor, int maxPackets, long maxBytes, List<Region> regions, List<Packet> packets ) {
+		AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+		if( mailbox == null ) {
+			return cursor;
+		}
+		long now = System.currentTimeMillis();
+		long last = cursor;
+		int count = 0;
+		long bytes = 0;
+		for( int i = 0; i < mailbox.diskSize; i++ ) {
+			int j = ( mailbox.head + i ) % mailbox.positions.length;
+			long position = mailbox.positions[j];
+			int size = mailbox.sizes[j];
+			Segment segment = segments.get( Long.valueOf( position >>> 32 ) );
+			if( mailbox.sequences[j] <= cursor || segment == null || readExpiresAt( position ) <= now ) {
+				continue;
+			}
+			if( isFull( count, bytes, size, maxPackets, maxBytes ) ) {
+				return last;
+			}
+			regions.add( new Region( segment, position, size ) );
+			last = mailbox.sequences[j];
+			count++;
+			bytes += size;
+		}
+		for( Entry entry : mailbox.memory ) {
+			if( entry.sequence <= cursor || entry.expiresAt <= now ) {
+				continue;
+			}
+			if( isFull( count, bytes, entry.size, maxPackets, maxBytes ) ) {
+				return last;
+			}
+			packets.add( entry.packet );
+			last = entry.sequence;
+			count++;
+			bytes += entry.size;
+		}
+		return last;
+	}
+
+	/**
+	 * Removes the given {@code entry}, which is always the oldest held on the
+	 * heap for its address.
+	 */
+	private void remove( Entry entry ) {
+
+		AddressQueue mailbox = entry.mailbox;
+		mailbox.memory.removeFirst();
+		mailbox.packets--;
+		mailbox.bytes -= entry.size;
+		unlink( entry );
+
+		packetCount--;
+		byteCount -= entry.size;
+		residentBytes -= entry.size;
+		updateTotals();
+		retire( mailbox );
+
+	}
+
+	/**
+	 * Removes the oldest record of the given {@code mailbox} on disk, deleting
+	 * its segment once nothing more is held in it.
+	 *
+	 * @return {@code true} if the record was still held, or {@code false} if
+	 *         its segment has already been dropped.
+	 */
+	private boolean removeFromDisk( AddressQueue mailbox ) {
+
+		long position = mailbox.positions[mailbox.head];
+		int size = mailbox.sizes[mailbox.head];
+		mailbox.poll();
+		mailbox.packets--;
+		mailbox.bytes -= size;
+
+		Segment segment = segments.get( Long.valueOf( position >>> 32 ) );
+		if( segment != null ) {
+			writeCursor( mailbox.key, position );
+			segment.livePackets--;
+			segment.liveBytes -= size;
+			if( segment.livePackets == 0 && segment != active ) {
+				segments.remove( Long.valueOf( segment.id ) );
+				if( segment != compacting ) {
+					segment.delete();
+				}
+			}
+			packetCount--;
+			byteCount -= size;
+			diskPacketCount--;
+			diskByteCount -= size;
+			updateTotals();
+		}
+
+		retire( mailbox );
+		return segment != null;
+
+	}
+
+	private void retire( AddressQueue mailbox ) {
+		if( mailbox.memory.isEmpty() ) {
+			resident.remove( mailbox.key );
+		}
+		if( mailbox.packets == 0 ) {
+			mailboxes.remove( mailbox.key );
+		}
+	}
+
+	/**
+	 * Writes the index of the given {@code segment}, to which no more packets
+	 * will be appended.
+	 */
+	private void seal( Segment segment ) throws IOException {
+		if( segment.entries != null ) {
+			File temporary = file( directory, segment.id, INDEX_SUFFIX + TEMPORARY_SUFFIX );
+			writeIndex( temporary, segment.length, segment.expiresAt, segment.entries, segment.entryCount );
+			if( !temporary.renameTo( segment.index ) ) {
+				throw new IOException( String.format( "Unable to rename %s to %s", temporary, segment.index ) );
+			}
+			segment.entries = null;
+		}
+	}
+
+	/**
+	 * Discards the oldest records of the given {@code mailbox} on disk for as
+	 * long as their segments have already been dropped.
+	 *
+	 * @return {@code true} if the mailbox still holds any packets.
+	 */
+	private boolean settle( AddressQueue mailbox ) {
+		while( mailbox.diskSize > 0 && !segments.containsKey( Long.valueOf( mailbox.positions[mailbox.head] >>> 32 ) ) ) {
+			removeFromDisk( mailbox );
+		}
+		return mailbox.packets > 0;
+	}
+
+	private void schedule() {
+		if( reaper == null && policy.getTimeToLive() > 0 ) {
+			long expiresAt = oldest != null ? oldest.expiresAt : Long.MAX_VALUE;
+			for( Segment segment : segments.values() ) {
+				if( segment.livePackets > 0 ) {
+					expiresAt = Math.min( expiresAt, segment.expiresAt );
+				}
+			}
+			if( expiresAt != Long.MAX_VALUE ) {
+				reaper = timer.schedule( reap, expiresAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS );
+			}
+		}
+	}
+
+	/**
+	 * Writes the oldest packet held on the heap for the given {@code mailbox}
+	 * to the active segment, starting a new segment if it is full.
+	 */
+	private void spill( AddressQueue mailbox ) {
+
+		Entry entry = mailbox.memory.getFirst();
+
+		try {
+
+			if( active == null || active.length >= segmentSize ) {
+				if( active != null ) {
+					seal( active );
+				}
+				long id = nextSegmentID++;
+				active = new Segment( id, directory );
+				segments.put( Long.valueOf( id ), active );
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream( recordLength( entry.size, mailbox.address ) );
+			out.write( new byte [HEADER_LENGTH] );
+			PacketSerializer.write( entry.packet, out );
+			IOUtils.writeSmallBuffer( out, mailbox.address );
+			ByteBuffer buffer = ByteBuffer.wrap( out.toByteArray() );
+			buffer.putInt( 0, entry.size );
+			buffer.putLong( 4, entry.expiresAt );
+			buffer.putLong( 12, entry.sequence );
+			long offset = active.length;
+			while( buffer.hasRemaining() ) {
+				active.channel.write( buffer, offset + buffer.position() );
+			}
+
+			addEntry( active.entries, mailbox.address, (int) offset, entry.size, entry.sequence );
+			active.entryCount++;
+			mailbox.add( active.id << 32 | offset, entry.size, entry.sequence );
+			active.length += recordLength( entry.size, mailbox.address );
+			active.livePackets++;
+			active.liveBytes += entry.size;
+			active.expiresAt = Math.max( active.expiresAt, entry.expiresAt );
+
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+
+		mailbox.memory.removeFirst();
+		unlink( entry );
+		if( mailbox.memory.isEmpty() ) {
+			resident.remove( mailbox.key );
+		}
+		residentBytes -= entry.size;
+		diskPacketCount++;
+		diskByteCount += entry.size;
+		count( "mailbox.spilled" );
+
+	}
+
+	/**
+	 * Spills packets to disk until the memory tier is back within its
+	 * thresholds.
+	 */
+	private void spill() {
+		while( residentBytes > memoryBytes && !resident.isEmpty() ) {
+			AddressQueue mailbox = resident.values().iterator().next();
+			while( !mailbox.memory.isEmpty() ) {
+				spill( mailbox );
+			}
+		}
+		updateTotals();
+	}
+
+	@Override
+	public boolean store( Packet packet ) {
+		return store( packet.getTo(), packet );
+	}
+
+	@Override
+	public boolean store( byte [] address, Packet packet ) {
+
+		int size = sizeOf( packet );
+		ByteArrayKey key = new ByteArrayKey( address );
+		boolean reject = policy.getEviction() == MailboxPolicy.Eviction.REJECT_NEW;
+		int evicted = 0;
+
+		synchronized( this ) {
+
+			AddressQueue mailbox = mailboxes.get( key );
+			if( mailbox != null && !settle( mailbox ) ) {
+				mailbox = null;
+			}
+			int mailboxPackets = mailbox != null ? mailbox.packets : 0;
+			long mailboxBytes = mailbox != null ? mailbox.bytes : 0;
+
+			if( policy.isAddressOverLimit( 1, size ) || policy.isOverLimit( 1, size ) ) {
+				reject = true;
+			} else if( reject ) {
+				reject = policy.isAddressOverLimit( mailboxPackets + 1, mailboxBytes + size ) || policy.isOverLimit( packetCount + 1, byteCount + size );
+			} else {
+				while( mailbox != null && policy.isAddressOverLimit( mailbox.packets + 1, mailbox.bytes + size ) ) {
+					if( mailbox.diskSize == 0 ) {
+						remove( mailbox.memory.getFirst() );
+						evicted++;
+					} else if( removeFromDisk( mailbox ) ) {
+						evicted++;
+					}
+					if( mailbox.packets == 0 ) {
+						mailbox = null;
+					}
+				}
+				while( policy.isOverLimit( packetCount + 1, byteCount + size ) && ( oldest != null || !segments.isEmpty() ) ) {
+					if( !segments.isEmpty() ) {
+						evicted += drop( segments.firstEntry().getValue() );
+					} else {
+						remove( oldest );
+						evicted++;
+					}
+					if( mailbox != null && !mailboxes.containsKey( key ) ) {
+						mailbox = null;
+					}
+				}
+			}
+
+			if( !reject ) {
+
+				if( mailbox == null ) {
+					mailbox = new AddressQueue( address, key );
+					mailboxes.put( key, mailbox );
+				}
+
+				long expiresAt = policy.getTimeToLive() > 0 ? System.currentTimeMillis() + policy.getTimeToLive() : Long.MAX_VALUE;
+				Entry entry = new Entry( packet, mailbox, size, expiresAt, ++sequence );
+				mailbox.memory.addLast( entry );
+				mailbox.packets++;
+				mailbox.bytes += size;
+				resident.put( key, mailbox );
+
+				entry.older = newest;
+				if( newest != null ) {
+					newest.newer = entry;
+				} else {
+					oldest = entry;
+				}
+				newest = entry;
+
+				packetCount++;
+				byteCount += size;
+				residentBytes += size;
+
+				while( mailbox.memory.size() > memoryPacketsPerAddress ) {
+					spill( mailbox );
+				}
+				spill();
+				schedule();
+
+			}
+
+		}
+
+		if( evicted > 0 ) {
+			metrics.counter( "mailbox.evicted" ).addAndGet( evicted );
+		}
+		count( reject ? "mailbox.rejected" : "mailbox.stored" );
+		return !reject;
+
+	}
+
+	@Override
+	public Packet take( byte [] address ) {
+
+		Packet packet = null;
+		int expired = 0;
+
+		synchronized( this ) {
+			AddressQueue mailbox = mailboxes.get( new ByteArrayKey( address ) );
+			long now = System.currentTimeMillis();
+			while( mailbox != null && packet == null ) {
+				if( mailbox.diskSize > 0 ) {
+					long position = mailbox.positions[mailbox.head];
+					int size = mailbox.sizes[mailbox.head];
+					if( segments.containsKey( Long.valueOf( position >>> 32 ) ) ) {
+						if( readExpiresAt( position ) <= now ) {
+							expired++;
+						} else {
+							packet = read( position, size );
+						}
+					}
+					removeFromDisk( mailbox );
+				} else {
+					Entry entry = mailbox.memory.getFirst();
+					remove( entry );
+					if( entry.expiresAt <= now ) {
+						expired++;
+					} else {
+						packet = entry.packet;
+					}
+				}
+				if( mailbox.packets == 0 ) {
+					mailbox = null;
+				}
+			}
+		}
+
+		if( expired > 0 ) {
+			metrics.counter( "mailbox.expired" ).addAndGet( expired );
+		}
+		if( packet != null ) {
+			count( "mailbox.delivered" );
+		}
+		return packet;
+
+	}
+
+	/**
+	 * Transfers the packets held on disk straight from their segment files,
+	 * outside the lock, so that storing and taking packets is not held up by
+	 * a slow connection. The segments are pinned meanwhile, so that their
+	 * files stay open even if the segments are compacted or deleted; a file
+	 * deleted meanwhile can still be read through its open channel.
+	 */
+	@Override
+	public long transfer( byte [] address, long cursor, int maxPackets, long maxBytes, WriteChannel channel ) {
+		List<Region> regions = new ArrayList<Region>();
+		List<Packet> packets = new ArrayList<Packet>();
+		long last;
+		synchronized( this ) {
+			last = select( address, cursor, maxPackets, maxBytes, regions, packets );
+			for( Region region : regions ) {
+				region.segment.pins++;
+			}
+		}
+		try {
+			for( Region region : regions ) {
+				channel.transfer( region.segment.channel, ( region.position & 0xFFFFFFFFL ) + HEADER_LENGTH, region.size );
+			}
+			if( !packets.isEmpty() ) {
+				channel.send( packets.toArray( new Packet [packets.size()] ) );
+			}
+		} finally {
+			synchronized( this ) {
+				for( Region region : regions ) {
+					region.segment.unpin();
+				}
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * Removes the given {@code entry} from the list of packets held on the
+	 * heap in order of arrival.
+	 */
+	private void unlink( Entry entry ) {
+		if( entry.older != null ) {
+			entry.older.newer = entry.newer;
+		} else {
+			oldest = entry.newer;
+		}
+		if( entry.newer != null ) {
+			entry.newer.older = entry.older;
+		} else {
+			newest = entry.older;
+		}
+		entry.older = null;
+		entry.newer = null;
+	}
+
+	/**
+	 * Records that every record on disk for the given {@code key} up to the
+	 * given {@code position} has been taken, rewriting the cursor log once it
+	 * has grown well beyond the cursors it holds.
+	 */
+	private void writeCursor( ByteArrayKey key, long position ) {
+		cursors.put( key, Long.valueOf( position ) );
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream( 9 + key.getValue().length );
+			IOUtils.writeSmallBuffer( record, key.getValue() );
+			IOUtils.writeLong( record, position );
+			record.writeTo( cursorLog );
+			cursorLogLength += record.size();
+			if( cursorLogLength > Math.max( MIN_CURSOR_LOG_LENGTH, cursors.size() * 64L ) ) {
+				writeCursors();
+			}
+		} catch( IOException exception ) {
+			throw new FASTException( exception );
+		}
+	}
+
+	/**
+	 * Replaces the cursor log with one holding only the cursors which still
+	 * refer to a segment, and opens it for appending.
+	 */
+	private void writeCursors() throws IOException {
+
+		if( cursorLog != null ) {
+			cursorLog.close();
+		}
+
+		long first = segments.isEmpty() ? nextSegmentID : segments.firstKey().longValue();
+		File temporary = new File( directory, CURSORS + TEMPORARY_SUFFIX );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for( Iterator<Map.Entry<ByteArrayKey, Long>> it = cursors.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<ByteArrayKey, Long> cursor = it.next();
+			if( cursor.getValue().longValue() < first << 32 ) {
+				it.remove();
+			} else {
+				IOUtils.writeSmallBuffer( out, cursor.getKey().getValue() );
+				IOUtils.writeLong( out, cursor.getValue().longValue() );
+			}
+		}
+
+		OutputStream file = new FileOutputStream( temporary );
+		try {
+			out.writeTo( file );
+		} finally {
+			file.close();
+		}
+		File target = new File( directory, CURSORS );
+		if( !temporary.renameTo( target ) ) {
+			throw new IOException( String.format( "Unable to rename %s to %s", temporary, target ) );
+		}
+
+		cursorLog = new FileOutputStream( target, true );
+		cursorLogLength = out.size();
+
+	}
+
+	private void updateTotals() {
+		metrics.counter( "mailbox.packets" ).set( packetCount );
+		metrics.counter( "mailbox.bytes" ).set( byteCount );
+		metrics.counter( "mailbox.disk.packets" ).set( diskPacketCount );
+		metrics.counter( "mailbox.disk.bytes" ).set( diskByteCount );
+	}
+
+}
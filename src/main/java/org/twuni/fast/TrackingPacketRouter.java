@@ -0,0 +1,28 @@
+package org.twuni.fast;
+
+import org.twuni.fast.model.Packet;
+
+/**
+ * A router which can report when a packet it has routed has left this node,
+ * rather than merely when routing returns, so that the credit consumed by the
+ * packet is held while it waits to be written to a slow recipient.
+ *
+ * @see FlowControl
+ */
+public interface TrackingPacketRouter extends PacketRouter {
+
+	/**
+	 * Routes a packet to its destination, and runs the given
+	 * {@code completion} once the packet has been written to the connection
+	 * of every recipient to which it was handed, held in a mailbox, or
+	 * discarded. The completion runs exactly once, possibly before this method
+	 * returns, and possibly on another thread.
+	 *
+	 * @param packet
+	 *            the packet to be routed.
+	 * @param completion
+	 *            the task to be run once the packet has left this node.
+	 */
+	public void routePacket( Packet packet, Runnable completion );
+
+}
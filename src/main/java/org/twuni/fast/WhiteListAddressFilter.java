@@ -1,28 +1,29 @@
 package org.twuni.fast;
 
-import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.twuni.fast.exception.FASTUnknownAddressException;
+import org.twuni.fast.util.ByteArrayKey;
 
 /**
  * An address verifier that accepts only addresses in a predefined white list.
  */
 public class WhiteListAddressFilter implements AddressVerifier {
 
-	private final byte [][] acceptableAddresses;
+	private final Set<ByteArrayKey> acceptableAddresses = new HashSet<ByteArrayKey>();
 
 	public WhiteListAddressFilter( byte []... acceptableAddresses ) {
-		this.acceptableAddresses = acceptableAddresses;
+		for( byte [] acceptableAddress : acceptableAddresses ) {
+			this.acceptableAddresses.add( new ByteArrayKey( acceptableAddress ) );
+		}
 	}
 
 	@Override
 	public void verifyAddress( byte [] address ) {
-		for( byte [] acceptableAddress : acceptableAddresses ) {
-			if( Arrays.equals( address, acceptableAddress ) ) {
-				return;
-			}
+		if( !acceptableAddresses.contains( new ByteArrayKey( address ) ) ) {
+			throw new FASTUnknownAddressException();
 		}
-		throw new FASTUnknownAddressException();
 	}
 
 }
@@ -36,4 +36,11 @@ public class WriteChannelManager extends EventHandlerBase {
 		channelProvider.detach( channel.getRemoteAddress(), channel );
 	}
 
+	@Override
+	public void onResumeRequested( byte [] sessionID, int n ) {
+		if( channel.getRemoteAddress() != null ) {
+			channelProvider.attach( channel.getRemoteAddress(), channel );
+		}
+	}
+
 }
@@ -0,0 +1,240 @@
+package org.twuni.fast.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.twuni.fast.EventHandler;
+import org.twuni.fast.exception.FASTWriteException;
+
+/**
+ * A write channel which may safely be written by many threads at once without
+ * locking. Each command is encoded by the calling thread and appended to a
+ * lock-free queue. Whichever caller finds the stream idle becomes its writer:
+ * it writes every frame queued so far as one batch, with a single flush, and
+ * keeps going until the queue is empty, while the other callers simply return.
+ * Frames are never interleaved, and are written in the order they were
+ * queued. The writer reports the packets of each frame sent just before
+ * writing it, so they are reported in the order in which they reach the
+ * remote endpoint.
+ *
+ * <p>
+ * Because a caller may return before another thread has written its frame, a
+ * failure to write is reported to whichever caller is writing at the time.
+ * After such a failure, every subsequent write fails.
+ * </p>
+ */
+public class ConcurrentWriteChannel extends WriteChannel {
+
+	/**
+	 * A queued frame, with the tasks to be run just before and once it has
+	 * been written.
+	 */
+	private static class Frame {
+
+		final byte [] bytes;
+		final Runnable sent;
+		final Runnable completion;
+
+		Frame( byte [] bytes, Runnable sent, Runnable completion ) {
+			this.bytes = bytes;
+			this.sent = sent;
+			this.completion = completion;
+		}
+
+	}
+
+	private static final Frame CLOSE = new Frame( new byte [0], null, null );
+
+	private static void complete( List<Frame> frames ) {
+		for( Frame frame : frames ) {
+			if( frame.completion != null ) {
+				frame.completion.run();
+			}
+		}
+	}
+
+	private final Queue<Frame> pending = new ConcurrentLinkedQueue<Frame>();
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private volatile boolean failed;
+
+	/**
+	 * Initializes this channel to write to the given {@code output} stream,
+	 * without assigning an event handler.
+	 *
+	 * @param output
+	 *            the stream to which data will be written.
+	 */
+	public ConcurrentWriteChannel( OutputStream output ) {
+		this( output, null );
+	}
+
+	/**
+	 * Initializes this channel to write to the given {@code output} stream,
+	 * dispatching events to the given {@code eventHandler}.
+	 *
+	 * @param output
+	 *            the stream to which data will be written.
+	 * @param eventHandler
+	 *            the recipient of any events which occur.
+	 */
+	public ConcurrentWriteChannel( OutputStream output, EventHandler eventHandler ) {
+		super( output, eventHandler );
+	}
+
+	/**
+	 * Closes the underlying stream once every frame queued before it has been
+	 * written.
+	 */
+	@Override
+	protected void close() {
+		pending.offer( CLOSE );
+		try {
+			drain();
+		} catch( FASTWriteException ignore ) {
+			// Ignore.
+		}
+	}
+
+	private void drain() {
+		while( !pending.isEmpty() && writing.compareAndSet( false, true ) ) {
+			try {
+				if( !writePending() ) {
+					return;
+				}
+			} finally {
+				writing.set( false );
+			}
+		}
+	}
+
+	/**
+	 * Discards every queued frame after a failure, running the completions of
+	 * the discarded frames since they will never be written. Their packets are
+	 * still reported sent, after every packet written, so that they are
+	 * counted as unacknowledged and sent again if the session is resumed.
+	 */
+	private void discard() {
+		failed = true;
+		List<Frame> discarded = new ArrayList<Frame>();
+		for( Frame frame = pending.poll(); frame != null; frame = pending.poll() ) {
+			if( frame.sent != null ) {
+				frame.sent.run();
+			}
+			discarded.add( frame );
+		}
+		complete( discarded );
+	}
+
+	private void flush( ByteArrayOutputStream batch, List<Frame> frames ) {
+		try {
+			if( batch.size() > 0 ) {
+				super.write( batch.toByteArray() );
+			}
+		} catch( FASTWriteException exception ) {
+			discard();
+			throw exception;
+		} finally {
+			complete( frames );
+		}
+	}
+
+	/**
+	 * Writes every frame queued so far as one batch, closing the stream if it
+	 * reaches a queued close. Only the writer may call this method.
+	 *
+	 * @return {@code false} if the stream was closed.
+	 */
+	private boolean writePending() {
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		List<Frame> frames = new ArrayList<Frame>();
+		for( Frame frame = pending.poll(); frame != null; frame = pending.poll() ) {
+			if( frame.sent != null ) {
+				frame.sent.run();
+			}
+			if( frame == CLOSE ) {
+				flush( batch, frames );
+				discard();
+				super.close();
+				return false;
+			}
+			batch.write( frame.bytes, 0, frame.bytes.length );
+			frames.add( frame );
+		}
+		flush( batch, frames );
+		return true;
+	}
+
+	/**
+	 * Transfers the frame straight from the file if no other thread is
+	 * writing, once every frame queued before it has been written. Otherwise,
+	 * the frame is copied from the file and queued, since the file may be
+	 * closed as soon as this method returns.
+	 */
+	@Override
+	protected void write( FileChannel source, long position, int length, Runnable sent ) {
+		if( failed ) {
+			throw new FASTWriteException( "Channel is closed." );
+		}
+		if( !writing.compareAndSet( false, true ) ) {
+			write( new Frame( readFrame( source, position, length ), sent, null ) );
+			return;
+		}
+		try {
+			if( !writePending() ) {
+				throw new FASTWriteException( "Channel is closed." );
+			}
+			super.write( source, position, length, sent );
+		} catch( FASTWriteException exception ) {
+			discard();
+			throw exception;
+		} finally {
+			writing.set( false );
+		}
+		drain();
+	}
+
+	/**
+	 * Queues the given {@code frame}, then writes every queued frame unless
+	 * another thread is already doing so.
+	 */
+	@Override
+	protected void write( byte [] frame ) {
+		write( new Frame( frame, null, null ) );
+	}
+
+	/**
+	 * Queues the given {@code frame} as {@link #write(byte[])} does, and runs
+	 * the given {@code sent} task on whichever thread writes it, just before
+	 * it is written.
+	 */
+	@Override
+	protected void write( byte [] frame, Runnable sent ) {
+		write( new Frame( frame, sent, null ) );
+	}
+
+	/**
+	 * Queues the given {@code frame} as {@link #write(byte[], Runnable)} does,
+	 * and runs the given {@code completion} on whichever thread writes it, once
+	 * it has been written.
+	 */
+	@Override
+	protected boolean offer( byte [] frame, Runnable sent, Runnable completion ) {
+		write( new Frame( frame, sent, completion ) );
+		return true;
+	}
+
+	private void write( Frame frame ) {
+		if( failed ) {
+			throw new FASTWriteException( "Channel is closed." );
+		}
+		pending.offer( frame );
+		drain();
+	}
+
+}
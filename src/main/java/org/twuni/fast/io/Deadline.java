@@ -0,0 +1,93 @@
+package org.twuni.fast.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.twuni.fast.util.HashedWheelTimer;
+
+/**
+ * Closes a stream if an operation on it, once begun, takes too long to end.
+ * Beginning and ending an operation only records a timestamp; the stream is
+ * checked on a shared timer, and only while an operation is in progress, so
+ * a connection costs nothing while it is idle and almost nothing while it is
+ * busy.
+ */
+class Deadline implements Runnable {
+
+	private final HashedWheelTimer timer;
+	private final long timeout;
+	private final Closeable target;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile long startedAt;
+	private volatile boolean stopped;
+
+	/**
+	 * Initializes a deadline which closes the given {@code target} if an
+	 * operation takes longer than {@code timeout} milliseconds.
+	 *
+	 * @param timer
+	 *            the timer on which checks are scheduled.
+	 * @param timeout
+	 *            how long, in milliseconds, an operation may take.
+	 * @param target
+	 *            the stream to close once an operation has taken too long.
+	 */
+	Deadline( HashedWheelTimer timer, long timeout, Closeable target ) {
+		this.timer = timer;
+		this.timeout = TimeUnit.MILLISECONDS.toNanos( timeout );
+		this.target = target;
+	}
+
+	/**
+	 * Marks the start of an operation.
+	 */
+	void begin() {
+		startedAt = System.nanoTime() | 1;
+		if( !stopped && scheduled.compareAndSet( false, true ) ) {
+			timer.schedule( this, timeout, TimeUnit.NANOSECONDS );
+		}
+	}
+
+	/**
+	 * Marks the end of the current operation.
+	 */
+	void end() {
+		startedAt = 0;
+	}
+
+	@Override
+	public void run() {
+		long started = startedAt;
+		if( stopped ) {
+			return;
+		}
+		if( started == 0 ) {
+			scheduled.set( false );
+			if( startedAt == 0 || !scheduled.compareAndSet( false, true ) ) {
+				return;
+			}
+			started = startedAt;
+		}
+		long elapsed = System.nanoTime() - started;
+		if( started != 0 && elapsed >= timeout ) {
+			stop();
+			try {
+				target.close();
+			} catch( IOException ignore ) {
+				// Ignore.
+			}
+			return;
+		}
+		timer.schedule( this, started != 0 ? timeout - elapsed : timeout, TimeUnit.NANOSECONDS );
+	}
+
+	/**
+	 * Stops checking the stream.
+	 */
+	void stop() {
+		stopped = true;
+	}
+
+}
@@ -1,19 +1,62 @@
 package org.twuni.fast.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.twuni.fast.FAST;
+import org.twuni.fast.model.Command;
 import org.twuni.fast.model.Packet;
 import org.twuni.fast.util.IOUtils;
 
 /**
  * This object handles serialization and deserialization of a {@link Packet}
- * to/from a stream.
+ * to/from a stream. A packet is encoded for sending at most once, the first
+ * time its frame is needed, and the same frame is written every time it is
+ * sent thereafter, whether to several channels or again after a reconnection.
+ * The frame is cached on the packet itself, so finding it takes no lock.
  */
 public class PacketSerializer implements FAST {
 
+	/**
+	 * Returns the given {@code packet} encoded as a SEND command, encoding it
+	 * the first time this is called for the packet. The payload is read only
+	 * then, with its stream reset afterward, while holding the packet's lock,
+	 * so a packet may be sent from several threads at once. Once the frame
+	 * has been cached, it is returned without locking.
+	 *
+	 * @param packet
+	 *            the packet to be encoded.
+	 * @return the given {@code packet} encoded as a SEND command, which must
+	 *         not be modified.
+	 * @throws IOException
+	 *             if an error occurs while reading the packet's payload.
+	 * @see Packet#getFrame()
+	 */
+	public static byte [] getFrame( Packet packet ) throws IOException {
+		byte [] frame = packet.getFrame();
+		if( frame == null ) {
+			synchronized( packet ) {
+				frame = packet.getFrame();
+				if( frame == null ) {
+					byte [] from = packet.getFrom();
+					byte [] to = packet.getTo();
+					LimitedInputStream payload = packet.getPayload();
+					ByteArrayOutputStream out = new ByteArrayOutputStream( 15 + from.length + to.length + payload.getLimit() );
+					out.write( Command.SEND );
+					IOUtils.writeLong( out, packet.getTimestamp() );
+					IOUtils.writeSmallBuffer( out, from );
+					IOUtils.writeSmallBuffer( out, to );
+					LimitedInputStreamSerializer.write( payload, out );
+					frame = out.toByteArray();
+					packet.setFrame( frame );
+				}
+			}
+		}
+		return frame;
+	}
+
 	/**
 	 * Reads a FAST packet from the given {@code input} stream.
 	 *
@@ -36,7 +79,8 @@ public class PacketSerializer implements FAST {
 	}
 
 	/**
-	 * Writes the given {@code packet} to the given {@code output} stream.
+	 * Writes the given {@code packet} to the given {@code output} stream. The
+	 * packet is written from its frame, which is encoded only once.
 	 *
 	 * @param packet
 	 *            the packet to be written.
@@ -45,12 +89,11 @@ public class PacketSerializer implements FAST {
 	 * @throws IOException
 	 *             if an error occurs while writing the packet to the given
 	 *             {@code output} stream.
+	 * @see #getFrame(Packet)
 	 */
 	public static void write( Packet packet, OutputStream output ) throws IOException {
-		IOUtils.writeLong( output, packet.getTimestamp() );
-		IOUtils.writeSmallBuffer( output, packet.getFrom() );
-		IOUtils.writeSmallBuffer( output, packet.getTo() );
-		LimitedInputStreamSerializer.write( packet.getPayload(), output );
+		byte [] frame = getFrame( packet );
+		output.write( frame, 1, frame.length - 1 );
 	}
 
 	private PacketSerializer() {
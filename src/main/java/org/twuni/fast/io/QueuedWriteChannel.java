@@ -0,0 +1,404 @@
+package org.twuni.fast.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.twuni.fast.EventHandler;
+import org.twuni.fast.Mailbox;
+import org.twuni.fast.MailboxFactory;
+import org.twuni.fast.PagedMailbox;
+import org.twuni.fast.exception.FASTWriteException;
+import org.twuni.fast.model.Packet;
+
+/**
+ * A write channel which hands every encoded command to a bounded queue
+ * drained by its own writer thread. Threads which write to this channel wait
+ * only for room in the queue, never for the remote endpoint's socket, so a
+ * slow remote endpoint cannot delay the threads routing packets to others.
+ * Frames which accumulate while the writer is busy are written to the
+ * underlying stream together, with a single flush.
+ *
+ * <p>
+ * Commands are written in the order they were queued, and the writer reports
+ * the packets of each frame sent just before writing it, so they are reported
+ * in the order in which they reach the remote endpoint. Packets routed to this
+ * channel with {@link #offer(Packet)} are refused rather than waited for when
+ * the queue is full; from then on, every offered packet is refused until the
+ * writer has emptied the queue, at which point it delivers the packets stored
+ * in the remote endpoint's mailbox in the meantime, in bounded batches, or as
+ * the next page to a remote endpoint which fetches pages from a cursor. A
+ * packet refused just as the writer empties the queue wakes the writer, so
+ * that the backlog is delivered even if nothing else is queued.
+ * </p>
+ *
+ * <p>
+ * The writer thread is started on demand and stops after it has been idle for
+ * a while, so an abandoned channel does not keep a thread alive.
+ * </p>
+ */
+public class QueuedWriteChannel extends WriteChannel {
+
+	private static final long IDLE_TIMEOUT = 30;
+	private static final int BACKLOG_PAGE_PACKETS = 256;
+	private static final int BACKLOG_PAGE_BYTES = 1024 * 1024;
+
+	/**
+	 * A queued frame, with the tasks to be run just before and once it has
+	 * been written.
+	 */
+	private static class Frame {
+
+		final byte [] bytes;
+		final Runnable sent;
+		final Runnable completion;
+
+		Frame( byte [] bytes, Runnable sent, Runnable completion ) {
+			this.bytes = bytes;
+			this.sent = sent;
+			this.completion = completion;
+		}
+
+	}
+
+	private static final Frame CLOSE = new Frame( new byte [0], null, null );
+	private static final Frame WAKE = new Frame( new byte [0], null, null );
+
+	private static void complete( List<Frame> frames ) {
+		for( Frame frame : frames ) {
+			if( frame.completion != null ) {
+				frame.completion.run();
+			}
+		}
+	}
+
+	/**
+	 * Reports the packets of the given {@code frames} sent, in the order in
+	 * which the frames were queued.
+	 */
+	private static void sent( List<Frame> frames ) {
+		for( Frame frame : frames ) {
+			if( frame.sent != null ) {
+				frame.sent.run();
+			}
+		}
+	}
+
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			Thread thread = Thread.currentThread();
+			writerThread.set( thread );
+			List<Frame> batch = new ArrayList<Frame>();
+			try {
+				while( true ) {
+					Frame frame = queue.poll( IDLE_TIMEOUT, TimeUnit.SECONDS );
+					if( frame == null ) {
+						running.set( false );
+						if( queue.isEmpty() || !running.compareAndSet( false, true ) ) {
+							return;
+						}
+						continue;
+					}
+					batch.add( frame );
+					queue.drainTo( batch );
+					boolean open = writeBatch( batch );
+					complete( batch );
+					batch.clear();
+					if( !open ) {
+						return;
+					}
+					if( refused && queue.isEmpty() ) {
+						refused = false;
+						flushBacklog();
+					}
+				}
+			} catch( InterruptedException exception ) {
+				running.set( false );
+			} catch( FASTWriteException exception ) {
+				fail();
+				complete( batch );
+			} finally {
+				// A writer started after this one went idle may already have
+				// taken its place.
+				writerThread.compareAndSet( thread, null );
+			}
+		}
+
+	}
+
+	private final BlockingQueue<Frame> queue;
+	private final MailboxFactory backlog;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicReference<Thread> writerThread = new AtomicReference<Thread>();
+	private volatile boolean closed;
+	private volatile boolean refused;
+
+	/**
+	 * Initializes this channel to write to the given {@code output} stream
+	 * through a queue of at most {@code capacity} commands, without assigning
+	 * an event handler.
+	 *
+	 * @param output
+	 *            the stream to which data will be written.
+	 * @param capacity
+	 *            the maximum number of commands which may be waiting to be
+	 *            written.
+	 * @param backlog
+	 *            the factory whose mailboxes hold the packets refused while
+	 *            the queue was full, or {@code null} if refused packets are
+	 *            left for the remote endpoint to FETCH.
+	 */
+	public QueuedWriteChannel( OutputStream output, int capacity, MailboxFactory backlog ) {
+		this( output, capacity, backlog, null );
+	}
+
+	/**
+	 * Initializes this channel to write to the given {@code output} stream
+	 * through a queue of at most {@code capacity} commands, dispatching events
+	 * to the given {@code eventHandler}.
+	 *
+	 * @param output
+	 *            the stream to which data will be written.
+	 * @param capacity
+	 *            the maximum number of commands which may be waiting to be
+	 *            written.
+	 * @param backlog
+	 *            the factory whose mailboxes hold the packets refused while
+	 *            the queue was full, or {@code null} if refused packets are
+	 *            left for the remote endpoint to FETCH.
+	 * @param eventHandler
+	 *            the recipient of any events which occur.
+	 */
+	public QueuedWriteChannel( OutputStream output, int capacity, MailboxFactory backlog, EventHandler eventHandler ) {
+		super( output, eventHandler );
+		queue = new ArrayBlockingQueue<Frame>( Math.max( 1, capacity ) );
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Queues the underlying stream to be closed once every command queued
+	 * before it has been written.
+	 */
+	@Override
+	protected void close() {
+		if( isWriterThread() ) {
+			super.close();
+			return;
+		}
+		try {
+			enqueue( CLOSE );
+		} catch( FASTWriteException ignore ) {
+			// Already closed.
+		}
+	}
+
+	private void enqueue( Frame frame ) {
+		if( closed ) {
+			throw new FASTWriteException( "Channel is closed." );
+		}
+		boolean interrupted = false;
+		while( true ) {
+			try {
+				queue.put( frame );
+				break;
+			} catch( InterruptedException exception ) {
+				interrupted = true;
+			}
+		}
+		if( interrupted ) {
+			Thread.currentThread().interrupt();
+		}
+		startWriter();
+	}
+
+	/**
+	 * Closes the underlying stream and discards every queued frame, running
+	 * their completions since they will never be written. Their packets are
+	 * still reported sent, after every packet written, so that they are
+	 * counted as unacknowledged and sent again if the session is resumed.
+	 */
+	private void fail() {
+		closed = true;
+		running.set( false );
+		List<Frame> discarded = new ArrayList<Frame>();
+		queue.drainTo( discarded );
+		super.close();
+		sent( discarded );
+		complete( discarded );
+	}
+
+	/**
+	 * Delivers the packets stored in the remote endpoint's mailbox while the
+	 * queue was full, in bounded batches. A remote endpoint which fetches
+	 * pages from a cursor is sent only the page after the last one it was
+	 * sent, ending with its cursor, and fetches the rest itself, so that the
+	 * packets stay in the mailbox until they are acknowledged. Otherwise, the
+	 * packets are taken from the mailbox and sent a batch at a time.
+	 */
+	private void flushBacklog() {
+		byte [] address = getRemoteAddress();
+		if( backlog == null || address == null ) {
+			return;
+		}
+		Mailbox mailbox = backlog.createMailbox( address );
+		Long cursor = getSentCursor();
+		if( cursor != null && mailbox instanceof PagedMailbox ) {
+			long next = ( (PagedMailbox) mailbox ).transferPage( cursor.longValue(), BACKLOG_PAGE_PACKETS, BACKLOG_PAGE_BYTES, this );
+			if( next != cursor.longValue() ) {
+				requestAcknowledgment();
+				cursor( next );
+			}
+			return;
+		}
+		List<Packet> packets = new ArrayList<Packet>();
+		long bytes = 0;
+		boolean delivered = false;
+		for( Packet packet = mailbox.providePacket(); packet != null; packet = mailbox.providePacket() ) {
+			packets.add( packet );
+			bytes += packet.getPayload().getLimit();
+			if( packets.size() >= BACKLOG_PAGE_PACKETS || bytes >= BACKLOG_PAGE_BYTES ) {
+				send( packets.toArray( new Packet [packets.size()] ) );
+				packets.clear();
+				bytes = 0;
+				delivered = true;
+			}
+		}
+		if( !packets.isEmpty() ) {
+			send( packets.toArray( new Packet [packets.size()] ) );
+			delivered = true;
+		}
+		if( delivered ) {
+			requestAcknowledgment();
+		}
+	}
+
+	/**
+	 * Returns the number of commands waiting to be written.
+	 *
+	 * @return the number of commands waiting to be written.
+	 */
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	private boolean isWriterThread() {
+		return Thread.currentThread() == writerThread.get();
+	}
+
+	/**
+	 * Queues the given {@code frame} only if there is room for it, and only if
+	 * no frame offered since the queue last filled up is still waiting to be
+	 * delivered from the backlog. The given {@code sent} task and
+	 * {@code completion} are run on the writer, just before and once the
+	 * frame has been written.
+	 */
+	@Override
+	protected boolean offer( byte [] frame, Runnable sent, Runnable completion ) {
+		return offer( new Frame( frame, sent, completion ) );
+	}
+
+	private boolean offer( Frame frame ) {
+		if( isWriterThread() ) {
+			return super.offer( frame.bytes, frame.sent, frame.completion );
+		}
+		if( closed ) {
+			throw new FASTWriteException( "Channel is closed." );
+		}
+		if( refused || !queue.offer( frame ) ) {
+			refused = true;
+			// The writer may have emptied the queue before the flag was set,
+			// and would then never deliver the backlog or accept another
+			// packet, so it is woken to look at the flag again.
+			if( queue.isEmpty() && queue.offer( WAKE ) ) {
+				startWriter();
+			}
+			return false;
+		}
+		startWriter();
+		return true;
+	}
+
+	private void startWriter() {
+		if( running.compareAndSet( false, true ) ) {
+			Thread thread = new Thread( new Writer(), String.format( "%s(%s)", Writer.class.getName(), Integer.toHexString( hashCode() ) ) );
+			thread.setDaemon( true );
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues the given {@code frame}, waiting for room in the queue if
+	 * necessary. Frames written by the writer thread itself are written
+	 * immediately.
+	 */
+	@Override
+	protected void write( byte [] frame ) {
+		if( isWriterThread() ) {
+			super.write( frame );
+			return;
+		}
+		enqueue( new Frame( frame, null, null ) );
+	}
+
+	/**
+	 * Queues the given {@code frame} as {@link #write(byte[])} does, running
+	 * the given {@code sent} task on the writer just before the frame is
+	 * written.
+	 */
+	@Override
+	protected void write( byte [] frame, Runnable sent ) {
+		if( isWriterThread() ) {
+			super.write( frame, sent );
+			return;
+		}
+		enqueue( new Frame( frame, sent, null ) );
+	}
+
+	/**
+	 * Transfers the frame straight from the file on the writer thread, and
+	 * otherwise copies it from the file and queues it, since the file may be
+	 * closed as soon as this method returns.
+	 */
+	@Override
+	protected void write( FileChannel source, long position, int length, Runnable sent ) {
+		if( isWriterThread() ) {
+			super.write( source, position, length, sent );
+			return;
+		}
+		enqueue( new Frame( readFrame( source, position, length ), sent, null ) );
+	}
+
+	private boolean writeBatch( List<Frame> batch ) {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		for( Frame frame : batch ) {
+			if( frame.sent != null ) {
+				frame.sent.run();
+			}
+			if( frame == WAKE ) {
+				continue;
+			}
+			if( frame == CLOSE ) {
+				if( buffer.size() > 0 ) {
+					super.write( buffer.toByteArray() );
+				}
+				fail();
+				return false;
+			}
+			buffer.write( frame.bytes, 0, frame.bytes.length );
+		}
+		if( buffer.size() > 0 ) {
+			super.write( buffer.toByteArray() );
+		}
+		return true;
+	}
+
+}
@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.twuni.fast.EventHandler;
 import org.twuni.fast.FAST;
 import org.twuni.fast.exception.FASTReadException;
 import org.twuni.fast.model.Command;
 import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
 import org.twuni.fast.util.IOUtils;
 
 /**
@@ -21,24 +23,33 @@ public class ReadChannel implements FAST {
 	private static class Looper implements Runnable {
 
 		private final ReadChannel channel;
+		private final boolean accept;
 
-		public Looper( ReadChannel channel ) {
+		public Looper( ReadChannel channel, boolean accept ) {
 			this.channel = channel;
+			this.accept = accept;
 		}
 
 		@Override
 		public void run() {
 			try {
+				if( accept ) {
+					channel.accept();
+				}
 				channel.loop();
-			} catch( FASTReadException ignore ) {
-				// Terminate the loop.
+			} catch( FASTReadException exception ) {
+				// Terminate the loop, releasing the session.
+				channel.disconnect();
 			}
 		}
 	}
 
 	private final InputStream input;
+	private final AtomicBoolean disconnected = new AtomicBoolean();
 
 	private EventHandler eventHandler;
+	private Deadline handshakeDeadline;
+	private Deadline frameDeadline;
 
 	/**
 	 * Initializes this reader to read from the given {@code input} stream,
@@ -77,7 +88,9 @@ public class ReadChannel implements FAST {
 	 */
 	public ReadChannel accept() {
 		try {
+			begin( handshakeDeadline );
 			byte [] header = IOUtils.readFully( input, FAST_HEADER.length );
+			end( handshakeDeadline );
 			if( !Arrays.equals( header, FAST_HEADER ) ) {
 				executeDetachCommand();
 				throw new FASTReadException();
@@ -89,12 +102,43 @@ public class ReadChannel implements FAST {
 		return this;
 	}
 
+	/**
+	 * Spawns a new thread which calls {@link #accept()} and then
+	 * {@link #loop()} on this object, starts the thread, and returns the
+	 * created thread. Unlike {@code accept().loopInBackground()}, the calling
+	 * thread never waits for the remote endpoint.
+	 *
+	 * @return the thread created to accept and {@link #loop()} this object.
+	 * @see #accept()
+	 * @see #loop()
+	 */
+	public Thread acceptInBackground() {
+		Thread thread = new Thread( new Looper( this, true ), getLooperThreadName() );
+		thread.start();
+		return thread;
+	}
+
+	private static void begin( Deadline deadline ) {
+		if( deadline != null ) {
+			deadline.begin();
+		}
+	}
+
 	/**
 	 * Explicitly disconnects from the remote endpoint.
 	 *
 	 * @return this object, for chaining commands together.
 	 */
 	public ReadChannel disconnect() {
+		if( !disconnected.compareAndSet( false, true ) ) {
+			return this;
+		}
+		if( handshakeDeadline != null ) {
+			handshakeDeadline.stop();
+		}
+		if( frameDeadline != null ) {
+			frameDeadline.stop();
+		}
 		try {
 			input.close();
 		} catch( IOException ignore ) {
@@ -104,9 +148,20 @@ public class ReadChannel implements FAST {
 		return this;
 	}
 
+	private static void end( Deadline deadline ) {
+		if( deadline != null ) {
+			deadline.end();
+		}
+	}
+
+	private void endFrame() {
+		end( frameDeadline );
+	}
+
 	private void executeAcknowledgmentCommand() {
 		try {
 			int n = IOUtils.readInt( input );
+			endFrame();
 			eventHandler.onAcknowledgmentReceived( n );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
@@ -116,6 +171,7 @@ public class ReadChannel implements FAST {
 	private void executeAttachCommand() {
 		try {
 			byte [] address = IOUtils.readSmallBuffer( input );
+			endFrame();
 			eventHandler.onAttachRequested( address );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
@@ -125,12 +181,23 @@ public class ReadChannel implements FAST {
 	private void executeAuthenticateCommand() {
 		try {
 			byte [] credential = IOUtils.readSmallBuffer( input );
+			endFrame();
 			eventHandler.onCredentialReceived( credential );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
 		}
 	}
 
+	private void executeCreditCommand() {
+		try {
+			int n = IOUtils.readInt( input );
+			endFrame();
+			eventHandler.onCreditReceived( n );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	/**
 	 * Executes the given {@code command}.
 	 *
@@ -152,52 +219,148 @@ public class ReadChannel implements FAST {
 			case Command.AUTHENTICATE:
 				executeAuthenticateCommand();
 				break;
+			case Command.CREDIT:
+				executeCreditCommand();
+				break;
+			case Command.CURSOR:
+				executeCursorCommand();
+				break;
 			case Command.DETACH:
 				executeDetachCommand();
 				break;
 			case Command.FETCH:
 				executeFetchCommand();
 				break;
+			case Command.FETCH_FROM:
+				executeFetchFromCommand();
+				break;
 			case Command.IDENTIFY:
 				executeIdentifyCommand();
 				break;
+			case Command.PING:
+				executePingCommand();
+				break;
+			case Command.PONG:
+				executePongCommand();
+				break;
 			case Command.REQUEST_ACKNOWLEDGMENT:
 				executeRequestAcknowledgmentCommand();
 				break;
+			case Command.RESUME:
+				executeResumeCommand();
+				break;
+			case Command.RESUMED:
+				executeResumedCommand();
+				break;
 			case Command.SEND:
 				executeSendCommand();
 				break;
 			case Command.SESSION:
 				executeSessionCommand();
 				break;
+			case Command.SUBSCRIBE:
+				executeSubscribeCommand();
+				break;
+			case Command.UNSUBSCRIBE:
+				executeUnsubscribeCommand();
+				break;
 			default:
 		}
 	}
 
+	private void executeCursorCommand() {
+		try {
+			long cursor = IOUtils.readLong( input );
+			endFrame();
+			eventHandler.onCursorReceived( cursor );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	private void executeDetachCommand() {
+		endFrame();
 		disconnect();
 	}
 
 	private void executeFetchCommand() {
+		endFrame();
 		eventHandler.onFetchRequested();
 	}
 
+	private void executeFetchFromCommand() {
+		try {
+			long cursor = IOUtils.readLong( input );
+			int maxPackets = IOUtils.readInt( input );
+			int maxBytes = IOUtils.readInt( input );
+			endFrame();
+			eventHandler.onFetchFromRequested( cursor, maxPackets, maxBytes );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	private void executeIdentifyCommand() {
 		try {
 			byte [] identity = IOUtils.readSmallBuffer( input );
+			endFrame();
 			eventHandler.onIdentityReceived( identity );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
 		}
 	}
 
+	private void executePingCommand() {
+		try {
+			long payload = IOUtils.readLong( input );
+			endFrame();
+			eventHandler.onPingReceived( payload );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
+	private void executePongCommand() {
+		try {
+			long payload = IOUtils.readLong( input );
+			endFrame();
+			eventHandler.onPongReceived( payload );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	private void executeRequestAcknowledgmentCommand() {
+		endFrame();
 		eventHandler.onAcknowledgmentRequested();
 	}
 
+	private void executeResumeCommand() {
+		try {
+			byte [] sessionID = IOUtils.readSmallBuffer( input );
+			int n = IOUtils.readInt( input );
+			endFrame();
+			eventHandler.onResumeRequested( sessionID, n );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
+	private void executeResumedCommand() {
+		try {
+			byte [] sessionID = IOUtils.readSmallBuffer( input );
+			int n = IOUtils.readInt( input );
+			endFrame();
+			eventHandler.onSessionResumed( sessionID, n );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	private void executeSendCommand() {
 		try {
 			Packet packet = PacketSerializer.read( input );
+			endFrame();
 			eventHandler.onPacketReceived( packet );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
@@ -207,12 +370,33 @@ public class ReadChannel implements FAST {
 	private void executeSessionCommand() {
 		try {
 			byte [] sessionID = IOUtils.readSmallBuffer( input );
+			endFrame();
 			eventHandler.onSessionCreated( sessionID );
 		} catch( IOException exception ) {
 			throw new FASTReadException( exception );
 		}
 	}
 
+	private void executeSubscribeCommand() {
+		try {
+			byte [] pattern = IOUtils.readSmallBuffer( input );
+			endFrame();
+			eventHandler.onSubscribeRequested( pattern );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
+	private void executeUnsubscribeCommand() {
+		try {
+			byte [] pattern = IOUtils.readSmallBuffer( input );
+			endFrame();
+			eventHandler.onUnsubscribeRequested( pattern );
+		} catch( IOException exception ) {
+			throw new FASTReadException( exception );
+		}
+	}
+
 	private String getLooperThreadName() {
 		return String.format( "%s(%x)", Looper.class.getName(), Integer.valueOf( hashCode() ) );
 	}
@@ -241,7 +425,7 @@ public class ReadChannel implements FAST {
 	 *         interrupted.
 	 */
 	public Runnable looper() {
-		return new Looper( this );
+		return new Looper( this, false );
 	}
 
 	/**
@@ -267,7 +451,16 @@ public class ReadChannel implements FAST {
 	 * @see Command
 	 */
 	public ReadChannel next() {
-		executeCommand( readCommand() );
+		int command = readCommand();
+		if( command < 0 ) {
+			throw new FASTReadException( "End of stream." );
+		}
+		begin( frameDeadline );
+		try {
+			executeCommand( command );
+		} finally {
+			endFrame();
+		}
 		return this;
 	}
 
@@ -287,6 +480,31 @@ public class ReadChannel implements FAST {
 		}
 	}
 
+	/**
+	 * Limits how long the remote endpoint may take to send its greeting, and
+	 * to finish sending each command it has started. If either limit is
+	 * exceeded, the underlying stream is closed, which ends the read loop and
+	 * disconnects the session. Deadlines are checked on the given shared
+	 * {@code timer} rather than by a thread per channel.
+	 *
+	 * @param timer
+	 *            the timer on which deadlines are checked.
+	 * @param handshakeTimeout
+	 *            how long, in milliseconds, the remote endpoint may take to
+	 *            send its greeting once {@link #accept()} is called, or zero
+	 *            for no limit.
+	 * @param frameTimeout
+	 *            how long, in milliseconds, the remote endpoint may take to
+	 *            finish sending a command once its first byte has arrived, or
+	 *            zero for no limit.
+	 * @return this object, for chaining commands together.
+	 */
+	public ReadChannel setDeadlines( HashedWheelTimer timer, long handshakeTimeout, long frameTimeout ) {
+		handshakeDeadline = handshakeTimeout > 0 ? new Deadline( timer, handshakeTimeout, input ) : null;
+		frameDeadline = frameTimeout > 0 ? new Deadline( timer, frameTimeout, input ) : null;
+		return this;
+	}
+
 	/**
 	 * Assigns an event handler to this session to which events will be
 	 * dispatched.
@@ -1,13 +1,20 @@
 package org.twuni.fast.io;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.twuni.fast.EventHandler;
 import org.twuni.fast.FAST;
 import org.twuni.fast.exception.FASTWriteException;
 import org.twuni.fast.model.Command;
 import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
 import org.twuni.fast.util.IOUtils;
 
 /**
@@ -17,10 +24,13 @@ import org.twuni.fast.util.IOUtils;
 public class WriteChannel implements FAST {
 
 	private final OutputStream output;
+	private final WritableByteChannel target;
 	private EventHandler eventHandler;
 	private byte [] sessionID;
 	private byte [] localAddress;
 	private byte [] remoteAddress;
+	private Deadline writeDeadline;
+	private volatile Long sentCursor;
 
 	/**
 	 * Initializes this reader to write to the given {@code output} stream,
@@ -45,6 +55,7 @@ public class WriteChannel implements FAST {
 	public WriteChannel( OutputStream output, EventHandler eventHandler ) {
 		this.output = output;
 		this.eventHandler = eventHandler;
+		target = Channels.newChannel( output );
 	}
 
 	/**
@@ -60,9 +71,10 @@ public class WriteChannel implements FAST {
 	public WriteChannel attach( byte [] address ) {
 		remoteAddress = address;
 		try {
-			output.write( Command.ATTACH );
-			IOUtils.writeSmallBuffer( output, address );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.ATTACH );
+			IOUtils.writeSmallBuffer( frame, address );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -96,9 +108,10 @@ public class WriteChannel implements FAST {
 	 */
 	public WriteChannel authenticate( byte [] credential ) {
 		try {
-			output.write( Command.AUTHENTICATE );
-			IOUtils.writeSmallBuffer( output, credential );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.AUTHENTICATE );
+			IOUtils.writeSmallBuffer( frame, credential );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -120,6 +133,21 @@ public class WriteChannel implements FAST {
 		return authenticate( credential.getBytes() );
 	}
 
+	/**
+	 * Closes the underlying stream. Subclasses which defer writes must close
+	 * the stream only after all previously written frames have been written.
+	 */
+	protected void close() {
+		if( writeDeadline != null ) {
+			writeDeadline.stop();
+		}
+		try {
+			output.close();
+		} catch( IOException ignore ) {
+			// Ignore.
+		}
+	}
+
 	/**
 	 * Identifies the output stream as a FAST channel by sending a FAST protocol
 	 * header.
@@ -130,15 +158,57 @@ public class WriteChannel implements FAST {
 	 * @see FAST#FAST_HEADER
 	 */
 	public WriteChannel connect() {
+		write( FAST_HEADER );
+		return this;
+	}
+
+	/**
+	 * Grants the remote endpoint permission to send {@code n} additional
+	 * packets during this session.
+	 *
+	 * @param n
+	 *            the number of additional packets the remote endpoint may
+	 *            send.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel credit( int n ) {
 		try {
-			output.write( FAST_HEADER );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.CREDIT );
+			IOUtils.writeInt( frame, n );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
 		return this;
 	}
 
+	/**
+	 * Ends a page of packets sent in answer to a FETCH_FROM, telling the
+	 * remote endpoint the {@code cursor} of the last packet in the page.
+	 *
+	 * @param cursor
+	 *            the cursor of the last packet in the page, or the cursor from
+	 *            which the page was requested if it is empty.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel cursor( long cursor ) {
+		try {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.CURSOR );
+			IOUtils.writeLong( frame, cursor );
+			write( frame.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		sentCursor = Long.valueOf( cursor );
+		return this;
+	}
+
 	/**
 	 * Explicitly detaches the session, if any.
 	 *
@@ -146,12 +216,11 @@ public class WriteChannel implements FAST {
 	 */
 	public WriteChannel detach() {
 		try {
-			output.write( Command.DETACH );
-			output.flush();
-			output.close();
-		} catch( IOException ignore ) {
+			write( new byte [] { (byte) Command.DETACH } );
+		} catch( FASTWriteException ignore ) {
 			// Ignore.
 		}
+		close();
 		return this;
 	}
 
@@ -164,15 +233,66 @@ public class WriteChannel implements FAST {
 	 *             if a communications error occurs.
 	 */
 	public WriteChannel fetch() {
+		write( new byte [] { (byte) Command.FETCH } );
+		return this;
+	}
+
+	/**
+	 * Requests that the remote endpoint deliver the next page of pending
+	 * messages queued for delivery to the local endpoint, after the given
+	 * {@code cursor}, and discard those up to it. The page is followed by the
+	 * cursor of its last packet, from which the next page may be requested.
+	 *
+	 * @param cursor
+	 *            the cursor of the last packet received from a previous page,
+	 *            or zero if none has been received.
+	 * @param maxPackets
+	 *            the largest number of packets to be sent in the page, or zero
+	 *            for no limit.
+	 * @param maxBytes
+	 *            the largest number of bytes of packets to be sent in the
+	 *            page, or zero for no limit. A page always holds at least one
+	 *            packet, if any is pending.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel fetch( long cursor, int maxPackets, int maxBytes ) {
 		try {
-			output.write( Command.FETCH );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.FETCH_FROM );
+			IOUtils.writeLong( frame, cursor );
+			IOUtils.writeInt( frame, maxPackets );
+			IOUtils.writeInt( frame, maxBytes );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
 		return this;
 	}
 
+	/**
+	 * Returns the given {@code packets} as a frame of SEND commands, made of
+	 * the frame cached for each packet, so that no packet is encoded more than
+	 * once.
+	 *
+	 * @see PacketSerializer#getFrame(Packet)
+	 */
+	private static byte [] encode( Packet... packets ) {
+		try {
+			if( packets.length == 1 ) {
+				return PacketSerializer.getFrame( packets[0] );
+			}
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			for( Packet packet : packets ) {
+				frame.write( PacketSerializer.getFrame( packet ) );
+			}
+			return frame.toByteArray();
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+	}
+
 	/**
 	 * Returns the local address associated with this channel.
 	 *
@@ -191,6 +311,19 @@ public class WriteChannel implements FAST {
 		return remoteAddress;
 	}
 
+	/**
+	 * Returns the cursor which ended the last page sent on this channel. Since
+	 * a channel carries a single connection, every packet up to this cursor
+	 * has either been received by the remote endpoint or is on its way.
+	 *
+	 * @return the cursor which ended the last page sent on this channel, or
+	 *         {@code null} if no page has been sent.
+	 * @see #cursor(long)
+	 */
+	public Long getSentCursor() {
+		return sentCursor;
+	}
+
 	/**
 	 * Returns the identifier for the session associated with this channel.
 	 *
@@ -213,9 +346,10 @@ public class WriteChannel implements FAST {
 	public WriteChannel identify( byte [] address ) {
 		remoteAddress = address;
 		try {
-			output.write( Command.IDENTIFY );
-			IOUtils.writeSmallBuffer( output, address );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.IDENTIFY );
+			IOUtils.writeSmallBuffer( frame, address );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -237,6 +371,126 @@ public class WriteChannel implements FAST {
 		return identify( address.getBytes() );
 	}
 
+	/**
+	 * Sends the given {@code packet} to the remote endpoint if it can be
+	 * accepted without waiting. Channels which write synchronously always
+	 * accept the packet; channels which queue frames for a writer refuse it
+	 * when their queue is full, leaving the caller free to store the packet
+	 * elsewhere.
+	 *
+	 * @param packet
+	 *            the packet to be sent.
+	 * @return {@code true} if the packet was sent or queued for sending, or
+	 *         {@code false} if it was refused.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 * @see #send(Packet...)
+	 */
+	public boolean offer( Packet packet ) {
+		return offer( encode( packet ), sent( packet ), null );
+	}
+
+	/**
+	 * Sends the given {@code packet} to the remote endpoint if it can be
+	 * accepted without waiting, and runs the given {@code completion} once the
+	 * packet has actually been written to the underlying stream, or has been
+	 * discarded because the channel failed first. Channels which queue frames
+	 * therefore run it on their writer, after the packet has left the queue.
+	 * The completion is not run if the packet is refused or if this method
+	 * throws, so it should tolerate being run by the caller in that case too.
+	 *
+	 * @param packet
+	 *            the packet to be sent.
+	 * @param completion
+	 *            the task to be run once the packet has been written.
+	 * @return {@code true} if the packet was sent or queued for sending, or
+	 *         {@code false} if it was refused.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 * @see #offer(Packet)
+	 */
+	public boolean offer( Packet packet, Runnable completion ) {
+		return offer( encode( packet ), sent( packet ), completion );
+	}
+
+	/**
+	 * Writes the given encoded {@code frame} if it can be accepted without
+	 * waiting, running the given {@code sent} task just before the frame is
+	 * written, as {@link #write(byte[], Runnable)} does, and the given
+	 * {@code completion} once the frame has been written or discarded. By
+	 * default, this simply runs the task, writes the frame and then runs the
+	 * completion.
+	 *
+	 * @param frame
+	 *            one or more complete, encoded commands.
+	 * @param sent
+	 *            the task to be run just before the frame is written, or
+	 *            {@code null}.
+	 * @param completion
+	 *            the task to be run once the frame has been written, or
+	 *            {@code null}.
+	 * @return {@code true} if the frame was written or queued for writing, or
+	 *         {@code false} if it was refused.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	protected boolean offer( byte [] frame, Runnable sent, Runnable completion ) {
+		if( sent != null ) {
+			sent.run();
+		}
+		write( frame );
+		if( completion != null ) {
+			completion.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the remote endpoint is still alive. The remote endpoint
+	 * should answer with a PONG carrying the same {@code payload}. A PING is
+	 * only offered to the channel, and so is skipped if the channel cannot
+	 * accept it without waiting.
+	 *
+	 * @param payload
+	 *            an opaque value to be echoed back by the remote endpoint,
+	 *            such as the time at which the PING was sent.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel ping( long payload ) {
+		try {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.PING );
+			IOUtils.writeLong( frame, payload );
+			offer( frame.toByteArray(), null, null );
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		return this;
+	}
+
+	/**
+	 * Answers a PING from the remote endpoint.
+	 *
+	 * @param payload
+	 *            the value sent with the PING being answered.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel pong( long payload ) {
+		try {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.PONG );
+			IOUtils.writeLong( frame, payload );
+			write( frame.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		return this;
+	}
+
 	/**
 	 * Requests an acknowledgment of the number of packets received by the
 	 * remote endpoint during this session.
@@ -246,9 +500,57 @@ public class WriteChannel implements FAST {
 	 *             if a communications error occurs.
 	 */
 	public WriteChannel requestAcknowledgment() {
+		write( new byte [] { (byte) Command.REQUEST_ACKNOWLEDGMENT } );
+		return this;
+	}
+
+	/**
+	 * Asks the remote endpoint to resume the session with the given
+	 * {@code sessionID}, instead of attaching and authenticating again.
+	 *
+	 * @param sessionID
+	 *            the identifier of the session to be resumed.
+	 * @param n
+	 *            the number of packets received from the remote endpoint
+	 *            during that session.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel resume( byte [] sessionID, int n ) {
+		setSessionID( sessionID );
 		try {
-			output.write( Command.REQUEST_ACKNOWLEDGMENT );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.RESUME );
+			IOUtils.writeSmallBuffer( frame, sessionID );
+			IOUtils.writeInt( frame, n );
+			write( frame.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		return this;
+	}
+
+	/**
+	 * Answers a RESUME from the remote endpoint.
+	 *
+	 * @param sessionID
+	 *            the identifier of the resumed session, or an empty array if
+	 *            the session could not be resumed.
+	 * @param n
+	 *            the number of packets received from the remote endpoint
+	 *            during that session.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel resumed( byte [] sessionID, int n ) {
+		try {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.RESUMED );
+			IOUtils.writeSmallBuffer( frame, sessionID );
+			IOUtils.writeInt( frame, n );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -258,7 +560,10 @@ public class WriteChannel implements FAST {
 	/**
 	 * Sends each of the given packets to the remote endpoint. The address
 	 * associated with each packet is expected to identify the intended
-	 * recipient.
+	 * recipient. The event handler is told that each packet was sent just
+	 * before it is written, however many threads send packets at once, so
+	 * packets are reported sent in exactly the order in which they reach the
+	 * remote endpoint.
 	 *
 	 * @param packets
 	 *            the packets to be sent.
@@ -267,16 +572,64 @@ public class WriteChannel implements FAST {
 	 *             if a communications error occurs.
 	 */
 	public WriteChannel send( Packet... packets ) {
-		try {
-			for( Packet packet : packets ) {
-				output.write( Command.SEND );
-				PacketSerializer.write( packet, output );
-				eventHandler.onPacketSent( packet );
+		write( encode( packets ), sent( packets ) );
+		return this;
+	}
+
+	/**
+	 * Returns a task which tells the event handler, if there is one, that each
+	 * of the given {@code packets} was sent.
+	 */
+	private Runnable sent( final Packet... packets ) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				EventHandler eventHandler = WriteChannel.this.eventHandler;
+				if( eventHandler == null ) {
+					return;
+				}
+				for( Packet packet : packets ) {
+					eventHandler.onPacketSent( packet );
+				}
 			}
-			output.flush();
-		} catch( IOException exception ) {
-			throw new FASTWriteException( exception );
-		}
+
+		};
+	}
+
+	/**
+	 * Sends the packet serialized by {@link PacketSerializer} in the given
+	 * {@code length} bytes of the given {@code source} file, from the given
+	 * {@code position}, without decoding it. The bytes are transferred from
+	 * the file to the underlying stream by the file's channel, rather than
+	 * read into a {@link Packet} and encoded again, so the event handler is
+	 * notified by {@link EventHandler#onPacketTransferred(int)} rather than
+	 * {@link EventHandler#onPacketSent(Packet)}. The file must not be closed
+	 * until this method returns.
+	 *
+	 * @param source
+	 *            the file holding the serialized packet.
+	 * @param position
+	 *            the position in the file of the serialized packet.
+	 * @param length
+	 *            the length, in bytes, of the serialized packet.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs, or if the file cannot be
+	 *             read.
+	 */
+	public WriteChannel transfer( FileChannel source, long position, final int length ) {
+		write( source, position, length, new Runnable() {
+
+			@Override
+			public void run() {
+				EventHandler eventHandler = WriteChannel.this.eventHandler;
+				if( eventHandler != null ) {
+					eventHandler.onPacketTransferred( length );
+				}
+			}
+
+		} );
 		return this;
 	}
 
@@ -292,9 +645,10 @@ public class WriteChannel implements FAST {
 	 */
 	public WriteChannel sendAcknowledgment( int n ) {
 		try {
-			output.write( Command.ACKNOWLEDGE );
-			IOUtils.writeInt( output, n );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.ACKNOWLEDGE );
+			IOUtils.writeInt( frame, n );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -314,9 +668,10 @@ public class WriteChannel implements FAST {
 	public WriteChannel session( byte [] sessionID ) {
 		setSessionID( sessionID );
 		try {
-			output.write( Command.SESSION );
-			IOUtils.writeSmallBuffer( output, sessionID );
-			output.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( Command.SESSION );
+			IOUtils.writeSmallBuffer( frame, sessionID );
+			write( frame.toByteArray() );
 		} catch( IOException exception ) {
 			throw new FASTWriteException( exception );
 		}
@@ -338,6 +693,49 @@ public class WriteChannel implements FAST {
 		return session( sessionID.getBytes() );
 	}
 
+	/**
+	 * Asks the remote endpoint to send every packet sent to an address
+	 * matching the given {@code pattern}, until this channel's connection
+	 * ends.
+	 *
+	 * @param pattern
+	 *            the pattern of addresses, in which each {@code *} stands for
+	 *            any one dot-separated part of an address, such as
+	 *            {@code alerts.*@example.com}.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel subscribe( byte [] pattern ) {
+		return subscription( Command.SUBSCRIBE, pattern );
+	}
+
+	private WriteChannel subscription( int command, byte [] pattern ) {
+		try {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write( command );
+			IOUtils.writeSmallBuffer( frame, pattern );
+			write( frame.toByteArray() );
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		return this;
+	}
+
+	/**
+	 * Asks the remote endpoint to stop sending packets sent to addresses
+	 * matching the given {@code pattern}.
+	 *
+	 * @param pattern
+	 *            the pattern given to {@link #subscribe(byte[])}.
+	 * @return this object, for method chaining.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	public WriteChannel unsubscribe( byte [] pattern ) {
+		return subscription( Command.UNSUBSCRIBE, pattern );
+	}
+
 	/**
 	 * Assigns an event handler to this session to which events will be
 	 * dispatched.
@@ -350,6 +748,152 @@ public class WriteChannel implements FAST {
 		this.eventHandler = eventHandler;
 	}
 
+	/**
+	 * Writes the given encoded {@code frame} to the underlying stream and
+	 * flushes it. Every command written by this channel passes through this
+	 * method, so subclasses may override it to change how and when frames
+	 * reach the stream.
+	 *
+	 * @param frame
+	 *            one or more complete, encoded commands.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 */
+	protected void write( byte [] frame ) {
+		Deadline deadline = writeDeadline;
+		if( deadline != null ) {
+			deadline.begin();
+		}
+		try {
+			output.write( frame );
+			output.flush();
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		} finally {
+			if( deadline != null ) {
+				deadline.end();
+			}
+		}
+	}
+
+	/**
+	 * Writes the given encoded {@code frame} of SEND commands, running the
+	 * given {@code sent} task, which reports the packets sent, just before the
+	 * frame is written. Subclasses which defer writes must run the tasks of
+	 * their frames in the order in which the frames are written, so that an
+	 * acknowledgment counting the packets received covers exactly the packets
+	 * reported first. By default, this simply runs the task and writes the
+	 * frame.
+	 *
+	 * @param frame
+	 *            one or more complete, encoded SEND commands.
+	 * @param sent
+	 *            the task to be run just before the frame is written.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs.
+	 * @see #write(byte[])
+	 */
+	protected void write( byte [] frame, Runnable sent ) {
+		sent.run();
+		write( frame );
+	}
+
+	/**
+	 * Writes a SEND command holding the given {@code length} bytes of the given
+	 * {@code source} file, from the given {@code position}, transferring them
+	 * from the file straight to the underlying stream, and running the given
+	 * {@code sent} task just before, as {@link #write(byte[], Runnable)} does.
+	 * Subclasses which defer writes must either write the command before
+	 * returning, or copy it with {@link #readFrame(FileChannel, long, int)},
+	 * since the file may be closed as soon as this method returns.
+	 *
+	 * @param source
+	 *            the file holding the serialized packet.
+	 * @param position
+	 *            the position in the file of the serialized packet.
+	 * @param length
+	 *            the length, in bytes, of the serialized packet.
+	 * @param sent
+	 *            the task to be run just before the command is written.
+	 * @throws FASTWriteException
+	 *             if a communications error occurs, or if the file cannot be
+	 *             read.
+	 */
+	protected void write( FileChannel source, long position, int length, Runnable sent ) {
+		sent.run();
+		Deadline deadline = writeDeadline;
+		if( deadline != null ) {
+			deadline.begin();
+		}
+		try {
+			output.write( Command.SEND );
+			for( long n = 0; n < length; ) {
+				long transferred = source.transferTo( position + n, length - n, target );
+				if( transferred <= 0 ) {
+					throw new EOFException();
+				}
+				n += transferred;
+			}
+			output.flush();
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		} finally {
+			if( deadline != null ) {
+				deadline.end();
+			}
+		}
+	}
+
+	/**
+	 * Reads into a new frame the SEND command which
+	 * {@link #write(FileChannel, long, int, Runnable)} would write, for subclasses which
+	 * cannot write it before the file may be closed.
+	 *
+	 * @param source
+	 *            the file holding the serialized packet.
+	 * @param position
+	 *            the position in the file of the serialized packet.
+	 * @param length
+	 *            the length, in bytes, of the serialized packet.
+	 * @return the encoded SEND command.
+	 * @throws FASTWriteException
+	 *             if the file cannot be read.
+	 */
+	protected static byte [] readFrame( FileChannel source, long position, int length ) {
+		ByteBuffer frame = ByteBuffer.allocate( 1 + length );
+		frame.put( (byte) Command.SEND );
+		try {
+			while( frame.hasRemaining() ) {
+				if( source.read( frame, position + frame.position() - 1 ) < 0 ) {
+					throw new EOFException();
+				}
+			}
+		} catch( IOException exception ) {
+			throw new FASTWriteException( exception );
+		}
+		return frame.array();
+	}
+
+	/**
+	 * Limits how long a write to the underlying stream may take. A remote
+	 * endpoint which stops reading eventually fills the connection's buffers
+	 * and stalls every write; once a write has stalled for longer than
+	 * {@code writeTimeout}, the underlying stream is closed so that the
+	 * stalled write fails. The deadline is checked on the given shared
+	 * {@code timer} rather than by a thread per channel.
+	 *
+	 * @param timer
+	 *            the timer on which the deadline is checked.
+	 * @param writeTimeout
+	 *            how long, in milliseconds, a write may take, or zero for no
+	 *            limit.
+	 * @return this object, for method chaining.
+	 */
+	public WriteChannel setWriteTimeout( HashedWheelTimer timer, long writeTimeout ) {
+		writeDeadline = writeTimeout > 0 ? new Deadline( timer, writeTimeout, output ) : null;
+		return this;
+	}
+
 	/**
 	 * Sets the local address associated with this channel.
 	 *
@@ -360,6 +904,17 @@ public class WriteChannel implements FAST {
 		this.localAddress = localAddress;
 	}
 
+	/**
+	 * Sets the remote address associated with this channel, such as when a
+	 * session is resumed without the remote endpoint being identified again.
+	 *
+	 * @param remoteAddress
+	 *            the remote address to be associated with this channel.
+	 */
+	public void setRemoteAddress( byte [] remoteAddress ) {
+		this.remoteAddress = remoteAddress;
+	}
+
 	/**
 	 * Sets the identity for the session associated with this channel.
 	 *
@@ -55,6 +55,65 @@ public interface Command extends FAST {
 	 */
 	public static final int ACKNOWLEDGE = 0x08;
 
+	/**
+	 * The CREDIT command is used to grant the remote endpoint permission to
+	 * send a number of additional packets during this session.
+	 */
+	public static final int CREDIT = 0x09;
+
+	/**
+	 * The PING command is used to check that the remote endpoint is still
+	 * alive. The remote endpoint answers with a PONG carrying the same value.
+	 */
+	public static final int PING = 0x0A;
+
+	/**
+	 * The PONG command is used to answer a PING from the remote endpoint.
+	 */
+	public static final int PONG = 0x0B;
+
+	/**
+	 * The RESUME command is used in place of ATTACH and AUTHENTICATE to resume
+	 * a previous session, reporting how many packets the commander received
+	 * during it.
+	 */
+	public static final int RESUME = 0x0C;
+
+	/**
+	 * The RESUMED command is used to answer a RESUME, reporting how many
+	 * packets were received from the commander during the resumed session. An
+	 * empty session ID indicates that the session could not be resumed.
+	 */
+	public static final int RESUMED = 0x0D;
+
+	/**
+	 * The FETCH_FROM command is used in place of FETCH to request the next
+	 * page of packets queued for delivery to the commander, after the given
+	 * cursor and within the given limits. Packets up to the cursor, which the
+	 * commander has already received, are discarded.
+	 */
+	public static final int FETCH_FROM = 0x0E;
+
+	/**
+	 * The CURSOR command is used to end a page of packets sent in answer to a
+	 * FETCH_FROM, carrying the cursor of the last packet in the page.
+	 */
+	public static final int CURSOR = 0x0F;
+
+	/**
+	 * The SUBSCRIBE command is used to request every packet sent to an
+	 * address matching the given pattern, in which each {@code *} stands for
+	 * any one dot-separated part of an address, for as long as the
+	 * commander's connection lasts.
+	 */
+	public static final int SUBSCRIBE = 0x10;
+
+	/**
+	 * The UNSUBSCRIBE command is used to stop receiving packets sent to
+	 * addresses matching a pattern given with a previous SUBSCRIBE.
+	 */
+	public static final int UNSUBSCRIBE = 0x11;
+
 	/**
 	 * The DETACH command is used to explicitly detach the local and remote
 	 * nodes.
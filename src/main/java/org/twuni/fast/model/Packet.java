@@ -14,6 +14,7 @@ public class Packet implements FAST {
 	private final byte [] from;
 	private final byte [] to;
 	private final LimitedInputStream payload;
+	private volatile byte [] frame;
 
 	/**
 	 * Initializes a new FAST packet with the given {@code from}/{@code to}
@@ -140,6 +141,18 @@ public class Packet implements FAST {
 		this( from.getBytes(), to.getBytes(), payload.getBytes() );
 	}
 
+	/**
+	 * Returns the encoded form of this packet cached by
+	 * {@link #setFrame(byte[])}, so that a packet sent several times is
+	 * encoded only once.
+	 *
+	 * @return the encoded form of this packet, which must not be modified, or
+	 *         {@code null} if it has not been cached yet.
+	 */
+	public byte [] getFrame() {
+		return frame;
+	}
+
 	/**
 	 * Returns the address claiming to have composed this packet.
 	 *
@@ -178,6 +191,17 @@ public class Packet implements FAST {
 		return to;
 	}
 
+	/**
+	 * Caches the encoded form of this packet, which must not be modified
+	 * afterward.
+	 *
+	 * @param frame
+	 *            the encoded form of this packet.
+	 */
+	public void setFrame( byte [] frame ) {
+		this.frame = frame;
+	}
+
 	/**
 	 * Returns a JSON-formatted description of this packet, for debugging
 	 * purposes.
@@ -0,0 +1,75 @@
+package org.twuni.fast.util;
+
+import org.twuni.fast.FAST;
+
+/**
+ * A compact, probabilistic set of byte arrays. A Bloom filter never reports
+ * that a member is absent, but may occasionally report that a non-member is
+ * present, at roughly the rate it was sized for. It is useful in front of a
+ * larger set, where it answers most questions about non-members without
+ * touching the set at all.
+ */
+public class BloomFilter implements FAST {
+
+	private final long [] bits;
+	private final long bitCount;
+	private final int hashCount;
+
+	/**
+	 * Initializes an empty filter sized to hold {@code expectedInsertions}
+	 * members while falsely reporting non-members as present at about the
+	 * given {@code falsePositiveRate}.
+	 *
+	 * @param expectedInsertions
+	 *            the number of members the filter is expected to hold.
+	 * @param falsePositiveRate
+	 *            the acceptable rate of false positives, between zero and one.
+	 */
+	public BloomFilter( int expectedInsertions, double falsePositiveRate ) {
+		Validation.assertBetween( 1, expectedInsertions, Integer.MAX_VALUE, "expectedInsertions" );
+		double n = expectedInsertions;
+		double m = Math.ceil( -n * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) );
+		bits = new long [(int) Math.max( 1, Math.ceil( m / 64 ) )];
+		bitCount = bits.length * 64L;
+		hashCount = (int) Math.max( 1, Math.round( bitCount / n * Math.log( 2 ) ) );
+	}
+
+	/**
+	 * Adds the given {@code member} to this filter.
+	 *
+	 * @param member
+	 *            the member to be added.
+	 */
+	public void add( byte [] member ) {
+		long hash = HashRing.hash( member );
+		int h1 = (int) hash;
+		int h2 = (int) ( hash >>> 32 );
+		for( int i = 0; i < hashCount; i++ ) {
+			long bit = ( ( h1 + i * h2 ) & 0xFFFFFFFFL ) % bitCount;
+			bits[(int) ( bit >>> 6 )] |= 1L << bit;
+		}
+	}
+
+	/**
+	 * Tests whether the given {@code member} might have been added to this
+	 * filter.
+	 *
+	 * @param member
+	 *            the member to test.
+	 * @return {@code false} if the given {@code member} was definitely never
+	 *         added to this filter, or {@code true} if it probably was.
+	 */
+	public boolean mightContain( byte [] member ) {
+		long hash = HashRing.hash( member );
+		int h1 = (int) hash;
+		int h2 = (int) ( hash >>> 32 );
+		for( int i = 0; i < hashCount; i++ ) {
+			long bit = ( ( h1 + i * h2 ) & 0xFFFFFFFFL ) % bitCount;
+			if( ( bits[(int) ( bit >>> 6 )] & 1L << bit ) == 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
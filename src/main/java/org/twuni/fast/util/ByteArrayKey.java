@@ -0,0 +1,56 @@
+package org.twuni.fast.util;
+
+import java.util.Arrays;
+
+import org.twuni.fast.FAST;
+
+/**
+ * Wraps a byte array so that it may be used as a key in a hashed collection.
+ * Unlike a key derived from {@link Arrays#hashCode(byte[])} alone, two keys
+ * are equal only if their contents are equal, so distinct arrays whose hash
+ * codes collide are never confused.
+ */
+public final class ByteArrayKey implements FAST {
+
+	private final byte [] value;
+	private final int hashCode;
+
+	/**
+	 * Initializes a key for the given {@code value}. The array is copied, so
+	 * later changes to it do not affect this key.
+	 *
+	 * @param value
+	 *            the bytes which make up this key.
+	 */
+	public ByteArrayKey( byte [] value ) {
+		this.value = value.clone();
+		hashCode = Arrays.hashCode( value );
+	}
+
+	@Override
+	public boolean equals( Object object ) {
+		if( this == object ) {
+			return true;
+		}
+		if( !( object instanceof ByteArrayKey ) ) {
+			return false;
+		}
+		ByteArrayKey other = (ByteArrayKey) object;
+		return hashCode == other.hashCode && Arrays.equals( value, other.value );
+	}
+
+	/**
+	 * Returns a copy of the bytes which make up this key.
+	 *
+	 * @return a copy of the bytes which make up this key.
+	 */
+	public byte [] getValue() {
+		return value.clone();
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+}
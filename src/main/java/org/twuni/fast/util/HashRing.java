@@ -0,0 +1,141 @@
+package org.twuni.fast.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.twuni.fast.FAST;
+
+/**
+ * Assigns keys to nodes by consistent hashing. Each node is placed on the ring
+ * at a number of pseudo-random points (virtual nodes), and a key belongs to
+ * the first node found walking clockwise from the key's own hash. Adding or
+ * removing a node therefore moves only the keys adjacent to that node's
+ * points, roughly {@code 1/n} of all keys. Lookups never block: the ring is
+ * replaced wholesale whenever its membership changes.
+ *
+ * @param <T>
+ *            the type of node to which keys are assigned.
+ */
+public class HashRing<T> implements FAST {
+
+	/**
+	 * Returns a well-mixed 64-bit hash of the given {@code key}.
+	 *
+	 * @param key
+	 *            the bytes to be hashed.
+	 * @return a 64-bit hash of the given {@code key}.
+	 */
+	public static long hash( byte [] key ) {
+		long h = 0xCBF29CE484222325L;
+		for( byte b : key ) {
+			h ^= b & 0xFF;
+			h *= 0x100000001B3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private final int virtualNodeCount;
+	private volatile TreeMap<Long, T> ring = new TreeMap<Long, T>();
+	private volatile Set<T> nodes = Collections.emptySet();
+
+	/**
+	 * Initializes an empty ring which places each node at the given number of
+	 * points.
+	 *
+	 * @param virtualNodeCount
+	 *            the number of points at which each node is placed on the
+	 *            ring. More points spread keys more evenly between nodes.
+	 */
+	public HashRing( int virtualNodeCount ) {
+		Validation.assertBetween( 1, virtualNodeCount, 0xFFFF, "virtualNodeCount" );
+		this.virtualNodeCount = virtualNodeCount;
+	}
+
+	/**
+	 * Places the given {@code node} on the ring under the given {@code name}.
+	 * The name, rather than the node object, determines the node's points, so
+	 * every member of a cluster must use the same name for the same node.
+	 *
+	 * @param name
+	 *            the stable name of the node.
+	 * @param node
+	 *            the node to which keys near its points will be assigned.
+	 */
+	public synchronized void add( String name, T node ) {
+		TreeMap<Long, T> next = new TreeMap<Long, T>( ring );
+		for( int i = 0; i < virtualNodeCount; i++ ) {
+			next.put( Long.valueOf( hash( String.format( "%s#%d", name, Integer.valueOf( i ) ).getBytes() ) ), node );
+		}
+		Set<T> nextNodes = new HashSet<T>( nodes );
+		nextNodes.add( node );
+		ring = next;
+		nodes = Collections.unmodifiableSet( nextNodes );
+	}
+
+	/**
+	 * Returns the nodes currently on this ring.
+	 *
+	 * @return the nodes currently on this ring.
+	 */
+	public Set<T> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns whether this ring contains no nodes.
+	 *
+	 * @return {@code true} if this ring contains no nodes. Otherwise returns
+	 *         {@code false}.
+	 */
+	public boolean isEmpty() {
+		return nodes.isEmpty();
+	}
+
+	/**
+	 * Returns the node to which the given {@code key} is assigned.
+	 *
+	 * @param key
+	 *            the key to locate.
+	 * @return the node to which the given {@code key} is assigned, or
+	 *         {@code null} if this ring is empty.
+	 */
+	public T locate( byte [] key ) {
+		TreeMap<Long, T> r = ring;
+		if( r.isEmpty() ) {
+			return null;
+		}
+		Map.Entry<Long, T> entry = r.ceilingEntry( Long.valueOf( hash( key ) ) );
+		return entry != null ? entry.getValue() : r.firstEntry().getValue();
+	}
+
+	/**
+	 * Removes the given {@code node} from the ring, reassigning its keys to
+	 * the nodes which follow each of its points.
+	 *
+	 * @param node
+	 *            the node to be removed.
+	 */
+	public synchronized void remove( T node ) {
+		TreeMap<Long, T> next = new TreeMap<Long, T>();
+		SortedMap<Long, T> current = ring;
+		for( Map.Entry<Long, T> entry : current.entrySet() ) {
+			if( !entry.getValue().equals( node ) ) {
+				next.put( entry.getKey(), entry.getValue() );
+			}
+		}
+		Set<T> nextNodes = new HashSet<T>( nodes );
+		nextNodes.remove( node );
+		ring = next;
+		nodes = Collections.unmodifiableSet( nextNodes );
+	}
+
+}
@@ -0,0 +1,222 @@
+package org.twuni.fast.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.twuni.fast.FAST;
+
+/**
+ * Runs tasks after a delay, approximately. Timeouts are hashed into the slots
+ * of a wheel which a single thread advances one slot per tick, expiring the
+ * timeouts due in each slot as it passes. Scheduling and cancelling a timeout
+ * are constant-time and lock-free, so a single timer can cheaply track a
+ * timeout for every session on a node, at the cost of firing up to one tick
+ * late.
+ *
+ * <p>
+ * Tasks run on the timer's thread, and so must be short and must not block.
+ * </p>
+ */
+public class HashedWheelTimer implements FAST {
+
+	/**
+	 * A handle to a task scheduled on a {@link HashedWheelTimer}.
+	 */
+	public static class Timeout {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger( PENDING );
+		private long remainingRounds;
+
+		Timeout( Runnable task, long deadline ) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Prevents the task from running, if it has not already run.
+		 *
+		 * @return {@code true} if the task will not run because of this call.
+		 *         Otherwise returns {@code false}.
+		 */
+		public boolean cancel() {
+			return state.compareAndSet( PENDING, CANCELLED );
+		}
+
+		void expire() {
+			if( state.compareAndSet( PENDING, EXPIRED ) ) {
+				task.run();
+			}
+		}
+
+		/**
+		 * Returns whether this timeout was cancelled before its task ran.
+		 *
+		 * @return {@code true} if this timeout was cancelled before its task
+		 *         ran. Otherwise returns {@code false}.
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * Returns whether this timeout's task has run.
+		 *
+		 * @return {@code true} if this timeout's task has run. Otherwise
+		 *         returns {@code false}.
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+	}
+
+	private class Worker implements Runnable {
+
+		private long tick;
+
+		@Override
+		public void run() {
+			while( !Thread.currentThread().isInterrupted() ) {
+				long deadline = tickDuration * ( tick + 1 );
+				long sleep = deadline - ( System.nanoTime() - startTime );
+				if( sleep > 0 ) {
+					try {
+						TimeUnit.NANOSECONDS.sleep( sleep );
+					} catch( InterruptedException exception ) {
+						break;
+					}
+				}
+				transferPending();
+				expire( wheel[(int) ( tick & mask )], deadline );
+				tick++;
+			}
+		}
+
+		private void expire( List<Timeout> slot, long now ) {
+			List<Timeout> remaining = new ArrayList<Timeout>();
+			for( Timeout timeout : slot ) {
+				if( timeout.isCancelled() ) {
+					continue;
+				}
+				if( timeout.remainingRounds > 0 || timeout.deadline > now ) {
+					timeout.remainingRounds--;
+					remaining.add( timeout );
+					continue;
+				}
+				try {
+					timeout.expire();
+				} catch( RuntimeException ignore ) {
+					// A failed task must not stop the timer.
+				}
+			}
+			slot.clear();
+			slot.addAll( remaining );
+		}
+
+		private void transferPending() {
+			for( Timeout timeout = pending.poll(); timeout != null; timeout = pending.poll() ) {
+				if( timeout.isCancelled() ) {
+					continue;
+				}
+				long ticks = Math.max( timeout.deadline / tickDuration, tick );
+				timeout.remainingRounds = ( ticks - tick ) / wheel.length;
+				wheel[(int) ( ticks & mask )].add( timeout );
+			}
+		}
+
+	}
+
+	private final long tickDuration;
+	private final List<Timeout> [] wheel;
+	private final int mask;
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicBoolean started = new AtomicBoolean();
+	private final long startTime = System.nanoTime();
+	private volatile Thread thread;
+
+	/**
+	 * Initializes a timer which ticks every 100 milliseconds on a wheel of 512
+	 * slots.
+	 */
+	public HashedWheelTimer() {
+		this( 100, TimeUnit.MILLISECONDS, 512 );
+	}
+
+	/**
+	 * Initializes a timer which ticks every {@code tickDuration} on a wheel
+	 * with the given number of slots. The timer's thread is started when the
+	 * first task is scheduled.
+	 *
+	 * @param tickDuration
+	 *            the interval at which the wheel advances, and so the
+	 *            precision with which timeouts expire.
+	 * @param unit
+	 *            the unit of {@code tickDuration}.
+	 * @param slotCount
+	 *            the number of slots on the wheel, rounded up to a power of
+	 *            two. Timeouts further away than one full turn of the wheel
+	 *            are skipped over once per turn.
+	 */
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	public HashedWheelTimer( long tickDuration, TimeUnit unit, int slotCount ) {
+		Validation.assertBetween( 1, slotCount, 1 << 30, "slotCount" );
+		this.tickDuration = Math.max( 1, unit.toNanos( tickDuration ) );
+		int size = Integer.highestOneBit( slotCount );
+		if( size < slotCount ) {
+			size <<= 1;
+		}
+		wheel = new List [size];
+		for( int i = 0; i < size; i++ ) {
+			wheel[i] = new ArrayList<Timeout>();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Schedules the given {@code task} to run once, after the given
+	 * {@code delay}.
+	 *
+	 * @param task
+	 *            the task to run. It runs on the timer's thread.
+	 * @param delay
+	 *            how long to wait before running the task.
+	 * @param unit
+	 *            the unit of {@code delay}.
+	 * @return a handle with which the task may be cancelled.
+	 */
+	public Timeout schedule( Runnable task, long delay, TimeUnit unit ) {
+		Timeout timeout = new Timeout( task, System.nanoTime() - startTime + unit.toNanos( Math.max( 0, delay ) ) );
+		pending.offer( timeout );
+		start();
+		return timeout;
+	}
+
+	private void start() {
+		if( started.compareAndSet( false, true ) ) {
+			thread = new Thread( new Worker(), String.format( "%s(%s)", HashedWheelTimer.class.getName(), Integer.toHexString( hashCode() ) ) );
+			thread.setDaemon( true );
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the timer's thread. Tasks which have not yet run never will.
+	 */
+	public void stop() {
+		if( started.get() && thread != null ) {
+			thread.interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package org.twuni.fast.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.twuni.fast.FAST;
+
+/**
+ * A high-dynamic-range histogram of non-negative {@code long} values. Values
+ * are counted in logarithmically-sized buckets, each of which is divided into
+ * linear sub-buckets, so that any recorded value can be reported with a fixed
+ * number of significant digits regardless of its magnitude. Recording a value
+ * is lock-free and allocation-free, so a single histogram may be shared by
+ * many threads.
+ */
+public class Histogram implements FAST {
+
+	private static int bitLength( long value ) {
+		return 64 - Long.numberOfLeadingZeros( value );
+	}
+
+	private final int subBucketBits;
+	private final int subBucketCount;
+	private final int subBucketHalfCount;
+	private final long highestTrackableValue;
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong minimum = new AtomicLong( Long.MAX_VALUE );
+	private final AtomicLong maximum = new AtomicLong( 0 );
+
+	/**
+	 * Initializes a new, empty histogram capable of tracking values between
+	 * zero and the given {@code highestTrackableValue}, reporting each with
+	 * the given number of {@code significantDigits}.
+	 *
+	 * @param highestTrackableValue
+	 *            the largest value this histogram is expected to record.
+	 *            Larger values are recorded as this value.
+	 * @param significantDigits
+	 *            the number of significant decimal digits to which recorded
+	 *            values are preserved. Must be between 1 and 5.
+	 */
+	public Histogram( long highestTrackableValue, int significantDigits ) {
+		Validation.assertBetween( 1, significantDigits, 5, "significantDigits" );
+		if( highestTrackableValue < 2 ) {
+			throw new IllegalArgumentException( "highestTrackableValue must be at least 2." );
+		}
+		long largestSubBucketValue = 2;
+		for( int i = 0; i < significantDigits; i++ ) {
+			largestSubBucketValue *= 10;
+		}
+		subBucketBits = bitLength( largestSubBucketValue - 1 ) + 1;
+		subBucketCount = 1 << subBucketBits;
+		subBucketHalfCount = subBucketCount >> 1;
+		this.highestTrackableValue = highestTrackableValue;
+		int shifts = Math.max( 0, bitLength( highestTrackableValue ) - subBucketBits );
+		counts = new AtomicLongArray( subBucketCount + shifts * subBucketHalfCount );
+	}
+
+	/**
+	 * Adds all of the values recorded by the given {@code other} histogram to
+	 * this histogram. Both histograms must have been constructed with the same
+	 * parameters.
+	 *
+	 * @param other
+	 *            the histogram whose values should be added to this one.
+	 * @return this object, for chaining commands.
+	 */
+	public Histogram add( Histogram other ) {
+		if( other.counts.length() != counts.length() || other.subBucketBits != subBucketBits ) {
+			throw new IllegalArgumentException( "Histograms must have the same range and precision." );
+		}
+		for( int i = 0; i < counts.length(); i++ ) {
+			long n = other.counts.get( i );
+			if( n != 0 ) {
+				counts.addAndGet( i, n );
+			}
+		}
+		totalCount.addAndGet( other.totalCount.get() );
+		totalValue.addAndGet( other.totalValue.get() );
+		updateMinimum( other.minimum.get() );
+		updateMaximum( other.maximum.get() );
+		return this;
+	}
+
+	/**
+	 * Returns the largest value recorded by this histogram.
+	 *
+	 * @return the largest value recorded by this histogram, or zero if no
+	 *         values have been recorded.
+	 */
+	public long getMaximum() {
+		return maximum.get();
+	}
+
+	/**
+	 * Returns the arithmetic mean of all values recorded by this histogram.
+	 *
+	 * @return the arithmetic mean of all values recorded by this histogram, or
+	 *         zero if no values have been recorded.
+	 */
+	public double getMean() {
+		long n = totalCount.get();
+		return n == 0 ? 0 : (double) totalValue.get() / n;
+	}
+
+	/**
+	 * Returns the smallest value recorded by this histogram.
+	 *
+	 * @return the smallest value recorded by this histogram, or zero if no
+	 *         values have been recorded.
+	 */
+	public long getMinimum() {
+		long n = minimum.get();
+		return n == Long.MAX_VALUE ? 0 : n;
+	}
+
+	/**
+	 * Returns the number of values recorded by this histogram.
+	 *
+	 * @return the number of values recorded by this histogram.
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the value at or below which the given {@code percentile} of all
+	 * recorded values fall.
+	 *
+	 * @param percentile
+	 *            the percentile to report, between 0 and 100.
+	 * @return the value at the given {@code percentile}, or zero if no values
+	 *         have been recorded.
+	 */
+	public long getValueAtPercentile( double percentile ) {
+		long n = totalCount.get();
+		if( n == 0 ) {
+			return 0;
+		}
+		long target = Math.max( 1, (long) ( Math.min( 100, Math.max( 0, percentile ) ) / 100 * n + 0.5 ) );
+		long seen = 0;
+		for( int i = 0; i < counts.length(); i++ ) {
+			seen += counts.get( i );
+			if( seen >= target ) {
+				return Math.min( highestEquivalentValue( i ), getMaximum() );
+			}
+		}
+		return getMaximum();
+	}
+
+	private long highestEquivalentValue( int index ) {
+		if( index < subBucketCount ) {
+			return index;
+		}
+		int k = index - subBucketCount;
+		int shift = k / subBucketHalfCount + 1;
+		long subBucket = k % subBucketHalfCount + subBucketHalfCount;
+		return ( subBucket << shift ) + ( 1L << shift ) - 1;
+	}
+
+	private int indexOf( long value ) {
+		int shift = bitLength( value ) - subBucketBits;
+		if( shift <= 0 ) {
+			return (int) value;
+		}
+		int subBucket = (int) ( value >>> shift );
+		return subBucketCount + ( shift - 1 ) * subBucketHalfCount + subBucket - subBucketHalfCount;
+	}
+
+	/**
+	 * Records a single occurrence of the given {@code value}. Negative values
+	 * are recorded as zero, and values greater than the highest trackable
+	 * value are recorded as the highest trackable value.
+	 *
+	 * @param value
+	 *            the value to be recorded.
+	 */
+	public void record( long value ) {
+		long v = Math.min( Math.max( 0, value ), highestTrackableValue );
+		counts.incrementAndGet( indexOf( v ) );
+		totalCount.incrementAndGet();
+		totalValue.addAndGet( v );
+		updateMinimum( v );
+		updateMaximum( v );
+	}
+
+	/**
+	 * Discards all values recorded by this histogram.
+	 */
+	public void reset() {
+		for( int i = 0; i < counts.length(); i++ ) {
+			counts.set( i, 0 );
+		}
+		totalCount.set( 0 );
+		totalValue.set( 0 );
+		minimum.set( Long.MAX_VALUE );
+		maximum.set( 0 );
+	}
+
+	private void updateMaximum( long value ) {
+		for( long current = maximum.get(); value > current; current = maximum.get() ) {
+			if( maximum.compareAndSet( current, value ) ) {
+				return;
+			}
+		}
+	}
+
+	private void updateMinimum( long value ) {
+		for( long current = minimum.get(); value < current; current = minimum.get() ) {
+			if( minimum.compareAndSet( current, value ) ) {
+				return;
+			}
+		}
+	}
+
+}
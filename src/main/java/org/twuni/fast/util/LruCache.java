@@ -0,0 +1,136 @@
+package org.twuni.fast.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.twuni.fast.FAST;
+
+/**
+ * A bounded cache which evicts its least recently used entry when full, and
+ * optionally forgets each entry a fixed time after it was stored. All methods
+ * are synchronized, and none of them does more than a constant amount of
+ * work.
+ *
+ * @param <K>
+ *            the type of key.
+ * @param <V>
+ *            the type of value.
+ */
+public class LruCache<K, V> implements FAST {
+
+	private static class Item<V> {
+
+		final V value;
+		final long expiresAt;
+
+		Item( V value, long expiresAt ) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+	private final long timeToLive;
+	private final LinkedHashMap<K, Item<V>> entries;
+
+	/**
+	 * Initializes an empty cache holding at most {@code capacity} entries,
+	 * none of which expires.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries.
+	 */
+	public LruCache( int capacity ) {
+		this( capacity, 0 );
+	}
+
+	/**
+	 * Initializes an empty cache holding at most {@code capacity} entries,
+	 * each of which expires {@code timeToLive} milliseconds after it is
+	 * stored.
+	 *
+	 * @param capacity
+	 *            the maximum number of entries.
+	 * @param timeToLive
+	 *            how long, in milliseconds, an entry remains valid, or zero if
+	 *            entries never expire.
+	 */
+	public LruCache( final int capacity, long timeToLive ) {
+		Validation.assertBetween( 1, capacity, Integer.MAX_VALUE, "capacity" );
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos( timeToLive );
+		entries = new LinkedHashMap<K, Item<V>>( 16, 0.75f, true ) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<K, Item<V>> eldest ) {
+				return size() > capacity;
+			}
+
+		};
+	}
+
+	/**
+	 * Removes every entry from this cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Returns the value stored for the given {@code key}, marking it as
+	 * recently used.
+	 *
+	 * @param key
+	 *            the key whose value should be returned.
+	 * @return the value stored for the given {@code key}, or {@code null} if
+	 *         there is none or it has expired.
+	 */
+	public synchronized V get( K key ) {
+		Item<V> entry = entries.get( key );
+		if( entry == null ) {
+			return null;
+		}
+		if( entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt >= 0 ) {
+			entries.remove( key );
+			return null;
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Stores the given {@code value} for the given {@code key}, evicting the
+	 * least recently used entry if this cache is full.
+	 *
+	 * @param key
+	 *            the key under which to store the value.
+	 * @param value
+	 *            the value to store.
+	 */
+	public synchronized void put( K key, V value ) {
+		long expiresAt = timeToLive > 0 ? System.nanoTime() + timeToLive | 1 : 0;
+		entries.put( key, new Item<V>( value, expiresAt ) );
+	}
+
+	/**
+	 * Removes the entry for the given {@code key}, if there is one.
+	 *
+	 * @param key
+	 *            the key whose entry should be removed.
+	 */
+	public synchronized void remove( K key ) {
+		entries.remove( key );
+	}
+
+	/**
+	 * Returns the number of entries currently held, including any which have
+	 * expired but not yet been removed.
+	 *
+	 * @return the number of entries currently held.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,83 @@
+package org.twuni.fast.util;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.twuni.fast.FAST;
+
+/**
+ * A registry of named counters and histograms shared by the components of a
+ * node. Metrics are created the first time they are requested, so components
+ * may simply look up what they record into without any prior registration.
+ */
+public class Metrics implements FAST {
+
+	private static final long HIGHEST_TRACKABLE_MICROSECONDS = TimeUnit.HOURS.toMicros( 1 );
+
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	/**
+	 * Returns the counter with the given {@code name}, creating it if
+	 * necessary.
+	 *
+	 * @param name
+	 *            the name of the counter.
+	 * @return the counter with the given {@code name}.
+	 */
+	public AtomicLong counter( String name ) {
+		AtomicLong counter = counters.get( name );
+		if( counter == null ) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent( name, created );
+			if( counter == null ) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the histogram with the given {@code name}, creating it if
+	 * necessary. Histograms are intended to record durations in microseconds,
+	 * up to one hour, with three significant digits.
+	 *
+	 * @param name
+	 *            the name of the histogram.
+	 * @return the histogram with the given {@code name}.
+	 */
+	public Histogram histogram( String name ) {
+		Histogram histogram = histograms.get( name );
+		if( histogram == null ) {
+			Histogram created = new Histogram( HIGHEST_TRACKABLE_MICROSECONDS, 3 );
+			histogram = histograms.putIfAbsent( name, created );
+			if( histogram == null ) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Prints every metric to the given {@code out} stream, one per line, in
+	 * name order.
+	 *
+	 * @param out
+	 *            the stream to which metrics should be printed.
+	 */
+	public void report( PrintStream out ) {
+		for( Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>( counters ).entrySet() ) {
+			out.println( String.format( "(counter \"%s\" %d)", entry.getKey(), Long.valueOf( entry.getValue().get() ) ) );
+		}
+		for( Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>( histograms ).entrySet() ) {
+			Histogram h = entry.getValue();
+			out.println( String.format( "(histogram \"%s\" :unit :us :count %d :p50 %d :p99 %d :max %d)", entry.getKey(), Long.valueOf( h.getTotalCount() ), Long.valueOf( h.getValueAtPercentile( 50 ) ), Long.valueOf( h.getValueAtPercentile( 99 ) ), Long.valueOf( h.getMaximum() ) ) );
+		}
+	}
+
+}
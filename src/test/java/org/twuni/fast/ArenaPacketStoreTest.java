@@ -0,0 +1,55 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.IOUtils;
+import org.twuni.fast.util.Metrics;
+
+public class ArenaPacketStoreTest extends Assert {
+
+	private static String payload( Packet packet ) throws IOException {
+		return new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+	}
+
+	@Test
+	public void store_shouldReuseFreedSlots() {
+		Metrics metrics = new Metrics();
+		ArenaPacketStore store = new ArenaPacketStore( new MailboxPolicy.Builder().build(), new HashedWheelTimer(), metrics, 4096 );
+		for( int round = 0; round < 100; round++ ) {
+			for( int i = 0; i < 50; i++ ) {
+				assertTrue( store.store( new Packet( "sender", "alice", "hello" ) ) );
+			}
+			for( int i = 0; i < 50; i++ ) {
+				assertNotNull( store.take( "alice".getBytes() ) );
+			}
+		}
+		assertEquals( 4096, metrics.counter( "mailbox.arena.bytes" ).get() );
+		assertEquals( 0, metrics.counter( "mailbox.packets" ).get() );
+	}
+
+	@Test
+	public void take_shouldReturnPacketsInOrderOfArrival() throws IOException {
+		ArenaPacketStore store = new ArenaPacketStore( new MailboxPolicy.Builder().build(), new HashedWheelTimer(), new Metrics(), 4096 );
+		StringBuilder large = new StringBuilder();
+		for( int i = 0; i < 1000; i++ ) {
+			large.append( "0123456789" );
+		}
+		store.store( new Packet( 1, "sender", "alice", "first" ) );
+		store.store( new Packet( 2, "sender", "bob", "other" ) );
+		store.store( new Packet( 3, "sender", "alice", large.toString() ) );
+		store.store( new Packet( 4, "sender", "alice", "last" ) );
+		Packet first = store.take( "alice".getBytes() );
+		assertEquals( 1, first.getTimestamp() );
+		assertEquals( "sender", new String( first.getFrom() ) );
+		assertEquals( "first", payload( first ) );
+		assertEquals( large.toString(), payload( store.take( "alice".getBytes() ) ) );
+		assertEquals( "last", payload( store.take( "alice".getBytes() ) ) );
+		assertNull( store.take( "alice".getBytes() ) );
+		assertEquals( "other", payload( store.take( "bob".getBytes() ) ) );
+	}
+
+}
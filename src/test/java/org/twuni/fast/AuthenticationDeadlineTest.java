@@ -0,0 +1,102 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.util.HashedWheelTimer;
+
+public class AuthenticationDeadlineTest extends Assert {
+
+	private static class Connection implements Closeable {
+
+		volatile boolean closed;
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket( 0 );
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private Server server;
+	private HashedWheelTimer timer;
+
+	@After
+	public void tearDown() {
+		if( server != null ) {
+			server.stopListening();
+		}
+		if( timer != null ) {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void onConnected_shouldDisconnectSilentClientAfterDeadline() throws Exception {
+
+		int port = freePort();
+		server = new Server.Builder().secure( false ).port( port ).authenticator( new AutomaticAuthenticator() ).authenticationTimeout( 300 ).build();
+		server.startListening();
+		Thread.sleep( 200 );
+
+		// The client says hello, then says nothing more.
+		Socket socket = new Socket( "localhost", port );
+		try {
+			socket.setSoTimeout( 5000 );
+			new WriteChannel( socket.getOutputStream() ).connect();
+			long start = System.nanoTime();
+			InputStream in = socket.getInputStream();
+			try {
+				while( in.read() >= 0 ) {
+					// Skip anything the server sends before it gives up.
+				}
+			} catch( SocketTimeoutException exception ) {
+				fail( "The client was not disconnected." );
+			} catch( IOException reset ) {
+				// The server closed the connection.
+			}
+			assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) >= 300 );
+		} finally {
+			socket.close();
+		}
+
+	}
+
+	@Test
+	public void onCredentialReceived_shouldCancelDeadline() throws InterruptedException {
+
+		timer = new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 8 );
+		Connection authenticated = new Connection();
+		AuthenticationDeadline deadline = new AuthenticationDeadline( new WriteChannel( new ByteArrayOutputStream() ), authenticated, timer, 50 );
+		deadline.onConnected();
+		deadline.onCredentialReceived( new byte [0] );
+
+		Connection silent = new Connection();
+		new AuthenticationDeadline( new WriteChannel( new ByteArrayOutputStream() ), silent, timer, 50 ).onConnected();
+
+		Thread.sleep( 300 );
+		assertFalse( authenticated.closed );
+		assertTrue( silent.closed );
+
+	}
+
+}
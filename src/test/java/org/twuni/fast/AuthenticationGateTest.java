@@ -0,0 +1,123 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTReadException;
+import org.twuni.fast.io.WriteChannel;
+
+public class AuthenticationGateTest extends Assert {
+
+	/**
+	 * Completes each authentication only when the test says so.
+	 */
+	private static class ManualAuthenticator implements AsyncAuthenticator {
+
+		Callback callback;
+
+		@Override
+		public void authenticate( byte [] realm, byte [] credential, Callback callback ) {
+			this.callback = callback;
+		}
+
+	}
+
+	/**
+	 * Records the events passed on by the gate, failing on FETCH.
+	 */
+	private static class Recorder extends EventHandlerBase {
+
+		final List<String> events = new ArrayList<String>();
+
+		@Override
+		public void onCredentialReceived( byte [] credential ) {
+			events.add( "credential" );
+		}
+
+		@Override
+		public void onException( Throwable exception ) {
+			events.add( "exception" );
+		}
+
+		@Override
+		public void onFetchRequested() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void onPingReceived( long payload ) {
+			events.add( "ping " + payload );
+		}
+
+	}
+
+	private static AuthenticationGate gate( AsyncAuthenticator authenticator, EventHandler eventHandler ) {
+		return new AuthenticationGate( new WriteChannel( new ByteArrayOutputStream() ), authenticator ).setEventHandler( eventHandler );
+	}
+
+	@Test
+	public void onCredentialReceived_shouldHoldLaterEventsUntilVerified() {
+
+		ManualAuthenticator authenticator = new ManualAuthenticator();
+		Recorder recorder = new Recorder();
+		AuthenticationGate gate = gate( authenticator, recorder );
+
+		byte [] credential = "secret".getBytes();
+		gate.onCredentialReceived( credential );
+		gate.onPingReceived( 1 );
+		gate.onPingReceived( 2 );
+		assertTrue( recorder.events.isEmpty() );
+
+		authenticator.callback.onAuthenticated( "alice".getBytes() );
+		assertEquals( Arrays.asList( "credential", "ping 1", "ping 2" ), recorder.events );
+		assertEquals( "alice", new String( gate.authenticate( null, credential ) ) );
+
+	}
+
+	@Test
+	public void onCredentialReceived_shouldDisconnectEndpointWhichSendsTooMuchWhileVerifying() {
+
+		ManualAuthenticator authenticator = new ManualAuthenticator();
+		AuthenticationGate gate = gate( authenticator, new Recorder() );
+
+		gate.onCredentialReceived( "secret".getBytes() );
+		for( int i = 0; i < AuthenticationGate.MAX_HELD_EVENTS; i++ ) {
+			gate.onPingReceived( i );
+		}
+
+		try {
+			gate.onPingReceived( -1 );
+			fail();
+		} catch( FASTReadException expected ) {
+			// The reader disconnects the remote endpoint.
+		}
+
+		// Ending the session is never refused.
+		gate.onDisconnected();
+
+	}
+
+	@Test
+	public void onCredentialReceived_shouldKeepPassingEventsOnAfterHandlerFails() {
+
+		ManualAuthenticator authenticator = new ManualAuthenticator();
+		Recorder recorder = new Recorder();
+		AuthenticationGate gate = gate( authenticator, recorder );
+
+		gate.onCredentialReceived( "secret".getBytes() );
+		gate.onFetchRequested();
+		gate.onPingReceived( 1 );
+
+		authenticator.callback.onAuthenticated( "alice".getBytes() );
+		assertEquals( Arrays.asList( "credential", "exception" ), recorder.events );
+
+		gate.onPingReceived( 2 );
+		assertEquals( Arrays.asList( "credential", "exception", "ping 1", "ping 2" ), recorder.events );
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.twuni.fast.model.Packet;
+
+public class ClusterTest extends Assert {
+
+	private static final String REALM = "cluster.localhost";
+	private static final String [] NODES = { "node0", "node1", "node2" };
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket( 0 );
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static int indexOf( String node ) {
+		return Arrays.asList( NODES ).indexOf( node );
+	}
+
+	private final int [] ports = new int [NODES.length];
+	private final ClusterPacketRouter [] routers = new ClusterPacketRouter [NODES.length];
+	private final Server [] servers = new Server [NODES.length];
+
+	private Client.Builder client( int node, CharSequence username ) {
+		return new Client.Builder().secure( false ).host( "localhost" ).port( ports[node] ).realm( REALM ).credential( username, "p8ssw0rd" );
+	}
+
+	@Test
+	public void packetShouldReachRecipientThroughAnyNode() throws Exception {
+
+		byte [] alice = String.format( "alice@%s", REALM ).getBytes();
+		int owner = indexOf( routers[0].getOwner( alice ) );
+		int other = ( owner + 1 ) % NODES.length;
+
+		final CountDownLatch delivered = new CountDownLatch( 1 );
+		Client a = client( owner, "alice" ).packetListener( new PacketListener() {
+
+			@Override
+			public void onPacketReceived( Packet packet ) {
+				delivered.countDown();
+			}
+
+			@Override
+			public void onPacketSent( Packet packet ) {
+				// Ignore.
+			}
+
+		} ).build();
+
+		Client b = client( other, "bob" ).build();
+		Thread.sleep( 200 );
+		b.send( new Packet( b.getIdentity(), alice, "Hello, Alice!".getBytes() ) );
+
+		assertTrue( delivered.await( 5, TimeUnit.SECONDS ) );
+
+		a.close();
+		b.close();
+
+	}
+
+	@Before
+	public void startCluster() throws Exception {
+		for( int i = 0; i < NODES.length; i++ ) {
+			ports[i] = freePort();
+		}
+		for( int i = 0; i < NODES.length; i++ ) {
+			WriteChannelProvider channels = new SimpleWriteChannelProvider();
+			InternalPacketTransport transport = new InternalPacketTransport( channels );
+			routers[i] = new ClusterPacketRouter( NODES[i], transport, channels );
+			for( int j = 0; j < NODES.length; j++ ) {
+				if( i != j ) {
+					routers[i].addNode( NODES[j], new PeerLinkPool( client( j, NODES[i] ), transport, 1 ) );
+				}
+			}
+			servers[i] = new Server.Builder().secure( false ).port( ports[i] ).writeChannelProvider( channels ).mailboxFactory( transport ).packetRouter( routers[i] ).build();
+			servers[i].startListening();
+		}
+		Thread.sleep( 200 );
+	}
+
+	@After
+	public void stopCluster() {
+		for( int i = 0; i < NODES.length; i++ ) {
+			if( routers[i] != null ) {
+				for( int j = 0; j < NODES.length; j++ ) {
+					if( i != j ) {
+						routers[i].removeNode( NODES[j] );
+					}
+				}
+			}
+			if( servers[i] != null ) {
+				servers[i].stopListening();
+			}
+		}
+	}
+
+}
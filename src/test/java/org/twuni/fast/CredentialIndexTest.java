@@ -0,0 +1,84 @@
+package org.twuni.fast;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTInvalidCredentialException;
+
+public class CredentialIndexTest extends Assert {
+
+	private static final byte [] REALM = "example.com".getBytes();
+
+	private static byte [] identity( int i ) {
+		return String.format( "user%d@example.com", Integer.valueOf( i ) ).getBytes();
+	}
+
+	private File directory;
+	private File file;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = File.createTempFile( "credentials", "" );
+		directory.delete();
+		directory.mkdir();
+		file = new File( directory, "index" );
+	}
+
+	@After
+	public void deleteDirectory() {
+		for( File f : directory.listFiles() ) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void find_shouldReturnEveryHashWritten() throws IOException {
+
+		PasswordHash [] hashes = new PasswordHash [100];
+		CredentialIndex.Writer writer = new CredentialIndex.Writer( file, hashes.length );
+		for( int i = 0; i < hashes.length; i++ ) {
+			hashes[i] = new PasswordHash( new byte [] { (byte) i }, 1, String.valueOf( i ).getBytes() );
+			writer.add( REALM, identity( i ), new PasswordHash( new byte [0], 1, new byte [0] ) );
+			writer.add( REALM, identity( i ), hashes[i] );
+		}
+		writer.commit();
+
+		CredentialIndex index = CredentialIndex.open( file );
+		assertEquals( hashes.length, index.size() );
+		for( int i = 0; i < hashes.length; i++ ) {
+			assertEquals( hashes[i], index.find( REALM, identity( i ) ) );
+		}
+		assertNull( index.find( REALM, identity( hashes.length ) ) );
+		assertNull( index.find( "example.org".getBytes(), identity( 0 ) ) );
+
+		// Only the index itself is left behind.
+		assertEquals( 1, directory.listFiles().length );
+
+	}
+
+	@Test
+	public void reload_shouldAuthenticateAgainstNewIndex() throws IOException {
+
+		new CredentialIndex.Writer( file, 1 ).add( REALM, "alice@example.com".getBytes(), PasswordHash.create( "old".getBytes(), 1 ) ).commit();
+		IndexedPasswordAuthenticator authenticator = new IndexedPasswordAuthenticator( file );
+		assertArrayEquals( "alice@example.com".getBytes(), authenticator.authenticate( REALM, "alice\nold".getBytes() ) );
+
+		new CredentialIndex.Writer( file, 1 ).add( REALM, "alice@example.com".getBytes(), PasswordHash.create( "new".getBytes(), 1 ) ).commit();
+		authenticator.reload();
+		assertArrayEquals( "alice@example.com".getBytes(), authenticator.authenticate( REALM, "alice\nnew".getBytes() ) );
+
+		try {
+			authenticator.authenticate( REALM, "alice\nold".getBytes() );
+			fail();
+		} catch( FASTInvalidCredentialException expected ) {
+			// The old password is no longer valid.
+		}
+
+	}
+
+}
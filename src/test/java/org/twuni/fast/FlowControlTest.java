@@ -0,0 +1,81 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.io.QueuedWriteChannel;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+public class FlowControlTest extends Assert {
+
+	/**
+	 * Returns a stream whose writes wait until the given {@code latch} opens,
+	 * like the socket of a recipient which has stopped reading.
+	 */
+	private static OutputStream stalled( final CountDownLatch latch ) {
+		return new OutputStream() {
+
+			@Override
+			public void write( byte [] b, int off, int len ) throws IOException {
+				try {
+					latch.await();
+				} catch( InterruptedException exception ) {
+					throw new InterruptedIOException();
+				}
+			}
+
+			@Override
+			public void write( int b ) throws IOException {
+				write( new byte [] { (byte) b }, 0, 1 );
+			}
+
+		};
+	}
+
+	@Test
+	public void routePacket_shouldPauseSenderUntilSlowRecipientWritesPackets() throws InterruptedException {
+
+		CountDownLatch unstalled = new CountDownLatch( 1 );
+		SimpleWriteChannelProvider channels = new SimpleWriteChannelProvider();
+		channels.attach( "bob".getBytes(), new QueuedWriteChannel( stalled( unstalled ), 100, null, new EventHandlerBase() ) );
+
+		WriteChannel sender = new WriteChannel( new ByteArrayOutputStream(), new EventHandlerBase() );
+		final FlowControl flowControl = new FlowControl( sender, new InternalPacketTransport( channels ), 4 );
+		final AtomicInteger routed = new AtomicInteger();
+
+		Thread reader = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				for( int i = 0; i < 10; i++ ) {
+					flowControl.routePacket( new Packet( "alice", "bob", String.valueOf( i ) ) );
+					routed.incrementAndGet();
+				}
+			}
+
+		} );
+		reader.start();
+
+		Thread.sleep( 200 );
+		assertEquals( 4, routed.get() );
+		assertEquals( 4, flowControl.getOutstanding() );
+		assertTrue( reader.isAlive() );
+
+		unstalled.countDown();
+		reader.join( 5000 );
+		assertEquals( 10, routed.get() );
+		for( int i = 0; i < 50 && flowControl.getOutstanding() > 0; i++ ) {
+			Thread.sleep( 10 );
+		}
+		assertEquals( 0, flowControl.getOutstanding() );
+
+	}
+
+}
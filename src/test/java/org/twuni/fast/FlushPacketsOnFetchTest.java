@@ -0,0 +1,163 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.ReadChannel;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class FlushPacketsOnFetchTest extends Assert {
+
+	private static final byte [] ALICE = "alice@localhost".getBytes();
+
+	/**
+	 * Records what a client node would read from its connection.
+	 */
+	private static class Recorder extends EventHandlerBase {
+
+		final List<String> packets = new ArrayList<String>();
+		long cursor;
+
+		@Override
+		public void onCursorReceived( long cursor ) {
+			this.cursor = cursor;
+		}
+
+		@Override
+		public void onPacketReceived( Packet packet ) {
+			try {
+				packets.add( new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) ) );
+			} catch( IOException exception ) {
+				throw new FASTException( exception );
+			}
+		}
+
+	}
+
+	/**
+	 * A connection of a client node to the server.
+	 */
+	private class Session {
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final WriteChannel channel = new WriteChannel( output );
+		final FlushPacketsOnFetch handler = new FlushPacketsOnFetch( channel, transport );
+
+		Session() {
+			channel.setRemoteAddress( ALICE );
+		}
+
+		/**
+		 * Fetches a page from the given {@code cursor}, returning what the
+		 * client node reads in answer.
+		 */
+		Recorder fetch( long cursor, int maxPackets ) {
+			output.reset();
+			handler.onFetchFromRequested( cursor, maxPackets, 0 );
+			Recorder recorder = new Recorder();
+			read( output.toByteArray(), recorder );
+			return recorder;
+		}
+
+	}
+
+	private static void read( byte [] commands, EventHandler eventHandler ) {
+		try {
+			new ReadChannel( new ByteArrayInputStream( commands ), eventHandler ).loop();
+		} catch( FASTException endOfStream ) {
+			// Every command has been read.
+		}
+	}
+
+	private final MemoryPacketStore store = new MemoryPacketStore();
+	private final InternalPacketTransport transport = new InternalPacketTransport( new SimpleWriteChannelProvider(), store );
+
+	private void store( int count ) {
+		for( int i = 0; i < count; i++ ) {
+			store.store( new Packet( "bob@localhost".getBytes(), ALICE, String.valueOf( i ).getBytes() ) );
+		}
+	}
+
+	private int held() {
+		List<Packet> page = new ArrayList<Packet>();
+		store.peek( ALICE, 0, 0, 0, page );
+		return page.size();
+	}
+
+	@Test
+	public void onFetchFromRequested_shouldIgnoreCursorNotSentOnSession() {
+
+		store( 5 );
+
+		// The first fetch of a session acknowledges nothing.
+		Recorder page = new Session().fetch( Long.MAX_VALUE, 2 );
+		assertTrue( page.packets.isEmpty() );
+		assertEquals( 5, held() );
+
+		Session session = new Session();
+		page = session.fetch( 0, 2 );
+		assertEquals( Arrays.asList( "0", "1" ), page.packets );
+
+		// A cursor beyond the last one sent acknowledges nothing either, and
+		// the next page follows the last one sent.
+		page = session.fetch( Long.MAX_VALUE, 2 );
+		assertEquals( Arrays.asList( "2", "3" ), page.packets );
+		assertEquals( 5, held() );
+
+		session.fetch( page.cursor, 2 );
+		assertEquals( 1, held() );
+
+	}
+
+	@Test
+	public void onFetchFromRequested_shouldResumePagingAfterReconnectingMidPage() {
+
+		store( 8 );
+		Recorder client = new Recorder();
+		ByteArrayOutputStream fetches = new ByteArrayOutputStream();
+		CursorFetcher fetcher = new CursorFetcher( new WriteChannel( fetches ), 3, 0 );
+		EventHandler clientHandler = new EventHandlers( client, fetcher );
+
+		// The first two pages are received in full, and only half of the
+		// third page arrives before the connection is lost.
+		Session session = new Session();
+		fetcher.fetch();
+		for( int page = 0; page < 3; page++ ) {
+			byte [] fetch = fetches.toByteArray();
+			fetches.reset();
+			session.output.reset();
+			read( fetch, session.handler );
+			byte [] reply = session.output.toByteArray();
+			read( page < 2 ? reply : Arrays.copyOf( reply, reply.length / 2 ), clientHandler );
+		}
+		assertEquals( Arrays.asList( "0", "1", "2", "3", "4", "5" ), client.packets.subList( 0, 6 ) );
+		assertEquals( 2, held() );
+
+		// The client reconnects and fetches from the last cursor it received,
+		// until a page comes back empty, so the third page is received again.
+		client.packets.clear();
+		fetches.reset();
+		session = new Session();
+		fetcher.fetch();
+		while( fetches.size() > 0 ) {
+			byte [] fetch = fetches.toByteArray();
+			fetches.reset();
+			session.output.reset();
+			read( fetch, session.handler );
+			read( session.output.toByteArray(), clientHandler );
+		}
+		assertEquals( Arrays.asList( "6", "7" ), client.packets );
+		assertEquals( 0, held() );
+
+	}
+
+}
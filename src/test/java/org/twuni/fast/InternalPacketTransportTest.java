@@ -0,0 +1,133 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.ReadChannel;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class InternalPacketTransportTest extends Assert {
+
+	private static String payload( Packet packet ) throws IOException {
+		return new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+	}
+
+	/**
+	 * Returns each packet written to the given {@code output}, as its
+	 * destination followed by its payload.
+	 */
+	private static List<String> received( ByteArrayOutputStream output ) {
+		final List<String> packets = new ArrayList<String>();
+		try {
+			new ReadChannel( new ByteArrayInputStream( output.toByteArray() ), new EventHandlerBase() {
+
+				@Override
+				public void onPacketReceived( Packet packet ) {
+					try {
+						packets.add( new String( packet.getTo() ) + " " + payload( packet ) );
+					} catch( IOException exception ) {
+						throw new FASTException( exception );
+					}
+				}
+
+			} ).loop();
+		} catch( FASTException endOfStream ) {
+			// Every command has been read.
+		}
+		return packets;
+	}
+
+	private static ByteArrayOutputStream attach( WriteChannelProvider provider, String address ) {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		provider.attach( address.getBytes(), new WriteChannel( output ) );
+		return output;
+	}
+
+	@Test
+	public void routePacket_shouldDeliverGroupPacketsToEveryMemberButTheSender() throws IOException {
+
+		GroupRegistry groups = new GroupRegistry();
+		groups.add( "team@example.com", "alice@example.com" );
+		groups.add( "team@example.com", "bob@example.com" );
+		groups.add( "team@example.com", "carol@example.com" );
+
+		SimpleWriteChannelProvider provider = new SimpleWriteChannelProvider();
+		ByteArrayOutputStream alice = attach( provider, "alice@example.com" );
+		ByteArrayOutputStream bob = attach( provider, "bob@example.com" );
+
+		MemoryPacketStore store = new MemoryPacketStore();
+		InternalPacketTransport transport = new InternalPacketTransport( provider, store, groups );
+		transport.routePacket( new Packet( "alice@example.com", "team@example.com", "hello" ) );
+
+		assertEquals( Arrays.asList( "team@example.com hello" ), received( bob ) );
+		assertEquals( "hello", payload( store.take( "carol@example.com".getBytes() ) ) );
+		assertTrue( received( alice ).isEmpty() );
+		assertNull( store.take( "alice@example.com".getBytes() ) );
+		assertNull( store.take( "team@example.com".getBytes() ) );
+
+	}
+
+	@Test
+	public void routePacket_shouldDeliverOnceToMembersWhoAreAlsoSubscribers() {
+
+		GroupRegistry groups = new GroupRegistry();
+		groups.add( "team@example.com", "bob@example.com" );
+
+		SubscriptionTrie subscriptions = new SubscriptionTrie();
+		subscriptions.subscribe( "team@example.com".getBytes(), "bob@example.com".getBytes() );
+		subscriptions.subscribe( "*@example.com".getBytes(), "bob@example.com".getBytes() );
+		subscriptions.subscribe( "*@example.com".getBytes(), "dave@example.com".getBytes() );
+
+		SimpleWriteChannelProvider provider = new SimpleWriteChannelProvider();
+		ByteArrayOutputStream bob = attach( provider, "bob@example.com" );
+		ByteArrayOutputStream dave = attach( provider, "dave@example.com" );
+
+		InternalPacketTransport transport = new InternalPacketTransport( provider, new MemoryPacketStore(), groups, subscriptions );
+		transport.routePacket( new Packet( "alice@example.com", "team@example.com", "hello" ) );
+
+		assertEquals( Arrays.asList( "team@example.com hello" ), received( bob ) );
+		assertEquals( Arrays.asList( "team@example.com hello" ), received( dave ) );
+
+	}
+
+	@Test
+	public void routePacket_shouldHoldPacketsForEmptiedGroupLikeAnyAddress() throws IOException {
+
+		GroupRegistry groups = new GroupRegistry();
+		groups.add( "team@example.com", "bob@example.com" );
+		groups.remove( "team@example.com", "bob@example.com" );
+
+		MemoryPacketStore store = new MemoryPacketStore();
+		InternalPacketTransport transport = new InternalPacketTransport( new SimpleWriteChannelProvider(), store, groups );
+		transport.routePacket( new Packet( "alice@example.com", "team@example.com", "hello" ) );
+
+		assertEquals( "hello", payload( store.take( "team@example.com".getBytes() ) ) );
+		assertNull( store.take( "bob@example.com".getBytes() ) );
+
+	}
+
+	@Test
+	public void routePacket_shouldHoldPacketsForOfflineAddressesWithSubscribers() throws IOException {
+
+		SubscriptionTrie subscriptions = new SubscriptionTrie();
+		subscriptions.subscribe( "*@example.com".getBytes(), "carol@example.com".getBytes() );
+
+		MemoryPacketStore store = new MemoryPacketStore();
+		InternalPacketTransport transport = new InternalPacketTransport( new SimpleWriteChannelProvider(), store, null, subscriptions );
+		transport.routePacket( new Packet( "alice@example.com", "bob@example.com", "hello" ) );
+
+		assertEquals( "hello", payload( store.take( "bob@example.com".getBytes() ) ) );
+		assertNull( store.take( "carol@example.com".getBytes() ) );
+
+	}
+
+}
@@ -0,0 +1,81 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.IOUtils;
+import org.twuni.fast.util.Metrics;
+
+public class MemoryPacketStoreTest extends Assert {
+
+	private static Packet packet( String to, int n ) {
+		return new Packet( "sender", to, String.valueOf( n ) );
+	}
+
+	private static String payload( Packet packet ) throws IOException {
+		return new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+	}
+
+	@Test
+	public void store_shouldEvictOldestPacketsWhenConfigured() throws IOException {
+		Metrics metrics = new Metrics();
+		MailboxPolicy policy = new MailboxPolicy.Builder().maxPacketsPerAddress( 2 ).maxPackets( 3 ).eviction( MailboxPolicy.Eviction.OLDEST_FIRST ).build();
+		MemoryPacketStore store = new MemoryPacketStore( policy, new HashedWheelTimer(), metrics );
+		assertTrue( store.store( packet( "alice", 1 ) ) );
+		assertTrue( store.store( packet( "alice", 2 ) ) );
+		assertTrue( store.store( packet( "alice", 3 ) ) );
+		assertTrue( store.store( packet( "bob", 4 ) ) );
+		assertTrue( store.store( packet( "bob", 5 ) ) );
+		assertEquals( 2, metrics.counter( "mailbox.evicted" ).get() );
+		assertEquals( 3, metrics.counter( "mailbox.packets" ).get() );
+		assertEquals( "3", payload( store.take( "alice".getBytes() ) ) );
+		assertNull( store.take( "alice".getBytes() ) );
+		assertEquals( "4", payload( store.take( "bob".getBytes() ) ) );
+	}
+
+	@Test
+	public void store_shouldRejectNewPacketsByDefault() {
+		Metrics metrics = new Metrics();
+		MailboxPolicy policy = new MailboxPolicy.Builder().maxPacketsPerAddress( 2 ).build();
+		MemoryPacketStore store = new MemoryPacketStore( policy, new HashedWheelTimer(), metrics );
+		assertTrue( store.store( packet( "alice", 1 ) ) );
+		assertTrue( store.store( packet( "alice", 2 ) ) );
+		assertFalse( store.store( packet( "alice", 3 ) ) );
+		assertTrue( store.store( packet( "bob", 4 ) ) );
+		assertNotNull( store.take( "alice".getBytes() ) );
+		assertNotNull( store.take( "alice".getBytes() ) );
+		assertNull( store.take( "alice".getBytes() ) );
+		assertEquals( 1, metrics.counter( "mailbox.rejected" ).get() );
+	}
+
+	@Test
+	public void store_shouldExpirePacketsInTheBackground() throws InterruptedException {
+		Metrics metrics = new Metrics();
+		MailboxPolicy policy = new MailboxPolicy.Builder().timeToLive( 50 ).build();
+		MemoryPacketStore store = new MemoryPacketStore( policy, new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 64 ), metrics );
+		for( int i = 0; i < 100; i++ ) {
+			store.store( packet( "alice" + i, i ) );
+		}
+		Thread.sleep( 300 );
+		assertTrue( store.getQueuedAddresses().isEmpty() );
+		assertEquals( 100, metrics.counter( "mailbox.expired" ).get() );
+	}
+
+	@Test
+	public void store_shouldExpireMorePacketsThanOneReapDiscards() throws InterruptedException {
+		Metrics metrics = new Metrics();
+		MailboxPolicy policy = new MailboxPolicy.Builder().timeToLive( 50 ).build();
+		MemoryPacketStore store = new MemoryPacketStore( policy, new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 64 ), metrics );
+		for( int i = 0; i < 3000; i++ ) {
+			store.store( packet( "alice" + i, i ) );
+		}
+		Thread.sleep( 300 );
+		assertTrue( store.getQueuedAddresses().isEmpty() );
+		assertEquals( 3000, metrics.counter( "mailbox.expired" ).get() );
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.twuni.fast;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTInvalidCredentialException;
+
+public class PasswordAuthenticatorTest extends Assert {
+
+	private static final byte [] REALM = "example.com".getBytes();
+	private static final byte [] ALICE = "alice@example.com".getBytes();
+
+	private final PasswordAuthenticator authenticator = new PasswordAuthenticator( 1000, 16, PasswordAuthenticator.DEFAULT_CACHE_TIME_TO_LIVE );
+
+	private void assertRejected( byte [] credential ) {
+		try {
+			authenticator.authenticate( REALM, credential );
+			fail();
+		} catch( FASTInvalidCredentialException expected ) {
+			// The credential is not valid.
+		}
+	}
+
+	@Test
+	public void authenticate_shouldReturnIdentityForCorrectPassword() {
+		authenticator.setPassword( REALM, ALICE, "secret".getBytes() );
+		assertArrayEquals( ALICE, authenticator.authenticate( REALM, "alice\nsecret".getBytes() ) );
+		// The second time, the credential is accepted from the cache.
+		assertArrayEquals( ALICE, authenticator.authenticate( REALM, "alice\nsecret".getBytes() ) );
+	}
+
+	@Test
+	public void authenticate_shouldRejectWrongPassword() {
+		authenticator.setPassword( REALM, ALICE, "secret".getBytes() );
+		assertRejected( "alice\nSecret".getBytes() );
+		assertRejected( "bob\nsecret".getBytes() );
+		assertRejected( "alice".getBytes() );
+		assertRejected( "alice\nsecret\n".getBytes() );
+	}
+
+	@Test
+	public void authenticate_shouldRejectCachedCredentialOncePasswordChanges() {
+
+		authenticator.setPassword( REALM, ALICE, "secret".getBytes() );
+		assertArrayEquals( ALICE, authenticator.authenticate( REALM, "alice\nsecret".getBytes() ) );
+
+		authenticator.setPassword( REALM, ALICE, "other".getBytes() );
+		assertRejected( "alice\nsecret".getBytes() );
+		assertArrayEquals( ALICE, authenticator.authenticate( REALM, "alice\nother".getBytes() ) );
+
+		authenticator.removePassword( REALM, ALICE );
+		assertRejected( "alice\nother".getBytes() );
+
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.twuni.fast;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PasswordHashTest extends Assert {
+
+	@Test
+	public void matches_shouldAcceptPasswordItWasCreatedFrom() {
+
+		PasswordHash hash = PasswordHash.create( "secret".getBytes(), 1000 );
+		assertTrue( hash.matches( "secret".getBytes() ) );
+
+		// A hash read back from storage verifies the same way.
+		PasswordHash stored = new PasswordHash( hash.getSalt(), hash.getIterations(), hash.getHash() );
+		assertEquals( hash, stored );
+		assertTrue( stored.matches( "secret".getBytes() ) );
+
+	}
+
+	@Test
+	public void matches_shouldRejectWrongPassword() {
+		PasswordHash hash = PasswordHash.create( "secret".getBytes(), 1000 );
+		assertFalse( hash.matches( "Secret".getBytes() ) );
+		assertFalse( hash.matches( "secret ".getBytes() ) );
+		assertFalse( hash.matches( new byte [0] ) );
+	}
+
+	@Test
+	public void create_shouldSaltEachHash() {
+		PasswordHash a = PasswordHash.create( "secret".getBytes(), 1000 );
+		PasswordHash b = PasswordHash.create( "secret".getBytes(), 1000 );
+		assertFalse( a.equals( b ) );
+		assertTrue( b.matches( "secret".getBytes() ) );
+	}
+
+}
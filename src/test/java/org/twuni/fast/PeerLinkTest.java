@@ -0,0 +1,204 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class PeerLinkTest extends Assert {
+
+	/**
+	 * Relays connections to a server, and can break all of them at once, like
+	 * a network failure. Bytes in flight when a connection is cut are lost.
+	 */
+	private static class Proxy implements Runnable {
+
+		private final ServerSocket listener;
+		private final int target;
+		private final List<Socket> sockets = new ArrayList<Socket>();
+
+		Proxy( int target ) throws IOException {
+			this.target = target;
+			listener = new ServerSocket( 0 );
+			Thread thread = new Thread( this );
+			thread.setDaemon( true );
+			thread.start();
+		}
+
+		void close() throws IOException {
+			listener.close();
+			cut();
+		}
+
+		synchronized void cut() {
+			for( Socket socket : sockets ) {
+				try {
+					socket.close();
+				} catch( IOException ignore ) {
+					// Ignore.
+				}
+			}
+			sockets.clear();
+		}
+
+		int getPort() {
+			return listener.getLocalPort();
+		}
+
+		private void pump( final Socket from, final Socket to ) {
+			Thread thread = new Thread( new Runnable() {
+
+				@Override
+				public void run() {
+					byte [] buffer = new byte [4096];
+					try {
+						InputStream in = from.getInputStream();
+						OutputStream out = to.getOutputStream();
+						for( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) ) {
+							out.write( buffer, 0, n );
+						}
+					} catch( IOException ignore ) {
+						// The connection was cut.
+					}
+					try {
+						from.close();
+						to.close();
+					} catch( IOException ignore ) {
+						// Ignore.
+					}
+				}
+
+			} );
+			thread.setDaemon( true );
+			thread.start();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while( true ) {
+					Socket client = listener.accept();
+					Socket server = new Socket( "localhost", target );
+					synchronized( this ) {
+						sockets.add( client );
+						sockets.add( server );
+					}
+					pump( client, server );
+					pump( server, client );
+				}
+			} catch( IOException exception ) {
+				// The proxy was closed.
+			}
+		}
+
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket( 0 );
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static void awaitSize( Set<String> set, int size, long timeout ) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized( set ) {
+			while( set.size() < size && System.currentTimeMillis() < deadline ) {
+				set.wait( 50 );
+			}
+		}
+	}
+
+	private Server server;
+	private Proxy proxy;
+	private Client bob;
+	private PeerLink link;
+
+	@After
+	public void tearDown() throws IOException {
+		if( link != null ) {
+			link.close();
+		}
+		if( bob != null ) {
+			bob.close();
+		}
+		if( proxy != null ) {
+			proxy.close();
+		}
+		if( server != null ) {
+			server.stopListening();
+		}
+	}
+
+	@Test
+	public void send_shouldNotLosePacketsWhenLinkIsBroken() throws Exception {
+
+		int port = freePort();
+		server = new Server.Builder().secure( false ).port( port ).authenticator( new AutomaticAuthenticator() ).build();
+		server.startListening();
+		Thread.sleep( 200 );
+		proxy = new Proxy( port );
+
+		final Set<String> received = new HashSet<String>();
+		bob = new Client.Builder().secure( false ).host( "localhost" ).port( port ).credential( "bob", "p8ssw0rd" ).packetListener( new PacketListener() {
+
+			@Override
+			public void onPacketReceived( Packet packet ) {
+				String payload;
+				try {
+					payload = new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+				} catch( IOException exception ) {
+					throw new FASTException( exception );
+				}
+				synchronized( received ) {
+					received.add( payload );
+					received.notifyAll();
+				}
+			}
+
+			@Override
+			public void onPacketSent( Packet packet ) {
+				// Ignore.
+			}
+
+		} ).build();
+
+		Client.Builder alice = new Client.Builder().secure( false ).host( "localhost" ).port( proxy.getPort() ).credential( "alice", "p8ssw0rd" );
+		link = new PeerLink( alice, new InternalPacketTransport( new SimpleWriteChannelProvider() ), 16 ).start();
+
+		for( int i = 0; i < 100; i++ ) {
+			link.send( new Packet( "alice@localhost", "bob@localhost", String.valueOf( i ) ) );
+		}
+		awaitSize( received, 1, 5000 );
+		proxy.cut();
+		for( int i = 100; i < 200; i++ ) {
+			link.send( new Packet( "alice@localhost", "bob@localhost", String.valueOf( i ) ) );
+		}
+
+		awaitSize( received, 200, 10000 );
+		Set<String> expected = new HashSet<String>();
+		for( int i = 0; i < 200; i++ ) {
+			expected.add( String.valueOf( i ) );
+		}
+		synchronized( received ) {
+			assertEquals( expected, Collections.unmodifiableSet( received ) );
+		}
+
+	}
+
+}
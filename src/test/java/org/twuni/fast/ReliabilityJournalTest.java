@@ -0,0 +1,159 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.twuni.fast.io.PacketSerializer;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class ReliabilityJournalTest extends Assert {
+
+	private static Packet packet( String payload ) {
+		return new Packet( 1, "alice@localhost", "bob@localhost", payload );
+	}
+
+	/**
+	 * Returns the payloads of the packets which the given journal would hand
+	 * to {@link Reliability} as unacknowledged, in order.
+	 */
+	private static List<String> unacknowledged( ReliabilityJournal journal ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		journal.saveState( out );
+		InputStream in = new ByteArrayInputStream( out.toByteArray() );
+		IOUtils.readInt( in );
+		IOUtils.readInt( in );
+		IOUtils.readInt( in );
+		int count = IOUtils.readInt( in );
+		List<String> payloads = new ArrayList<String>();
+		for( int i = 0; i < count; i++ ) {
+			Packet packet = PacketSerializer.read( in );
+			payloads.add( new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) ) );
+		}
+		return payloads;
+	}
+
+	private File file;
+
+	private ReliabilityJournal open( int capacity ) throws IOException {
+		return new ReliabilityJournal( file, new WriteChannel( new ByteArrayOutputStream() ), capacity );
+	}
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile( "journal", ".fast" );
+		file.delete();
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void replay_shouldRecoverUnacknowledgedPacketsAndSession() throws IOException {
+
+		ReliabilityJournal journal = open( ReliabilityJournal.DEFAULT_CAPACITY );
+		journal.onSessionCreated( "session".getBytes() );
+		journal.onIdentityReceived( "alice@localhost".getBytes() );
+		journal.onPacketSent( packet( "a" ) );
+		journal.onPacketSent( packet( "b" ) );
+		journal.onPacketSent( packet( "c" ) );
+		journal.onAcknowledgmentReceived( 3 );
+		journal.onPacketSent( packet( "d" ) );
+		journal.onPacketSent( packet( "e" ) );
+		journal.force();
+
+		WriteChannel channel = new WriteChannel( new ByteArrayOutputStream() );
+		ReliabilityJournal recovered = new ReliabilityJournal( file, channel );
+		assertEquals( Arrays.asList( "d", "e" ), unacknowledged( recovered ) );
+		assertEquals( "session", new String( channel.getSessionID() ) );
+		assertEquals( "alice@localhost", new String( channel.getLocalAddress() ) );
+
+	}
+
+	@Test
+	public void replay_shouldIgnoreTornLastRecord() throws IOException {
+
+		ReliabilityJournal journal = open( ReliabilityJournal.DEFAULT_CAPACITY );
+		journal.onPacketSent( packet( "a" ) );
+		journal.onPacketSent( packet( "b" ) );
+		journal.force();
+
+		// Find the end of the journal, and write a record there as a crash
+		// would leave it: its body written, but not yet its length.
+		RandomAccessFile f = new RandomAccessFile( file, "rw" );
+		try {
+			long position = 8;
+			f.seek( position );
+			for( int length = f.readInt(); length > 0; length = f.readInt() ) {
+				position += 4 + length;
+				f.seek( position );
+			}
+			f.seek( position + 4 );
+			f.writeByte( 3 );
+			f.write( "torn".getBytes() );
+		} finally {
+			f.close();
+		}
+
+		assertEquals( Arrays.asList( "a", "b" ), unacknowledged( open( ReliabilityJournal.DEFAULT_CAPACITY ) ) );
+
+	}
+
+	@Test
+	public void append_shouldRewriteCheckpointWhenJournalIsFull() throws IOException {
+
+		ReliabilityJournal journal = open( 256 );
+		List<String> expected = new ArrayList<String>();
+		for( int i = 0; i < 100; i++ ) {
+			journal.onPacketSent( packet( String.valueOf( i ) ) );
+			expected.add( String.valueOf( i ) );
+		}
+		journal.onAcknowledgmentReceived( 40 );
+		for( int i = 40; i < 100; i++ ) {
+			journal.onPacketSent( packet( String.valueOf( i ) ) );
+		}
+		expected.subList( 0, 40 ).clear();
+		journal.force();
+
+		assertTrue( file.length() > 256 );
+		assertEquals( expected, unacknowledged( open( 256 ) ) );
+
+	}
+
+	@Test
+	public void replay_shouldTrackPacketsSentAgain() throws IOException {
+
+		ReliabilityJournal journal = open( ReliabilityJournal.DEFAULT_CAPACITY );
+		Packet a = packet( "a" );
+		Packet b = packet( "b" );
+		Packet c = packet( "c" );
+		journal.onPacketSent( a );
+		journal.onPacketSent( b );
+		journal.onPacketSent( c );
+
+		// Only "a" arrived; "b" is sent again as a copy, as after recovery,
+		// before a new packet and before "c" is sent again.
+		journal.onAcknowledgmentReceived( 1 );
+		journal.onPacketSent( packet( "b" ) );
+		journal.onPacketSent( packet( "d" ) );
+		journal.force();
+
+		assertEquals( Arrays.asList( "b", "d", "c" ), unacknowledged( open( ReliabilityJournal.DEFAULT_CAPACITY ) ) );
+
+	}
+
+}
@@ -0,0 +1,103 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.ConcurrentWriteChannel;
+import org.twuni.fast.io.PacketSerializer;
+import org.twuni.fast.io.ReadChannel;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class ReliabilityTest extends Assert {
+
+	private static String payload( Packet packet ) throws IOException {
+		return new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+	}
+
+	/**
+	 * Returns the payloads of the packets which the given reliability handler
+	 * holds as unacknowledged, in order.
+	 */
+	private static List<String> unacknowledged( Reliability reliability ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		reliability.saveState( out );
+		InputStream in = new ByteArrayInputStream( out.toByteArray() );
+		IOUtils.readInt( in );
+		IOUtils.readInt( in );
+		IOUtils.readInt( in );
+		int count = IOUtils.readInt( in );
+		List<String> payloads = new ArrayList<String>();
+		for( int i = 0; i < count; i++ ) {
+			payloads.add( payload( PacketSerializer.read( in ) ) );
+		}
+		return payloads;
+	}
+
+	/**
+	 * Returns the payloads of the packets written to the given stream, in the
+	 * order in which they were written.
+	 */
+	private static List<String> written( ByteArrayOutputStream output ) {
+		final List<String> payloads = new ArrayList<String>();
+		try {
+			new ReadChannel( new ByteArrayInputStream( output.toByteArray() ), new EventHandlerBase() {
+
+				@Override
+				public void onPacketReceived( Packet packet ) {
+					try {
+						payloads.add( payload( packet ) );
+					} catch( IOException exception ) {
+						throw new FASTException( exception );
+					}
+				}
+
+			} ).loop();
+		} catch( FASTException endOfStream ) {
+			// Every command has been read.
+		}
+		return payloads;
+	}
+
+	@Test
+	public void onPacketSent_shouldRecordPacketsInOrderWritten() throws Exception {
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final WriteChannel channel = new ConcurrentWriteChannel( output );
+		Reliability reliability = new Reliability( channel );
+		channel.setEventHandler( reliability );
+
+		Thread [] threads = new Thread [8];
+		for( int t = 0; t < threads.length; t++ ) {
+			final int sender = t;
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for( int i = 0; i < 500; i++ ) {
+						channel.send( new Packet( "alice@localhost", "bob@localhost", sender + ":" + i ) );
+					}
+				}
+
+			};
+			threads[t].start();
+		}
+		for( Thread thread : threads ) {
+			thread.join();
+		}
+
+		List<String> written = written( output );
+		assertEquals( threads.length * 500, written.size() );
+		assertEquals( written, unacknowledged( reliability ) );
+
+	}
+
+}
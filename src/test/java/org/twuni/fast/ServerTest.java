@@ -0,0 +1,40 @@
+package org.twuni.fast;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerTest extends Assert {
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket( 0 );
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void stopListening_shouldReleasePort() throws IOException, InterruptedException {
+
+		int port = freePort();
+		Server server = new Server.Builder().secure( false ).port( port ).authenticator( new AutomaticAuthenticator() ).build();
+		server.startListening();
+		Thread.sleep( 200 );
+
+		server.stopListening();
+
+		// The port can be bound again right away.
+		new ServerSocket( port ).close();
+
+		server.startListening();
+		Thread.sleep( 200 );
+		assertTrue( server.isListening() );
+		server.stopListening();
+
+	}
+
+}
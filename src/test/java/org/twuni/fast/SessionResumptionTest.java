@@ -0,0 +1,130 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.io.ReadChannel;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class SessionResumptionTest extends Assert {
+
+	private static final byte [] SESSION = "session".getBytes();
+
+	/**
+	 * Records what a client node would read from a resumed connection.
+	 */
+	private static class Recorder extends EventHandlerBase {
+
+		final List<String> packets = new ArrayList<String>();
+		byte [] resumedSessionID;
+		int resumedCount = -1;
+
+		@Override
+		public void onPacketReceived( Packet packet ) {
+			try {
+				packets.add( new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) ) );
+			} catch( IOException exception ) {
+				throw new FASTException( exception );
+			}
+		}
+
+		@Override
+		public void onSessionResumed( byte [] sessionID, int n ) {
+			resumedSessionID = sessionID;
+			resumedCount = n;
+		}
+
+	}
+
+	private static Recorder read( ByteArrayOutputStream output ) {
+		Recorder recorder = new Recorder();
+		try {
+			new ReadChannel( new ByteArrayInputStream( output.toByteArray() ), recorder ).loop();
+		} catch( FASTException endOfStream ) {
+			// Every command has been read.
+		}
+		return recorder;
+	}
+
+	private final ResumptionStore store = new ResumptionStore();
+
+	/**
+	 * Authenticates a session on a new connection, sends the given packets and
+	 * receives two, then loses the connection.
+	 */
+	private void disconnect( String... sent ) {
+		WriteChannel channel = new WriteChannel( new ByteArrayOutputStream() );
+		channel.setSessionID( SESSION );
+		Reliability reliability = new Reliability( channel );
+		SessionResumption resumption = new SessionResumption( channel, reliability, store );
+		resumption.onCredentialReceived( new byte [0] );
+		channel.setLocalAddress( "alice@localhost".getBytes() );
+		channel.setRemoteAddress( "localhost".getBytes() );
+		for( String payload : sent ) {
+			reliability.onPacketSent( new Packet( "bob@localhost", "alice@localhost", payload ) );
+		}
+		reliability.onPacketReceived( null );
+		reliability.onPacketReceived( null );
+		resumption.onDisconnected();
+	}
+
+	@Test
+	public void onCredentialReceived_shouldIgnoreConnectionWithoutSession() {
+		WriteChannel channel = new WriteChannel( new ByteArrayOutputStream() );
+		SessionResumption resumption = new SessionResumption( channel, new Reliability( channel ), store );
+		resumption.onCredentialReceived( new byte [0] );
+		resumption.onDisconnected();
+	}
+
+	@Test
+	public void onResumeRequested_shouldRestoreSessionOnNewConnection() {
+
+		disconnect( "a", "b" );
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WriteChannel channel = new WriteChannel( output );
+		Reliability reliability = new Reliability( channel );
+		new SessionResumption( channel, reliability, store ).onResumeRequested( SESSION, 2 );
+
+		assertEquals( "alice@localhost", new String( channel.getLocalAddress() ) );
+		assertEquals( "localhost", new String( channel.getRemoteAddress() ) );
+		assertEquals( 2, reliability.getReceivedPacketCount() );
+
+		Recorder client = read( output );
+		assertArrayEquals( SESSION, client.resumedSessionID );
+		assertEquals( 2, client.resumedCount );
+		assertTrue( client.packets.isEmpty() );
+
+		// A session may be resumed only once.
+		ByteArrayOutputStream again = new ByteArrayOutputStream();
+		WriteChannel other = new WriteChannel( again );
+		new SessionResumption( other, new Reliability( other ), store ).onResumeRequested( SESSION, 2 );
+		assertEquals( 0, read( again ).resumedSessionID.length );
+
+	}
+
+	@Test
+	public void onResumeRequested_shouldResendOnlyPacketsNotAcknowledged() {
+
+		disconnect( "a", "b", "c" );
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WriteChannel channel = new WriteChannel( output );
+		new SessionResumption( channel, new Reliability( channel ), store ).onResumeRequested( SESSION, 1 );
+
+		Recorder client = read( output );
+		assertArrayEquals( SESSION, client.resumedSessionID );
+		assertEquals( Arrays.asList( "b", "c" ), client.packets );
+
+	}
+
+}
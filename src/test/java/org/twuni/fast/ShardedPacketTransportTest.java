@@ -0,0 +1,39 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+
+public class ShardedPacketTransportTest extends Assert {
+
+	@Test
+	public void routePacket_shouldKeepShardRunningAfterTaskFails() {
+
+		ShardedPacketTransport transport = new ShardedPacketTransport( 1 );
+
+		try {
+
+			transport.attach( "bob".getBytes(), new WriteChannel( new ByteArrayOutputStream() ) {
+
+				@Override
+				public boolean offer( Packet packet ) {
+					throw new IllegalStateException();
+				}
+
+			} );
+			transport.routePacket( new Packet( "alice", "bob", "hello" ) );
+
+			// Answered by the same shard, only if it survived the failure.
+			assertEquals( 1, transport.provideWriteChannels( "bob".getBytes() ).size() );
+			assertEquals( 1, transport.getFailedTaskCount() );
+
+		} finally {
+			transport.close();
+		}
+
+	}
+
+}
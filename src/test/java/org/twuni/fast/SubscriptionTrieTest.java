@@ -0,0 +1,71 @@
+package org.twuni.fast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SubscriptionTrieTest extends Assert {
+
+	private static List<String> match( SubscriptionTrie trie, String address ) {
+		List<String> subscribers = new ArrayList<String>();
+		for( byte [] subscriber : trie.match( address.getBytes() ) ) {
+			subscribers.add( new String( subscriber ) );
+		}
+		Collections.sort( subscribers );
+		return subscribers;
+	}
+
+	private static void subscribe( SubscriptionTrie trie, String pattern, String subscriber ) {
+		trie.subscribe( pattern.getBytes(), subscriber.getBytes() );
+	}
+
+	private static void unsubscribe( SubscriptionTrie trie, String pattern, String subscriber ) {
+		trie.unsubscribe( pattern.getBytes(), subscriber.getBytes() );
+	}
+
+	@Test
+	public void match_shouldFindSubscribersOfMatchingPatterns() {
+
+		SubscriptionTrie trie = new SubscriptionTrie();
+		subscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		subscribe( trie, "alerts.fire@example.com", "alice@example.com" );
+		subscribe( trie, "alerts.fire@example.com", "bob@example.com" );
+		subscribe( trie, "*.flood@example.com", "carol@example.com" );
+
+		assertEquals( list( "alice@example.com", "bob@example.com" ), match( trie, "alerts.fire@example.com" ) );
+		assertEquals( list( "alice@example.com", "carol@example.com" ), match( trie, "alerts.flood@example.com" ) );
+		assertEquals( list(), match( trie, "alerts@example.com" ) );
+		assertEquals( list(), match( trie, "alerts.fire.east@example.com" ) );
+		assertEquals( list(), match( trie, "alerts.fire@example.org" ) );
+
+	}
+
+	@Test
+	public void unsubscribe_shouldKeepSubscriptionsMadeMoreThanOnce() {
+
+		SubscriptionTrie trie = new SubscriptionTrie();
+		subscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		subscribe( trie, "alerts.*@example.com", "alice@example.com" );
+
+		unsubscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		assertEquals( list( "alice@example.com" ), match( trie, "alerts.fire@example.com" ) );
+
+		unsubscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		assertEquals( list(), match( trie, "alerts.fire@example.com" ) );
+
+		unsubscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		subscribe( trie, "alerts.*@example.com", "alice@example.com" );
+		assertEquals( list( "alice@example.com" ), match( trie, "alerts.fire@example.com" ) );
+
+	}
+
+	private static List<String> list( String... items ) {
+		List<String> list = new ArrayList<String>();
+		Collections.addAll( list, items );
+		return list;
+	}
+
+}
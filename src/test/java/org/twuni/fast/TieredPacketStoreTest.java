@@ -0,0 +1,215 @@
+package org.twuni.fast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.io.WriteChannel;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.HashedWheelTimer;
+import org.twuni.fast.util.IOUtils;
+import org.twuni.fast.util.Metrics;
+
+public class TieredPacketStoreTest extends Assert {
+
+	private static void delete( File directory ) {
+		for( File file : directory.listFiles() ) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static File directory() throws IOException {
+		File file = File.createTempFile( "segments", "" );
+		file.delete();
+		return file;
+	}
+
+	private static int segments( File directory ) {
+		int segments = 0;
+		for( String name : directory.list() ) {
+			if( name.endsWith( ".seg" ) ) {
+				segments++;
+			}
+		}
+		return segments;
+	}
+
+	private static String payload( Packet packet ) throws IOException {
+		return new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) );
+	}
+
+	@Test
+	public void peek_shouldKeepPagesUntilAcknowledged() throws IOException {
+		File directory = directory();
+		MailboxPolicy policy = new MailboxPolicy.Builder().build();
+		TieredPacketStore store = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 4, 1024, 256 );
+		TieredPacketStore reopened = null;
+		try {
+			for( int i = 0; i < 10; i++ ) {
+				store.store( new Packet( "sender", "alice", String.valueOf( i ) ) );
+			}
+			List<Packet> page = new ArrayList<Packet>();
+			long cursor = store.peek( "alice".getBytes(), 0, 3, 0, page );
+			assertEquals( 3, page.size() );
+			page.clear();
+			assertEquals( cursor, store.peek( "alice".getBytes(), 0, 3, 0, page ) );
+			store.acknowledge( "alice".getBytes(), cursor );
+			page.clear();
+			cursor = store.peek( "alice".getBytes(), cursor, 0, 0, page );
+			assertEquals( 7, page.size() );
+			assertEquals( "3", payload( page.get( 0 ) ) );
+			store.close();
+			reopened = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 4, 1024, 256 );
+			reopened.store( new Packet( "sender", "alice", "10" ) );
+			page.clear();
+			assertTrue( reopened.peek( "alice".getBytes(), 0, 0, 0, page ) > cursor );
+			assertEquals( 8, page.size() );
+			reopened.acknowledge( "alice".getBytes(), cursor );
+			assertEquals( "10", payload( reopened.take( "alice".getBytes() ) ) );
+			assertNull( reopened.take( "alice".getBytes() ) );
+		} finally {
+			if( reopened != null ) {
+				reopened.close();
+			}
+			delete( directory );
+		}
+	}
+
+	@Test
+	public void take_shouldReturnSpilledPacketsBeforeThoseInMemory() throws IOException {
+		Metrics metrics = new Metrics();
+		File directory = directory();
+		TieredPacketStore store = new TieredPacketStore( directory, new MailboxPolicy.Builder().build(), new HashedWheelTimer(), metrics, 4, 1024, 256 );
+		try {
+			for( int i = 0; i < 100; i++ ) {
+				assertTrue( store.store( new Packet( "sender", "alice", String.valueOf( i ) ) ) );
+				assertTrue( store.store( new Packet( "sender", "bob", String.valueOf( i ) ) ) );
+			}
+			assertTrue( metrics.counter( "mailbox.disk.packets" ).get() > 100 );
+			for( int i = 0; i < 100; i++ ) {
+				assertEquals( String.valueOf( i ), payload( store.take( "alice".getBytes() ) ) );
+			}
+			assertNull( store.take( "alice".getBytes() ) );
+			for( int i = 0; i < 100; i++ ) {
+				assertEquals( String.valueOf( i ), payload( store.take( "bob".getBytes() ) ) );
+			}
+			assertEquals( 0, metrics.counter( "mailbox.packets" ).get() );
+			assertEquals( 0, metrics.counter( "mailbox.disk.packets" ).get() );
+			assertEquals( 1, segments( directory ) );
+		} finally {
+			store.close();
+			delete( directory );
+		}
+	}
+
+	@Test
+	public void compact_shouldRewriteSparseSegmentsWithoutTakenPackets() throws IOException {
+		Metrics metrics = new Metrics();
+		File directory = directory();
+		TieredPacketStore store = new TieredPacketStore( directory, new MailboxPolicy.Builder().build(), new HashedWheelTimer(), metrics, 0, 0, 4096 );
+		try {
+			for( int i = 0; i < 1000; i++ ) {
+				store.store( new Packet( "sender", i % 2 == 0 ? "alice" : "bob", String.valueOf( i ) ) );
+			}
+			for( int i = 0; i < 500; i++ ) {
+				store.take( "alice".getBytes() );
+			}
+			while( store.compact( 0.5, Long.MAX_VALUE ) ) {
+				// Compact every segment which has become sparse.
+			}
+			assertTrue( metrics.counter( "mailbox.compacted" ).get() > 0 );
+			for( int i = 1; i < 1000; i += 2 ) {
+				assertEquals( String.valueOf( i ), payload( store.take( "bob".getBytes() ) ) );
+			}
+			assertNull( store.take( "bob".getBytes() ) );
+		} finally {
+			store.close();
+			delete( directory );
+		}
+	}
+
+	@Test
+	public void open_shouldRestorePacketsHeldForOtherAddresses() throws IOException {
+		File directory = directory();
+		MailboxPolicy policy = new MailboxPolicy.Builder().build();
+		TieredPacketStore store = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 0, 0, 256 );
+		TieredPacketStore reopened = null;
+		try {
+			Packet packet = new Packet( "sender", "room", "hello" );
+			store.store( "alice".getBytes(), packet );
+			store.store( "bob".getBytes(), packet );
+			// The store is not closed, as though its process had crashed.
+			reopened = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 0, 0, 256 );
+			assertNull( reopened.take( "room".getBytes() ) );
+			for( String member : new String [] { "alice", "bob" } ) {
+				Packet taken = reopened.take( member.getBytes() );
+				assertEquals( "room", new String( taken.getTo() ) );
+				assertEquals( "hello", payload( taken ) );
+			}
+		} finally {
+			if( reopened != null ) {
+				reopened.close();
+			}
+			delete( directory );
+		}
+	}
+
+	@Test
+	public void open_shouldRestorePacketsWhichWereNotTaken() throws IOException {
+		File directory = directory();
+		MailboxPolicy policy = new MailboxPolicy.Builder().build();
+		TieredPacketStore store = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 0, 0, 256 );
+		TieredPacketStore reopened = null;
+		try {
+			for( int i = 0; i < 100; i++ ) {
+				store.store( new Packet( "sender", i % 2 == 0 ? "alice" : "bob", String.valueOf( i ) ) );
+			}
+			for( int i = 0; i < 30; i++ ) {
+				store.take( "alice".getBytes() );
+			}
+			// The store is not closed, as though its process had crashed.
+			reopened = new TieredPacketStore( directory, policy, new HashedWheelTimer(), new Metrics(), 0, 0, 256 );
+			for( int i = 60; i < 100; i += 2 ) {
+				assertEquals( String.valueOf( i ), payload( reopened.take( "alice".getBytes() ) ) );
+			}
+			assertNull( reopened.take( "alice".getBytes() ) );
+			for( int i = 1; i < 100; i += 2 ) {
+				assertEquals( String.valueOf( i ), payload( reopened.take( "bob".getBytes() ) ) );
+			}
+		} finally {
+			if( reopened != null ) {
+				reopened.close();
+			}
+			delete( directory );
+		}
+	}
+
+	@Test
+	public void transfer_shouldWriteTheSameFramesAsSend() throws IOException {
+		File directory = directory();
+		TieredPacketStore store = new TieredPacketStore( directory, new MailboxPolicy.Builder().build(), new HashedWheelTimer(), new Metrics(), 4, 1024, 256 );
+		try {
+			for( int i = 0; i < 10; i++ ) {
+				store.store( new Packet( "sender", "alice", String.valueOf( i ) ) );
+			}
+			assertTrue( segments( directory ) > 0 );
+			List<Packet> page = new ArrayList<Packet>();
+			long cursor = store.peek( "alice".getBytes(), 0, 0, 0, page );
+			assertEquals( 10, page.size() );
+			ByteArrayOutputStream sent = new ByteArrayOutputStream();
+			new WriteChannel( sent ).send( page.toArray( new Packet [page.size()] ) );
+			ByteArrayOutputStream transferred = new ByteArrayOutputStream();
+			assertEquals( cursor, store.transfer( "alice".getBytes(), 0, 0, 0, new WriteChannel( transferred ) ) );
+			assertArrayEquals( sent.toByteArray(), transferred.toByteArray() );
+		} finally {
+			store.close();
+			delete( directory );
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package org.twuni.fast.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.twuni.fast.EventHandlerBase;
+import org.twuni.fast.exception.FASTException;
+import org.twuni.fast.model.Packet;
+import org.twuni.fast.util.IOUtils;
+
+public class ConcurrentWriteChannelTest extends Assert {
+
+	private static final int THREADS = 8;
+	private static final int PACKETS = 500;
+
+	/**
+	 * A stream which records every thread that writes to it, and whether two
+	 * threads ever wrote to it at once.
+	 */
+	private static class RecordingOutputStream extends OutputStream {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Set<Thread> writers = Collections.synchronizedSet( new HashSet<Thread>() );
+		final AtomicBoolean writing = new AtomicBoolean();
+		volatile boolean overlapped;
+
+		@Override
+		public void write( byte [] buffer, int offset, int length ) {
+			if( !writing.compareAndSet( false, true ) ) {
+				overlapped = true;
+			}
+			writers.add( Thread.currentThread() );
+			synchronized( bytes ) {
+				bytes.write( buffer, offset, length );
+			}
+			// Give other threads time to queue frames behind this one.
+			Thread.yield();
+			writing.set( false );
+		}
+
+		@Override
+		public void write( int b ) {
+			write( new byte [] { (byte) b }, 0, 1 );
+		}
+
+	}
+
+	/**
+	 * A stream whose first write blocks until it is released.
+	 */
+	private static class BlockingOutputStream extends RecordingOutputStream {
+
+		final CountDownLatch entered = new CountDownLatch( 1 );
+		final CountDownLatch released = new CountDownLatch( 1 );
+
+		@Override
+		public void write( byte [] buffer, int offset, int length ) {
+			entered.countDown();
+			try {
+				released.await();
+			} catch( InterruptedException exception ) {
+				Thread.currentThread().interrupt();
+			}
+			super.write( buffer, offset, length );
+		}
+
+	}
+
+	private static List<String> read( byte [] commands ) {
+		final List<String> payloads = new ArrayList<String>();
+		try {
+			new ReadChannel( new ByteArrayInputStream( commands ), new EventHandlerBase() {
+
+				@Override
+				public void onPacketReceived( Packet packet ) {
+					try {
+						payloads.add( new String( IOUtils.readFully( packet.getPayload().getInputStream(), packet.getPayload().getLimit() ) ) );
+					} catch( IOException exception ) {
+						throw new FASTException( exception );
+					}
+				}
+
+			} ).loop();
+		} catch( FASTException endOfStream ) {
+			// Every command has been read.
+		}
+		return payloads;
+	}
+
+	@Test
+	public void send_shouldHandWritingToTheNextCaller() throws InterruptedException {
+
+		final BlockingOutputStream output = new BlockingOutputStream();
+		final WriteChannel channel = new ConcurrentWriteChannel( output );
+
+		Thread first = new Thread() {
+
+			@Override
+			public void run() {
+				channel.send( new Packet( "bob@localhost", "alice@localhost", "0" ) );
+			}
+
+		};
+		first.start();
+		output.entered.await();
+
+		// The first caller is still writing, so this frame is left for it.
+		channel.send( new Packet( "bob@localhost", "alice@localhost", "1" ) );
+		assertEquals( 0, output.bytes.size() );
+
+		output.released.countDown();
+		first.join();
+		assertEquals( Collections.singleton( first ), output.writers );
+		assertEquals( Arrays.asList( "0", "1" ), read( output.bytes.toByteArray() ) );
+
+		// Once the first caller is done, the next one writes its own frame.
+		channel.send( new Packet( "bob@localhost", "alice@localhost", "2" ) );
+		assertTrue( output.writers.contains( Thread.currentThread() ) );
+		assertEquals( Arrays.asList( "0", "1", "2" ), read( output.bytes.toByteArray() ) );
+
+	}
+
+	@Test
+	public void send_shouldWriteEveryFrameWholeFromManyThreads() throws InterruptedException {
+
+		final RecordingOutputStream output = new RecordingOutputStream();
+		final WriteChannel channel = new ConcurrentWriteChannel( output );
+		final CountDownLatch start = new CountDownLatch( 1 );
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for( int t = 0; t < THREADS; t++ ) {
+			final int thread = t;
+			threads.add( new Thread() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch( InterruptedException exception ) {
+						return;
+					}
+					for( int i = 0; i < PACKETS; i++ ) {
+						channel.send( new Packet( "bob@localhost", "alice@localhost", thread + ":" + i ) );
+					}
+				}
+
+			} );
+		}
+
+		for( Thread thread : threads ) {
+			thread.start();
+		}
+		start.countDown();
+		for( Thread thread : threads ) {
+			thread.join();
+		}
+
+		int [] next = new int [THREADS];
+		List<String> payloads = read( output.bytes.toByteArray() );
+		for( String payload : payloads ) {
+			String [] parts = payload.split( ":" );
+			int thread = Integer.parseInt( parts[0] );
+			assertEquals( next[thread], Integer.parseInt( parts[1] ) );
+			next[thread]++;
+		}
+
+		assertFalse( output.overlapped );
+		assertEquals( THREADS * PACKETS, payloads.size() );
+
+	}
+
+}
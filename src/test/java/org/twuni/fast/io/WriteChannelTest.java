@@ -0,0 +1,109 @@
+package org.twuni.fast.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.twuni.fast.exception.FASTWriteException;
+import org.twuni.fast.util.HashedWheelTimer;
+
+public class WriteChannelTest extends Assert {
+
+	/**
+	 * A stream whose reader has stopped reading, so that a write blocks until
+	 * the stream is closed, or gives up after a few seconds.
+	 */
+	private static class StalledOutputStream extends OutputStream {
+
+		private boolean closed;
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		@Override
+		public synchronized void write( int b ) throws IOException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while( !closed && System.currentTimeMillis() < deadline ) {
+				try {
+					wait( 100 );
+				} catch( InterruptedException exception ) {
+					throw new IOException( exception );
+				}
+			}
+			if( closed ) {
+				throw new IOException( "Stream closed" );
+			}
+		}
+
+	}
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void createTimer() {
+		timer = new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 8 );
+	}
+
+	@After
+	public void stopTimer() {
+		timer.stop();
+	}
+
+	@Test
+	public void write_shouldTimeOutWhenStalled() {
+
+		WriteChannel channel = new WriteChannel( new StalledOutputStream() ).setWriteTimeout( timer, 200 );
+
+		long start = System.nanoTime();
+		try {
+			channel.ping( 1 );
+			fail();
+		} catch( FASTWriteException expected ) {
+			// The stream was closed once the write had taken too long.
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+		assertTrue( elapsed >= 200 );
+		assertTrue( elapsed < 5000 );
+
+	}
+
+	@Test
+	public void write_shouldNotTimeOutWhileIdle() throws InterruptedException {
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream() {
+
+			private boolean closed;
+
+			@Override
+			public void close() {
+				closed = true;
+			}
+
+			@Override
+			public synchronized void write( byte [] b, int off, int len ) {
+				assertFalse( closed );
+				super.write( b, off, len );
+			}
+
+		};
+		WriteChannel channel = new WriteChannel( output ).setWriteTimeout( timer, 50 );
+
+		// Quick writes separated by idle time longer than the timeout.
+		for( int i = 0; i < 3; i++ ) {
+			channel.ping( i );
+			Thread.sleep( 150 );
+		}
+		channel.ping( 3 );
+		assertTrue( output.size() > 0 );
+
+	}
+
+}
@@ -0,0 +1,38 @@
+package org.twuni.fast.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest extends Assert {
+
+	private static byte [] key( int i ) {
+		return String.format( "realm%d.example.com", Integer.valueOf( i ) ).getBytes();
+	}
+
+	@Test
+	public void mightContain_shouldAcceptEveryMember() {
+		BloomFilter filter = new BloomFilter( 10000, 0.01 );
+		for( int i = 0; i < 10000; i++ ) {
+			filter.add( key( i ) );
+		}
+		for( int i = 0; i < 10000; i++ ) {
+			assertTrue( filter.mightContain( key( i ) ) );
+		}
+	}
+
+	@Test
+	public void mightContain_shouldRejectMostNonMembers() {
+		BloomFilter filter = new BloomFilter( 10000, 0.01 );
+		for( int i = 0; i < 10000; i++ ) {
+			filter.add( key( i ) );
+		}
+		int falsePositives = 0;
+		for( int i = 10000; i < 20000; i++ ) {
+			if( filter.mightContain( key( i ) ) ) {
+				falsePositives++;
+			}
+		}
+		assertTrue( falsePositives < 300 );
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.twuni.fast.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashRingTest extends Assert {
+
+	private static byte [] key( int i ) {
+		return String.format( "user%d@example.com", Integer.valueOf( i ) ).getBytes();
+	}
+
+	@Test
+	public void add_shouldMoveOnlyAFractionOfKeys() {
+
+		HashRing<String> ring = new HashRing<String>( 160 );
+		for( int i = 0; i < 4; i++ ) {
+			String node = String.format( "node%d", Integer.valueOf( i ) );
+			ring.add( node, node );
+		}
+
+		int keyCount = 10000;
+		String [] before = new String [keyCount];
+		for( int i = 0; i < keyCount; i++ ) {
+			before[i] = ring.locate( key( i ) );
+		}
+
+		ring.add( "node4", "node4" );
+
+		int moved = 0;
+		for( int i = 0; i < keyCount; i++ ) {
+			String after = ring.locate( key( i ) );
+			if( !after.equals( before[i] ) ) {
+				assertEquals( "node4", after );
+				moved++;
+			}
+		}
+
+		assertTrue( moved > keyCount / 10 );
+		assertTrue( moved < keyCount * 3 / 10 );
+
+	}
+
+	@Test
+	public void remove_shouldRestorePreviousAssignments() {
+
+		HashRing<String> ring = new HashRing<String>( 64 );
+		ring.add( "a", "a" );
+		ring.add( "b", "b" );
+		String owner = ring.locate( key( 42 ) );
+
+		ring.add( "c", "c" );
+		ring.remove( "c" );
+
+		assertEquals( owner, ring.locate( key( 42 ) ) );
+
+	}
+
+	@Test
+	public void locate_shouldReturnNullWhenEmpty() {
+		assertNull( new HashRing<String>( 8 ).locate( key( 1 ) ) );
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.twuni.fast.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HashedWheelTimerTest extends Assert {
+
+	@Test
+	public void cancel_shouldPreventTaskFromRunning() throws InterruptedException {
+
+		HashedWheelTimer timer = new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 8 );
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch( 1 );
+
+		HashedWheelTimer.Timeout cancelled = timer.schedule( new Runnable() {
+
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+
+		}, 50, TimeUnit.MILLISECONDS );
+
+		timer.schedule( new Runnable() {
+
+			@Override
+			public void run() {
+				done.countDown();
+			}
+
+		}, 100, TimeUnit.MILLISECONDS );
+
+		assertTrue( cancelled.cancel() );
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+		assertEquals( 0, runs.get() );
+		assertTrue( cancelled.isCancelled() );
+		assertFalse( cancelled.isExpired() );
+
+		timer.stop();
+
+	}
+
+	@Test
+	public void schedule_shouldRunTasksAfterTheirDelayAcrossRounds() throws InterruptedException {
+
+		// With 8 slots of 10ms, delays beyond 80ms need more than one turn.
+		HashedWheelTimer timer = new HashedWheelTimer( 10, TimeUnit.MILLISECONDS, 8 );
+		final long [] delays = { 250, 30, 120, 5 };
+		final long [] elapsed = new long [delays.length];
+		final CountDownLatch done = new CountDownLatch( delays.length );
+		final long start = System.nanoTime();
+
+		for( int i = 0; i < delays.length; i++ ) {
+			final int index = i;
+			timer.schedule( new Runnable() {
+
+				@Override
+				public void run() {
+					elapsed[index] = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+					done.countDown();
+				}
+
+			}, delays[i], TimeUnit.MILLISECONDS );
+		}
+
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+
+		for( int i = 0; i < delays.length; i++ ) {
+			assertTrue( elapsed[i] >= delays[i] );
+		}
+
+		timer.stop();
+
+	}
+
+}
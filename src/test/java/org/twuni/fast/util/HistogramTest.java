@@ -0,0 +1,43 @@
+package org.twuni.fast.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest extends Assert {
+
+	@Test
+	public void getValueAtPercentile_shouldBeExactForSmallValues() {
+		Histogram h = new Histogram( 1000000, 3 );
+		for( int i = 1; i <= 1000; i++ ) {
+			h.record( i );
+		}
+		assertEquals( 500, h.getValueAtPercentile( 50 ) );
+		assertEquals( 990, h.getValueAtPercentile( 99 ) );
+		assertEquals( 999, h.getValueAtPercentile( 99.9 ) );
+		assertEquals( 1000, h.getValueAtPercentile( 100 ) );
+		assertEquals( 1, h.getMinimum() );
+		assertEquals( 1000, h.getMaximum() );
+	}
+
+	@Test
+	public void getValueAtPercentile_shouldPreserveSignificantDigitsForLargeValues() {
+		Histogram h = new Histogram( 60000000, 3 );
+		h.record( 12345678 );
+		long actual = h.getValueAtPercentile( 50 );
+		assertTrue( Math.abs( actual - 12345678 ) <= 12345678 / 1000 );
+	}
+
+	@Test
+	public void add_shouldMergeCounts() {
+		Histogram a = new Histogram( 1000, 2 );
+		Histogram b = new Histogram( 1000, 2 );
+		a.record( 10 );
+		b.record( 20 );
+		b.record( 5000 );
+		a.add( b );
+		assertEquals( 3, a.getTotalCount() );
+		assertEquals( 10, a.getMinimum() );
+		assertEquals( 1000, a.getMaximum() );
+	}
+
+}
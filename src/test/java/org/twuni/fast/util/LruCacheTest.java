@@ -0,0 +1,49 @@
+package org.twuni.fast.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LruCacheTest extends Assert {
+
+	private static ByteArrayKey key( String value ) {
+		return new ByteArrayKey( value.getBytes() );
+	}
+
+	@Test
+	public void put_shouldEvictLeastRecentlyUsedEntry() {
+
+		LruCache<ByteArrayKey, String> cache = new LruCache<ByteArrayKey, String>( 3 );
+		cache.put( key( "a" ), "a" );
+		cache.put( key( "b" ), "b" );
+		cache.put( key( "c" ), "c" );
+
+		// Reading "a" makes "b" the least recently used.
+		assertEquals( "a", cache.get( key( "a" ) ) );
+		cache.put( key( "d" ), "d" );
+		assertEquals( 3, cache.size() );
+		assertNull( cache.get( key( "b" ) ) );
+
+		// Replacing "c" makes "a" the least recently used.
+		cache.put( key( "c" ), "c2" );
+		cache.put( key( "e" ), "e" );
+		assertNull( cache.get( key( "a" ) ) );
+		assertEquals( "c2", cache.get( key( "c" ) ) );
+		assertEquals( "d", cache.get( key( "d" ) ) );
+		assertEquals( "e", cache.get( key( "e" ) ) );
+
+	}
+
+	@Test
+	public void get_shouldForgetExpiredEntry() throws InterruptedException {
+
+		LruCache<ByteArrayKey, String> cache = new LruCache<ByteArrayKey, String>( 3, 50 );
+		cache.put( key( "a" ), "a" );
+		assertEquals( "a", cache.get( key( "a" ) ) );
+
+		Thread.sleep( 100 );
+		assertNull( cache.get( key( "a" ) ) );
+		assertEquals( 0, cache.size() );
+
+	}
+
+}